@@ -0,0 +1,81 @@
+package peergos.bench;
+
+import org.openjdk.jmh.annotations.*;
+import peergos.server.*;
+import peergos.server.sql.*;
+import peergos.server.storage.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/** Local block store operations with a file per block, and with append only pack files, preloaded with 10k blocks
+ *  of 4 KiB. Reads are of random existing blocks, writes are of new random blocks, each in its own put.
+ *
+ *  The score is operations per second, except for listing, which lists every block in the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class BlockStoreBenchmark {
+    private static final int BLOCKS = 10_000;
+    private static final int BLOCK_SIZE = 4096;
+
+    @Param({"file", "pack"})
+    public String store;
+
+    private DeletableContentAddressedStorage storage;
+    private PublicKeyHash owner;
+    private TransactionId tid;
+    private final List<Multihash> hashes = new ArrayList<>();
+    private final Random random = new Random(42);
+
+    @Setup
+    public void setup() throws Exception {
+        Path dir = Files.createTempDirectory("peergos-bench-blocks");
+        TransactionStore transactions = JdbcTransactionStore.build(Main.buildEphemeralSqlite(), new SqliteCommands());
+        Hasher hasher = Main.initCrypto().hasher;
+        storage = store.equals("pack") ?
+                new PackFileContentAddressedStorage(dir, transactions, hasher) :
+                new FileContentAddressedStorage(dir, transactions, hasher);
+        owner = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, new byte[32]));
+        tid = storage.startTransaction(owner).join();
+        for (int i = 0; i < BLOCKS; i++)
+            hashes.add(put());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        storage.closeTransaction(owner, tid).join();
+        if (storage instanceof PackFileContentAddressedStorage)
+            ((PackFileContentAddressedStorage) storage).close();
+    }
+
+    private Multihash put() {
+        byte[] block = new byte[BLOCK_SIZE];
+        random.nextBytes(block);
+        return storage.putRaw(owner, owner, Arrays.asList(new byte[0]), Arrays.asList(block), tid, x -> {}).join().get(0);
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return storage.getRaw(hashes.get(random.nextInt(BLOCKS))).join().get();
+    }
+
+    @Benchmark
+    public Multihash write() {
+        return put();
+    }
+
+    @Benchmark
+    public List<Multihash> list() {
+        return storage.getAllBlockHashes().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,57 @@
+package peergos.bench;
+
+import org.openjdk.jmh.annotations.*;
+import peergos.shared.cbor.*;
+import peergos.shared.io.ipfs.multihash.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Encoding and decoding of cbor objects shaped like our metadata blocks: a map of small fields and a list of
+ *  merkle links.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class CborBenchmark {
+
+    @Param({"8", "256"})
+    public int links;
+
+    private CborObject object;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        List<Cborable> hashes = new ArrayList<>();
+        for (int i = 0; i < links; i++) {
+            byte[] hash = new byte[32];
+            r.nextBytes(hash);
+            hashes.add(new CborObject.CborMerkleLink(new Multihash(Multihash.Type.sha2_256, hash)));
+        }
+        byte[] nonce = new byte[24];
+        r.nextBytes(nonce);
+        SortedMap<String, Cborable> fields = new TreeMap<>();
+        fields.put("n", new CborObject.CborString("a-reasonably-long-file-name.jpg"));
+        fields.put("s", new CborObject.CborLong(5 * 1024 * 1024));
+        fields.put("t", new CborObject.CborLong(1_600_000_000_000L));
+        fields.put("c", new CborObject.CborByteArray(nonce));
+        fields.put("l", new CborObject.CborList(hashes));
+        object = CborObject.CborMap.build(fields);
+        serialized = object.serialize();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return object.serialize();
+    }
+
+    @Benchmark
+    public CborObject decode() {
+        return CborObject.fromByteArray(serialized);
+    }
+}
@@ -0,0 +1,108 @@
+package peergos.bench;
+
+import org.openjdk.jmh.annotations.*;
+import peergos.server.*;
+import peergos.server.storage.*;
+import peergos.server.tests.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.hamt.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** Lookups, insertions and removals against an in memory champ with the same parameters as a writer's tree.
+ *
+ *  Insertions and removals are applied to the same base root each time, so every invocation does the same work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-Djava.library.path=native-lib"})
+public class ChampBenchmark {
+    private static final Crypto crypto = Main.initCrypto();
+    private static final Function<ByteArrayWrapper, CompletableFuture<byte[]>> hasher = k -> Futures.of(k.data);
+    private static final int BIT_WIDTH = ChampWrapper.BIT_WIDTH;
+    private static final int MAX_COLLISIONS = ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL;
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    private RAMStorage storage;
+    private SigningPrivateKeyAndPublicHash user;
+    private TransactionId tid;
+    private Champ<CborObject.CborMerkleLink> root;
+    private Multihash rootHash;
+    private byte[] rootBlock;
+    private ByteArrayWrapper[] keys;
+    private CborObject.CborMerkleLink value;
+    private final Random random = new Random(42);
+    private int next = 0;
+
+    // rebuild per iteration so the blocks written by puts and removes don't accumulate
+    @Setup(Level.Iteration)
+    public void setup() {
+        storage = new RAMStorage(crypto.hasher);
+        user = ChampTests.createUser(storage, crypto);
+        tid = storage.startTransaction(user.publicKeyHash).join();
+        value = new CborObject.CborMerkleLink(new Multihash(Multihash.Type.sha2_256, randomBytes()));
+        root = Champ.empty(c -> (CborObject.CborMerkleLink) c);
+        rootHash = storage.put(user.publicKeyHash, user, root.serialize(), crypto.hasher, tid).join();
+        keys = new ByteArrayWrapper[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = new ByteArrayWrapper(randomBytes());
+            Pair<Champ<CborObject.CborMerkleLink>, Multihash> updated = root.put(user.publicKeyHash, user, keys[i],
+                    keys[i].data, 0, Optional.empty(), Optional.of(value), BIT_WIDTH, MAX_COLLISIONS, hasher, tid,
+                    storage, crypto.hasher, rootHash).join();
+            root = updated.left;
+            rootHash = updated.right;
+        }
+        rootBlock = root.serialize();
+    }
+
+    private byte[] randomBytes() {
+        byte[] res = new byte[32];
+        random.nextBytes(res);
+        return res;
+    }
+
+    private ByteArrayWrapper nextKey() {
+        return keys[next++ % keys.length];
+    }
+
+    @Benchmark
+    public Optional<CborObject.CborMerkleLink> get() {
+        ByteArrayWrapper key = nextKey();
+        return root.get(key, key.data, 0, BIT_WIDTH, storage).join();
+    }
+
+    // a lookup in a tree that is being read for the first time, as from ChampWrapper.create
+    @Benchmark
+    public Optional<CborObject.CborMerkleLink> decodeAndGet() {
+        ByteArrayWrapper key = nextKey();
+        Champ<CborObject.CborMerkleLink> decoded = Champ.fromCbor(CborObject.fromByteArray(rootBlock),
+                c -> (CborObject.CborMerkleLink) c);
+        return decoded.get(key, key.data, 0, BIT_WIDTH, storage).join();
+    }
+
+    @Benchmark
+    public Multihash put() {
+        ByteArrayWrapper key = new ByteArrayWrapper(randomBytes());
+        return root.put(user.publicKeyHash, user, key, key.data, 0, Optional.empty(), Optional.of(value), BIT_WIDTH,
+                MAX_COLLISIONS, hasher, tid, storage, crypto.hasher, rootHash).join().right;
+    }
+
+    @Benchmark
+    public Multihash remove() {
+        ByteArrayWrapper key = nextKey();
+        return root.remove(user.publicKeyHash, user, key, key.data, 0, Optional.of(value), BIT_WIDTH,
+                MAX_COLLISIONS, tid, storage, crypto.hasher, rootHash).join().right;
+    }
+}
@@ -0,0 +1,89 @@
+package peergos.bench;
+
+import org.openjdk.jmh.annotations.*;
+import peergos.server.*;
+import peergos.server.storage.*;
+import peergos.server.tests.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.symmetric.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.user.fs.*;
+import peergos.shared.user.fs.cryptree.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/** Building, serialising and parsing the cryptree node of a directory, and decrypting its properties. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-Djava.library.path=native-lib"})
+public class CryptreeNodeBenchmark {
+    private static final Crypto crypto = Main.initCrypto();
+
+    @Param({"10", "500"})
+    public int children;
+
+    private SymmetricKey rBase, wBase, parent;
+    private SigningPrivateKeyAndPublicHash signer;
+    private FileProperties props;
+    private Optional<RelativeCapability> parentCap;
+    private RelativeCapability nextChunk;
+    private CryptreeNode.ChildrenLinks childrenLinks;
+    private CryptreeNode dir;
+    private byte[] serialized;
+    private Multihash hash;
+
+    @Setup
+    public void setup() {
+        rBase = SymmetricKey.random();
+        wBase = SymmetricKey.random();
+        parent = SymmetricKey.random();
+        SymmetricKey parentParent = SymmetricKey.random();
+        props = new FileProperties("a-directory", true, false, "", 0, 0,
+                LocalDateTime.now(), false, Optional.empty(), Optional.empty());
+        signer = ChampTests.createUser(new RAMStorage(crypto.hasher), crypto);
+        parentCap = Optional.of(new RelativeCapability(Optional.empty(), crypto.random.randomBytes(32), parentParent, Optional.empty()));
+        nextChunk = new RelativeCapability(Optional.empty(), crypto.random.randomBytes(32), parentParent, Optional.empty());
+        List<NamedRelativeCapability> links = IntStream.range(0, children)
+                .mapToObj(i -> new NamedRelativeCapability("child-" + i, new RelativeCapability(Optional.empty(),
+                        crypto.random.randomBytes(32), SymmetricKey.random(), Optional.empty())))
+                .collect(Collectors.toList());
+        childrenLinks = new CryptreeNode.ChildrenLinks(links);
+        dir = build();
+        serialized = dir.serialize();
+        hash = crypto.hasher.bareHash(serialized).join();
+    }
+
+    private CryptreeNode build() {
+        return CryptreeNode.createDir(MaybeMultihash.empty(), rBase, wBase, Optional.of(signer), props, parentCap,
+                parent, nextChunk, childrenLinks, crypto.hasher).join().dir;
+    }
+
+    @Benchmark
+    public CryptreeNode createDir() {
+        return build();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return dir.serialize();
+    }
+
+    @Benchmark
+    public CryptreeNode parse() {
+        return CryptreeNode.fromCbor(CborObject.fromByteArray(serialized), rBase, hash);
+    }
+
+    @Benchmark
+    public FileProperties parseAndDecryptProperties() {
+        CryptreeNode node = CryptreeNode.fromCbor(CborObject.fromByteArray(serialized), rBase, hash);
+        return node.getProperties(node.getParentKey(rBase));
+    }
+}
@@ -0,0 +1,44 @@
+package peergos.bench;
+
+import org.openjdk.jmh.annotations.*;
+import peergos.shared.user.fs.*;
+import peergos.shared.user.fs.erasure.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Reed-Solomon split and recombine of a full chunk with each of the allowed erasure parameters. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class ErasureBenchmark {
+
+    @Param({"5", "20", "80"})
+    public int originalBlobs;
+
+    @Param({"5", "20"})
+    public int allowedFailures;
+
+    private byte[] input;
+    private byte[][] encoded;
+
+    @Setup
+    public void setup() {
+        input = new byte[Chunk.MAX_SIZE];
+        new Random(42).nextBytes(input);
+        encoded = Erasure.split(input, originalBlobs, allowedFailures);
+    }
+
+    @Benchmark
+    public byte[][] split() {
+        return Erasure.split(input, originalBlobs, allowedFailures);
+    }
+
+    @Benchmark
+    public byte[] recombine() {
+        return Erasure.recombine(encoded, input.length, originalBlobs, allowedFailures);
+    }
+}
@@ -0,0 +1,44 @@
+package peergos.bench;
+
+import org.openjdk.jmh.annotations.*;
+import peergos.shared.user.fs.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Splitting a full chunk into fragments and recombining them with the default and erasure coding fragmenters. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class FragmenterBenchmark {
+
+    @Param({"split", "erasure"})
+    public String type;
+
+    private Fragmenter fragmenter;
+    private byte[] input;
+    private byte[][] fragments;
+
+    @Setup
+    public void setup() {
+        fragmenter = type.equals("erasure") ?
+                new ErasureFragmenter(ErasureFragmenter.ERASURE_ORIGINAL, ErasureFragmenter.ERASURE_ALLOWED_FAILURES) :
+                new SplitFragmenter();
+        input = new byte[Chunk.MAX_SIZE];
+        new Random(42).nextBytes(input);
+        fragments = fragmenter.split(input);
+    }
+
+    @Benchmark
+    public byte[][] split() {
+        return fragmenter.split(input);
+    }
+
+    @Benchmark
+    public byte[] recombine() {
+        return fragmenter.recombine(fragments, 0, input.length);
+    }
+}
@@ -0,0 +1,47 @@
+package peergos.bench;
+
+import org.openjdk.jmh.annotations.*;
+import peergos.server.crypto.hash.*;
+import peergos.shared.crypto.hash.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Blake2b (used for champ keys and identity hashes) and sha256 (used for every block hash) over small and
+ *  fragment sized inputs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class HashBenchmark {
+
+    @Param({"64", "4096", "524288"})
+    public int size;
+
+    private final Hasher hasher = new ScryptJava();
+    private byte[] input;
+
+    @Setup
+    public void setup() {
+        input = new byte[size];
+        new Random(42).nextBytes(input);
+    }
+
+    @Benchmark
+    public byte[] blake2b() {
+        return Blake2b.Digest.newInstance(32).digest(input);
+    }
+
+    @Benchmark
+    public byte[] hasherBlake2b() {
+        return hasher.blake2b(input, 32);
+    }
+
+    @Benchmark
+    public byte[] sha256() {
+        return hasher.sha256(input).join();
+    }
+}
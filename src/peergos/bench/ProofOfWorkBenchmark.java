@@ -0,0 +1,59 @@
+package peergos.bench;
+
+import org.openjdk.jmh.annotations.*;
+import peergos.server.crypto.hash.*;
+import peergos.shared.crypto.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Proof of work generation at signup difficulties, single threaded and using every core.
+ *
+ *  The solver interleaves the nonce space over its threads, so the winning prefix is the number of attempts made.
+ *  The attempts and attemptsPerCore counters are reported per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class ProofOfWorkBenchmark {
+
+    @Param({"16", "20"})
+    public int difficulty;
+
+    /** 0 means all available cores */
+    @Param({"1", "0"})
+    public int threads;
+
+    private ScryptJava hasher;
+    private int nThreads;
+    private final Random random = new Random(42);
+    private final byte[] data = new byte[100];
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Attempts {
+        public long attempts;
+        public double attemptsPerCore;
+    }
+
+    @Setup
+    public void setup() {
+        nThreads = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        hasher = new ScryptJava(nThreads);
+    }
+
+    @Benchmark
+    public ProofOfWork generate(Attempts counters) {
+        random.nextBytes(data);
+        ProofOfWork work = hasher.generateProofOfWork(difficulty, data).join();
+        long counter = 0;
+        for (int i = ProofOfWork.PREFIX_BYTES - 1; i >= 0; i--)
+            counter = (counter << 8) | (work.prefix[i] & 0xFF);
+        counters.attempts += counter + 1;
+        counters.attemptsPerCore += (double) (counter + 1) / nThreads;
+        return work;
+    }
+}
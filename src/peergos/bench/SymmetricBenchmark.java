@@ -0,0 +1,93 @@
+package peergos.bench;
+
+import org.openjdk.jmh.annotations.*;
+import peergos.server.crypto.*;
+import peergos.server.crypto.symmetric.*;
+import peergos.server.crypto.random.*;
+import peergos.shared.crypto.symmetric.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Authenticated encryption and decryption with the pure java, the native and the reference TweetNaCl
+ *  salsa20poly1305 providers, at the size of a metadata block, a fragment and a chunk. The into variants encrypt into
+ *  and decrypt from a reused caller provided buffer.
+ *
+ *  Each benchmark runs on a single thread, so the megabytes counter is the throughput in MB/s per core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-Djava.library.path=native-lib"})
+public class SymmetricBenchmark {
+
+    @Param({"java", "native", "tweetnacl"})
+    public String provider;
+
+    @Param({"4096", "524288", "5242880"})
+    public int size;
+
+    private Salsa20Poly1305 salsa;
+    private SymmetricKey key;
+    private byte[] nonce, plain, cipher, buffer;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public double megabytes;
+    }
+
+    private static class ReferenceTweetNaCl implements Salsa20Poly1305 {
+        @Override
+        public byte[] secretbox(byte[] data, byte[] nonce, byte[] key) {
+            return TweetNaCl.secretbox(data, nonce, key);
+        }
+
+        @Override
+        public byte[] secretbox_open(byte[] cipher, byte[] nonce, byte[] key) {
+            return TweetNaCl.secretbox_open(cipher, nonce, key);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        salsa = provider.equals("native") ?
+                new JniTweetNacl.Symmetric(JniTweetNacl.build()) :
+                provider.equals("java") ?
+                        new Salsa20Poly1305Java() :
+                        new ReferenceTweetNaCl();
+        SafeRandomJava random = new SafeRandomJava();
+        key = TweetNaClKey.random(salsa, random);
+        nonce = key.createNonce();
+        plain = new byte[size];
+        new Random(42).nextBytes(plain);
+        cipher = key.encrypt(plain, nonce);
+        buffer = new byte[size + 16];
+    }
+
+    @Benchmark
+    public byte[] encrypt(Bytes counter) {
+        counter.megabytes += size / 1_000_000.0;
+        return key.encrypt(plain, nonce);
+    }
+
+    @Benchmark
+    public byte[] decrypt(Bytes counter) {
+        counter.megabytes += size / 1_000_000.0;
+        return key.decrypt(cipher, nonce);
+    }
+
+    @Benchmark
+    public int encryptInto(Bytes counter) {
+        counter.megabytes += size / 1_000_000.0;
+        return salsa.secretbox(plain, 0, size, nonce, key.getKey(), buffer, 0);
+    }
+
+    @Benchmark
+    public int decryptInto(Bytes counter) {
+        counter.megabytes += size / 1_000_000.0;
+        return salsa.secretbox_open(cipher, 0, cipher.length, nonce, key.getKey(), buffer, 0);
+    }
+}
@@ -0,0 +1,81 @@
+package peergos.bench;
+
+import org.openjdk.jmh.annotations.*;
+import peergos.server.*;
+import peergos.server.space.*;
+import peergos.server.sql.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Block write admission, as in SpaceCheckingKeyFilter.allowWrite, against a sqlite usage store. The jdbc path is
+ *  the previous one of looking up the writer, the owner's usage and quota, then adding the pending usage, in the
+ *  database on every write. The accountant path admits writes in memory and persists pending usage write behind.
+ *
+ *  The score is admitted writes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class WriteAdmissionBenchmark {
+    private static final int USERS = 100;
+    private static final int WRITERS_PER_USER = 10;
+    private static final long QUOTA = Long.MAX_VALUE / 2;
+
+    @Param({"jdbc", "accountant"})
+    public String path;
+
+    private JdbcUsageStore store;
+    private JdbcQuotas quotas;
+    private UsageAccountant accountant;
+    private final List<PublicKeyHash> writers = new ArrayList<>();
+    private final Map<String, Long> cachedQuotas = new HashMap<>();
+    private final Random random = new Random(42);
+
+    @Setup
+    public void setup() {
+        store = new JdbcUsageStore(Main.buildEphemeralSqlite(), new SqliteCommands());
+        quotas = JdbcQuotas.build(Main.buildEphemeralSqlite(), new SqliteCommands());
+        for (int u = 0; u < USERS; u++) {
+            String username = "user" + u;
+            store.addUserIfAbsent(username);
+            quotas.setQuota(username, QUOTA);
+            cachedQuotas.put(username, QUOTA);
+            for (int w = 0; w < WRITERS_PER_USER; w++) {
+                byte[] hash = new byte[32];
+                random.nextBytes(hash);
+                PublicKeyHash writer = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, hash));
+                store.addWriter(username, writer);
+                writers.add(writer);
+            }
+        }
+        accountant = new UsageAccountant(store);
+    }
+
+    @TearDown
+    public void tearDown() {
+        accountant.close();
+    }
+
+    @Benchmark
+    public boolean allowWrite() {
+        PublicKeyHash writer = writers.get(random.nextInt(writers.size()));
+        int size = 1024 + random.nextInt(512 * 1024);
+        if (path.equals("jdbc")) {
+            WriterUsage writerUsage = store.getUsage(writer);
+            UserUsage usage = store.getUsage(writerUsage.owner);
+            long quota = quotas.getQuota(writerUsage.owner);
+            if (usage.totalUsage() + size > quota)
+                return false;
+            store.addPendingUsage(writerUsage.owner, writer, size);
+            return true;
+        }
+        String owner = accountant.owner(writer);
+        return accountant.tryAddPending(owner, writer, size, cachedQuotas.get(owner), 0);
+    }
+}
@@ -1,6 +1,7 @@
 package peergos.server;
 
 import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
 import io.prometheus.client.exporter.HTTPServer;
 import peergos.server.util.*;
@@ -53,6 +54,35 @@ public class AggregatedMetrics {
             .help("IPFS GC Duration (ms).")
             .register();
 
+    public static final Histogram HTTP_REQUEST_DURATION = Histogram.build()
+            .labelNames("endpoint", "status")
+            .name("http_request_seconds")
+            .help("Time to handle an api request")
+            .exponentialBuckets(0.001, 2, 16)
+            .register();
+    public static final Gauge HTTP_IN_FLIGHT = Gauge.build()
+            .labelNames("endpoint")
+            .name("http_requests_in_flight")
+            .help("Number of api requests currently being handled")
+            .register();
+    public static final Histogram HTTP_REQUEST_BYTES = Histogram.build()
+            .labelNames("endpoint")
+            .name("http_request_bytes")
+            .help("Size of api request bodies")
+            .exponentialBuckets(64, 4, 10)
+            .register();
+    public static final Histogram HTTP_RESPONSE_BYTES = Histogram.build()
+            .labelNames("endpoint")
+            .name("http_response_bytes")
+            .help("Size of api response bodies")
+            .exponentialBuckets(64, 4, 10)
+            .register();
+    public static final Histogram STORAGE_OPERATION_DURATION = Histogram.build()
+            .labelNames("store", "operation")
+            .name("storage_operation_seconds")
+            .help("Time for an operation on a storage backend")
+            .exponentialBuckets(0.0005, 2, 16)
+            .register();
 
 
     public static void startExporter(String address, int port) throws IOException {
@@ -54,7 +54,8 @@ public class Builder {
     public static Crypto initCrypto() {
         try {
             JniTweetNacl nativeNacl = JniTweetNacl.build();
-            Salsa20Poly1305 symmetricProvider = new JniTweetNacl.Symmetric(nativeNacl);
+            // the java secretbox is several times faster than the native tweetnacl one, so only sign natively
+            Salsa20Poly1305 symmetricProvider = new Salsa20Poly1305Java();
             Ed25519 signer = new JniTweetNacl.Signer(nativeNacl);
             Curve25519 boxer = new Curve25519Java();
             return initNativeCrypto(symmetricProvider, signer, boxer);
@@ -174,6 +175,8 @@ public class Builder {
                 Optional<String> authedUrl = Optional.of("https://" + config.getHost() + "/");
                 BlockStoreProperties props = new BlockStoreProperties(directWrites, publicReads, authedReads, publicReadUrl, authedUrl);
                 return new S3BlockStorage(config, Cid.decode(a.getArg("ipfs.id")), props, transactions, hasher, ipfs);
+            } else if (a.getBoolean("pack-blockstore", false)) {
+                return new PackFileContentAddressedStorage(blockstorePath(a), transactions, hasher);
             } else {
                 return new FileContentAddressedStorage(blockstorePath(a), transactions, hasher);
             }
@@ -3,15 +3,20 @@ package peergos.server;
 import peergos.shared.*;
 import peergos.shared.user.*;
 import peergos.shared.user.fs.*;
+import peergos.shared.util.*;
 
 import java.io.*;
 import java.net.*;
 import java.nio.file.*;
+import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class Downloader {
+    private static final int READ_SIZE = Chunk.MAX_SIZE;
+    private static final String PARTIAL_SUFFIX = ".peergos-part";
 
     public static void main(String[] args) throws Exception {
         Crypto crypto = Main.initCrypto();
@@ -19,60 +24,152 @@ public class Downloader {
         String username = args[0];
         String fromPath = args[1];
         String toPath = args[2];
+        int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : Sync.DEFAULT_PARALLELISM;
         Console console = System.console();
         String password = new String(console.readPassword("Enter password for " + username + ":"));
         UserContext context = UserContext.signIn(username, password, network, crypto).get();
-        ForkJoinPool pool = new ForkJoinPool(50);
         long t1 = System.currentTimeMillis();
-        downloadTo(context, fromPath, Paths.get(toPath), props -> true, pool);
+        SyncProgress progress = new SyncProgress();
+        downloadTo(context, fromPath, Paths.get(toPath), props -> true, parallelism, progress);
+        System.out.println(progress);
         long t2 = System.currentTimeMillis();
         System.out.println("Download took " + (t2-t1) + " mS");
     }
 
-    /**
+    /** Download a Peergos file or directory tree into a local directory, skipping files which are unchanged since the
+     *  last download. Directories are listed, and files downloaded, with up to parallelism requests at a time. Files
+     *  are written to a temporary name and only moved into place, with the modification time of the original, once
+     *  complete. So an interrupted download resumes from the first incomplete file.
      *
      * @param source the peergos filesystem view to download from
      * @param origin the root peergos path to download the subtree of
      * @param targetDir the local destination directory
      * @param saveFile filter the files to save
-     * @param pool thread pool
-     * @throws Exception
+     * @param parallelism the maximum number of concurrent directory listings or downloads
+     * @param progress
      */
-    public static void downloadTo(UserContext source, String origin, Path targetDir,
-                                  Predicate<FileProperties> saveFile, ForkJoinPool pool) throws Exception {
+    public static void downloadTo(UserContext source,
+                                  String origin,
+                                  Path targetDir,
+                                  Predicate<FileProperties> saveFile,
+                                  int parallelism,
+                                  SyncProgress progress) {
         if (! targetDir.toFile().exists() && ! targetDir.toFile().mkdirs())
             throw new IllegalStateException("Couldn't create " + targetDir);
-        Optional<FileWrapper> file = source.getByPath(origin).get();
-        pool.submit(() -> file.ifPresent(f -> downloadTo(f, targetDir, source.network, source.crypto, saveFile))).get();
-    }
+        Optional<FileWrapper> file = source.getByPath(origin).join();
+        if (file.isEmpty())
+            return;
 
-    public static void downloadTo(FileWrapper source, Path target, NetworkAccess network, Crypto crypto,
-                                  Predicate<FileProperties> saveFile) {
-        Path us = target.resolve(source.getName());
-        if (source.isDirectory()) {
-            try {
-                Set<FileWrapper> children = source.getChildren(crypto.hasher, network).get();
-                if (! us.toFile().exists() && !us.toFile().mkdir())
-                    throw new IllegalStateException("Couldn't create directory: " + us);
-                children.stream().parallel().forEach(child -> downloadTo(child, us, network, crypto, saveFile));
-            } catch (Exception e) {
-                System.err.println("Error downloading children of " + source.getName());
-                e.printStackTrace();
+        // list every directory, a level at a time
+        List<Pair<FileWrapper, Path>> files = new ArrayList<>();
+        List<Pair<FileWrapper, Path>> level = Arrays.asList(new Pair<>(file.get(), targetDir.resolve(file.get().getName())));
+        while (! level.isEmpty()) {
+            List<Pair<FileWrapper, Path>> dirs = new ArrayList<>();
+            for (Pair<FileWrapper, Path> p : level) {
+                if (p.left.isDirectory()) {
+                    File local = p.right.toFile();
+                    if (! local.exists() && ! local.mkdir())
+                        throw new IllegalStateException("Couldn't create directory: " + local);
+                    dirs.add(p);
+                } else if (saveFile.test(p.left.getFileProperties()))
+                    files.add(p);
             }
-        } else if (saveFile.test(source.getFileProperties())) {
-            try (FileOutputStream fout = new FileOutputStream(us.toFile())) {
-                long size = source.getSize();
-                if (size > Integer.MAX_VALUE)
-                    throw new IllegalStateException("Need to implement streaming for files bigger than 2GiB");
-                byte[] buf = new byte[(int)size];
-                AsyncReader reader = source.getInputStream(network, crypto, c -> {}).get();
-                reader.readIntoArray(buf, 0, buf.length)
-                        .get();
-                fout.write(buf);
-            } catch (Exception e) {
-                System.err.println("Error downloading " + source.getName());
-                e.printStackTrace();
+            level = Futures.mapBounded(dirs, parallelism,
+                    d -> d.left.getChildren(source.crypto.hasher, source.network)
+                            .thenApply(children -> children.stream()
+                                    .map(c -> new Pair<>(c, d.right.resolve(c.getName())))
+                                    .collect(Collectors.toList())))
+                    .join().stream()
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList());
+        }
+
+        List<Pair<FileWrapper, Path>> changed = new ArrayList<>();
+        for (Pair<FileWrapper, Path> f : files) {
+            File local = f.right.toFile();
+            if (local.exists() && local.length() == f.left.getSize() && local.lastModified() / 1000 == modifiedMillis(f.left) / 1000)
+                progress.unchanged();
+            else {
+                changed.add(f);
+                progress.addFile(f.left.getSize());
             }
         }
+        Futures.mapBounded(changed, parallelism, f -> downloadFile(f.left, f.right, source.network, source.crypto, progress))
+                .join();
+    }
+
+    // local file systems may only store modification times to the second
+    private static long modifiedMillis(FileWrapper f) {
+        return f.getFileProperties().modified.toEpochSecond(ZoneOffset.UTC) * 1000;
+    }
+
+    private static CompletableFuture<Boolean> downloadFile(FileWrapper source,
+                                                           Path target,
+                                                           NetworkAccess network,
+                                                           Crypto crypto,
+                                                           SyncProgress progress) {
+        Path partial = target.resolveSibling(target.getFileName() + PARTIAL_SUFFIX);
+        return source.getInputStream(network, crypto, c -> {})
+                .thenCompose(reader -> {
+                    OutputStream out;
+                    try {
+                        out = Files.newOutputStream(partial);
+                    } catch (IOException e) {
+                        return Futures.errored(e);
+                    }
+                    return copy(reader, out, source.getSize(), new byte[(int) Math.min(READ_SIZE, source.getSize())], progress)
+                            .whenComplete((done, t) -> {
+                                if (t != null)
+                                    closeAfterError(out);
+                            })
+                            .thenApply(done -> {
+                                try {
+                                    out.close();
+                                    partial.toFile().setLastModified(modifiedMillis(source));
+                                    Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                                    progress.fileDone();
+                                    return true;
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            });
+                })
+                .whenComplete((done, t) -> {
+                    // a failed download is retried from the start, so don't leave its partial file behind
+                    if (t != null)
+                        partial.toFile().delete();
+                });
+    }
+
+    private static void closeAfterError(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // the original error is the one to report
+        }
+    }
+
+    /** Stream a file in chunk sized pieces, rather than into a single array, so large files can be downloaded
+     */
+    private static CompletableFuture<Boolean> copy(AsyncReader reader,
+                                                   OutputStream out,
+                                                   long remaining,
+                                                   byte[] buf,
+                                                   SyncProgress progress) {
+        if (remaining == 0)
+            return Futures.of(true);
+        int toRead = (int) Math.min(buf.length, remaining);
+        return reader.readIntoArray(buf, 0, toRead)
+                .thenCompose(read -> {
+                    if (read <= 0)
+                        throw new IllegalStateException("Unexpected end of file with " + remaining + " bytes remaining");
+                    try {
+                        out.write(buf, 0, read);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    progress.bytesDone(read);
+                    return copy(reader, out, remaining - read, buf, progress);
+                });
     }
 }
@@ -9,6 +9,7 @@ import peergos.shared.*;
 import peergos.server.corenode.*;
 import peergos.server.fuse.*;
 import peergos.server.mutable.*;
+import peergos.server.net.*;
 import peergos.server.storage.*;
 import peergos.server.util.*;
 import peergos.shared.cbor.*;
@@ -45,6 +46,10 @@ public class Main extends Builder {
 
     static {
         PublicSigningKey.addProvider(PublicSigningKey.Type.Ed25519, initCrypto().signer);
+        // Send small api replies immediately rather than waiting on Nagle's algorithm, which with the client's delayed
+        // acks adds ~40 mS to every request. This must be set before any HttpServer is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
     }
 
     public static final Command.Arg ARG_TRANSACTIONS_SQL_FILE =
@@ -128,6 +133,9 @@ public class Main extends Builder {
                     new Command.Arg("public-domain", "The public domain name for this server (required if TLS is managed upstream)", false),
                     new Command.Arg("max-users", "The maximum number of local users", false, "1"),
                     ARG_USE_IPFS,
+                    new Command.Arg("pack-blockstore", "Store local blocks in append only pack files rather than a file per block", false, "false"),
+                    new Command.Arg("handler-limits", "Concurrent requests per api endpoint, e.g. dht=100,mutable=20 (default handler-threads)", false),
+                    new Command.Arg("virtual-thread-handlers", "Handle api requests on virtual threads, if the jvm supports them", false, "false"),
                     new Command.Arg("mutable-pointers-file", "The filename for the mutable pointers datastore", true, "mutable.sql"),
                     new Command.Arg("social-sql-file", "The filename for the follow requests datastore", true, "social.sql"),
                     new Command.Arg("space-requests-sql-file", "The filename for the space requests datastore", true, "space-requests.sql"),
@@ -454,7 +462,7 @@ public class Main extends Builder {
             MutablePointersProxy proxingMutable = new HttpMutablePointers(p2pHttpProxy, pkiServerNodeId);
 
             Supplier<Connection> usageDb = getDBConnector(a, "space-usage-sql-file", dbConnectionPool);
-            UsageStore usageStore = new JdbcUsageStore(usageDb, sqlCommands);
+            UsageAccountant usageStore = new UsageAccountant(new JdbcUsageStore(usageDb, sqlCommands));
             JdbcIpnsAndSocial rawSocial = new JdbcIpnsAndSocial(getDBConnector(a, "social-sql-file", dbConnectionPool), sqlCommands);
             HttpSpaceUsage httpSpaceUsage = new HttpSpaceUsage(p2pHttpProxy, p2pHttpProxy);
 
@@ -515,8 +523,11 @@ public class Main extends Builder {
             Optional<String> basicAuth = a.getOptionalArg("basic-auth");
             List<String> blockstoreDomains = S3Config.getBlockstoreDomains(a);
             List<String> appSubdomains = Arrays.asList(a.getArg("apps", "calendar,todo-board,code-editor,pdf").split(","));
+            Map<String, Integer> endpointLimits = LimitedHandler.parseLimits(a.getArg("handler-limits", ""));
+            boolean virtualThreadHandlers = a.getBoolean("virtual-thread-handlers", false);
             peergos.initAndStart(localAddress, nodeId, tlsProps, publicHostname, blockstoreDomains, appSubdomains,
-                    a.getBoolean("include-csp", true), basicAuth, webroot, useWebAssetCache, isPublicServer, maxConnectionQueue, handlerThreads);
+                    a.getBoolean("include-csp", true), basicAuth, webroot, useWebAssetCache, isPublicServer, maxConnectionQueue,
+                    handlerThreads, endpointLimits, virtualThreadHandlers);
             boolean isPkiNode = nodeId.equals(pkiServerNodeId);
             if (! isPkiNode && useIPFS) {
                 int pkiNodeSwarmPort = a.getInt("pki.node.swarm.port");
@@ -724,6 +735,7 @@ public class Main extends Builder {
                     ServerMessages.SERVER_MESSAGES,
                     GATEWAY,
                     MIGRATE,
+                    Sync.SYNC,
                     INSTALL_AND_RUN_IPFS,
                     PKI,
                     PKI_INIT
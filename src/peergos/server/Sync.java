@@ -0,0 +1,80 @@
+package peergos.server;
+
+import peergos.server.util.*;
+import peergos.shared.*;
+import peergos.shared.user.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+public class Sync {
+    public static final int DEFAULT_PARALLELISM = 4;
+    private static final int PROGRESS_INTERVAL_SECONDS = 5;
+
+    /**
+     *
+     * @return The manifest location for uploads of a local directory, beside it rather than in it
+     */
+    public static Path defaultManifest(Path localDir) {
+        Path abs = localDir.toAbsolutePath();
+        return abs.resolveSibling("." + abs.getFileName() + ".peergos-sync");
+    }
+
+    public static final Command<Boolean> SYNC = new Command<>("sync",
+            "Copy new and changed files between a local directory and a Peergos directory, resuming where an interrupted sync stopped",
+            Sync::sync,
+            Stream.of(
+                    new Command.Arg("peergos-url", "Address of the Peergos server", false, "http://localhost:8000"),
+                    new Command.Arg("username", "Peergos username", true),
+                    new Command.Arg("local-dir", "The local file or directory to upload, or directory to download into", true),
+                    new Command.Arg("peergos-dir", "The Peergos directory to upload into, or path to download", true),
+                    new Command.Arg("direction", "up (local to Peergos) or down (Peergos to local)", false, "up"),
+                    new Command.Arg("parallelism", "The maximum number of concurrent transfers", false, "" + DEFAULT_PARALLELISM),
+                    new Command.Arg("manifest", "The record of completed uploads (defaults to beside local-dir)", false)
+            ).collect(Collectors.toList())
+    );
+
+    public static boolean sync(Args a) {
+        Crypto crypto = Main.initCrypto();
+        String peergosUrl = a.getArg("peergos-url");
+        String username = a.getArg("username");
+        Path local = Paths.get(a.getArg("local-dir"));
+        String remote = a.getArg("peergos-dir");
+        int parallelism = a.getInt("parallelism");
+        boolean upload = a.getArg("direction").equals("up");
+        if (! upload && ! a.getArg("direction").equals("down"))
+            throw new IllegalArgumentException("Direction must be up or down");
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            NetworkAccess network = Builder.buildJavaNetworkAccess(new URL(peergosUrl), ! peergosUrl.startsWith("http://localhost")).join();
+            Console console = System.console();
+            String password = new String(console.readPassword("Enter password for " + username + ": "));
+            UserContext context = UserContext.signIn(username, password, network, crypto).join();
+
+            SyncProgress progress = new SyncProgress();
+            ScheduledFuture<?> reporter = progress.printEvery(PROGRESS_INTERVAL_SECONDS, timer);
+            long t0 = System.currentTimeMillis();
+            if (upload) {
+                Path manifestFile = a.hasArg("manifest") ? Paths.get(a.getArg("manifest")) : defaultManifest(local);
+                try (SyncManifest manifest = SyncManifest.load(manifestFile, SyncManifest.target(username, Paths.get(remote)))) {
+                    Uploader.uploadTo(context, local, Paths.get(remote), f -> ! f.toPath().toAbsolutePath().equals(manifestFile.toAbsolutePath()),
+                            parallelism, manifest, progress);
+                }
+            } else
+                Downloader.downloadTo(context, remote, local, props -> true, parallelism, progress);
+            reporter.cancel(false);
+            System.out.println(progress);
+            System.out.println("Sync took " + (System.currentTimeMillis() - t0) + " mS");
+            return true;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return false;
+        } finally {
+            timer.shutdown();
+        }
+    }
+}
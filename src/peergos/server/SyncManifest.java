@@ -0,0 +1,139 @@
+package peergos.server;
+
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** A local record of the size, modification time and content hash of every file a sync to a given target has completed.
+ *
+ *  The manifest is an append only log, flushed after every file, so an interrupted sync resumes from the last completed
+ *  file. A file whose size and modification time match its entry is unchanged. If only the modification time differs
+ *  the content hash decides. The first line records the target, and a manifest for a different target is discarded.
+ *  The log is compacted to one entry per file whenever it is loaded.
+ */
+public class SyncManifest implements Closeable {
+    private static final String TARGET_PREFIX = "target\t";
+
+    public static class Entry {
+        public final long size, modifiedMillis;
+        public final String sha256;
+
+        public Entry(long size, long modifiedMillis, String sha256) {
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+            this.sha256 = sha256;
+        }
+
+        /** Read a file's size and modification time, then hash its contents. Capture this before uploading a file, so
+         *  a change made during the upload is seen by the next sync.
+         */
+        public static Entry capture(File file) throws IOException {
+            long size = file.length();
+            long modified = file.lastModified();
+            return new Entry(size, modified, hash(file));
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    private final Writer log;
+
+    private SyncManifest(Map<String, Entry> entries, Writer log) {
+        this.entries = entries;
+        this.log = log;
+    }
+
+    /**
+     *
+     * @return The target of a sync from a local directory to a Peergos directory
+     */
+    public static String target(String username, Path remoteDir) {
+        return username + ":" + remoteDir;
+    }
+
+    public static SyncManifest load(Path file, String target) throws IOException {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        if (file.toFile().exists()) {
+            List<String> lines = Files.readAllLines(file);
+            // entries for a different target say nothing about what this one has
+            if (! lines.isEmpty() && lines.get(0).equals(TARGET_PREFIX + target)) {
+                for (String line : lines.subList(1, lines.size())) {
+                    // the path goes last as it may contain tabs
+                    String[] parts = line.split("\t", 4);
+                    if (parts.length < 4)
+                        continue; // a partially written final line
+                    entries.put(parts[3], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]));
+                }
+            }
+        }
+        // rewrite with only the latest entry for each file, so the log doesn't grow across runs
+        Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(compacted)) {
+            out.write(TARGET_PREFIX + target + "\n");
+            for (Map.Entry<String, Entry> e : entries.entrySet())
+                out.write(toLine(e.getKey(), e.getValue()));
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Writer log = Files.newBufferedWriter(file, StandardOpenOption.APPEND);
+        return new SyncManifest(entries, log);
+    }
+
+    private static String toLine(String relativePath, Entry e) {
+        return e.size + "\t" + e.modifiedMillis + "\t" + e.sha256 + "\t" + relativePath + "\n";
+    }
+
+    /**
+     *
+     * @return Whether the file at this relative path is unchanged since it was last recorded
+     */
+    public boolean isUnchanged(String relativePath, File file) throws IOException {
+        Entry existing = entries.get(relativePath);
+        if (existing == null || existing.size != file.length())
+            return false;
+        if (existing.modifiedMillis == file.lastModified())
+            return true;
+        String hash = hash(file);
+        if (! hash.equals(existing.sha256))
+            return false;
+        record(relativePath, new Entry(file.length(), file.lastModified(), hash));
+        return true;
+    }
+
+    /** Record a file as synced, with the state it was captured in before it was uploaded
+     *
+     */
+    public synchronized void record(String relativePath, Entry e) throws IOException {
+        entries.put(relativePath, e);
+        log.write(toLine(relativePath, e));
+        log.flush();
+    }
+
+    public static String hash(byte[] data) {
+        try {
+            return ArrayOps.bytesToHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String hash(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buf)) >= 0)
+                sha256.update(buf, 0, read);
+            return ArrayOps.bytesToHex(sha256.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+}
@@ -0,0 +1,64 @@
+package peergos.server;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** Counts the files and bytes of a sync as it progresses, to report throughput and an estimated time to completion.
+ */
+public class SyncProgress {
+
+    private final long startMillis = System.currentTimeMillis();
+    private final AtomicLong totalBytes = new AtomicLong(0), doneBytes = new AtomicLong(0);
+    private final AtomicInteger totalFiles = new AtomicInteger(0), doneFiles = new AtomicInteger(0),
+            unchangedFiles = new AtomicInteger(0);
+
+    public void addFile(long size) {
+        totalFiles.incrementAndGet();
+        totalBytes.addAndGet(size);
+    }
+
+    public void unchanged() {
+        unchangedFiles.incrementAndGet();
+    }
+
+    public void bytesDone(long bytes) {
+        doneBytes.addAndGet(bytes);
+    }
+
+    public void fileDone() {
+        doneFiles.incrementAndGet();
+    }
+
+    public int filesTransferred() {
+        return doneFiles.get();
+    }
+
+    public int filesUnchanged() {
+        return unchangedFiles.get();
+    }
+
+    public long bytesTransferred() {
+        return doneBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        long done = doneBytes.get(), total = totalBytes.get();
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startMillis);
+        double bytesPerSecond = done * 1000.0 / elapsedMillis;
+        String eta = bytesPerSecond < 1 ? "unknown" : formatDuration((long) ((total - done) / bytesPerSecond));
+        return String.format("%d/%d files (%d unchanged), %d/%d MiB, %.1f MiB/s, ETA %s",
+                doneFiles.get(), totalFiles.get(), unchangedFiles.get(), done / 1024 / 1024, total / 1024 / 1024,
+                bytesPerSecond / 1024 / 1024, eta);
+    }
+
+    private static String formatDuration(long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    /** Print the progress periodically until the returned future is cancelled
+     */
+    public ScheduledFuture<?> printEvery(int seconds, ScheduledExecutorService timer) {
+        return timer.scheduleAtFixedRate(() -> System.out.println(this), seconds, seconds, TimeUnit.SECONDS);
+    }
+}
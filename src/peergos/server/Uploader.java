@@ -4,16 +4,20 @@ import peergos.server.storage.*;
 import peergos.shared.*;
 import peergos.shared.user.*;
 import peergos.shared.user.fs.*;
+import peergos.shared.util.*;
 
 import java.io.*;
 import java.net.*;
 import java.nio.file.*;
+import java.nio.file.attribute.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
 import java.util.stream.*;
 
 public class Uploader {
+    private static final int MAX_FILES_PER_BATCH = 100;
+    private static final long MAX_BYTES_PER_BATCH = 50 * 1024 * 1024;
 
     public static void main(String[] args) throws Exception {
         Crypto crypto = Main.initCrypto();
@@ -21,100 +25,218 @@ public class Uploader {
         String username = args[0];
         String fromPath = args[1];
         String toPath = args[2];
+        int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : Sync.DEFAULT_PARALLELISM;
         Console console = System.console();
         String password = new String(console.readPassword("Enter password for " + username + ":"));
         UserContext context = UserContext.signIn(username, password, network, crypto).get();
-        ForkJoinPool pool = new ForkJoinPool(1);
+        Path source = Paths.get(fromPath).toAbsolutePath();
         long t1 = System.currentTimeMillis();
-        try {
-            uploadTo(context, Paths.get(fromPath), Paths.get(toPath), props -> true, pool);
-        } finally {
-            pool.shutdown();
+        try (SyncManifest manifest = SyncManifest.load(Sync.defaultManifest(source),
+                SyncManifest.target(username, Paths.get(toPath)))) {
+            SyncProgress progress = new SyncProgress();
+            uploadTo(context, source, Paths.get(toPath), f -> true, parallelism, manifest, progress);
+            System.out.println(progress);
         }
         long t2 = System.currentTimeMillis();
         System.out.println("Upload took " + (t2-t1) + " mS");
     }
 
-    private static void createPath(FileWrapper parent, Path path, NetworkAccess network, Crypto crypto) throws Exception {
-        String name = path.getName(0).toString();
-        Optional<FileWrapper> child = parent.getChild(name, crypto.hasher, network).get();
-        if (path.getNameCount() == 1) {
-            if (! child.isPresent())
-                parent.mkdir(name, network, false, crypto).get();
-            return;
+    private static FileWrapper getOrMkdirs(FileWrapper parent, Path path, NetworkAccess network, Crypto crypto) {
+        FileWrapper current = parent;
+        for (Path element : path) {
+            String name = element.toString();
+            Optional<FileWrapper> child = current.getChild(name, crypto.hasher, network).join();
+            if (child.isPresent()) {
+                current = child.get();
+                continue;
+            }
+            current = current.mkdir(name, network, false, crypto)
+                    .thenCompose(updated -> updated.getChild(name, crypto.hasher, network))
+                    .join().get();
         }
-        Path subpath = path.subpath(1, path.getNameCount());
-
-        if (! child.isPresent() && path.getNameCount() > 1) {
-            parent.mkdir(name, network, false, crypto).get();
-            createPath(child.get(), subpath, network, crypto);
-        } else
-            createPath(child.get(), subpath, network, crypto);
+        return current;
     }
 
-    /**
+    /** Upload a local file or directory tree into a Peergos directory, skipping files which are unchanged since the
+     *  last sync. Each directory is resolved or created once, with up to parallelism lookups at a time, then files are
+     *  uploaded with up to parallelism uploads at a time. New small files are uploaded in batches, each batch
+     *  encrypting and uploading its files in parallel and adding them to their directory in a single commit.
      *
      * @param context The target user to upload the files to
      * @param localSource path to a local file/directory to upload
      * @param targetDir the peergos path to upload to the subtree to
      * @param filter the selection of files/directories to upload
-     * @param pool thread pool
-     * @throws Exception
+     * @param parallelism the maximum number of concurrent directory lookups or uploads
+     * @param manifest the record of files already uploaded
+     * @param progress
      */
     public static void uploadTo(UserContext context,
                                 Path localSource,
                                 Path targetDir,
                                 Predicate<File> filter,
-                                ForkJoinPool pool) throws Exception {
+                                int parallelism,
+                                SyncManifest manifest,
+                                SyncProgress progress) throws IOException {
         if (! localSource.toFile().exists())
             throw new IllegalStateException("Local source " + localSource + " doesn't exist!");
-        Optional<FileWrapper> file = context.getByPath(targetDir.toString()).get();
-        if (! file.isPresent()) {
-            Optional<FileWrapper> root = context.getByPath("/").get();
-            createPath(root.get(), targetDir, context.network, context.crypto);
-            pool.submit(() -> uploadTo(context, localSource, targetDir, filter)).get();
-        } else
-            pool.submit(() -> uploadTo(context, localSource, targetDir, filter)).get();
-    }
+        NetworkAccess network = context.network;
+        Crypto crypto = context.crypto;
+        Path base = localSource.toAbsolutePath().getParent();
+        List<Path> dirs = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(localSource.toAbsolutePath(), new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (! filter.test(dir.toFile()))
+                    return FileVisitResult.SKIP_SUBTREE;
+                dirs.add(base.relativize(dir));
+                return FileVisitResult.CONTINUE;
+            }
 
-    public static void uploadTo(UserContext context,
-                                Path source,
-                                Path targetParent,
-                                Predicate<File> filter) {
-        File file = source.toFile();
-        if (!filter.test(file))
-            return;
-        Optional<FileWrapper> existing = context.getByPath(targetParent.resolve(file.getName()).toString()).join();
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && filter.test(file.toFile()))
+                    files.add(base.relativize(file));
+                return FileVisitResult.CONTINUE;
+            }
+        });
 
-        System.out.println("Uploading " + file);
-        if (file.isDirectory()) {
-            try {
-                if (! existing.isPresent())
-                    context.getByPath(targetParent.toString()).join().get()
-                            .mkdir(file.getName(), context.network, false, context.crypto).get();
+        // resolve or create every directory once, a level at a time
+        FileWrapper root = context.getByPath("/").join().get();
+        Map<Path, FileWrapper> remoteDirs = new ConcurrentHashMap<>();
+        remoteDirs.put(Paths.get(""), getOrMkdirs(root, targetDir, network, crypto));
+        Map<Integer, List<Path>> byDepth = dirs.stream().collect(Collectors.groupingBy(Path::getNameCount));
+        for (int depth : new TreeSet<>(byDepth.keySet())) {
+            List<Path> level = byDepth.get(depth);
+            List<Optional<FileWrapper>> existing = Futures.mapBounded(level, parallelism,
+                    d -> remoteDirs.get(parentOf(d)).getChild(d.getFileName().toString(), crypto.hasher, network)).join();
+            for (int i=0; i < level.size(); i++) {
+                Path dir = level.get(i);
+                if (existing.get(i).isPresent()) {
+                    remoteDirs.put(dir, existing.get(i).get());
+                    continue;
+                }
+                // mkdirs in the same parent must be sequential, so always use the latest version of the parent
+                String name = dir.getFileName().toString();
+                FileWrapper updatedParent = remoteDirs.get(parentOf(dir)).mkdir(name, network, false, crypto).join();
+                remoteDirs.put(parentOf(dir), updatedParent);
+                remoteDirs.put(dir, updatedParent.getChild(name, crypto.hasher, network).join().get());
+            }
+        }
 
-                Optional<FileWrapper> childDir = context.getByPath(targetParent.resolve(source.getFileName()).toString()).join();
-                childDir.ifPresent(newDir -> Optional.ofNullable(file.list())
-                        .map(Stream::of)
-                        .orElse(Stream.empty())
-                        .parallel()
-                        .map(source::resolve)
-                        .forEach(childPath -> uploadTo(context, childPath, targetParent.resolve(file.getName()), filter)));
-            } catch (Exception e) {
-                System.err.println("Error uploading children of " + source);
-                e.printStackTrace();
+        List<Path> changed = new ArrayList<>();
+        for (Path file : files) {
+            if (manifest.isUnchanged(file.toString(), base.resolve(file).toFile()))
+                progress.unchanged();
+            else {
+                changed.add(file);
+                progress.addFile(base.resolve(file).toFile().length());
             }
-        } else {
-            try {
-                ResetableFileInputStream fileData = new ResetableFileInputStream(file);
-                FileWrapper parent = context.getByPath(targetParent.toString()).join().get();
-                parent.uploadOrReplaceFile(file.getName(), fileData, file.length(),
-                        context.network, context.crypto, l -> {},
-                        context.crypto.random.randomBytes(32)).get();
-            } catch (Exception e) {
-                System.err.println("Error uploading " + source);
-                e.printStackTrace();
+        }
+        Set<Path> dirsWithChanges = changed.stream().map(Uploader::parentOf).collect(Collectors.toSet());
+        Map<Path, Set<String>> remoteChildren = new ConcurrentHashMap<>();
+        Futures.mapBounded(new ArrayList<>(dirsWithChanges), parallelism,
+                d -> remoteDirs.get(d).getChildren(crypto.hasher, network)
+                        .thenApply(children -> remoteChildren.put(d, children.stream()
+                                .map(FileWrapper::getName)
+                                .collect(Collectors.toSet())))).join();
+
+        // new small files are batched per directory, everything else is uploaded individually
+        List<Supplier<CompletableFuture<Boolean>>> uploads = new ArrayList<>();
+        Map<Path, List<Path>> newSmallFiles = new LinkedHashMap<>();
+        for (Path file : changed) {
+            long size = base.resolve(file).toFile().length();
+            if (size < Chunk.MAX_SIZE && ! remoteChildren.get(parentOf(file)).contains(file.getFileName().toString()))
+                newSmallFiles.computeIfAbsent(parentOf(file), d -> new ArrayList<>()).add(file);
+            else
+                uploads.add(() -> uploadFile(remoteDirs.get(parentOf(file)), base, file, context, manifest, progress));
+        }
+        for (Map.Entry<Path, List<Path>> e : newSmallFiles.entrySet()) {
+            List<Path> batch = new ArrayList<>();
+            long batchBytes = 0;
+            for (Path file : e.getValue()) {
+                long size = base.resolve(file).toFile().length();
+                if (batch.size() >= MAX_FILES_PER_BATCH || batchBytes + size > MAX_BYTES_PER_BATCH) {
+                    List<Path> full = batch;
+                    uploads.add(() -> uploadBatch(remoteDirs.get(e.getKey()), base, full, context, manifest, progress));
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+                batch.add(file);
+                batchBytes += size;
             }
+            List<Path> last = batch;
+            uploads.add(() -> uploadBatch(remoteDirs.get(e.getKey()), base, last, context, manifest, progress));
+        }
+        Futures.mapBounded(uploads, parallelism, Supplier::get).join();
+    }
+
+    private static Path parentOf(Path relative) {
+        Path parent = relative.getParent();
+        return parent == null ? Paths.get("") : parent;
+    }
+
+    private static CompletableFuture<Boolean> uploadFile(FileWrapper dir,
+                                                         Path base,
+                                                         Path file,
+                                                         UserContext context,
+                                                         SyncManifest manifest,
+                                                         SyncProgress progress) {
+        File local = base.resolve(file).toFile();
+        SyncManifest.Entry synced;
+        ResetableFileInputStream fileData;
+        try {
+            synced = SyncManifest.Entry.capture(local);
+            fileData = new ResetableFileInputStream(local);
+        } catch (IOException e) {
+            return Futures.errored(e);
+        }
+        return dir.getUpdated(context.network)
+                .thenCompose(latest -> latest.uploadOrReplaceFile(local.getName(), fileData, synced.size,
+                        context.network, context.crypto, progress::bytesDone, context.crypto.random.randomBytes(32)))
+                .whenComplete((updated, t) -> fileData.close())
+                .thenApply(updated -> {
+                    recordUpload(file, synced, manifest, progress);
+                    return true;
+                });
+    }
+
+    private static CompletableFuture<Boolean> uploadBatch(FileWrapper dir,
+                                                          Path base,
+                                                          List<Path> files,
+                                                          UserContext context,
+                                                          SyncManifest manifest,
+                                                          SyncProgress progress) {
+        List<Pair<String, byte[]>> contents = new ArrayList<>();
+        List<SyncManifest.Entry> synced = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                File local = base.resolve(file).toFile();
+                long size = local.length();
+                long modified = local.lastModified();
+                byte[] data = Files.readAllBytes(local.toPath());
+                contents.add(new Pair<>(file.getFileName().toString(), data));
+                synced.add(new SyncManifest.Entry(size, modified, SyncManifest.hash(data)));
+            }
+        } catch (IOException e) {
+            return Futures.errored(e);
+        }
+        return dir.getUpdated(context.network)
+                .thenCompose(latest -> latest.uploadSmallFiles(contents, false, context.network, context.crypto,
+                        progress::bytesDone))
+                .thenApply(updated -> {
+                    for (int i = 0; i < files.size(); i++)
+                        recordUpload(files.get(i), synced.get(i), manifest, progress);
+                    return true;
+                });
+    }
+
+    private static void recordUpload(Path file, SyncManifest.Entry synced, SyncManifest manifest, SyncProgress progress) {
+        try {
+            manifest.record(file.toString(), synced);
+            progress.fileDone();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
-}
\ No newline at end of file
+}
@@ -129,7 +129,9 @@ public class UserService {
                                 boolean useWebCache,
                                 boolean isPublicServer,
                                 int connectionBacklog,
-                                int handlerPoolSize) throws IOException {
+                                int handlerPoolSize,
+                                Map<String, Integer> endpointLimits,
+                                boolean virtualThreadHandlers) throws IOException {
         InetAddress allInterfaces = InetAddress.getByName("::");
         if (tlsProps.isPresent())
             try {
@@ -223,26 +225,29 @@ public class UserService {
             handler = handler.withCache();
         }
 
+        // Each api endpoint gets its own handler threads, so slow storage or database calls on one can't starve the others
+        BiFunction<String, HttpHandler, HttpHandler> limited = (name, h) -> new LimitedHandler(name,
+                new InstrumentedHandler(name, h), endpointLimits.getOrDefault(name, handlerPoolSize), connectionBacklog, virtualThreadHandlers);
         addHandler(localhostServer, tlsServer, Constants.DHT_URL,
-                new DHTHandler(storage, crypto.hasher, (h, i) -> true, isPublicServer),
+                limited.apply("dht", new DHTHandler(storage, crypto.hasher, (h, i) -> true, isPublicServer)),
                 basicAuth, local, host, nodeId, false);
         addHandler(localhostServer, tlsServer, "/" + Constants.CORE_URL,
-                new CoreNodeHandler(this.coreNode, isPublicServer), basicAuth, local, host, nodeId, false);
+                limited.apply("core", new CoreNodeHandler(this.coreNode, isPublicServer)), basicAuth, local, host, nodeId, false);
         addHandler(localhostServer, tlsServer, "/" + Constants.SOCIAL_URL,
-                new SocialHandler(this.social, isPublicServer), basicAuth, local, host, nodeId, false);
+                limited.apply("social", new SocialHandler(this.social, isPublicServer)), basicAuth, local, host, nodeId, false);
         addHandler(localhostServer, tlsServer, "/" + Constants.MUTABLE_POINTERS_URL,
-                new MutationHandler(this.mutable, isPublicServer), basicAuth, local, host, nodeId, false);
+                limited.apply("mutable", new MutationHandler(this.mutable, isPublicServer)), basicAuth, local, host, nodeId, false);
         addHandler(localhostServer, tlsServer, "/" + Constants.ADMIN_URL,
-                new AdminHandler(this.controller, isPublicServer), basicAuth, local, host, nodeId, false);
+                limited.apply("admin", new AdminHandler(this.controller, isPublicServer)), basicAuth, local, host, nodeId, false);
         addHandler(localhostServer, tlsServer, "/" + Constants.SPACE_USAGE_URL,
-                new SpaceHandler(this.usage, isPublicServer), basicAuth, local, host, nodeId, false);
+                limited.apply("space", new SpaceHandler(this.usage, isPublicServer)), basicAuth, local, host, nodeId, false);
         addHandler(localhostServer, tlsServer, "/" + Constants.SERVER_MESSAGE_URL,
-                new ServerMessageHandler(this.serverMessages, coreNode, storage, isPublicServer),
+                limited.apply("messages", new ServerMessageHandler(this.serverMessages, coreNode, storage, isPublicServer)),
                 basicAuth, local, host, nodeId, false);
         addHandler(localhostServer, tlsServer, "/" + Constants.PUBLIC_FILES_URL,
-                new PublicFileHandler(crypto.hasher, coreNode, mutable, storage),
+                limited.apply("public-files", new PublicFileHandler(crypto.hasher, coreNode, mutable, storage)),
                 basicAuth, local, host, nodeId, false);
-        addHandler(localhostServer, tlsServer, UI_URL, handler, basicAuth, local, host, nodeId, true);
+        addHandler(localhostServer, tlsServer, UI_URL, new InstrumentedHandler("ui", handler), basicAuth, local, host, nodeId, true);
 
         localhostServer.setExecutor(Executors.newFixedThreadPool(handlerPoolSize));
         localhostServer.start();
@@ -82,6 +82,11 @@ public class CorenodeEventPropagator implements CoreNode {
         return target.getUsernames(prefix);
     }
 
+    @Override
+    public CompletableFuture<List<String>> getUsernames(String prefix, int offset, int limit) {
+        return target.getUsernames(prefix, offset, limit);
+    }
+
     @Override
     public CompletableFuture<UserSnapshot> migrateUser(String username,
                                                        List<UserPublicKeyLink> newChain,
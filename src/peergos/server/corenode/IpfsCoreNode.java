@@ -31,12 +31,13 @@ public class IpfsCoreNode implements CoreNode {
     private final MutablePointers mutable;
     private final SigningPrivateKeyAndPublicHash signer;
 
+    // Reads of these mappings are lock free, only writers synchronize on this
     private final Map<String, List<UserPublicKeyLink>> chains = new ConcurrentHashMap<>();
     private final Map<PublicKeyHash, String> reverseLookup = new ConcurrentHashMap<>();
-    private final List<String> usernames = new ArrayList<>();
+    private final UsernameIndex usernames = new UsernameIndex();
     private final DifficultyGenerator difficultyGenerator;
 
-    private MaybeMultihash currentRoot;
+    private volatile MaybeMultihash currentRoot;
 
     public IpfsCoreNode(SigningPrivateKeyAndPublicHash pkiSigner,
                         int maxSignupsPerDay,
@@ -76,22 +77,34 @@ public class IpfsCoreNode implements CoreNode {
 
     }
 
-    public static void updateAllMappings(PublicKeyHash pkiSigner,
-                                         MaybeMultihash currentChampRoot,
-                                         MaybeMultihash newChampRoot,
-                                         ContentAddressedStorage ipfs,
-                                         Map<String, List<UserPublicKeyLink>> chains,
-                                         Map<PublicKeyHash, String> reverseLookup,
-                                         List<String> usernames) {
+    /**
+     *
+     * @return the usernames whose chains changed
+     */
+    public static Set<String> updateAllMappings(PublicKeyHash pkiSigner,
+                                                MaybeMultihash currentChampRoot,
+                                                MaybeMultihash newChampRoot,
+                                                ContentAddressedStorage ipfs,
+                                                Map<String, List<UserPublicKeyLink>> chains,
+                                                Map<PublicKeyHash, String> reverseLookup,
+                                                UsernameIndex usernames) {
         try {
             MaybeMultihash currentTree = getTreeRoot(currentChampRoot, ipfs);
             MaybeMultihash updatedTree = getTreeRoot(newChampRoot, ipfs);
+            // collect new usernames so they can be merged into the sorted index in a single pass
+            List<String> newUsernames = new ArrayList<>();
+            Set<String> changed = new HashSet<>();
             Consumer<Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>>> consumer =
-                    t -> updateMapping(t.left, t.middle, t.right, ipfs, chains, reverseLookup, usernames);
+                    t -> {
+                        updateMapping(t.left, t.middle, t.right, ipfs, chains, reverseLookup, newUsernames);
+                        changed.add(new String(t.left.data));
+                    };
             Function<Cborable, CborObject.CborMerkleLink> fromCbor = c -> (CborObject.CborMerkleLink)c;
             Champ.applyToDiff(currentTree, updatedTree, 0, IpfsCoreNode::keyHash,
                     Collections.emptyList(), Collections.emptyList(),
                     consumer, ChampWrapper.BIT_WIDTH, ipfs, fromCbor).get();
+            usernames.addAll(newUsernames);
+            return changed;
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage(), e);
         }
@@ -130,10 +143,11 @@ public class IpfsCoreNode implements CoreNode {
                 UserPublicKeyLink.merge(existingChain, updatedChain, ipfs).get();
             }
 
+            // publish the chain before the reverse mappings so a resolvable key always has a visible chain
+            chains.put(username, updatedChain);
             for (UserPublicKeyLink link : updatedChain) {
                 reverseLookup.put(link.owner, username);
             }
-            chains.put(username, updatedChain);
             if (! oldValue.isPresent()) {
                 // This is a new user
                 usernames.add(username);
@@ -249,8 +263,8 @@ public class IpfsCoreNode implements CoreNode {
                     if (existingChain.isEmpty())
                         usernames.add(username);
                     PublicKeyHash owner = updatedChain.get(updatedChain.size() - 1).owner;
-                    reverseLookup.put(owner, username);
                     chains.put(username, mergedChain);
+                    reverseLookup.put(owner, username);
                     currentRoot = committed.get(signer).hash;
                     return Optional.empty();
                 });
@@ -261,19 +275,24 @@ public class IpfsCoreNode implements CoreNode {
     }
 
     @Override
-    public synchronized CompletableFuture<List<UserPublicKeyLink>> getChain(String username) {
+    public CompletableFuture<List<UserPublicKeyLink>> getChain(String username) {
         return CompletableFuture.completedFuture(chains.getOrDefault(username, Collections.emptyList()));
     }
 
     @Override
-    public synchronized CompletableFuture<String> getUsername(PublicKeyHash key) {
+    public CompletableFuture<String> getUsername(PublicKeyHash key) {
         return CompletableFuture.completedFuture(Optional.ofNullable(reverseLookup.get(key))
                 .orElseThrow(() -> new IllegalStateException("Unknown identity key: " + key)));
     }
 
     @Override
     public CompletableFuture<List<String>> getUsernames(String prefix) {
-        return CompletableFuture.completedFuture(usernames);
+        return CompletableFuture.completedFuture(usernames.getByPrefix(prefix));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getUsernames(String prefix, int offset, int limit) {
+        return CompletableFuture.completedFuture(usernames.getByPrefix(prefix, offset, limit));
     }
 
     @Override
@@ -1,7 +1,9 @@
 package peergos.server.corenode;
+import io.prometheus.client.*;
 import java.util.function.*;
 import java.util.logging.*;
 
+import peergos.server.*;
 import peergos.server.sql.*;
 import peergos.server.util.Logging;
 
@@ -135,33 +137,48 @@ public class JdbcIpnsAndSocial {
     }
 
     public CompletableFuture<Boolean> addFollowRequest(PublicKeyHash owner, byte[] encryptedPermission) {
-        byte[] dummy = null;
-        FollowRequestData selector = new FollowRequestData(owner, dummy);
-        FollowRequestData[] requests = selector.select();
-        if (requests != null && requests.length > SocialNetwork.MAX_PENDING_FOLLOWERS)
-            return CompletableFuture.completedFuture(false);
-        // ToDo add a crypto currency transaction to prevent spam
-
-        FollowRequestData request = new FollowRequestData(owner, encryptedPermission);
-        return CompletableFuture.completedFuture(request.insert());
+        Histogram.Timer timer = AggregatedMetrics.STORAGE_OPERATION_DURATION.labels("follow-requests", "add").startTimer();
+        try {
+            byte[] dummy = null;
+            FollowRequestData selector = new FollowRequestData(owner, dummy);
+            FollowRequestData[] requests = selector.select();
+            if (requests != null && requests.length > SocialNetwork.MAX_PENDING_FOLLOWERS)
+                return CompletableFuture.completedFuture(false);
+            // ToDo add a crypto currency transaction to prevent spam
+
+            FollowRequestData request = new FollowRequestData(owner, encryptedPermission);
+            return CompletableFuture.completedFuture(request.insert());
+        } finally {
+            timer.observeDuration();
+        }
     }
 
     public CompletableFuture<Boolean> removeFollowRequest(PublicKeyHash owner, byte[] unsigned) {
-        FollowRequestData request = new FollowRequestData(owner, unsigned);
-        return CompletableFuture.completedFuture(request.delete());
+        Histogram.Timer timer = AggregatedMetrics.STORAGE_OPERATION_DURATION.labels("follow-requests", "remove").startTimer();
+        try {
+            FollowRequestData request = new FollowRequestData(owner, unsigned);
+            return CompletableFuture.completedFuture(request.delete());
+        } finally {
+            timer.observeDuration();
+        }
     }
 
     public CompletableFuture<byte[]> getFollowRequests(PublicKeyHash owner) {
-        byte[] dummy = null;
-        FollowRequestData request = new FollowRequestData(owner, dummy);
-        FollowRequestData[] requests = request.select();
-        if (requests == null)
-            return CompletableFuture.completedFuture(new byte[4]);
-
-        CborObject.CborList resp = new CborObject.CborList(Arrays.asList(requests).stream()
-                .map(req -> CborObject.fromByteArray(req.data))
-                .collect(Collectors.toList()));
-        return CompletableFuture.completedFuture(resp.serialize());
+        Histogram.Timer timer = AggregatedMetrics.STORAGE_OPERATION_DURATION.labels("follow-requests", "get").startTimer();
+        try {
+            byte[] dummy = null;
+            FollowRequestData request = new FollowRequestData(owner, dummy);
+            FollowRequestData[] requests = request.select();
+            if (requests == null)
+                return CompletableFuture.completedFuture(new byte[4]);
+
+            CborObject.CborList resp = new CborObject.CborList(Arrays.asList(requests).stream()
+                    .map(req -> CborObject.fromByteArray(req.data))
+                    .collect(Collectors.toList()));
+            return CompletableFuture.completedFuture(resp.serialize());
+        } finally {
+            timer.observeDuration();
+        }
     }
 
     public List<BlindFollowRequest> getAndParseFollowRequests(PublicKeyHash owner) {
@@ -175,48 +192,58 @@ public class JdbcIpnsAndSocial {
     }
 
     public CompletableFuture<Boolean> setPointer(PublicKeyHash writingKey, Optional<byte[]> existingCas, byte[] newCas) {
-        if (existingCas.isPresent()) {
-            try (Connection conn = getConnection();
-                 PreparedStatement insert = conn.prepareStatement(IPNS_UPDATE)) {
-                conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-                String key = new String(Base64.getEncoder().encode(writingKey.serialize()));
-
-                insert.setString(1, new String(Base64.getEncoder().encode(newCas)));
-                insert.setString(2, key);
-                insert.setString(3, new String(Base64.getEncoder().encode(existingCas.get())));
-                int changed = insert.executeUpdate();
-                return CompletableFuture.completedFuture(changed > 0);
-            } catch (SQLException sqe) {
-                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-                return CompletableFuture.completedFuture(false);
-            }
-        } else {
-            try (Connection conn = getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(IPNS_CREATE)) {
-                stmt.setString(1, new String(Base64.getEncoder().encode(writingKey.serialize())));
-                stmt.setString(2, new String(Base64.getEncoder().encode(newCas)));
-                stmt.executeUpdate();
-                return CompletableFuture.completedFuture(true);
-            } catch (SQLException sqe) {
-                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-                return CompletableFuture.completedFuture(false);
+        Histogram.Timer timer = AggregatedMetrics.STORAGE_OPERATION_DURATION.labels("pointers", "set").startTimer();
+        try {
+            if (existingCas.isPresent()) {
+                try (Connection conn = getConnection();
+                     PreparedStatement insert = conn.prepareStatement(IPNS_UPDATE)) {
+                    conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+                    String key = new String(Base64.getEncoder().encode(writingKey.serialize()));
+
+                    insert.setString(1, new String(Base64.getEncoder().encode(newCas)));
+                    insert.setString(2, key);
+                    insert.setString(3, new String(Base64.getEncoder().encode(existingCas.get())));
+                    int changed = insert.executeUpdate();
+                    return CompletableFuture.completedFuture(changed > 0);
+                } catch (SQLException sqe) {
+                    LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+                    return CompletableFuture.completedFuture(false);
+                }
+            } else {
+                try (Connection conn = getConnection();
+                     PreparedStatement stmt = conn.prepareStatement(IPNS_CREATE)) {
+                    stmt.setString(1, new String(Base64.getEncoder().encode(writingKey.serialize())));
+                    stmt.setString(2, new String(Base64.getEncoder().encode(newCas)));
+                    stmt.executeUpdate();
+                    return CompletableFuture.completedFuture(true);
+                } catch (SQLException sqe) {
+                    LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+                    return CompletableFuture.completedFuture(false);
+                }
             }
+        } finally {
+            timer.observeDuration();
         }
     }
 
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writingKey) {
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(IPNS_GET)) {
-            stmt.setString(1, new String(Base64.getEncoder().encode(writingKey.serialize())));
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return CompletableFuture.completedFuture(Optional.of(Base64.getDecoder().decode(rs.getString(IPNS_TARGET_NAME))));
-            }
+        Histogram.Timer timer = AggregatedMetrics.STORAGE_OPERATION_DURATION.labels("pointers", "get").startTimer();
+        try {
+            try (Connection conn = getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(IPNS_GET)) {
+                stmt.setString(1, new String(Base64.getEncoder().encode(writingKey.serialize())));
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    return CompletableFuture.completedFuture(Optional.of(Base64.getDecoder().decode(rs.getString(IPNS_TARGET_NAME))));
+                }
 
-            return CompletableFuture.completedFuture(Optional.empty());
-        } catch (SQLException sqe) {
-            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-            return Futures.errored(sqe);
+                return CompletableFuture.completedFuture(Optional.empty());
+            } catch (SQLException sqe) {
+                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+                return Futures.errored(sqe);
+            }
+        } finally {
+            timer.observeDuration();
         }
     }
 
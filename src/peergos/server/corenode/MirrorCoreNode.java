@@ -1,6 +1,7 @@
 package peergos.server.corenode;
 
 import peergos.server.*;
+import peergos.server.mutable.*;
 import peergos.server.space.*;
 import peergos.server.storage.*;
 import peergos.server.util.*;
@@ -28,6 +29,7 @@ import java.util.stream.*;
 public class MirrorCoreNode implements CoreNode {
 
     private static final Logger LOG = Logging.LOG();
+    private static final long POLL_INTERVAL_MILLIS = 60_000;
 
     private final CoreNode writeTarget;
     private final MutablePointers p2pMutable;
@@ -40,8 +42,8 @@ public class MirrorCoreNode implements CoreNode {
     private final Multihash ourNodeId;
     private final Hasher hasher;
 
-    private volatile CorenodeState state;
-    private final Path statePath;
+    private final MirrorJournal journal;
+    private final MirrorJournal.CorenodeState state;
     private volatile boolean running = true;
 
     public MirrorCoreNode(CoreNode writeTarget,
@@ -62,126 +64,25 @@ public class MirrorCoreNode implements CoreNode {
         this.localSocial = localSocial;
         this.usageStore = usageStore;
         this.pkiOwnerIdentity = pkiOwnerIdentity;
-        this.statePath = statePath;
         this.ourNodeId = ipfs.id().join();
         this.hasher = hasher;
+        this.journal = MirrorJournal.load(statePath, pkiOwnerIdentity);
+        this.state = journal.state;
         try {
-            this.state = load(statePath);
-        } catch (IOException e) {
-            // load empty
-            this.state = CorenodeState.buildEmpty(pkiOwnerIdentity, pkiOwnerIdentity, MaybeMultihash.empty(), MaybeMultihash.empty());
-        }
-        try {
-            boolean changed = update();
-            if (changed)
-                saveState();
+            update();
         } catch (Throwable t) {
             Logging.LOG().log(Level.SEVERE, "Couldn't update mirror pki state: " + t.getMessage(), t);
         }
     }
 
-    private static class CorenodeState implements Cborable {
-        private final PublicKeyHash pkiOwnerIdentity, pkiKey;
-        private final MaybeMultihash pkiOwnerTarget, pkiKeyTarget;
-
-        private final Map<String, List<UserPublicKeyLink>> chains;
-        private final Map<PublicKeyHash, String> reverseLookup;
-        private final List<String> usernames;
-
-        public CorenodeState(PublicKeyHash pkiOwnerIdentity,
-                             PublicKeyHash pkiKey,
-                             MaybeMultihash pkiOwnerTarget,
-                             MaybeMultihash pkiKeyTarget,
-                             Map<String, List<UserPublicKeyLink>> chains,
-                             Map<PublicKeyHash, String> reverseLookup,
-                             List<String> usernames) {
-            this.pkiOwnerIdentity = pkiOwnerIdentity;
-            this.pkiKey = pkiKey;
-            this.pkiOwnerTarget = pkiOwnerTarget;
-            this.pkiKeyTarget = pkiKeyTarget;
-            this.chains = chains;
-            this.reverseLookup = reverseLookup;
-            this.usernames = usernames;
-        }
-
-        public static CorenodeState buildEmpty(PublicKeyHash pkiOwnerIdentity,
-                                               PublicKeyHash pkiKey,
-                                               MaybeMultihash pkiOwnerTarget,
-                                               MaybeMultihash pkiKeyTarget) {
-            return new CorenodeState(pkiOwnerIdentity, pkiKey, pkiOwnerTarget, pkiKeyTarget, new HashMap<>(),
-                    new HashMap<>(), new ArrayList<>());
-        }
-
-        public void load(CorenodeState other) {
-            chains.putAll(other.chains);
-            reverseLookup.putAll(other.reverseLookup);
-            usernames.clear();
-            usernames.addAll(other.usernames);
-        }
-
-        @Override
-        public CborObject toCbor() {
-            Map<String, Cborable> res = new TreeMap<>();
-            res.put("peergosKey", pkiOwnerIdentity);
-            res.put("peergosTarget", pkiOwnerTarget);
-            res.put("pkiKey", pkiOwnerIdentity);
-            res.put("pkiTarget", pkiKeyTarget);
-
-            TreeMap<String, Cborable> chainsMap = chains.entrySet()
-                .stream()
-                .collect(Collectors.toMap(
-                    e -> e.getKey(),
-                    e -> new CborObject.CborList(e.getValue()),
-                    (a,b) -> a,
-                    TreeMap::new
-                ));
-            res.put("chains", CborObject.CborMap.build(chainsMap));
-            TreeMap<CborObject, Cborable> reverseMap = reverseLookup.entrySet()
-                .stream()
-                .collect(Collectors.toMap(
-                    e -> e.getKey().toCbor(),
-                    e -> new CborObject.CborString(e.getValue()),
-                    (a,b) -> a,
-                    TreeMap::new
-                ));
-            res.put("reverse", new CborObject.CborList(reverseMap));
-            res.put("usernames", new CborObject.CborList(usernames.stream()
-                    .map(CborObject.CborString::new)
-                    .collect(Collectors.toList())));
-
-            return CborObject.CborMap.build(res);
-        }
-
-        public static CorenodeState fromCbor(CborObject cbor) {
-            CborObject.CborMap map = (CborObject.CborMap) cbor;
-            PublicKeyHash peergosKey = map.get("peergosKey", PublicKeyHash::fromCbor);
-            PublicKeyHash pkiKey = map.get("pkiKey", PublicKeyHash::fromCbor);
-            MaybeMultihash peergosTarget = map.get("peergosTarget", MaybeMultihash::fromCbor);
-            MaybeMultihash pkiTarget = map.get("pkiTarget", MaybeMultihash::fromCbor);
-
-            Function<Cborable, String> fromString = e -> ((CborObject.CborString) e).value;
-            Function<? super Cborable, List<UserPublicKeyLink>> chainParser =
-                    c -> ((CborObject.CborList) c).map(UserPublicKeyLink::fromCbor);
-            Map<String, List<UserPublicKeyLink>> chains = ((CborObject.CborMap)map.get("chains"))
-                    .toMap(fromString, chainParser);
-
-            Map<PublicKeyHash, String> reverse = ((CborObject.CborList)map.get("reverse"))
-                    .getMap(PublicKeyHash::fromCbor, fromString);
-
-            List<String> usernames = map.getList("usernames", fromString);
-            return new CorenodeState(peergosKey, pkiKey, peergosTarget, pkiTarget, chains, reverse, usernames);
-        }
-    }
-
     public void start() {
         running = true;
         new Thread(() -> {
             while (running) {
                 try {
-                    Thread.sleep(60_000);
-                    boolean changed = update();
-                    if (changed)
-                        saveState();
+                    // pki writes made through this mirror are synced as they complete, this picks up everyone else's
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                    update();
                 } catch (Throwable t) {
                     Logging.LOG().log(Level.SEVERE, t.getMessage(), t);
                 }
@@ -189,26 +90,6 @@ public class MirrorCoreNode implements CoreNode {
         }, "Mirroring PKI node").start();
     }
 
-    private synchronized void saveState() {
-        byte[] serialized = state.toCbor().serialize();
-        Logging.LOG().info("Writing "+ serialized.length +" bytes to "+ statePath);
-        try {
-            Files.write(
-                    statePath,
-                    serialized,
-                    StandardOpenOption.CREATE);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private static CorenodeState load(Path statePath) throws IOException {
-        Logging.LOG().info("Reading state from " + statePath + " which exists ? " + Files.exists(statePath) + " from cwd " + System.getProperty("cwd"));
-        byte[] data = Files.readAllBytes(statePath);
-        CborObject object = CborObject.fromByteArray(data);
-        return CorenodeState.fromCbor(object);
-    }
-
     /**
      *
      * @return whether there was a change
@@ -226,16 +107,14 @@ public class MirrorCoreNode implements CoreNode {
 
             byte[] newPointer = p2pMutable.getPointer(pkiOwnerIdentity, pkiKey).join().get();
             MaybeMultihash currentPkiRoot = MutablePointers.parsePointerTarget(newPointer, pkiKey, ipfs).join();
-            CorenodeState current = state;
+            MirrorJournal.CorenodeState current = state;
             if (peergosKey.equals(current.pkiOwnerIdentity) &&
                     newPeergosRoot.equals(current.pkiOwnerTarget) &&
                     pkiKey.equals(current.pkiKey) &&
                     currentPkiRoot.equals(current.pkiKeyTarget))
                 return false;
 
-            Logging.LOG().info("Updating pki mirror state... Please wait. This could take a minute or two");
-            CorenodeState updated = CorenodeState.buildEmpty(peergosKey, pkiKey, newPeergosRoot, currentPkiRoot);
-            updated.load(current);
+            Logging.LOG().info("Updating pki mirror state...");
 
             // first retrieve all new blocks to be local
             TransactionId tid = transactions.startTransaction(peergosKey);
@@ -253,17 +132,25 @@ public class MirrorCoreNode implements CoreNode {
                     Collections.emptyList(), Collections.emptyList(),
                     consumer, ChampWrapper.BIT_WIDTH, ipfs, c -> (CborObject.CborMerkleLink)c).get();
 
-            // now update the mappings
-            IpfsCoreNode.updateAllMappings(pkiKey, current.pkiKeyTarget, currentPkiRoot, ipfs, updated.chains,
-                    updated.reverseLookup, updated.usernames);
+            // now update the mappings in place
+            Set<String> changed = IpfsCoreNode.updateAllMappings(pkiKey, current.pkiKeyTarget, currentPkiRoot, ipfs,
+                    current.chains, current.reverseLookup, current.usernames);
 
             // 'pin' the new pki version
             Optional<byte[]> existingPointer = localPointers.getPointer(pkiKey).join();
             localPointers.setPointer(pkiKey, existingPointer, newPointer).join();
             transactions.closeTransaction(peergosKey, tid);
 
-            state = updated;
-            Logging.LOG().info("... finished updating pki mirror state.");
+            Map<String, List<UserPublicKeyLink>> changedChains = new HashMap<>();
+            for (String username : changed) {
+                List<UserPublicKeyLink> chain = current.chains.get(username);
+                if (chain != null)
+                    changedChains.put(username, chain);
+            }
+            long sequence = current.sequence + 1;
+            current.setRoots(peergosKey, pkiKey, newPeergosRoot, currentPkiRoot, sequence);
+            journal.append(new MirrorJournal.JournalEntry(peergosKey, pkiKey, newPeergosRoot, currentPkiRoot, sequence, changedChains));
+            Logging.LOG().info("... finished updating pki mirror state with " + changed.size() + " changed chains.");
             return true;
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage(), e);
@@ -390,7 +277,12 @@ public class MirrorCoreNode implements CoreNode {
 
     @Override
     public CompletableFuture<List<String>> getUsernames(String prefix) {
-        return CompletableFuture.completedFuture(state.usernames);
+        return CompletableFuture.completedFuture(state.usernames.getByPrefix(prefix));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getUsernames(String prefix, int offset, int limit) {
+        return CompletableFuture.completedFuture(state.usernames.getByPrefix(prefix, offset, limit));
     }
 
     @Override
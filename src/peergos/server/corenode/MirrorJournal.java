@@ -0,0 +1,331 @@
+package peergos.server.corenode;
+
+import peergos.server.util.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.corenode.*;
+import peergos.shared.crypto.hash.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/** The persisted state of a pki mirror. Each sync appends the chains it changed, and the resulting pki roots, to an
+ *  fsynced journal next to a full snapshot. The journal is compacted into the snapshot, via an atomic rename, once it
+ *  outgrows it, and whenever the state is loaded.
+ *
+ *  Journal entries carry a sequence number, so entries left behind by a crash during compaction are skipped on load. A
+ *  truncated final entry, from a crash during an append, is ignored.
+ */
+public class MirrorJournal {
+    private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+
+    public final CorenodeState state;
+    private final Path statePath, journalPath;
+
+    private MirrorJournal(CorenodeState state, Path statePath, Path journalPath) {
+        this.state = state;
+        this.statePath = statePath;
+        this.journalPath = journalPath;
+    }
+
+    public static Path journalPath(Path statePath) {
+        return statePath.resolveSibling(statePath.getFileName() + ".journal");
+    }
+
+    /** Load the snapshot, replay any journal on top of it, and compact the result
+     *
+     */
+    public static MirrorJournal load(Path statePath, PublicKeyHash pkiOwnerIdentity) {
+        Path journalPath = journalPath(statePath);
+        MirrorJournal journal = new MirrorJournal(loadState(statePath, journalPath, pkiOwnerIdentity), statePath, journalPath);
+        if (Files.exists(journalPath))
+            journal.compact();
+        return journal;
+    }
+
+    /** The mirrored pki state. The mappings are updated in place, so readers never wait for a sync to complete.
+     */
+    public static class CorenodeState implements Cborable {
+        volatile PublicKeyHash pkiOwnerIdentity, pkiKey;
+        volatile MaybeMultihash pkiOwnerTarget, pkiKeyTarget;
+        // sequence number of the last change included in this state
+        volatile long sequence;
+
+        final Map<String, List<UserPublicKeyLink>> chains;
+        final Map<PublicKeyHash, String> reverseLookup;
+        final UsernameIndex usernames;
+
+        public CorenodeState(PublicKeyHash pkiOwnerIdentity,
+                             PublicKeyHash pkiKey,
+                             MaybeMultihash pkiOwnerTarget,
+                             MaybeMultihash pkiKeyTarget,
+                             long sequence,
+                             Map<String, List<UserPublicKeyLink>> chains,
+                             Map<PublicKeyHash, String> reverseLookup,
+                             UsernameIndex usernames) {
+            this.pkiOwnerIdentity = pkiOwnerIdentity;
+            this.pkiKey = pkiKey;
+            this.pkiOwnerTarget = pkiOwnerTarget;
+            this.pkiKeyTarget = pkiKeyTarget;
+            this.sequence = sequence;
+            this.chains = chains;
+            this.reverseLookup = reverseLookup;
+            this.usernames = usernames;
+        }
+
+        public static CorenodeState buildEmpty(PublicKeyHash pkiOwnerIdentity,
+                                               PublicKeyHash pkiKey,
+                                               MaybeMultihash pkiOwnerTarget,
+                                               MaybeMultihash pkiKeyTarget) {
+            return new CorenodeState(pkiOwnerIdentity, pkiKey, pkiOwnerTarget, pkiKeyTarget, 0, new ConcurrentHashMap<>(),
+                    new ConcurrentHashMap<>(), new UsernameIndex());
+        }
+
+        public synchronized void setRoots(PublicKeyHash pkiOwnerIdentity,
+                                          PublicKeyHash pkiKey,
+                                          MaybeMultihash pkiOwnerTarget,
+                                          MaybeMultihash pkiKeyTarget,
+                                          long sequence) {
+            this.pkiOwnerIdentity = pkiOwnerIdentity;
+            this.pkiKey = pkiKey;
+            this.pkiOwnerTarget = pkiOwnerTarget;
+            this.pkiKeyTarget = pkiKeyTarget;
+            this.sequence = sequence;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public List<UserPublicKeyLink> getChain(String username) {
+            return chains.getOrDefault(username, Collections.emptyList());
+        }
+
+        public Optional<String> getUsername(PublicKeyHash key) {
+            return Optional.ofNullable(reverseLookup.get(key));
+        }
+
+        public List<String> getUsernames(String prefix) {
+            return usernames.getByPrefix(prefix);
+        }
+
+        /** Apply a journal entry on top of this state
+         *
+         */
+        public synchronized void apply(JournalEntry entry) {
+            List<String> newUsernames = new ArrayList<>();
+            for (Map.Entry<String, List<UserPublicKeyLink>> e : entry.chains.entrySet()) {
+                String username = e.getKey();
+                if (chains.put(username, e.getValue()) == null)
+                    newUsernames.add(username);
+                for (UserPublicKeyLink link : e.getValue())
+                    reverseLookup.put(link.owner, username);
+            }
+            usernames.addAll(newUsernames);
+            setRoots(entry.pkiOwnerIdentity, entry.pkiKey, entry.pkiOwnerTarget, entry.pkiKeyTarget, entry.sequence);
+        }
+
+        @Override
+        public synchronized CborObject toCbor() {
+            Map<String, Cborable> res = new TreeMap<>();
+            res.put("peergosKey", pkiOwnerIdentity);
+            res.put("peergosTarget", pkiOwnerTarget);
+            res.put("pkiKey", pkiKey);
+            res.put("pkiTarget", pkiKeyTarget);
+            res.put("seq", new CborObject.CborLong(sequence));
+
+            TreeMap<String, Cborable> chainsMap = chains.entrySet()
+                .stream()
+                .collect(Collectors.toMap(
+                    e -> e.getKey(),
+                    e -> new CborObject.CborList(e.getValue()),
+                    (a,b) -> a,
+                    TreeMap::new
+                ));
+            res.put("chains", CborObject.CborMap.build(chainsMap));
+            TreeMap<CborObject, Cborable> reverseMap = reverseLookup.entrySet()
+                .stream()
+                .collect(Collectors.toMap(
+                    e -> e.getKey().toCbor(),
+                    e -> new CborObject.CborString(e.getValue()),
+                    (a,b) -> a,
+                    TreeMap::new
+                ));
+            res.put("reverse", new CborObject.CborList(reverseMap));
+            res.put("usernames", new CborObject.CborList(usernames.getAll().stream()
+                    .map(CborObject.CborString::new)
+                    .collect(Collectors.toList())));
+
+            return CborObject.CborMap.build(res);
+        }
+
+        public static CorenodeState fromCbor(CborObject cbor) {
+            CborObject.CborMap map = (CborObject.CborMap) cbor;
+            PublicKeyHash peergosKey = map.get("peergosKey", PublicKeyHash::fromCbor);
+            PublicKeyHash pkiKey = map.get("pkiKey", PublicKeyHash::fromCbor);
+            MaybeMultihash peergosTarget = map.get("peergosTarget", MaybeMultihash::fromCbor);
+            MaybeMultihash pkiTarget = map.get("pkiTarget", MaybeMultihash::fromCbor);
+            long sequence = map.containsKey("seq") ? map.getLong("seq") : 0;
+
+            Function<Cborable, String> fromString = e -> ((CborObject.CborString) e).value;
+            Function<? super Cborable, List<UserPublicKeyLink>> chainParser =
+                    c -> ((CborObject.CborList) c).map(UserPublicKeyLink::fromCbor);
+            Map<String, List<UserPublicKeyLink>> chains = ((CborObject.CborMap)map.get("chains"))
+                    .toMap(fromString, chainParser);
+
+            Map<PublicKeyHash, String> reverse = ((CborObject.CborList)map.get("reverse"))
+                    .getMap(PublicKeyHash::fromCbor, fromString);
+
+            List<String> usernames = map.getList("usernames", fromString);
+            return new CorenodeState(peergosKey, pkiKey, peergosTarget, pkiTarget, sequence,
+                    new ConcurrentHashMap<>(chains), new ConcurrentHashMap<>(reverse), new UsernameIndex(usernames));
+        }
+    }
+
+    /** The chains which changed in a single sync, and the pki roots they result in
+     *
+     */
+    public static class JournalEntry implements Cborable {
+        public final PublicKeyHash pkiOwnerIdentity, pkiKey;
+        public final MaybeMultihash pkiOwnerTarget, pkiKeyTarget;
+        public final long sequence;
+        public final Map<String, List<UserPublicKeyLink>> chains;
+
+        public JournalEntry(PublicKeyHash pkiOwnerIdentity,
+                            PublicKeyHash pkiKey,
+                            MaybeMultihash pkiOwnerTarget,
+                            MaybeMultihash pkiKeyTarget,
+                            long sequence,
+                            Map<String, List<UserPublicKeyLink>> chains) {
+            this.pkiOwnerIdentity = pkiOwnerIdentity;
+            this.pkiKey = pkiKey;
+            this.pkiOwnerTarget = pkiOwnerTarget;
+            this.pkiKeyTarget = pkiKeyTarget;
+            this.sequence = sequence;
+            this.chains = chains;
+        }
+
+        @Override
+        public CborObject toCbor() {
+            Map<String, Cborable> res = new TreeMap<>();
+            res.put("peergosKey", pkiOwnerIdentity);
+            res.put("peergosTarget", pkiOwnerTarget);
+            res.put("pkiKey", pkiKey);
+            res.put("pkiTarget", pkiKeyTarget);
+            res.put("seq", new CborObject.CborLong(sequence));
+            TreeMap<String, Cborable> chainsMap = chains.entrySet()
+                    .stream()
+                    .collect(Collectors.toMap(
+                            e -> e.getKey(),
+                            e -> new CborObject.CborList(e.getValue()),
+                            (a,b) -> a,
+                            TreeMap::new
+                    ));
+            res.put("chains", CborObject.CborMap.build(chainsMap));
+            return CborObject.CborMap.build(res);
+        }
+
+        public static JournalEntry fromCbor(CborObject cbor) {
+            CborObject.CborMap map = (CborObject.CborMap) cbor;
+            PublicKeyHash peergosKey = map.get("peergosKey", PublicKeyHash::fromCbor);
+            PublicKeyHash pkiKey = map.get("pkiKey", PublicKeyHash::fromCbor);
+            MaybeMultihash peergosTarget = map.get("peergosTarget", MaybeMultihash::fromCbor);
+            MaybeMultihash pkiTarget = map.get("pkiTarget", MaybeMultihash::fromCbor);
+            long sequence = map.getLong("seq");
+            Function<Cborable, String> fromString = e -> ((CborObject.CborString) e).value;
+            Function<? super Cborable, List<UserPublicKeyLink>> chainParser =
+                    c -> ((CborObject.CborList) c).map(UserPublicKeyLink::fromCbor);
+            Map<String, List<UserPublicKeyLink>> chains = ((CborObject.CborMap)map.get("chains"))
+                    .toMap(fromString, chainParser);
+            return new JournalEntry(peergosKey, pkiKey, peergosTarget, pkiTarget, sequence, chains);
+        }
+    }
+
+    /** Write a full snapshot of the state and truncate the journal
+     *
+     */
+    public synchronized void compact() {
+        byte[] serialized = state.toCbor().serialize();
+        Logging.LOG().info("Writing "+ serialized.length +" bytes to "+ statePath);
+        try {
+            Path tmp = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+            Files.write(tmp, serialized);
+            Files.move(tmp, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Any entries left in the journal after a crash here are skipped on load because of their sequence number
+            Files.deleteIfExists(journalPath);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Durably append the changes of a sync, which have already been applied to the state
+     *
+     */
+    public synchronized void append(JournalEntry entry) {
+        byte[] serialized = entry.serialize();
+        try (FileOutputStream fout = new FileOutputStream(journalPath.toFile(), true);
+             DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(fout))) {
+            dout.writeInt(serialized.length);
+            dout.write(serialized);
+            dout.flush();
+            fout.getFD().sync();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            long journalSize = Files.size(journalPath);
+            long snapshotSize = Files.exists(statePath) ? Files.size(statePath) : 0;
+            if (journalSize > Math.max(MIN_COMPACTION_BYTES, snapshotSize))
+                compact();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static CorenodeState loadState(Path statePath, Path journalPath, PublicKeyHash pkiOwnerIdentity) {
+        Logging.LOG().info("Reading state from " + statePath + " which exists ? " + Files.exists(statePath) + " from cwd " + System.getProperty("cwd"));
+        CorenodeState state;
+        try {
+            byte[] data = Files.readAllBytes(statePath);
+            state = CorenodeState.fromCbor(CborObject.fromByteArray(data));
+        } catch (IOException e) {
+            // load empty
+            state = CorenodeState.buildEmpty(pkiOwnerIdentity, pkiOwnerIdentity, MaybeMultihash.empty(), MaybeMultihash.empty());
+        }
+        if (! Files.exists(journalPath))
+            return state;
+
+        int replayed = 0;
+        try (DataInputStream din = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalPath)))) {
+            while (true) {
+                int length;
+                try {
+                    length = din.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+                byte[] raw = new byte[length];
+                try {
+                    din.readFully(raw);
+                } catch (EOFException eof) {
+                    // A partially written final entry is expected after a crash, the next sync will re-apply the change
+                    Logging.LOG().warning("Ignoring truncated pki journal entry after " + replayed + " entries");
+                    break;
+                }
+                JournalEntry entry = JournalEntry.fromCbor(CborObject.fromByteArray(raw));
+                if (entry.sequence <= state.sequence)
+                    continue;
+                state.apply(entry);
+                replayed++;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Logging.LOG().info("Replayed " + replayed + " pki journal entries");
+        return state;
+    }
+}
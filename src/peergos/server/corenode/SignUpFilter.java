@@ -79,6 +79,11 @@ public class SignUpFilter implements CoreNode {
         return target.getUsernames(prefix);
     }
 
+    @Override
+    public CompletableFuture<List<String>> getUsernames(String prefix, int offset, int limit) {
+        return target.getUsernames(prefix, offset, limit);
+    }
+
     @Override
     public CompletableFuture<UserSnapshot> migrateUser(String username,
                                                        List<UserPublicKeyLink> newChain,
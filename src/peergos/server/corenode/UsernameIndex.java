@@ -0,0 +1,100 @@
+package peergos.server.corenode;
+
+import java.util.*;
+
+/** A compact sorted index of usernames supporting paginated prefix queries.
+ *
+ *  The names are held in a single sorted array which is replaced atomically on every modification, so readers never
+ *  block. Bulk additions are merged in a single pass to keep initial loads linear after sorting.
+ */
+public class UsernameIndex {
+
+    private volatile String[] sorted = new String[0];
+
+    public UsernameIndex() {}
+
+    public UsernameIndex(Collection<String> initial) {
+        addAll(initial);
+    }
+
+    public synchronized void add(String username) {
+        String[] current = sorted;
+        int index = Arrays.binarySearch(current, username);
+        if (index >= 0)
+            return;
+        int insertion = -(index + 1);
+        String[] updated = new String[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, insertion);
+        updated[insertion] = username;
+        System.arraycopy(current, insertion, updated, insertion + 1, current.length - insertion);
+        sorted = updated;
+    }
+
+    public synchronized void addAll(Collection<String> usernames) {
+        if (usernames.isEmpty())
+            return;
+        String[] toAdd = usernames.toArray(new String[0]);
+        Arrays.sort(toAdd);
+        String[] current = sorted;
+        String[] merged = new String[current.length + toAdd.length];
+        int i = 0, j = 0, k = 0;
+        while (i < current.length || j < toAdd.length) {
+            String next;
+            if (j >= toAdd.length || (i < current.length && current[i].compareTo(toAdd[j]) <= 0))
+                next = current[i++];
+            else
+                next = toAdd[j++];
+            if (k == 0 || ! merged[k - 1].equals(next))
+                merged[k++] = next;
+        }
+        sorted = k == merged.length ? merged : Arrays.copyOf(merged, k);
+    }
+
+    public boolean contains(String username) {
+        return Arrays.binarySearch(sorted, username) >= 0;
+    }
+
+    public int size() {
+        return sorted.length;
+    }
+
+    /**
+     *
+     * @return All usernames in lexicographic order
+     */
+    public List<String> getAll() {
+        return Collections.unmodifiableList(Arrays.asList(sorted));
+    }
+
+    /**
+     *
+     * @param prefix
+     * @return All usernames starting with prefix in lexicographic order
+     */
+    public List<String> getByPrefix(String prefix) {
+        return getByPrefix(prefix, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     *
+     * @param prefix
+     * @param offset the number of matching usernames to skip
+     * @param limit the maximum number of usernames to return
+     * @return A page of the usernames starting with prefix in lexicographic order
+     */
+    public List<String> getByPrefix(String prefix, int offset, int limit) {
+        if (offset < 0 || limit < 0)
+            throw new IllegalArgumentException("Offset and limit must be non negative!");
+        String[] current = sorted;
+        int start = lowerBound(current, prefix);
+        int end = lowerBound(current, prefix + Character.MAX_VALUE);
+        int from = (int) Math.min((long) start + offset, end);
+        int to = (int) Math.min((long) from + limit, end);
+        return Collections.unmodifiableList(Arrays.asList(current).subList(from, to));
+    }
+
+    private static int lowerBound(String[] sorted, String key) {
+        int index = Arrays.binarySearch(sorted, key);
+        return index >= 0 ? index : -(index + 1);
+    }
+}
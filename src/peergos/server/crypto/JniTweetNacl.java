@@ -117,5 +117,45 @@ public class JniTweetNacl {
             return Arrays.copyOfRange(message, 32, message.length);
         }
 
+        @Override
+        public int secretbox(byte[] data, int offset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+            byte[][] buffers = paddedBuffers(length + 32);
+            byte[] expandedData = buffers[0], cipherText = buffers[1];
+            Arrays.fill(expandedData, 0, 32, (byte) 0);
+            System.arraycopy(data, offset, expandedData, 32, length);
+            int res = JniTweetNacl.crypto_secretbox(cipherText, expandedData, length + 32, nonce, key);
+            if (res != 0)
+                throw new TweetNaCl.InvalidSignatureException();
+            System.arraycopy(cipherText, 16, out, outOffset, length + 16);
+            return length + 16;
+        }
+
+        @Override
+        public int secretbox_open(byte[] cipher, int offset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+            if (length < TweetNaCl.SECRETBOX_OVERHEAD_BYTES)
+                throw new InvalidCipherTextException();
+            byte[][] buffers = paddedBuffers(length + TweetNaCl.SECRETBOX_OVERHEAD_BYTES);
+            byte[] expandedCipher = buffers[0], message = buffers[1];
+            System.arraycopy(cipher, offset, expandedCipher, TweetNaCl.SECRETBOX_OVERHEAD_BYTES, length);
+            int res = JniTweetNacl.crypto_secretbox_open(message, expandedCipher, length + TweetNaCl.SECRETBOX_OVERHEAD_BYTES, nonce, key);
+            if (res != 0)
+                throw new InvalidCipherTextException();
+            System.arraycopy(message, 32, out, outOffset, length - 16);
+            return length - 16;
+        }
+
+        /** The native api needs zero padded input and output arrays. Reuse a pair per thread, grown to the largest
+         *  message seen, rather than allocating two for every chunk.
+         */
+        private final ThreadLocal<byte[][]> padded = ThreadLocal.withInitial(() -> new byte[2][0]);
+
+        private byte[][] paddedBuffers(int size) {
+            byte[][] buffers = padded.get();
+            if (buffers[0].length < size) {
+                buffers[0] = new byte[size];
+                buffers[1] = new byte[size];
+            }
+            return buffers;
+        }
     }
 }
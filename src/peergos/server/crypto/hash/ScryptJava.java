@@ -3,7 +3,7 @@ import java.util.*;
 import java.util.logging.*;
 
 import java.security.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.*;
 
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.hash.*;
@@ -43,26 +43,80 @@ public class ScryptJava implements Hasher {
         throw new IllegalStateException("Unknown user generation algorithm: " + algorithm);
     }
 
+    /** Below this difficulty a single thread will usually find a solution before the others would start */
+    private static final int MIN_PARALLEL_POW_DIFFICULTY = 12;
+    private static final int POW_CANCEL_CHECK_INTERVAL = 1024;
+    private static final ExecutorService powPool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Proof of work");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int powThreads;
+
+    public ScryptJava(int powThreads) {
+        if (powThreads < 1)
+            throw new IllegalArgumentException("Proof of work needs at least one thread!");
+        this.powThreads = powThreads;
+    }
+
+    public ScryptJava() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** The nonce space is interleaved across threads, thread i trying counters i, i + n, i + 2n... This means the
+     *  winning counter is a good estimate of the total attempts made.
+     *
+     *  The prefix comes before the data, so there is no digest midstate to share between attempts, but each thread
+     *  reuses its digest and buffers.
+     *
+     *  Cancelling the returned future stops the search.
+     */
     @Override
     public CompletableFuture<ProofOfWork> generateProofOfWork(int difficulty, byte[] data) {
-        byte[] combined = new byte[data.length + ProofOfWork.PREFIX_BYTES];
-        System.arraycopy(data, 0, combined, ProofOfWork.PREFIX_BYTES, data.length);
-        long counter = 0;
-        while (true) {
-            byte[] hash = Hash.sha256(combined);
-            if (ProofOfWork.satisfiesDifficulty(difficulty, hash)) {
-                byte[] prefix = Arrays.copyOfRange(combined, 0, ProofOfWork.PREFIX_BYTES);
-                return Futures.of(new ProofOfWork(prefix, Multihash.Type.sha2_256));
+        CompletableFuture<ProofOfWork> res = new CompletableFuture<>();
+        if (difficulty < MIN_PARALLEL_POW_DIFFICULTY || powThreads == 1) {
+            searchProofOfWork(difficulty, data, 0, 1, res);
+            return res;
+        }
+        for (int i = 0; i < powThreads; i++) {
+            int start = i;
+            powPool.submit(() -> searchProofOfWork(difficulty, data, start, powThreads, res));
+        }
+        return res;
+    }
+
+    private static void searchProofOfWork(int difficulty,
+                                          byte[] data,
+                                          long start,
+                                          long stride,
+                                          CompletableFuture<ProofOfWork> res) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] combined = new byte[data.length + ProofOfWork.PREFIX_BYTES];
+            System.arraycopy(data, 0, combined, ProofOfWork.PREFIX_BYTES, data.length);
+            byte[] hash = new byte[32];
+            for (long counter = start; ; counter += stride) {
+                if (counter % POW_CANCEL_CHECK_INTERVAL < stride && res.isDone())
+                    return;
+                combined[0] = (byte) counter;
+                combined[1] = (byte) (counter >> 8);
+                combined[2] = (byte) (counter >> 16);
+                combined[3] = (byte) (counter >> 24);
+                combined[4] = (byte) (counter >> 32);
+                combined[5] = (byte) (counter >> 40);
+                combined[6] = (byte) (counter >> 48);
+                combined[7] = (byte) (counter >> 56);
+                md.update(combined);
+                md.digest(hash, 0, hash.length);
+                if (ProofOfWork.satisfiesDifficulty(difficulty, hash)) {
+                    byte[] prefix = Arrays.copyOfRange(combined, 0, ProofOfWork.PREFIX_BYTES);
+                    res.complete(new ProofOfWork(prefix, Multihash.Type.sha2_256));
+                    return;
+                }
             }
-            counter++;
-            combined[0] = (byte) counter;
-            combined[1] = (byte) (counter >> 8);
-            combined[2] = (byte) (counter >> 16);
-            combined[3] = (byte) (counter >> 24);
-            combined[4] = (byte) (counter >> 32);
-            combined[5] = (byte) (counter >> 40);
-            combined[6] = (byte) (counter >> 48);
-            combined[7] = (byte) (counter >> 56);
+        } catch (Throwable t) {
+            res.completeExceptionally(t);
         }
     }
 
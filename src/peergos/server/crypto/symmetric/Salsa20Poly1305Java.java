@@ -1,17 +1,33 @@
 package peergos.server.crypto.symmetric;
 
-import peergos.server.crypto.*;
+import peergos.shared.crypto.*;
 import peergos.shared.crypto.symmetric.*;
 
 public class Salsa20Poly1305Java implements Salsa20Poly1305 {
 
     @Override
     public byte[] secretbox(byte[] data, byte[] nonce, byte[] key) {
-        return TweetNaCl.secretbox(data, nonce, key);
+        byte[] cipher = new byte[data.length + XSalsa20Poly1305.MAC_BYTES];
+        XSalsa20Poly1305.seal(data, 0, data.length, nonce, key, cipher, 0);
+        return cipher;
     }
 
     @Override
     public byte[] secretbox_open(byte[] cipher, byte[] nonce, byte[] key) {
-        return TweetNaCl.secretbox_open(cipher, nonce, key);
+        if (cipher.length < XSalsa20Poly1305.MAC_BYTES)
+            throw new InvalidCipherTextException("Cipher text too short: " + cipher.length);
+        byte[] plain = new byte[cipher.length - XSalsa20Poly1305.MAC_BYTES];
+        XSalsa20Poly1305.open(cipher, 0, cipher.length, nonce, key, plain, 0);
+        return plain;
+    }
+
+    @Override
+    public int secretbox(byte[] data, int offset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+        return XSalsa20Poly1305.seal(data, offset, length, nonce, key, out, outOffset);
+    }
+
+    @Override
+    public int secretbox_open(byte[] cipher, int offset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+        return XSalsa20Poly1305.open(cipher, offset, length, nonce, key, out, outOffset);
     }
 }
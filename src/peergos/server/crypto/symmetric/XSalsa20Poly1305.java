@@ -0,0 +1,284 @@
+package peergos.server.crypto.symmetric;
+
+import peergos.shared.crypto.*;
+
+/** A high throughput implementation of NaCl's crypto_secretbox (xsalsa20 and poly1305) which reads from and writes
+ *  into caller provided buffers at any offset, rather than the 32 byte zero padded arrays of the reference API.
+ *
+ *  The output is the 16 byte mac followed by the cipher text, identical to TweetNaCl.secretbox. Salsa20 uses int
+ *  locals and poly1305 uses 26 bit limbs, rather than the byte at a time arithmetic of TweetNaCl.
+ *
+ *  All state is local to a call, so it is safe to use from any number of threads.
+ */
+public final class XSalsa20Poly1305 {
+    public static final int KEY_BYTES = 32;
+    public static final int NONCE_BYTES = 24;
+    public static final int MAC_BYTES = 16;
+
+    private static final int SIGMA0 = 0x61707865, SIGMA1 = 0x3320646e, SIGMA2 = 0x79622d32, SIGMA3 = 0x6b206574;
+    private static final int MASK26 = 0x3ffffff;
+
+    private XSalsa20Poly1305() {}
+
+    /** Encrypt length bytes of message from messageOffset, writing the mac and cipher text to out at outOffset.
+     *  Encryption is in place if out is message and outOffset + 16 == messageOffset.
+     *
+     * @return the number of bytes written, length + 16
+     */
+    public static int seal(byte[] message, int messageOffset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+        if (out.length - outOffset < length + MAC_BYTES)
+            throw new IllegalArgumentException("Output buffer too small!");
+        checkKeyAndNonce(nonce, key);
+        int[] subkey = hsalsa20(nonce, key);
+        byte[] polyKey = new byte[32];
+        xorStream(subkey, nonce, message, messageOffset, out, outOffset + MAC_BYTES, length, polyKey);
+        poly1305(out, outOffset + MAC_BYTES, length, polyKey, out, outOffset);
+        return length + MAC_BYTES;
+    }
+
+    /** Authenticate and decrypt length bytes of mac and cipher text from cipherOffset, writing the plain text to out at
+     *  outOffset. Decryption is in place if out is cipher and outOffset == cipherOffset + 16.
+     *
+     * @return the number of bytes written, length - 16
+     */
+    public static int open(byte[] cipher, int cipherOffset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+        if (length < MAC_BYTES)
+            throw new InvalidCipherTextException("Cipher text too short: " + length);
+        if (out.length - outOffset < length - MAC_BYTES)
+            throw new IllegalArgumentException("Output buffer too small!");
+        checkKeyAndNonce(nonce, key);
+        int[] subkey = hsalsa20(nonce, key);
+        byte[] polyKey = new byte[64];
+        salsa20Block(subkey, nonce, 0, polyKey);
+        byte[] mac = new byte[MAC_BYTES];
+        poly1305(cipher, cipherOffset + MAC_BYTES, length - MAC_BYTES, polyKey, mac, 0);
+        int diff = 0;
+        for (int i=0; i < MAC_BYTES; i++)
+            diff |= mac[i] ^ cipher[cipherOffset + i];
+        if (diff != 0)
+            throw new InvalidCipherTextException("Invalid mac!");
+        xorStream(subkey, nonce, cipher, cipherOffset + MAC_BYTES, out, outOffset, length - MAC_BYTES, null);
+        return length - MAC_BYTES;
+    }
+
+    private static void checkKeyAndNonce(byte[] nonce, byte[] key) {
+        if (key.length != KEY_BYTES)
+            throw new IllegalArgumentException("Incorrect key size! (" + key.length + ")");
+        if (nonce.length < NONCE_BYTES)
+            throw new IllegalArgumentException("Incorrect nonce size! (" + nonce.length + ")");
+    }
+
+    /** Xor the salsa20 key stream, from byte 32 onwards, into the output. The first 32 bytes, which are the poly1305
+     *  key, are written to polyKey if it is not null.
+     */
+    private static void xorStream(int[] subkey, byte[] nonce, byte[] in, int inOffset, byte[] out, int outOffset, int length, byte[] polyKey) {
+        byte[] block = new byte[64];
+        salsa20Block(subkey, nonce, 0, block);
+        if (polyKey != null)
+            System.arraycopy(block, 0, polyKey, 0, 32);
+        int head = Math.min(32, length);
+        for (int i=0; i < head; i++)
+            out[outOffset + i] = (byte) (in[inOffset + i] ^ block[32 + i]);
+        long counter = 1;
+        for (int done = head; done < length; done += 64) {
+            salsa20Block(subkey, nonce, counter++, block);
+            int n = Math.min(64, length - done);
+            int from = inOffset + done, to = outOffset + done;
+            for (int i=0; i < n; i++)
+                out[to + i] = (byte) (in[from + i] ^ block[i]);
+        }
+    }
+
+    private static int ld32(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    private static void st32(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+
+    private static int[] hsalsa20(byte[] nonce, byte[] key) {
+        int x0 = SIGMA0, x5 = SIGMA1, x10 = SIGMA2, x15 = SIGMA3;
+        int x1 = ld32(key, 0), x2 = ld32(key, 4), x3 = ld32(key, 8), x4 = ld32(key, 12);
+        int x11 = ld32(key, 16), x12 = ld32(key, 20), x13 = ld32(key, 24), x14 = ld32(key, 28);
+        int x6 = ld32(nonce, 0), x7 = ld32(nonce, 4), x8 = ld32(nonce, 8), x9 = ld32(nonce, 12);
+        for (int i=0; i < 10; i++) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        return new int[] {x0, x5, x10, x15, x6, x7, x8, x9};
+    }
+
+    /** Write the 64 byte salsa20 block at this counter, using the last 8 bytes of the nonce
+     */
+    private static void salsa20Block(int[] k, byte[] nonce, long counter, byte[] out) {
+        int j0 = SIGMA0, j1 = k[0], j2 = k[1], j3 = k[2], j4 = k[3], j5 = SIGMA1;
+        int j6 = ld32(nonce, 16), j7 = ld32(nonce, 20), j8 = (int) counter, j9 = (int) (counter >>> 32);
+        int j10 = SIGMA2, j11 = k[4], j12 = k[5], j13 = k[6], j14 = k[7], j15 = SIGMA3;
+        int x0 = j0, x1 = j1, x2 = j2, x3 = j3, x4 = j4, x5 = j5, x6 = j6, x7 = j7;
+        int x8 = j8, x9 = j9, x10 = j10, x11 = j11, x12 = j12, x13 = j13, x14 = j14, x15 = j15;
+        for (int i=0; i < 10; i++) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        st32(out, 0, x0 + j0);
+        st32(out, 4, x1 + j1);
+        st32(out, 8, x2 + j2);
+        st32(out, 12, x3 + j3);
+        st32(out, 16, x4 + j4);
+        st32(out, 20, x5 + j5);
+        st32(out, 24, x6 + j6);
+        st32(out, 28, x7 + j7);
+        st32(out, 32, x8 + j8);
+        st32(out, 36, x9 + j9);
+        st32(out, 40, x10 + j10);
+        st32(out, 44, x11 + j11);
+        st32(out, 48, x12 + j12);
+        st32(out, 52, x13 + j13);
+        st32(out, 56, x14 + j14);
+        st32(out, 60, x15 + j15);
+    }
+
+    /** Write the 16 byte poly1305 mac of length bytes of m, under the first 32 bytes of key, to out at outOffset
+     */
+    private static void poly1305(byte[] m, int offset, int length, byte[] key, byte[] out, int outOffset) {
+        int r0 = ld32(key, 0) & 0x3ffffff;
+        int r1 = (ld32(key, 3) >>> 2) & 0x3ffff03;
+        int r2 = (ld32(key, 6) >>> 4) & 0x3ffc0ff;
+        int r3 = (ld32(key, 9) >>> 6) & 0x3f03fff;
+        int r4 = (ld32(key, 12) >>> 8) & 0x00fffff;
+        int s1 = r1 * 5, s2 = r2 * 5, s3 = r3 * 5, s4 = r4 * 5;
+        int h0 = 0, h1 = 0, h2 = 0, h3 = 0, h4 = 0;
+
+        byte[] last = null;
+        int end = offset + length;
+        for (int pos = offset; pos < end; pos += 16) {
+            byte[] b = m;
+            int p = pos;
+            int hibit = 1 << 24;
+            if (end - pos < 16) {
+                last = new byte[16];
+                System.arraycopy(m, pos, last, 0, end - pos);
+                last[end - pos] = 1;
+                b = last;
+                p = 0;
+                hibit = 0;
+            }
+            h0 += ld32(b, p) & MASK26;
+            h1 += (ld32(b, p + 3) >>> 2) & MASK26;
+            h2 += (ld32(b, p + 6) >>> 4) & MASK26;
+            h3 += (ld32(b, p + 9) >>> 6) & MASK26;
+            h4 += (ld32(b, p + 12) >>> 8) | hibit;
+
+            long d0 = (long) h0 * r0 + (long) h1 * s4 + (long) h2 * s3 + (long) h3 * s2 + (long) h4 * s1;
+            long d1 = (long) h0 * r1 + (long) h1 * r0 + (long) h2 * s4 + (long) h3 * s3 + (long) h4 * s2;
+            long d2 = (long) h0 * r2 + (long) h1 * r1 + (long) h2 * r0 + (long) h3 * s4 + (long) h4 * s3;
+            long d3 = (long) h0 * r3 + (long) h1 * r2 + (long) h2 * r1 + (long) h3 * r0 + (long) h4 * s4;
+            long d4 = (long) h0 * r4 + (long) h1 * r3 + (long) h2 * r2 + (long) h3 * r1 + (long) h4 * r0;
+
+            long c = d0 >>> 26; h0 = (int) d0 & MASK26;
+            d1 += c; c = d1 >>> 26; h1 = (int) d1 & MASK26;
+            d2 += c; c = d2 >>> 26; h2 = (int) d2 & MASK26;
+            d3 += c; c = d3 >>> 26; h3 = (int) d3 & MASK26;
+            d4 += c; c = d4 >>> 26; h4 = (int) d4 & MASK26;
+            h0 += (int) c * 5; c = h0 >>> 26; h0 &= MASK26;
+            h1 += (int) c;
+        }
+
+        // fully carry h
+        int c = h1 >>> 26; h1 &= MASK26;
+        h2 += c; c = h2 >>> 26; h2 &= MASK26;
+        h3 += c; c = h3 >>> 26; h3 &= MASK26;
+        h4 += c; c = h4 >>> 26; h4 &= MASK26;
+        h0 += c * 5; c = h0 >>> 26; h0 &= MASK26;
+        h1 += c;
+
+        // compute h - p and select it if h >= p, in constant time
+        int g0 = h0 + 5; c = g0 >>> 26; g0 &= MASK26;
+        int g1 = h1 + c; c = g1 >>> 26; g1 &= MASK26;
+        int g2 = h2 + c; c = g2 >>> 26; g2 &= MASK26;
+        int g3 = h3 + c; c = g3 >>> 26; g3 &= MASK26;
+        int g4 = h4 + c - (1 << 26);
+        int mask = (g4 >>> 31) - 1;
+        h0 = (h0 & ~mask) | (g0 & mask);
+        h1 = (h1 & ~mask) | (g1 & mask);
+        h2 = (h2 & ~mask) | (g2 & mask);
+        h3 = (h3 & ~mask) | (g3 & mask);
+        h4 = (h4 & ~mask) | (g4 & mask);
+
+        // h = (h + pad) % 2^128
+        long f0 = ((h0 | (h1 << 26)) & 0xffffffffL) + (ld32(key, 16) & 0xffffffffL);
+        long f1 = (((h1 >>> 6) | (h2 << 20)) & 0xffffffffL) + (ld32(key, 20) & 0xffffffffL) + (f0 >>> 32);
+        long f2 = (((h2 >>> 12) | (h3 << 14)) & 0xffffffffL) + (ld32(key, 24) & 0xffffffffL) + (f1 >>> 32);
+        long f3 = (((h3 >>> 18) | (h4 << 8)) & 0xffffffffL) + (ld32(key, 28) & 0xffffffffL) + (f2 >>> 32);
+        st32(out, outOffset, (int) f0);
+        st32(out, outOffset + 4, (int) f1);
+        st32(out, outOffset + 8, (int) f2);
+        st32(out, outOffset + 12, (int) f3);
+    }
+}
@@ -77,7 +77,8 @@ public class CoreNodeHandler implements HttpHandler
                     AggregatedMetrics.GET_ALL_USERNAMES.inc();
                     exchange.getResponseHeaders().set("Content-Encoding", "gzip");
                     exchange.getResponseHeaders().set("Content-Type", "application/json");
-                    getAllUsernamesGzip(subComponents.length > 1 ? subComponents[1] : "", din, dout);
+                    Map<String, List<String>> params = HttpUtil.parseQuery(exchange.getRequestURI().getQuery());
+                    getAllUsernamesGzip(subComponents.length > 1 ? subComponents[1] : "", params, din, dout);
                     break;
                 case "migrateUser":
                     AggregatedMetrics.MIGRATE_USER.inc();
@@ -97,7 +98,8 @@ public class CoreNodeHandler implements HttpHandler
         } finally {
             exchange.close();
             long t2 = System.currentTimeMillis();
-            LOG.info("Corenode server handled " + method + " request in: " + (t2 - t1) + " mS");
+            if (Logging.shouldLogRequest(t2 - t1))
+                LOG.info("Corenode server handled " + method + " request in: " + (t2 - t1) + " mS");
         }
     }
 
@@ -168,9 +170,18 @@ public class CoreNodeHandler implements HttpHandler
         Serialize.serialize(k, dout);
     }
 
-    void getAllUsernamesGzip(String prefix, DataInputStream din, DataOutputStream dout) throws Exception
+    void getAllUsernamesGzip(String prefix,
+                             Map<String, List<String>> params,
+                             DataInputStream din,
+                             DataOutputStream dout) throws Exception
     {
-        List<String> res = coreNode.getUsernames(prefix).get();
+        List<String> res;
+        if (params.containsKey("limit")) {
+            int limit = Math.min(Integer.parseInt(params.get("limit").get(0)), CoreNode.MAX_USERNAMES_PAGE_SIZE);
+            int offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset").get(0)) : 0;
+            res = coreNode.getUsernames(prefix, offset, limit).get();
+        } else
+            res = coreNode.getUsernames(prefix).get();
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
         GZIPOutputStream gout = new GZIPOutputStream(bout);
         gout.write(JSONParser.toString(res).getBytes());
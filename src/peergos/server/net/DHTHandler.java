@@ -249,7 +249,7 @@ public class DHTHandler implements HttpHandler {
         } finally {
             httpExchange.close();
             long t2 = System.currentTimeMillis();
-            if (LOGGING)
+            if (LOGGING && Logging.shouldLogRequest(t2 - t1))
                 LOG.info("DHT Handler handled " + path + " query in: " + (t2 - t1) + " mS");
         }
     }
@@ -4,6 +4,7 @@ import com.sun.net.httpserver.*;
 import peergos.server.util.Logging;
 import peergos.server.util.*;
 import peergos.shared.*;
+import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.api.*;
 import peergos.shared.user.*;
 import peergos.shared.user.fs.*;
@@ -12,67 +13,149 @@ import peergos.shared.util.*;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.logging.*;
 
 public class GatewayHandler implements HttpHandler {
 	private static final Logger LOG = Logging.LOG();
 	private static final boolean LOGGING = true;
 	private static final int MAX_ASSET_SIZE_CACHE = 200*1024;
+	private static final long DEFAULT_MAX_CACHE_BYTES = 100*1024*1024;
 
     private final String domainSuffix;
     private final NetworkAccess network;
     private final Crypto crypto;
-    private final LRUCache<String, WebRootEntry> webRootCache;
-    private final LRUCache<String, Asset> assetCache;
+    private final long maxCacheBytes;
+    private final Map<String, WebRootEntry> webRootCache = new ConcurrentHashMap<>();
+    private final Map<String, Asset> assetCache = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong(0);
 
     public GatewayHandler(String domainSuffix, Crypto crypto, NetworkAccess network) {
+        this(domainSuffix, crypto, network, DEFAULT_MAX_CACHE_BYTES);
+    }
+
+    public GatewayHandler(String domainSuffix, Crypto crypto, NetworkAccess network, long maxCacheBytes) {
         this.domainSuffix = domainSuffix;
         this.crypto = crypto;
         this.network = network;
-        this.webRootCache = new LRUCache<>(1000);
-        this.assetCache = new LRUCache<>(1000);
+        this.maxCacheBytes = maxCacheBytes;
     }
 
+    /** A site's webroot and the pointer values of every writer that any cached file of the site is in. If none of
+     *  these pointers have changed then all of the site's cached assets are still valid.
+     */
     private final class WebRootEntry {
         public final FileWrapper field;
         public final FileWrapper webRoot;
         public final Optional<String> cspHeader;
+        public final Map<PublicKeyHash, ByteArrayWrapper> writerPointers;
 
-        public WebRootEntry(FileWrapper field, FileWrapper webRoot, Optional<String> cspHeader) {
+        public WebRootEntry(FileWrapper field,
+                            FileWrapper webRoot,
+                            Optional<String> cspHeader,
+                            Map<PublicKeyHash, ByteArrayWrapper> writerPointers) {
             this.field = field;
             this.webRoot = webRoot;
             this.cspHeader = cspHeader;
+            this.writerPointers = writerPointers;
+        }
+
+        public boolean isCurrent() {
+            return writerPointers.entrySet().stream()
+                    .allMatch(e -> getPointer(field.owner(), e.getKey()).equals(e.getValue()));
         }
     }
 
     private final class Asset {
-        public final FileWrapper source;
+        public final FileProperties props;
         public final byte[] data;
+        public final Optional<byte[]> gzipped;
+        public final String etag, gzipEtag;
+        public volatile long lastAccess;
 
-        public Asset(FileWrapper source, byte[] data) {
-            this.source = source;
+        public Asset(FileProperties props, byte[] data, Optional<byte[]> gzipped) {
+            this.props = props;
             this.data = data;
+            this.gzipped = gzipped;
+            String hash = ArrayOps.bytesToHex(Arrays.copyOfRange(Hash.sha256(data), 0, 16));
+            this.etag = "\"" + hash + "\"";
+            // the gzipped representation has different bytes, so it needs its own strong validator
+            this.gzipEtag = "\"" + hash + "-gzip\"";
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        public long size() {
+            return data.length + gzipped.map(g -> g.length).orElse(0);
         }
     }
 
-    private synchronized WebRootEntry lookupRoot(String owner) {
-        return webRootCache.get(owner);
+    private ByteArrayWrapper getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+        return new ByteArrayWrapper(network.mutable.getPointer(owner, writer).join().orElse(new byte[0]));
     }
 
-    private synchronized void cacheRoot(String owner, WebRootEntry webRoot) {
-        webRootCache.put(owner, webRoot);
+    private Asset lookupAsset(String owner, String path) {
+        Asset asset = assetCache.get(owner + "/" + path);
+        if (asset != null)
+            asset.lastAccess = System.currentTimeMillis();
+        return asset;
+    }
+
+    private void cacheAsset(String owner, String path, Asset asset) {
+        Asset existing = assetCache.put(owner + "/" + path, asset);
+        long total = cachedBytes.addAndGet(asset.size() - (existing == null ? 0 : existing.size()));
+        if (total > maxCacheBytes)
+            evict();
+    }
+
+    /** Evict the least recently used assets until we are under 90% of our byte budget
+     *
+     */
+    private synchronized void evict() {
+        if (cachedBytes.get() <= maxCacheBytes)
+            return;
+        List<Map.Entry<String, Asset>> byAge = new ArrayList<>(assetCache.entrySet());
+        byAge.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        for (Map.Entry<String, Asset> e : byAge) {
+            if (cachedBytes.get() <= maxCacheBytes * 9 / 10)
+                break;
+            if (assetCache.remove(e.getKey(), e.getValue()))
+                cachedBytes.addAndGet(-e.getValue().size());
+        }
     }
 
-    private synchronized Asset lookupAsset(String owner, String path) {
-        return assetCache.get(owner + "/" + path);
+    private void invalidateAssets(String owner) {
+        assetCache.entrySet().removeIf(entry -> {
+            boolean remove = entry.getKey().startsWith(owner + "/");
+            if (remove)
+                cachedBytes.addAndGet(-entry.getValue().size());
+            return remove;
+        });
     }
 
-    private synchronized void cacheAsset(String owner, String path, Asset asset) {
-        assetCache.put(owner + "/" + path, asset);
+    /** Record the pointer of a file's writer, if it is new to the site, before the file's data is read. A write which
+     *  lands in between then invalidates the site, rather than having its pointer recorded against older data.
+     *
+     * @return the file at a version no older than the recorded pointer
+     */
+    private FileWrapper recordWriter(Map<PublicKeyHash, ByteArrayWrapper> sitePointers, FileWrapper f) {
+        if (sitePointers.containsKey(f.writer()))
+            return f;
+        sitePointers.putIfAbsent(f.writer(), getPointer(f.owner(), f.writer()));
+        return f.getUpdated(network).join();
     }
 
-    private synchronized void invalidateAssets(String owner) {
-        assetCache.entrySet().removeIf(entry -> entry.getKey().startsWith(owner + "/"));
+    private WebRootEntry loadWebRoot(String owner) {
+        Map<PublicKeyHash, ByteArrayWrapper> pointers = new ConcurrentHashMap<>();
+        Path toProfileEntry = Paths.get(owner).resolve(".profile").resolve("webroot");
+        AbsoluteCapability capToWebRootField = UserContext.getPublicCapability(toProfileEntry, network).join();
+        FileWrapper webRootField = recordWriter(pointers, network.getFile(capToWebRootField, owner).join().get());
+        Path toWebRoot = Paths.get(new String(Serialize.readFully(webRootField, crypto, network).join()));
+        AbsoluteCapability capToWebRoot = UserContext.getPublicCapability(toWebRoot, network).join();
+        FileWrapper webRoot = recordWriter(pointers, network.getFile(capToWebRoot, owner).join().get());
+        Optional<FileWrapper> headers = webRoot.getChild("headers.json", crypto.hasher, network).join();
+        Optional<String> csp = headers.flatMap(f -> getCsp(f));
+        return new WebRootEntry(webRootField, webRoot, csp, pointers);
     }
 
     @Override
@@ -89,38 +172,19 @@ public class GatewayHandler implements HttpHandler {
                 throw new IllegalStateException("Incorrect domain! " + domain);
             String owner = domain.substring(0, domain.length() - domainSuffix.length());
 
-            WebRootEntry webRootEntry = lookupRoot(owner);
-            if (webRootEntry != null) {
-                FileWrapper updatedField = webRootEntry.field.getUpdated(network).join();
-                if (!updatedField.version.equals(webRootEntry.field.version)) {
-                    webRootEntry = new WebRootEntry(updatedField, null, Optional.empty());
+            // a single check of the site's writer pointers validates every cached asset of the site
+            WebRootEntry webRootEntry = webRootCache.get(owner);
+            if (webRootEntry == null || ! webRootEntry.isCurrent()) {
+                if (webRootEntry != null)
                     invalidateAssets(owner);
-                }
-            } else {
-                Path toProfileEntry = Paths.get(owner).resolve(".profile").resolve("webroot");
-                AbsoluteCapability capToWebRootField = UserContext.getPublicCapability(toProfileEntry, network).join();
-                FileWrapper webRootField = network.getFile(capToWebRootField, owner).join().get();
-                webRootEntry = new WebRootEntry(webRootField, null, Optional.empty());
-            }
-
-            if (webRootEntry.webRoot == null) {
-                Path toWebRoot = Paths.get(new String(Serialize.readFully(webRootEntry.field, crypto, network).join()));
-                AbsoluteCapability capToWebRoot = UserContext.getPublicCapability(toWebRoot, network).join();
-                FileWrapper webRoot = network.getFile(capToWebRoot, owner).join().get();
-                Optional<FileWrapper> headers = webRoot.getChild("headers.json", crypto.hasher, network).join();
-                Optional<String> csp = headers.flatMap(f -> getCsp(f));
-                webRootEntry = new WebRootEntry(webRootEntry.field, webRoot, csp);
-                cacheRoot(owner, webRootEntry);
+                webRootEntry = loadWebRoot(owner);
+                webRootCache.put(owner, webRootEntry);
             }
 
             Asset cached = lookupAsset(owner, path);
             if (cached != null) {
-                FileWrapper updated = cached.source.getUpdated(network).join();
-                if (updated.version.equals(cached.source.version)) {
-                    serveAsset(AsyncReader.build(cached.data), cached.source.getFileProperties(), cached.data.length,
-                            path, webRootEntry.cspHeader, httpExchange);
-                    return;
-                }
+                serveCachedAsset(cached, path, webRootEntry.cspHeader, httpExchange);
+                return;
             }
 
             Optional<FileWrapper> assetOpt = webRootEntry.webRoot.getDescendentByPath(path, crypto.hasher, network).join();
@@ -132,19 +196,29 @@ public class GatewayHandler implements HttpHandler {
             if (asset.isDirectory()) {
                 Optional<FileWrapper> index = asset.getChild("index.html", crypto.hasher, network).join();
                 if (index.isPresent())
-                    assetOpt = index;
+                    asset = index.get();
                 else {
                     serve404(httpExchange, webRootEntry.webRoot);
                     return;
                 }
             }
-            AsyncReader reader = asset.getInputStream(network, crypto, x -> {}).join();
             long size = asset.getSize();
-            Optional<byte[]> bodyToCache = serveAsset(reader, asset.getFileProperties(), size, path,
-                    webRootEntry.cspHeader, httpExchange);
-            if (bodyToCache.isPresent()) {
-                cacheAsset(owner, path, new Asset(asset, bodyToCache.get()));
+            if (size < MAX_ASSET_SIZE_CACHE) {
+                Map<PublicKeyHash, ByteArrayWrapper> sitePointers = webRootEntry.writerPointers;
+                asset = recordWriter(sitePointers, asset);
+                byte[] data = Serialize.readFully(asset, crypto, network).join();
+                Optional<FileWrapper> gzipVariant = webRootEntry.webRoot
+                        .getDescendentByPath(path + ".gz", crypto.hasher, network).join()
+                        .filter(f -> ! f.isDirectory() && f.getSize() < MAX_ASSET_SIZE_CACHE)
+                        .map(f -> recordWriter(sitePointers, f));
+                Optional<byte[]> gzipped = gzipVariant.map(f -> Serialize.readFully(f, crypto, network).join());
+                Asset toCache = new Asset(asset.getFileProperties(), data, gzipped);
+                cacheAsset(owner, path, toCache);
+                serveCachedAsset(toCache, path, webRootEntry.cspHeader, httpExchange);
+                return;
             }
+            AsyncReader reader = asset.getInputStream(network, crypto, x -> {}).join();
+            serveAsset(reader, asset.getFileProperties(), size, path, webRootEntry.cspHeader, httpExchange);
         } catch (Exception e) {
             LOG.severe("Error handling " +httpExchange.getRequestURI());
             LOG.log(Level.WARNING, e.getMessage(), e);
@@ -152,7 +226,7 @@ public class GatewayHandler implements HttpHandler {
         } finally {
             httpExchange.close();
             long t2 = System.currentTimeMillis();
-            if (LOGGING)
+            if (LOGGING && Logging.shouldLogRequest(t2 - t1))
                 LOG.info("Public file Handler returned " + path + " query in: " + (t2 - t1) + " mS");
         }
     }
@@ -171,22 +245,7 @@ public class GatewayHandler implements HttpHandler {
 
     private ThreadLocal<byte[]> buffer = ThreadLocal.withInitial(() -> new byte[MAX_ASSET_SIZE_CACHE]);
 
-    private Optional<byte[]> serveAsset(AsyncReader reader,
-                                        FileProperties props,
-                                        long size,
-                                        String path,
-                                        Optional<String> cspHeader,
-                                        HttpExchange httpExchange) throws IOException {
-//            if (isGzip)
-//                httpExchange.getResponseHeaders().set("Content-Encoding", "gzip");
-
-        if (httpExchange.getRequestMethod().equals("HEAD")) {
-            httpExchange.getResponseHeaders().set("Content-Length", "" + size);
-            httpExchange.getResponseHeaders().set("Content-Type", props.mimeType);
-            httpExchange.sendResponseHeaders(200, -1);
-            return Optional.empty();
-        }
-
+    private void addSecurityHeaders(Optional<String> cspHeader, HttpExchange httpExchange) {
         // Only allow assets to be loaded from the original host
         httpExchange.getResponseHeaders().set("content-security-policy", cspHeader.orElse("default-src 'self'"));
         // Don't anyone to load Peergos site in an iframe
@@ -199,29 +258,123 @@ public class GatewayHandler implements HttpHandler {
         httpExchange.getResponseHeaders().set("referrer-policy", "no-referrer");
         // Don't send Peergos referrer to anyone
         httpExchange.getResponseHeaders().set("permissions-policy", "interest-cohort=()");
+    }
 
-        if (size < MAX_ASSET_SIZE_CACHE) {
-            byte[] body = Serialize.readFully(reader, size).join();
-            addContentType(httpExchange, path, body);
-            httpExchange.sendResponseHeaders(200, size);
-            OutputStream resp = httpExchange.getResponseBody();
-            resp.write(body);
-            httpExchange.close();
-            return Optional.of(body);
+    private static boolean acceptsGzip(HttpExchange httpExchange) {
+        List<String> accepted = httpExchange.getRequestHeaders().get("Accept-Encoding");
+        return accepted != null && accepted.stream().anyMatch(v -> v.contains("gzip"));
+    }
+
+    /**
+     *
+     * @return The inclusive start and end of a single byte range request, if present and satisfiable
+     */
+    private static Optional<Pair<Long, Long>> getRange(HttpExchange httpExchange, long size) {
+        String range = httpExchange.getRequestHeaders().getFirst("Range");
+        if (range == null || ! range.startsWith("bytes=") || range.contains(","))
+            return Optional.empty();
+        try {
+            String[] parts = range.substring(6).trim().split("-", -1);
+            long start, end;
+            if (parts[0].isEmpty()) { // suffix range
+                start = Math.max(0, size - Long.parseLong(parts[1]));
+                end = size - 1;
+            } else {
+                start = Long.parseLong(parts[0]);
+                end = parts[1].isEmpty() ? size - 1 : Math.min(size - 1, Long.parseLong(parts[1]));
+            }
+            if (start > end || start >= size)
+                return Optional.empty();
+            return Optional.of(new Pair<>(start, end));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
         }
+    }
+
+    private void serveCachedAsset(Asset asset,
+                                  String path,
+                                  Optional<String> cspHeader,
+                                  HttpExchange httpExchange) throws IOException {
+        Optional<Pair<Long, Long>> range = getRange(httpExchange, asset.data.length);
+        boolean gzip = range.isEmpty() && asset.gzipped.isPresent() && acceptsGzip(httpExchange);
+        byte[] body = gzip ? asset.gzipped.get() : asset.data;
+        String etag = gzip ? asset.gzipEtag : asset.etag;
+
+        httpExchange.getResponseHeaders().set("ETag", etag);
+        httpExchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        httpExchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+        String ifNoneMatch = httpExchange.getRequestHeaders().getFirst("If-None-Match");
+        // If-None-Match uses the weak comparison
+        if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*") ||
+                Arrays.stream(ifNoneMatch.split(",")).anyMatch(tag -> tag.trim().replaceFirst("^W/", "").equals(etag)))) {
+            httpExchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        addSecurityHeaders(cspHeader, httpExchange);
+        addContentType(httpExchange, path, asset.data);
+        if (gzip)
+            httpExchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        int start = range.map(r -> r.left.intValue()).orElse(0);
+        int end = range.map(r -> r.right.intValue()).orElse(body.length - 1);
+        if (range.isPresent())
+            httpExchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+        int status = range.isPresent() ? 206 : 200;
+        if (sendHeadersOnly(httpExchange, status, end - start + 1))
+            return;
+        sendHeaders(httpExchange, status, end - start + 1);
+        httpExchange.getResponseBody().write(body, start, end - start + 1);
+        httpExchange.close();
+    }
+
+    /** A HEAD request gets exactly the headers the equivalent GET would, including its length, but no body
+     *
+     * @return whether this was a HEAD request, which has now been answered
+     */
+    private static boolean sendHeadersOnly(HttpExchange httpExchange, int status, long length) throws IOException {
+        if (! httpExchange.getRequestMethod().equals("HEAD"))
+            return false;
+        httpExchange.getResponseHeaders().set("Content-Length", "" + length);
+        httpExchange.sendResponseHeaders(status, -1);
+        return true;
+    }
+
+    /** The JDK server treats a length of 0 as a chunked body of unknown length, so an empty body must be sent as -1
+     */
+    private static void sendHeaders(HttpExchange httpExchange, int status, long length) throws IOException {
+        httpExchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+    }
 
+    private void serveAsset(AsyncReader reader,
+                            FileProperties props,
+                            long size,
+                            String path,
+                            Optional<String> cspHeader,
+                            HttpExchange httpExchange) throws IOException {
+        httpExchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        addSecurityHeaders(cspHeader, httpExchange);
         addContentType(httpExchange, path, null);
-        httpExchange.sendResponseHeaders(200, size);
+        Optional<Pair<Long, Long>> range = getRange(httpExchange, size);
+        long start = range.map(r -> r.left).orElse(0L);
+        long end = range.map(r -> r.right).orElse(size - 1);
+        if (range.isPresent())
+            httpExchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        int status = range.isPresent() ? 206 : 200;
+        if (sendHeadersOnly(httpExchange, status, end - start + 1))
+            return;
+        sendHeaders(httpExchange, status, end - start + 1);
+        if (range.isPresent())
+            reader = reader.seek(start).join();
         OutputStream resp = httpExchange.getResponseBody();
         byte[] buf = buffer.get();
         int read;
-        long offset = 0;
-        while ((read = reader.readIntoArray(buf, 0, (int) Math.min(size - offset, buf.length)).join()) >= 0) {
+        long offset = start;
+        while (offset <= end &&
+                (read = reader.readIntoArray(buf, 0, (int) Math.min(end + 1 - offset, buf.length)).join()) >= 0) {
             resp.write(buf, 0, read);
             offset += read;
         }
         httpExchange.close();
-        return Optional.empty();
     }
 
     private void addContentType(HttpExchange httpExchange, String path, byte[] start) {
@@ -0,0 +1,96 @@
+package peergos.server.net;
+
+import com.sun.net.httpserver.*;
+import io.prometheus.client.*;
+import peergos.server.*;
+
+import java.io.*;
+
+/** Records the latency, status, and request and response sizes of every request to an endpoint
+ *
+ */
+public class InstrumentedHandler implements HttpHandler {
+
+    private final String endpoint;
+    private final HttpHandler handler;
+    private final Gauge.Child inFlight;
+    private final Histogram.Child requestBytes, responseBytes;
+
+    public InstrumentedHandler(String endpoint, HttpHandler handler) {
+        this.endpoint = endpoint;
+        this.handler = handler;
+        this.inFlight = AggregatedMetrics.HTTP_IN_FLIGHT.labels(endpoint);
+        this.requestBytes = AggregatedMetrics.HTTP_REQUEST_BYTES.labels(endpoint);
+        this.responseBytes = AggregatedMetrics.HTTP_RESPONSE_BYTES.labels(endpoint);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        long t0 = System.nanoTime();
+        CountingInputStream in = new CountingInputStream(exchange.getRequestBody());
+        CountingOutputStream out = new CountingOutputStream(exchange.getResponseBody());
+        exchange.setStreams(in, out);
+        inFlight.inc();
+        try {
+            handler.handle(exchange);
+        } finally {
+            inFlight.dec();
+            int status = exchange.getResponseCode();
+            AggregatedMetrics.HTTP_REQUEST_DURATION.labels(endpoint, status < 0 ? "none" : Integer.toString(status))
+                    .observe((System.nanoTime() - t0) / 1_000_000_000.0);
+            requestBytes.observe(in.count);
+            responseBytes.observe(out.count);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int r = in.read();
+            if (r >= 0)
+                count++;
+            return r;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int r = in.read(b, off, len);
+            if (r > 0)
+                count += r;
+            return r;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package peergos.server.net;
+
+import com.sun.net.httpserver.*;
+import io.prometheus.client.*;
+import peergos.server.util.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/** Runs a handler on its own bounded executor, so a slow endpoint can only tie up its own threads.
+ *
+ *  The server's dispatch thread hands the exchange over and returns immediately. At most maxConcurrent requests to
+ *  this endpoint are handled at once, up to maxQueued more wait, and any beyond that are rejected with a 503.
+ *  Handlers run on virtual threads when the runtime supports them and they are requested. The time a request waits
+ *  for a thread is recorded here, as the wrapped handler only sees the time after it starts.
+ */
+public class LimitedHandler implements HttpHandler {
+    private static final Logger LOG = Logging.LOG();
+
+    private static final Gauge queued = Gauge.build()
+            .labelNames("endpoint")
+            .name("http_handler_queued")
+            .help("Number of requests waiting for a handler thread")
+            .register();
+    private static final Gauge active = Gauge.build()
+            .labelNames("endpoint")
+            .name("http_handler_active")
+            .help("Number of requests being handled")
+            .register();
+    private static final Histogram queueTime = Histogram.build()
+            .labelNames("endpoint")
+            .name("http_handler_queue_seconds")
+            .help("Time a request waits for a handler thread")
+            .exponentialBuckets(0.001, 2, 16)
+            .register();
+    private static final Counter rejected = Counter.build()
+            .labelNames("endpoint")
+            .name("http_handler_rejected")
+            .help("Number of requests rejected because the endpoint's queue was full")
+            .register();
+
+    private final String endpoint;
+    private final HttpHandler handler;
+    private final ThreadPoolExecutor executor;
+
+    public LimitedHandler(String endpoint, HttpHandler handler, int maxConcurrent, int maxQueued, boolean virtualThreads) {
+        this.endpoint = endpoint;
+        this.handler = handler;
+        ThreadFactory threads = virtualThreads ?
+                virtualThreadFactory().orElseGet(() -> {
+                    LOG.warning("Virtual threads are not supported by this runtime, using platform threads for " + endpoint);
+                    return platformThreadFactory(endpoint);
+                }) :
+                platformThreadFactory(endpoint);
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxQueued), threads);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory platformThreadFactory(String endpoint) {
+        return r -> {
+            Thread t = new Thread(r, "Handler " + endpoint);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /** Thread.ofVirtual().factory() when running on a JVM with virtual threads */
+    private static Optional<ThreadFactory> virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return Optional.of((ThreadFactory) builderClass.getMethod("factory").invoke(builder));
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Gauge.Child waiting = queued.labels(endpoint);
+        waiting.inc();
+        long t0 = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                waiting.dec();
+                queueTime.labels(endpoint).observe((System.nanoTime() - t0) / 1_000_000_000.0);
+                Gauge.Child running = active.labels(endpoint);
+                running.inc();
+                try {
+                    handler.handle(exchange);
+                } catch (Throwable t) {
+                    LOG.log(Level.WARNING, t.getMessage(), t);
+                    exchange.close();
+                } finally {
+                    running.dec();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            waiting.dec();
+            rejected.labels(endpoint).inc();
+            try {
+                exchange.sendResponseHeaders(503, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /** Parse per endpoint concurrency limits of the form "name=limit,name2=limit2"
+     */
+    public static Map<String, Integer> parseLimits(String limits) {
+        Map<String, Integer> res = new HashMap<>();
+        for (String limit : limits.split(",")) {
+            if (limit.isBlank())
+                continue;
+            String[] parts = limit.split("=");
+            if (parts.length != 2)
+                throw new IllegalArgumentException("Invalid handler limit: " + limit);
+            res.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+        }
+        return res;
+    }
+}
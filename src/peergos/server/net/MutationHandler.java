@@ -3,12 +3,14 @@ package peergos.server.net;
 import com.sun.net.httpserver.*;
 import peergos.server.*;
 import peergos.server.util.*;
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.mutable.*;
 import peergos.shared.util.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.stream.*;
 import java.util.logging.*;
 
 /** This is the http endpoint for MutablePointer calls
@@ -16,6 +18,8 @@ import java.util.logging.*;
  */
 public class MutationHandler implements HttpHandler {
     private static final Logger LOG = Logging.LOG();
+    private static final int MAX_BATCH_POINTERS = 1000;
+    private static final int MAX_BATCH_REQUEST_SIZE = MAX_BATCH_POINTERS * 100;
 
     private final MutablePointers mutable;
     private final boolean isPublicServer;
@@ -41,8 +45,6 @@ public class MutationHandler implements HttpHandler {
 //            LOG.info("core method "+ method +" from path "+ path);
 
         Map<String, List<String>> params = HttpUtil.parseQuery(exchange.getRequestURI().getQuery());
-        PublicKeyHash owner = PublicKeyHash.fromString(params.get("owner").get(0));
-        PublicKeyHash writer = PublicKeyHash.fromString(params.get("writer").get(0));
         try {
             if (! HttpUtil.allowedQuery(exchange, isPublicServer)) {
                 exchange.sendResponseHeaders(405, 0);
@@ -50,17 +52,38 @@ public class MutationHandler implements HttpHandler {
             }
 
             switch (method) {
-                case "setPointer":
+                case "setPointer": {
+                    PublicKeyHash owner = PublicKeyHash.fromString(params.get("owner").get(0));
+                    PublicKeyHash writer = PublicKeyHash.fromString(params.get("writer").get(0));
                     AggregatedMetrics.MUTABLE_POINTERS_SET.inc();
                     byte[] signedPayload = Serialize.readFully(din, 1024);
                     boolean isAdded = mutable.setPointer(owner, writer, signedPayload).get();
                     dout.writeBoolean(isAdded);
                     break;
-                case "getPointer":
+                }
+                case "getPointer": {
+                    PublicKeyHash owner = PublicKeyHash.fromString(params.get("owner").get(0));
+                    PublicKeyHash writer = PublicKeyHash.fromString(params.get("writer").get(0));
                     AggregatedMetrics.MUTABLE_POINTERS_GET.inc();
                     byte[] metadataBlob = mutable.getPointer(owner, writer).get().orElse(new byte[0]);
                     dout.write(metadataBlob);
                     break;
+                }
+                case "getPointers": {
+                    CborObject.CborList requested = (CborObject.CborList) CborObject.fromByteArray(readBounded(din, MAX_BATCH_REQUEST_SIZE));
+                    List<Pair<PublicKeyHash, PublicKeyHash>> ownersAndWriters = requested.value.stream()
+                            .map(c -> (CborObject.CborList) c)
+                            .map(p -> new Pair<>(PublicKeyHash.fromCbor(p.value.get(0)), PublicKeyHash.fromCbor(p.value.get(1))))
+                            .collect(Collectors.toList());
+                    if (ownersAndWriters.size() > MAX_BATCH_POINTERS)
+                        throw new IllegalStateException("Too many pointers requested!");
+                    AggregatedMetrics.MUTABLE_POINTERS_GET.inc(ownersAndWriters.size());
+                    List<Optional<byte[]>> pointers = mutable.getPointers(ownersAndWriters).get();
+                    dout.write(new CborObject.CborList(pointers.stream()
+                            .map(p -> new CborObject.CborByteArray(p.orElse(new byte[0])))
+                            .collect(Collectors.toList())).serialize());
+                    break;
+                }
                 default:
                     throw new IOException("Unknown method in mutable pointers!");
             }
@@ -73,7 +96,15 @@ public class MutationHandler implements HttpHandler {
         } finally {
             exchange.close();
             long t2 = System.currentTimeMillis();
-            LOG.info("Mutable pointers server handled " + method + " request in: " + (t2 - t1) + " mS");
+            if (Logging.shouldLogRequest(t2 - t1))
+                LOG.info("Mutable pointers server handled " + method + " request in: " + (t2 - t1) + " mS");
         }
     }
+
+    private static byte[] readBounded(InputStream in, int maxSize) throws IOException {
+        byte[] res = in.readNBytes(maxSize + 1);
+        if (res.length > maxSize)
+            throw new IllegalStateException("Request too large!");
+        return res;
+    }
 }
@@ -56,7 +56,7 @@ public class PublicFileHandler implements HttpHandler {
         } finally {
             httpExchange.close();
             long t2 = System.currentTimeMillis();
-            if (LOGGING)
+            if (LOGGING && Logging.shouldLogRequest(t2 - t1))
                 LOG.info("Public file Handler returned " + path + " query in: " + (t2 - t1) + " mS");
         }
     }
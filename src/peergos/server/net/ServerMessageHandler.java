@@ -84,7 +84,8 @@ public class ServerMessageHandler implements HttpHandler {
         } finally {
             exchange.close();
             long t2 = System.currentTimeMillis();
-            LOG.info("ServerMessage handled " + method + " request in: " + (t2 - t1) + " mS");
+            if (Logging.shouldLogRequest(t2 - t1))
+                LOG.info("ServerMessage handled " + method + " request in: " + (t2 - t1) + " mS");
         }
     }
 }
@@ -86,7 +86,8 @@ public class SocialHandler implements HttpHandler {
         } finally {
             exchange.close();
             long t2 = System.currentTimeMillis();
-            LOG.info("Social Network server handled " + method + " request in: " + (t2 - t1) + " mS");
+            if (Logging.shouldLogRequest(t2 - t1))
+                LOG.info("Social Network server handled " + method + " request in: " + (t2 - t1) + " mS");
         }
     }
 }
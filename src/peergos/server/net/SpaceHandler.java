@@ -83,7 +83,8 @@ public class SpaceHandler implements HttpHandler {
         } finally {
             exchange.close();
             long t2 = System.currentTimeMillis();
-            LOG.info("SpaceUsage handled " + method + " request in: " + (t2 - t1) + " mS");
+            if (Logging.shouldLogRequest(t2 - t1))
+                LOG.info("SpaceUsage handled " + method + " request in: " + (t2 - t1) + " mS");
         }
     }
 }
@@ -1,5 +1,7 @@
 package peergos.server.space;
 
+import io.prometheus.client.*;
+import peergos.server.*;
 import peergos.server.sql.*;
 import peergos.server.util.Logging;
 import peergos.shared.*;
@@ -83,76 +85,88 @@ public class JdbcUsageStore implements UsageStore {
 
     @Override
     public void confirmUsage(String username, PublicKeyHash writer, long usageDelta, boolean errored) {
-        int userId = getUserId(username);
-        try (Connection conn = getConnection(true, false);
-             PreparedStatement insert = conn.prepareStatement(
-                "UPDATE userusage SET total_bytes = total_bytes + ?, errored = ? " +
-                        "WHERE user_id = ?;");
-             PreparedStatement insertPending = conn.prepareStatement(
-                     "UPDATE pendingusage SET pending_bytes = ? " +
-                             "WHERE writer_id = (SELECT id FROM writers WHERE key_hash = ?);")) {
-            insert.setLong(1, usageDelta);
-            insert.setBoolean(2, errored);
-            insert.setInt(3, userId);
-
-            int count = insert.executeUpdate();
-            if (count != 1)
-                throw new IllegalStateException("Didn't update one record!");
-            insertPending.setLong(1, 0);
-            insertPending.setBytes(2, writer.toBytes());
-            int count2 = insertPending.executeUpdate();
-            if (count2 != 1)
-                throw new IllegalStateException("Didn't update one record!");
-        } catch (SQLException sqe) {
-            LOG.log(Level.WARNING, sqe.getMessage() + ": " + username + "." + writer + "(" + usageDelta + ")", sqe);
-            throw new RuntimeException(sqe);
+        Histogram.Timer timer = AggregatedMetrics.STORAGE_OPERATION_DURATION.labels("usage", "confirm").startTimer();
+        try {
+            int userId = getUserId(username);
+            try (Connection conn = getConnection(true, false);
+                 PreparedStatement insert = conn.prepareStatement(
+                    "UPDATE userusage SET total_bytes = total_bytes + ?, errored = ? " +
+                            "WHERE user_id = ?;");
+                 PreparedStatement insertPending = conn.prepareStatement(
+                         "UPDATE pendingusage SET pending_bytes = ? " +
+                                 "WHERE writer_id = (SELECT id FROM writers WHERE key_hash = ?);")) {
+                insert.setLong(1, usageDelta);
+                insert.setBoolean(2, errored);
+                insert.setInt(3, userId);
+
+                int count = insert.executeUpdate();
+                if (count != 1)
+                    throw new IllegalStateException("Didn't update one record!");
+                insertPending.setLong(1, 0);
+                insertPending.setBytes(2, writer.toBytes());
+                int count2 = insertPending.executeUpdate();
+                if (count2 != 1)
+                    throw new IllegalStateException("Didn't update one record!");
+            } catch (SQLException sqe) {
+                LOG.log(Level.WARNING, sqe.getMessage() + ": " + username + "." + writer + "(" + usageDelta + ")", sqe);
+                throw new RuntimeException(sqe);
+            }
+        } finally {
+            timer.observeDuration();
         }
     }
 
     @Override
-    public void addPendingUsage(String username, PublicKeyHash writer, int size) {
-        int writerId = getWriterId(writer);
-        try (Connection conn = getConnection(true, false);
-             PreparedStatement insert = conn.prepareStatement("UPDATE pendingusage SET pending_bytes = pending_bytes + ? " +
-                     "WHERE writer_id = ?;")) {
-            insert.setLong(1, size);
-            insert.setInt(2, writerId);
-            int count = insert.executeUpdate();
-            if (count != 1)
-                throw new IllegalStateException("Didn't update one record!");
-        } catch (SQLException sqe) {
-            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-            throw new RuntimeException(sqe);
+    public void addPendingUsage(String username, PublicKeyHash writer, long size) {
+        Histogram.Timer timer = AggregatedMetrics.STORAGE_OPERATION_DURATION.labels("usage", "add-pending").startTimer();
+        try {
+            int writerId = getWriterId(writer);
+            try (Connection conn = getConnection(true, false);
+                 PreparedStatement insert = conn.prepareStatement("UPDATE pendingusage SET pending_bytes = pending_bytes + ? " +
+                         "WHERE writer_id = ?;")) {
+                insert.setLong(1, size);
+                insert.setInt(2, writerId);
+                int count = insert.executeUpdate();
+                if (count != 1)
+                    throw new IllegalStateException("Didn't update one record!");
+            } catch (SQLException sqe) {
+                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+                throw new RuntimeException(sqe);
+            }
+        } finally {
+            timer.observeDuration();
         }
     }
 
     @Override
     public UserUsage getUsage(String username) {
-        int userId = getUserId(username);
-        try (Connection conn = getConnection();
-             PreparedStatement search = conn.prepareStatement("SELECT pu.writer_id, pu.pending_bytes, uu.total_bytes, uu.errored " +
-                     "FROM userusage uu, pendingusage pu WHERE uu.user_id = pu.user_id AND uu.user_id = ?;");
-             PreparedStatement writerSearch = conn.prepareStatement("SELECT key_hash FROM writers WHERE id = ?;")) {
-            search.setInt(1, userId);
-            ResultSet resultSet = search.executeQuery();
-            Map<PublicKeyHash, Long> pending = new HashMap<>();
-            long totalBytes = -1;
-            boolean errored = false;
-            while (resultSet.next()) {
-                writerSearch.setInt(1, resultSet.getInt(1));
-                ResultSet writerRes = writerSearch.executeQuery();
-                writerRes.next();
-                PublicKeyHash writer = PublicKeyHash.decode(writerRes.getBytes(1));
-                pending.put(writer, resultSet.getLong(2));
-                if (totalBytes == -1) {
-                    totalBytes = resultSet.getLong(3);
-                    errored = resultSet.getBoolean(4);
+        Histogram.Timer timer = AggregatedMetrics.STORAGE_OPERATION_DURATION.labels("usage", "get-user").startTimer();
+        try {
+            int userId = getUserId(username);
+            try (Connection conn = getConnection();
+                 PreparedStatement search = conn.prepareStatement("SELECT w.key_hash, pu.pending_bytes, uu.total_bytes, uu.errored " +
+                         "FROM userusage uu, pendingusage pu, writers w " +
+                         "WHERE uu.user_id = pu.user_id AND pu.writer_id = w.id AND uu.user_id = ?;")) {
+                search.setInt(1, userId);
+                ResultSet resultSet = search.executeQuery();
+                Map<PublicKeyHash, Long> pending = new HashMap<>();
+                long totalBytes = -1;
+                boolean errored = false;
+                while (resultSet.next()) {
+                    PublicKeyHash writer = PublicKeyHash.decode(resultSet.getBytes(1));
+                    pending.put(writer, resultSet.getLong(2));
+                    if (totalBytes == -1) {
+                        totalBytes = resultSet.getLong(3);
+                        errored = resultSet.getBoolean(4);
+                    }
                 }
+                return new UserUsage(totalBytes, errored, pending);
+            } catch (SQLException sqe) {
+                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+                throw new RuntimeException(sqe);
             }
-            return new UserUsage(totalBytes, errored, pending);
-        } catch (SQLException sqe) {
-            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-            throw new RuntimeException(sqe);
+        } finally {
+            timer.observeDuration();
         }
     }
 
@@ -185,38 +199,43 @@ public class JdbcUsageStore implements UsageStore {
 
     @Override
     public void addWriter(String owner, PublicKeyHash writer) {
-        try (Connection conn = getConnection(true, false);
-             PreparedStatement writerInsert = conn.prepareStatement(commands.insertOrIgnoreCommand("INSERT ", "INTO writers (key_hash) VALUES(?)"));
-             PreparedStatement userSelect = conn.prepareStatement("SELECT id FROM users WHERE name = ?;");
-             PreparedStatement writerSelect = conn.prepareStatement("SELECT id FROM writers WHERE key_hash = ?;");
-             PreparedStatement defaultPendingInsert = conn.prepareStatement(commands.insertOrIgnoreCommand(
-                     "INSERT ", "INTO pendingusage (user_id, writer_id, pending_bytes) VALUES(?, ?, ?)"));
-             PreparedStatement usageInsert = conn.prepareStatement(commands.insertOrIgnoreCommand("INSERT ", "INTO writerusage (writer_id, user_id, direct_size) VALUES(?, ?, ?)"))) {
-            writerInsert.setBytes(1, writer.toBytes());
-            writerInsert.executeUpdate();
-
-            userSelect.setString(1, owner);
-            ResultSet resultSet = userSelect.executeQuery();
-            resultSet.next();
-            int userId = resultSet.getInt(1);
-
-            writerSelect.setBytes(1, writer.toBytes());
-            ResultSet writerRes = writerSelect.executeQuery();
-            writerRes.next();
-            int writerId = writerRes.getInt(1);
-
-            defaultPendingInsert.setInt(1, userId);
-            defaultPendingInsert.setInt(2, writerId);
-            defaultPendingInsert.setInt(3, 0);
-            defaultPendingInsert.executeUpdate();
+        Histogram.Timer timer = AggregatedMetrics.STORAGE_OPERATION_DURATION.labels("usage", "add-writer").startTimer();
+        try {
+            try (Connection conn = getConnection(true, false);
+                 PreparedStatement writerInsert = conn.prepareStatement(commands.insertOrIgnoreCommand("INSERT ", "INTO writers (key_hash) VALUES(?)"));
+                 PreparedStatement userSelect = conn.prepareStatement("SELECT id FROM users WHERE name = ?;");
+                 PreparedStatement writerSelect = conn.prepareStatement("SELECT id FROM writers WHERE key_hash = ?;");
+                 PreparedStatement defaultPendingInsert = conn.prepareStatement(commands.insertOrIgnoreCommand(
+                         "INSERT ", "INTO pendingusage (user_id, writer_id, pending_bytes) VALUES(?, ?, ?)"));
+                 PreparedStatement usageInsert = conn.prepareStatement(commands.insertOrIgnoreCommand("INSERT ", "INTO writerusage (writer_id, user_id, direct_size) VALUES(?, ?, ?)"))) {
+                writerInsert.setBytes(1, writer.toBytes());
+                writerInsert.executeUpdate();
+
+                userSelect.setString(1, owner);
+                ResultSet resultSet = userSelect.executeQuery();
+                resultSet.next();
+                int userId = resultSet.getInt(1);
 
-            usageInsert.setInt(1, writerId);
-            usageInsert.setInt(2, userId);
-            usageInsert.setInt(3, 0);
-            usageInsert.executeUpdate();
-        } catch (SQLException sqe) {
-            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-            throw new RuntimeException(sqe);
+                writerSelect.setBytes(1, writer.toBytes());
+                ResultSet writerRes = writerSelect.executeQuery();
+                writerRes.next();
+                int writerId = writerRes.getInt(1);
+
+                defaultPendingInsert.setInt(1, userId);
+                defaultPendingInsert.setInt(2, writerId);
+                defaultPendingInsert.setInt(3, 0);
+                defaultPendingInsert.executeUpdate();
+
+                usageInsert.setInt(1, writerId);
+                usageInsert.setInt(2, userId);
+                usageInsert.setInt(3, 0);
+                usageInsert.executeUpdate();
+            } catch (SQLException sqe) {
+                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+                throw new RuntimeException(sqe);
+            }
+        } finally {
+            timer.observeDuration();
         }
     }
 
@@ -265,34 +284,39 @@ public class JdbcUsageStore implements UsageStore {
 
     @Override
     public WriterUsage getUsage(PublicKeyHash writer) {
-        String owner = getOwner(writer);
-        int writerId = getWriterId(writer);
-        Set<PublicKeyHash> owned = new HashSet<>();
-        try (Connection conn = getConnection();
-             PreparedStatement ownedSearch = conn.prepareStatement("SELECT owned_id FROM ownedkeys WHERE parent_id = ?;");
-             PreparedStatement usageSearch = conn.prepareStatement("SELECT target, direct_size FROM writerusage WHERE writer_id = ?;");
-             PreparedStatement search = conn.prepareStatement("SELECT key_hash FROM writers WHERE id = ?;")) {
-            ownedSearch.setInt(1, writerId);
-            ResultSet ownedRes = ownedSearch.executeQuery();
-            while (ownedRes.next()) {
-                search.setInt(1, ownedRes.getInt(1));
-                ResultSet resultSet = search.executeQuery();
-                resultSet.next();
-                PublicKeyHash ownedKey = PublicKeyHash.decode(resultSet.getBytes(1));
-                owned.add(ownedKey);
+        Histogram.Timer timer = AggregatedMetrics.STORAGE_OPERATION_DURATION.labels("usage", "get-writer").startTimer();
+        try {
+            String owner = getOwner(writer);
+            int writerId = getWriterId(writer);
+            Set<PublicKeyHash> owned = new HashSet<>();
+            try (Connection conn = getConnection();
+                 PreparedStatement ownedSearch = conn.prepareStatement("SELECT owned_id FROM ownedkeys WHERE parent_id = ?;");
+                 PreparedStatement usageSearch = conn.prepareStatement("SELECT target, direct_size FROM writerusage WHERE writer_id = ?;");
+                 PreparedStatement search = conn.prepareStatement("SELECT key_hash FROM writers WHERE id = ?;")) {
+                ownedSearch.setInt(1, writerId);
+                ResultSet ownedRes = ownedSearch.executeQuery();
+                while (ownedRes.next()) {
+                    search.setInt(1, ownedRes.getInt(1));
+                    ResultSet resultSet = search.executeQuery();
+                    resultSet.next();
+                    PublicKeyHash ownedKey = PublicKeyHash.decode(resultSet.getBytes(1));
+                    owned.add(ownedKey);
+                }
+                usageSearch.setInt(1, writerId);
+                ResultSet usageRes = usageSearch.executeQuery();
+                usageRes.next();
+                MaybeMultihash target = Optional.ofNullable(usageRes.getBytes(1))
+                        .map(x -> MaybeMultihash.of(Cid.cast(x)))
+                        .orElse(MaybeMultihash.empty());
+                return new WriterUsage(owner, target, usageRes.getLong(2), owned);
+            } catch (SQLException sqe) {
+                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+                throw new RuntimeException(sqe);
             }
-            usageSearch.setInt(1, writerId);
-            ResultSet usageRes = usageSearch.executeQuery();
-            usageRes.next();
-            MaybeMultihash target = Optional.ofNullable(usageRes.getBytes(1))
-                    .map(x -> MaybeMultihash.of(Cid.cast(x)))
-                    .orElse(MaybeMultihash.empty());
-            return new WriterUsage(owner, target, usageRes.getLong(2), owned);
-        } catch (SQLException sqe) {
-            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-            throw new RuntimeException(sqe);
-        }
 
+        } finally {
+            timer.observeDuration();
+        }
     }
 
     @Override
@@ -65,7 +65,7 @@ public class RamUsageStore implements UsageStore {
     }
 
     @Override
-    public void addPendingUsage(String username, PublicKeyHash writer, int size) {
+    public void addPendingUsage(String username, PublicKeyHash writer, long size) {
         state.usage.get(username).addPending(writer, size);
     }
 
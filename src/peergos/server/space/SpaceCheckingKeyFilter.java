@@ -28,12 +28,14 @@ import java.util.stream.Collectors;
 public class SpaceCheckingKeyFilter implements SpaceUsage {
     private static final Logger LOG = Logging.LOG();
     private static final long USAGE_TOLERANCE = 1024 * 1024;
+    private static final long QUOTA_CACHE_MILLIS = 10_000;
     private final CoreNode core;
     private final MutablePointers mutable;
     private final ContentAddressedStorage dht;
     private final Hasher hasher;
     private final QuotaAdmin quotaAdmin;
-    private final UsageStore usageStore;
+    private final UsageAccountant usageStore;
+    private final Map<String, Pair<Long, Long>> quotaCache = new ConcurrentHashMap<>();
     private final AtomicBoolean isRunning = new AtomicBoolean(true);
     private final BlockingQueue<MutableEvent> mutableQueue = new ArrayBlockingQueue<>(1000);
 
@@ -42,7 +44,7 @@ public class SpaceCheckingKeyFilter implements SpaceUsage {
                                   ContentAddressedStorage dht,
                                   Hasher hasher,
                                   QuotaAdmin quotaAdmin,
-                                  UsageStore usageStore) {
+                                  UsageAccountant usageStore) {
         this.core = core;
         this.mutable = mutable;
         this.dht = dht;
@@ -325,23 +327,31 @@ public class SpaceCheckingKeyFilter implements SpaceUsage {
         return quotaAdmin.requestQuota(owner, signedRequest);
     }
 
+    /** Quotas only change through the admin interface or payments, so cache them briefly to keep allowWrite in memory
+     */
+    private long getCachedQuota(String username) {
+        long now = System.currentTimeMillis();
+        Pair<Long, Long> cached = quotaCache.get(username);
+        if (cached != null && cached.right > now)
+            return cached.left;
+        long quota = quotaAdmin.getQuota(username);
+        quotaCache.put(username, new Pair<>(quota, now + QUOTA_CACHE_MILLIS));
+        return quota;
+    }
+
     public boolean allowWrite(PublicKeyHash writer, int size) {
-        WriterUsage writerUsage = usageStore.getUsage(writer);
-        if (writerUsage == null)
+        String owner = usageStore.owner(writer);
+        if (owner == null)
             throw new IllegalStateException("Unknown writing key hash: " + writer);
 
-        UserUsage usage = usageStore.getUsage(writerUsage.owner);
-        long quota = quotaAdmin.getQuota(writerUsage.owner);
-        long expectedUsage = usage.expectedUsage();
-        boolean errored = usage.isErrored();
-        if ((! errored && expectedUsage + size > quota) || (errored && expectedUsage + size > quota + USAGE_TOLERANCE)) {
-            long pending = usage.getPending(writer);
-            usageStore.confirmUsage(writerUsage.owner, writer, 0, true);
-            throw new IllegalStateException("Storage quota reached! \nUsed "
-                    + usage.totalUsage() + " out of " + quota + " bytes. Rejecting write of size " + (size + pending) + ". \n" +
-                    "Please delete some files or request more space.");
-        }
-        usageStore.addPendingUsage(writerUsage.owner, writer, size);
-        return true;
+        long quota = getCachedQuota(owner);
+        if (usageStore.tryAddPending(owner, writer, size, quota, USAGE_TOLERANCE))
+            return true;
+        UserUsage usage = usageStore.getUsage(owner);
+        long pending = usage.getPending(writer);
+        usageStore.confirmUsage(owner, writer, 0, true);
+        throw new IllegalStateException("Storage quota reached! \nUsed "
+                + usage.totalUsage() + " out of " + quota + " bytes. Rejecting write of size " + (size + pending) + ". \n" +
+                "Please delete some files or request more space.");
     }
 }
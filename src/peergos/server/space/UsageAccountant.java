@@ -0,0 +1,227 @@
+package peergos.server.space;
+
+import peergos.server.util.*;
+import peergos.shared.*;
+import peergos.shared.crypto.hash.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+/** An in memory view of every user's usage, in front of a persistent UsageStore, for admitting block writes without
+ *  touching the database.
+ *
+ *  Each user's expected usage (confirmed usage plus pending writes) is an atomic counter, so admitting a write is a
+ *  single compare and set. Pending usage is persisted write behind, summed per writer and flushed every flush period.
+ *  Confirmed usage, writers and owned keys are written through, so they are exact after a crash. At most one flush
+ *  period of pending usage can be lost, which only under counts writes that haven't been committed yet. The next
+ *  commit by that writer replaces the writer's pending usage with its real usage. On startup each user is loaded
+ *  lazily from the persisted confirmed and pending usage.
+ */
+public class UsageAccountant implements UsageStore {
+    private static final Logger LOG = Logging.LOG();
+    public static final long DEFAULT_FLUSH_PERIOD_MILLIS = 1_000;
+
+    private static final class Account {
+        final AtomicLong expected;
+        final Map<PublicKeyHash, AtomicLong> pending = new ConcurrentHashMap<>();
+        volatile long total;
+        volatile boolean errored;
+
+        Account(UserUsage persisted) {
+            // a user without writers has no pending usage rows, so no persisted total, and no usage
+            this.total = Math.max(0, persisted.totalUsage());
+            this.errored = persisted.isErrored();
+            long pendingTotal = 0;
+            for (Map.Entry<PublicKeyHash, Long> e : persisted.getPending().entrySet()) {
+                pending.put(e.getKey(), new AtomicLong(e.getValue()));
+                pendingTotal += e.getValue();
+            }
+            this.expected = new AtomicLong(total + pendingTotal);
+        }
+
+        AtomicLong pending(PublicKeyHash writer) {
+            return pending.computeIfAbsent(writer, w -> new AtomicLong(0));
+        }
+
+        UserUsage snapshot() {
+            Map<PublicKeyHash, Long> current = new HashMap<>();
+            for (Map.Entry<PublicKeyHash, AtomicLong> e : pending.entrySet()) {
+                long value = e.getValue().get();
+                if (value != 0)
+                    current.put(e.getKey(), value);
+            }
+            return new UserUsage(total, errored, current);
+        }
+    }
+
+    private final UsageStore target;
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<PublicKeyHash, String> owners = new ConcurrentHashMap<>();
+    private final Map<PublicKeyHash, AtomicLong> unflushed = new ConcurrentHashMap<>();
+    private volatile boolean isRunning = true;
+
+    public UsageAccountant(UsageStore target, long flushPeriodMillis) {
+        this.target = target;
+        Thread flusher = new Thread(() -> {
+            while (isRunning) {
+                try {
+                    Thread.sleep(flushPeriodMillis);
+                    flush();
+                } catch (InterruptedException e) {
+                } catch (Throwable t) {
+                    LOG.log(Level.WARNING, "Error persisting pending usage", t);
+                }
+            }
+        }, "UsageAccountant flush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public UsageAccountant(UsageStore target) {
+        this(target, DEFAULT_FLUSH_PERIOD_MILLIS);
+    }
+
+    private Account account(String username) {
+        Account cached = accounts.get(username);
+        if (cached != null)
+            return cached;
+        return accounts.computeIfAbsent(username, u -> {
+            UserUsage persisted = target.getUsage(u);
+            return persisted == null ? null : new Account(persisted);
+        });
+    }
+
+    /**
+     *
+     * @return The owner of a writer, or null if the writer is unknown
+     */
+    public String owner(PublicKeyHash writer) {
+        String cached = owners.get(writer);
+        if (cached != null)
+            return cached;
+        WriterUsage usage = target.getUsage(writer);
+        if (usage == null)
+            return null;
+        owners.put(writer, usage.owner);
+        return usage.owner;
+    }
+
+    /** Atomically add a write to the owner's pending usage if it keeps their expected usage within quota, or within
+     *  quota plus tolerance if their usage is errored.
+     *
+     * @return whether the write was admitted
+     */
+    public boolean tryAddPending(String username, PublicKeyHash writer, int size, long quota, long tolerance) {
+        Account account = account(username);
+        if (account == null)
+            throw new IllegalStateException("No usage present for user: " + username);
+        long limit = account.errored ? quota + tolerance : quota;
+        while (true) {
+            long expected = account.expected.get();
+            if (expected + size > limit)
+                return false;
+            if (account.expected.compareAndSet(expected, expected + size))
+                break;
+        }
+        account.pending(writer).addAndGet(size);
+        unflushed.computeIfAbsent(writer, w -> new AtomicLong(0)).addAndGet(size);
+        return true;
+    }
+
+    /** Persist the pending usage added since the last flush, with one update per writer
+     */
+    public void flush() {
+        for (Map.Entry<PublicKeyHash, AtomicLong> e : unflushed.entrySet()) {
+            if (e.getValue().get() == 0)
+                continue;
+            PublicKeyHash writer = e.getKey();
+            String username = owner(writer);
+            Account account = account(username);
+            // synchronized with confirmUsage, which discards unflushed pending usage
+            synchronized (account) {
+                long delta = e.getValue().getAndSet(0);
+                if (delta != 0)
+                    target.addPendingUsage(username, writer, delta);
+            }
+        }
+    }
+
+    @Override
+    public void addUserIfAbsent(String username) {
+        target.addUserIfAbsent(username);
+    }
+
+    @Override
+    public UserUsage getUsage(String username) {
+        Account account = account(username);
+        return account == null ? null : account.snapshot();
+    }
+
+    @Override
+    public void confirmUsage(String username, PublicKeyHash writer, long usageDelta, boolean errored) {
+        Account account = account(username);
+        if (account == null) {
+            target.confirmUsage(username, writer, usageDelta, errored);
+            return;
+        }
+        synchronized (account) {
+            AtomicLong toFlush = unflushed.get(writer);
+            if (toFlush != null)
+                toFlush.set(0);
+            target.confirmUsage(username, writer, usageDelta, errored);
+            long pending = account.pending(writer).getAndSet(0);
+            account.total += usageDelta;
+            account.errored = errored;
+            account.expected.addAndGet(usageDelta - pending);
+        }
+    }
+
+    @Override
+    public void addPendingUsage(String username, PublicKeyHash writer, long size) {
+        Account account = account(username);
+        if (account == null)
+            throw new IllegalStateException("No usage present for user: " + username);
+        account.expected.addAndGet(size);
+        account.pending(writer).addAndGet(size);
+        unflushed.computeIfAbsent(writer, w -> new AtomicLong(0)).addAndGet(size);
+    }
+
+    @Override
+    public void addWriter(String owner, PublicKeyHash writer) {
+        target.addWriter(owner, writer);
+        owners.put(writer, owner);
+    }
+
+    @Override
+    public Set<PublicKeyHash> getAllWriters() {
+        return target.getAllWriters();
+    }
+
+    @Override
+    public WriterUsage getUsage(PublicKeyHash writer) {
+        return target.getUsage(writer);
+    }
+
+    @Override
+    public void updateWriterUsage(PublicKeyHash writer,
+                                  MaybeMultihash target,
+                                  Set<PublicKeyHash> removedOwnedKeys,
+                                  Set<PublicKeyHash> addedOwnedKeys,
+                                  long retainedStorage) {
+        this.target.updateWriterUsage(writer, target, removedOwnedKeys, addedOwnedKeys, retainedStorage);
+    }
+
+    @Override
+    public void initialized() {
+        target.initialized();
+    }
+
+    @Override
+    public void close() {
+        isRunning = false;
+        flush();
+        target.close();
+    }
+}
@@ -40,10 +40,14 @@ public class UserUsage implements Cborable {
         pending.remove(writer);
     }
 
-    protected synchronized long getPending(PublicKeyHash writer) {
+    public synchronized long getPending(PublicKeyHash writer) {
         return pending.getOrDefault(writer, 0L);
     }
 
+    protected synchronized Map<PublicKeyHash, Long> getPending() {
+        return new HashMap<>(pending);
+    }
+
     protected synchronized long expectedUsage() {
         return totalBytes + pending.values().stream().mapToLong(x -> x).sum();
     }
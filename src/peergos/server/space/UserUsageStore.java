@@ -10,6 +10,6 @@ public interface UserUsageStore extends WriterUsageStore {
 
     void confirmUsage(String username, PublicKeyHash writer, long usageDelta, boolean errored);
 
-    void addPendingUsage(String username, PublicKeyHash writer, int size);
+    void addPendingUsage(String username, PublicKeyHash writer, long size);
 
 }
@@ -0,0 +1,153 @@
+package peergos.server.storage;
+
+import io.prometheus.client.*;
+import peergos.server.util.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.logging.*;
+
+/** Retrieves blocks which are missing from a local store from a p2p fallback.
+ *
+ *  Concurrent misses of the same block share a single remote retrieval, and misses are queued so that at most
+ *  maxConcurrentFetches retrievals are in flight at once, rather than a burst of readers each going to the network.
+ *  Retrieved blocks whose hash verifies are passed to the write back on a background thread, so later reads are local.
+ */
+public class CoalescingBlockFetcher {
+    private static final Logger LOG = Logging.LOG();
+
+    private static final Histogram fallbackTimer = Histogram.build()
+            .name("p2p_block_get_seconds")
+            .help("Time to retrieve a block from the p2p fallback")
+            .exponentialBuckets(0.01, 2, 16)
+            .register();
+    private static final Counter coalescedGets = Counter.build()
+            .name("p2p_block_gets_coalesced")
+            .help("Number of p2p block gets which joined an in flight retrieval of the same block")
+            .register();
+    private static final Counter writeBacks = Counter.build()
+            .name("p2p_block_write_backs")
+            .help("Number of blocks retrieved over p2p which were written back to the local store")
+            .register();
+    private static final Counter droppedWriteBacks = Counter.build()
+            .name("p2p_block_write_backs_dropped")
+            .help("Number of blocks retrieved over p2p which were not written back because the queue was full")
+            .register();
+
+    private final ContentAddressedStorage fallback;
+    private final int maxConcurrentFetches;
+    private final BiConsumer<Multihash, byte[]> writeBack;
+    private final ExecutorService writer;
+    private final ExecutorService queuedFetches;
+    private final Map<Multihash, CompletableFuture<Optional<byte[]>>> inFlight = new ConcurrentHashMap<>();
+    private final Queue<Runnable> waiting = new LinkedList<>();
+    private int running = 0;
+
+    /**
+     *
+     * @param fallback Where to retrieve missing blocks from
+     * @param maxConcurrentFetches The maximum number of retrievals from the fallback in flight at once
+     * @param maxQueuedWriteBacks Write backs beyond this many are dropped
+     * @param writeBack Stores a verified block locally
+     */
+    public CoalescingBlockFetcher(ContentAddressedStorage fallback,
+                                  int maxConcurrentFetches,
+                                  int maxQueuedWriteBacks,
+                                  BiConsumer<Multihash, byte[]> writeBack) {
+        if (maxConcurrentFetches < 1)
+            throw new IllegalArgumentException("Must allow at least one concurrent fetch!");
+        this.fallback = fallback;
+        this.maxConcurrentFetches = maxConcurrentFetches;
+        this.writeBack = writeBack;
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedWriteBacks),
+                r -> {
+                    Thread t = new Thread(r, "P2p block write back");
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, pool) -> droppedWriteBacks.inc());
+        this.queuedFetches = Executors.newFixedThreadPool(maxConcurrentFetches, r -> {
+            Thread t = new Thread(r, "P2p block fetch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+        CompletableFuture<Optional<byte[]>> res = new CompletableFuture<>();
+        CompletableFuture<Optional<byte[]>> existing = inFlight.putIfAbsent(hash, res);
+        if (existing != null) {
+            coalescedGets.inc();
+            return existing;
+        }
+        start(() -> {
+            Histogram.Timer timer = fallbackTimer.startTimer();
+            CompletableFuture<Optional<byte[]>> fetch;
+            try {
+                fetch = fallback.getRaw(hash);
+            } catch (Throwable t) {
+                fetch = Futures.errored(t);
+            }
+            fetch.whenComplete((block, t) -> {
+                timer.observeDuration();
+                inFlight.remove(hash);
+                if (t != null)
+                    res.completeExceptionally(t);
+                else {
+                    block.ifPresent(data -> {
+                        if (isValid(hash, data))
+                            writer.execute(() -> {
+                                try {
+                                    writeBack.accept(hash, data);
+                                    writeBacks.inc();
+                                } catch (Exception e) {
+                                    LOG.log(Level.WARNING, "Couldn't write back block " + hash, e);
+                                }
+                            });
+                    });
+                    res.complete(block);
+                }
+                release();
+            });
+        });
+        return res;
+    }
+
+    private static boolean isValid(Multihash hash, byte[] data) {
+        return hash.type == Multihash.Type.sha2_256 && Arrays.equals(hash.getHash(), Hash.sha256(data));
+    }
+
+    private void start(Runnable fetch) {
+        synchronized (this) {
+            if (running >= maxConcurrentFetches) {
+                waiting.add(fetch);
+                return;
+            }
+            running++;
+        }
+        fetch.run();
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null)
+                running--;
+        }
+        // run queued fetches on our own threads, so that completing one fetch never runs the rest of the queue inline
+        if (next != null)
+            queuedFetches.execute(next);
+    }
+
+    public void close() {
+        writer.shutdown();
+        queuedFetches.shutdown();
+    }
+}
@@ -0,0 +1,640 @@
+package peergos.server.storage;
+
+import peergos.server.util.Logging;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+/** A local disk implementation of ContentAddressedStorage which appends blocks to large segment files, rather than
+ *  writing a file per block.
+ *
+ *  Each record in a segment is: magic, cid length, cid, data length (-1 for a delete), data, crc32. An in memory index
+ *  maps each cid to its segment, offset and size. Only the newest segment is appended to. When it is full it is
+ *  sealed: an index file summarising its records is written beside it and it is memory mapped for reads.
+ *
+ *  On startup sealed segments load their index file and the newest segment is scanned. A torn record at the end of a
+ *  segment, from a crash part way through a write, is truncated. Later records override earlier ones.
+ *
+ *  Deletes append a tombstone record. Once at least half the bytes of a sealed segment are dead, a background thread
+ *  copies its live records to the newest segment and then deletes it.
+ */
+public class PackFileContentAddressedStorage implements DeletableContentAddressedStorage {
+    private static final Logger LOG = Logging.LOG();
+    private static final int CID_V1 = 1;
+    private static final int RECORD_MAGIC = 0x50414b31;
+    private static final int TOMBSTONE = -1;
+    private static final int RECORD_OVERHEAD = 4 + 2 + 4 + 4;
+    private static final String SEGMENT_SUFFIX = ".pack";
+    private static final String INDEX_SUFFIX = ".idx";
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 256 * 1024 * 1024;
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final AtomicLong deadBytes = new AtomicLong(0);
+        volatile long size;
+        volatile MappedByteBuffer mapped; // null until sealed
+
+        Segment(long id, Path path, FileChannel channel, long size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final int recordOffset, dataOffset, size;
+
+        Location(Segment segment, int recordOffset, int dataOffset, int size) {
+            this.segment = segment;
+            this.recordOffset = recordOffset;
+            this.dataOffset = dataOffset;
+            this.size = size;
+        }
+
+        int recordSize(int cidLength) {
+            return RECORD_OVERHEAD + cidLength + size;
+        }
+    }
+
+    /** A record as read back from a segment, or its index file
+     */
+    private static final class Record {
+        final Cid cid;
+        final int cidLength, recordOffset, dataLength;
+
+        Record(Cid cid, int cidLength, int recordOffset, int dataLength) {
+            this.cid = cid;
+            this.cidLength = cidLength;
+            this.recordOffset = recordOffset;
+            this.dataLength = dataLength;
+        }
+
+        boolean isTombstone() {
+            return dataLength == TOMBSTONE;
+        }
+
+        int dataOffset() {
+            return recordOffset + 4 + 2 + cidLength + 4;
+        }
+
+        int recordSize() {
+            return RECORD_OVERHEAD + cidLength + Math.max(0, dataLength);
+        }
+    }
+
+    private final Path root;
+    private final TransactionStore transactions;
+    private final Hasher hasher;
+    private final long maxSegmentBytes;
+    private final Map<Multihash, Location> index = new ConcurrentHashMap<>();
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Pack file compaction");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+    private final Object compactionLock = new Object();
+    private volatile Segment active;
+    private List<Record> activeRecords = new ArrayList<>();
+
+    public PackFileContentAddressedStorage(Path root, TransactionStore transactions, Hasher hasher, long maxSegmentBytes) {
+        if (maxSegmentBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Segments must be smaller than 2 GiB to be memory mapped");
+        this.root = root;
+        this.transactions = transactions;
+        this.hasher = hasher;
+        this.maxSegmentBytes = maxSegmentBytes;
+        File rootDir = root.toFile();
+        if (! rootDir.exists() && ! rootDir.mkdirs())
+            throw new IllegalStateException("Unable to create directory " + root);
+        if (! rootDir.isDirectory())
+            throw new IllegalStateException("Pack store path must be a directory! " + root);
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    public PackFileContentAddressedStorage(Path root, TransactionStore transactions, Hasher hasher) {
+        this(root, transactions, hasher, DEFAULT_MAX_SEGMENT_BYTES);
+    }
+
+    private Path segmentPath(long id) {
+        return root.resolve(String.format("%012d", id) + SEGMENT_SUFFIX);
+    }
+
+    private Path indexPath(Segment s) {
+        return root.resolve(String.format("%012d", s.id) + INDEX_SUFFIX);
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path path = segmentPath(id);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment s = new Segment(id, path, channel, channel.size());
+        segments.put(id, s);
+        return s;
+    }
+
+    private void load() throws IOException {
+        List<Long> ids;
+        try (Stream<Path> files = Files.list(root)) {
+            ids = files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(SEGMENT_SUFFIX))
+                    .map(n -> Long.parseLong(n.substring(0, n.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (int i=0; i < ids.size(); i++) {
+            Segment s = openSegment(ids.get(i));
+            boolean isLast = i == ids.size() - 1;
+            List<Record> records = isLast ? null : readIndexFile(s);
+            boolean scanned = records == null;
+            if (scanned)
+                records = scan(s, isLast);
+            for (Record r : records)
+                apply(s, r);
+            if (isLast)
+                activeRecords = records;
+            else {
+                if (scanned)
+                    writeIndexFile(s, records);
+                s.mapped = s.channel.map(FileChannel.MapMode.READ_ONLY, 0, s.size);
+            }
+        }
+        active = ids.isEmpty() ? openSegment(1) : segments.lastEntry().getValue();
+        LOG.info("Loaded " + index.size() + " blocks from " + segments.size() + " segments in " + root);
+    }
+
+    private void apply(Segment s, Record r) {
+        Location existing = r.isTombstone() ?
+                index.remove(r.cid) :
+                index.put(r.cid, new Location(s, r.recordOffset, r.dataOffset(), r.dataLength));
+        if (existing != null)
+            existing.segment.deadBytes.addAndGet(existing.recordSize(r.cidLength));
+        if (r.isTombstone())
+            s.deadBytes.addAndGet(r.recordSize());
+    }
+
+    /** Read every record in a segment. Only the last segment can have a torn write, so it is truncated after the
+     *  last complete record. A bad record in a sealed segment is skipped, keeping the valid records after it.
+     */
+    private List<Record> scan(Segment s, boolean isLast) throws IOException {
+        List<Record> records = new ArrayList<>();
+        long pos = 0;
+        long size = s.channel.size();
+        ByteBuffer header = ByteBuffer.allocate(6);
+        while (pos < size) {
+            Record r = readRecord(s.channel, pos, size, header);
+            if (r == null) {
+                if (isLast) {
+                    LOG.warning("Truncating torn record at " + pos + " in " + s.path);
+                    s.channel.truncate(pos);
+                    s.channel.force(true);
+                    size = pos;
+                    break;
+                }
+                long next = nextRecord(s.channel, pos, size);
+                LOG.warning("Skipping " + (next - pos) + " corrupt bytes at " + pos + " in sealed segment " + s.path);
+                s.deadBytes.addAndGet(next - pos);
+                pos = next;
+                continue;
+            }
+            records.add(r);
+            pos += r.recordSize();
+        }
+        s.size = size;
+        return records;
+    }
+
+    /**
+     *
+     * @return The offset of the first valid record after pos, or size if there are none
+     */
+    private static long nextRecord(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(6);
+        ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+        // consecutive chunks overlap so a magic number spanning the boundary is still found
+        for (long start = pos + 1; start + 4 <= size; start += chunk.capacity() - 3) {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), size - start));
+            readFully(channel, chunk, start);
+            for (int i=0; i + 4 <= chunk.limit(); i++)
+                if (chunk.getInt(i) == RECORD_MAGIC && readRecord(channel, start + i, size, header) != null)
+                    return start + i;
+        }
+        return size;
+    }
+
+    /**
+     *
+     * @return The record at pos, or null if it is incomplete or corrupt
+     */
+    private static Record readRecord(FileChannel channel, long pos, long size, ByteBuffer header) throws IOException {
+        if (pos + RECORD_OVERHEAD > size)
+            return null;
+        header.clear();
+        readFully(channel, header, pos);
+        header.flip();
+        if (header.getInt() != RECORD_MAGIC)
+            return null;
+        int cidLength = header.getShort() & 0xffff;
+        if (pos + RECORD_OVERHEAD + cidLength > size)
+            return null;
+        ByteBuffer rest = ByteBuffer.allocate(cidLength + 4);
+        readFully(channel, rest, pos + 6);
+        rest.flip();
+        byte[] cidBytes = new byte[cidLength];
+        rest.get(cidBytes);
+        int dataLength = rest.getInt();
+        if (dataLength < TOMBSTONE || pos + RECORD_OVERHEAD + cidLength + Math.max(0, dataLength) > size)
+            return null;
+        ByteBuffer data = ByteBuffer.allocate(Math.max(0, dataLength) + 4);
+        readFully(channel, data, pos + 6 + cidLength + 4);
+        data.flip();
+        CRC32 crc = new CRC32();
+        crc.update(cidBytes);
+        crc.update(dataLength >>> 24);
+        crc.update(dataLength >>> 16);
+        crc.update(dataLength >>> 8);
+        crc.update(dataLength);
+        crc.update(data.array(), 0, Math.max(0, dataLength));
+        data.position(Math.max(0, dataLength));
+        if ((int) crc.getValue() != data.getInt())
+            return null;
+        try {
+            return new Record(Cid.cast(cidBytes), cidLength, (int) pos, dataLength);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, pos);
+            if (read < 0)
+                throw new EOFException();
+            pos += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining())
+            pos += channel.write(buf, pos);
+    }
+
+    /**
+     *
+     * @return The records in a sealed segment from its index file, or null if it is missing or invalid
+     */
+    private List<Record> readIndexFile(Segment s) {
+        Path path = indexPath(s);
+        if (! path.toFile().exists())
+            return null;
+        try (DataInputStream din = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int count = din.readInt();
+            List<Record> records = new ArrayList<>(count);
+            for (int i=0; i < count; i++) {
+                byte[] cid = new byte[din.readShort() & 0xffff];
+                din.readFully(cid);
+                records.add(new Record(Cid.cast(cid), cid.length, din.readInt(), din.readInt()));
+            }
+            s.size = din.readLong();
+            if (s.size != s.channel.size())
+                return null;
+            return records;
+        } catch (IOException | RuntimeException e) {
+            LOG.warning("Ignoring invalid index file " + path);
+            return null;
+        }
+    }
+
+    private void writeIndexFile(Segment s, List<Record> records) throws IOException {
+        Path path = indexPath(s);
+        Path tmp = root.resolve(path.getFileName() + ".tmp");
+        try (FileOutputStream fout = new FileOutputStream(tmp.toFile());
+             DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(fout))) {
+            dout.writeInt(records.size());
+            for (Record r : records) {
+                byte[] cid = r.cid.toBytes();
+                dout.writeShort(cid.length);
+                dout.write(cid);
+                dout.writeInt(r.recordOffset);
+                dout.writeInt(r.dataLength);
+            }
+            dout.writeLong(s.size);
+            dout.flush();
+            fout.getFD().sync();
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Append a record to the active segment, sealing it first if it is full
+     *
+     * @return The location of the record, or null for a tombstone
+     */
+    private synchronized Location append(Cid cid, byte[] data) throws IOException {
+        byte[] cidBytes = cid.toBytes();
+        int dataLength = data == null ? TOMBSTONE : data.length;
+        int recordSize = RECORD_OVERHEAD + cidBytes.length + Math.max(0, dataLength);
+        if (active.size > 0 && active.size + recordSize > maxSegmentBytes)
+            seal();
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putInt(RECORD_MAGIC);
+        record.putShort((short) cidBytes.length);
+        record.put(cidBytes);
+        record.putInt(dataLength);
+        if (data != null)
+            record.put(data);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 6, cidBytes.length + 4 + Math.max(0, dataLength));
+        record.putInt((int) crc.getValue());
+        record.flip();
+        Segment target = active;
+        int offset = (int) target.size;
+        writeFully(target.channel, record, offset);
+        target.size += recordSize;
+        activeRecords.add(new Record(cid, cidBytes.length, offset, dataLength));
+        if (data == null) {
+            target.deadBytes.addAndGet(recordSize);
+            return null;
+        }
+        return new Location(target, offset, offset + 6 + cidBytes.length + 4, dataLength);
+    }
+
+    private void seal() throws IOException {
+        Segment full = active;
+        full.channel.force(true);
+        writeIndexFile(full, activeRecords);
+        full.mapped = full.channel.map(FileChannel.MapMode.READ_ONLY, 0, full.size);
+        active = openSegment(full.id + 1);
+        activeRecords = new ArrayList<>();
+    }
+
+    private synchronized void sync() throws IOException {
+        active.channel.force(false);
+    }
+
+    @Override
+    public ContentAddressedStorage directToOrigin() {
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<Multihash> id() {
+        return CompletableFuture.completedFuture(new Multihash(Multihash.Type.sha2_256, RAMStorage.hash("PackFileStorage".getBytes())));
+    }
+
+    @Override
+    public CompletableFuture<TransactionId> startTransaction(PublicKeyHash owner) {
+        return CompletableFuture.completedFuture(transactions.startTransaction(owner));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> closeTransaction(PublicKeyHash owner, TransactionId tid) {
+        transactions.closeTransaction(owner, tid);
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getChampLookup(PublicKeyHash owner, Multihash root, byte[] champKey) {
+        return getChampLookup(root, champKey, hasher);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> gc() {
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public List<Multihash> getOpenTransactionBlocks() {
+        return transactions.getOpenTransactionBlocks();
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> put(PublicKeyHash owner,
+                                                  PublicKeyHash writer,
+                                                  List<byte[]> signedHashes,
+                                                  List<byte[]> blocks,
+                                                  TransactionId tid) {
+        return put(owner, blocks, false, tid);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> putRaw(PublicKeyHash owner,
+                                                     PublicKeyHash writer,
+                                                     List<byte[]> signatures,
+                                                     List<byte[]> blocks,
+                                                     TransactionId tid,
+                                                     ProgressConsumer<Long> progressConsumer) {
+        return put(owner, blocks, true, tid);
+    }
+
+    /** Append all the blocks, then sync them to disk once
+     */
+    private CompletableFuture<List<Multihash>> put(PublicKeyHash owner, List<byte[]> blocks, boolean isRaw, TransactionId tid) {
+        try {
+            List<Multihash> res = new ArrayList<>(blocks.size());
+            for (byte[] block : blocks)
+                res.add(put(block, isRaw, tid, owner));
+            sync();
+            return CompletableFuture.completedFuture(res);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private Multihash put(byte[] data, boolean isRaw, TransactionId tid, PublicKeyHash owner) throws IOException {
+        Cid cid = new Cid(CID_V1, isRaw ? Cid.Codec.Raw : Cid.Codec.DagCbor, Multihash.Type.sha2_256, RAMStorage.hash(data));
+        transactions.addBlock(cid, tid, owner);
+        if (index.containsKey(cid))
+            return cid;
+        synchronized (this) {
+            if (index.containsKey(cid))
+                return cid;
+            index.put(cid, append(cid, data));
+        }
+        return cid;
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> pinUpdate(PublicKeyHash owner, Multihash existing, Multihash updated) {
+        return CompletableFuture.completedFuture(Arrays.asList(existing, updated));
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursivePin(PublicKeyHash owner, Multihash h) {
+        return CompletableFuture.completedFuture(Arrays.asList(h));
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursiveUnpin(PublicKeyHash owner, Multihash h) {
+        return CompletableFuture.completedFuture(Arrays.asList(h));
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+        if (hash instanceof Cid && ((Cid) hash).codec == Cid.Codec.Raw)
+            throw new IllegalStateException("Need to call getRaw if cid is not cbor!");
+        return getRaw(hash).thenApply(opt -> opt.map(CborObject::fromByteArray));
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+        if (hash.isIdentity())
+            return Futures.of(Optional.of(hash.getHash()));
+        // a compaction can move a block between the index lookup and the read
+        for (int attempt = 0; ; attempt++) {
+            Location loc = index.get(hash);
+            if (loc == null)
+                return Futures.of(Optional.empty());
+            try {
+                return Futures.of(Optional.of(read(loc)));
+            } catch (ClosedChannelException e) {
+                if (attempt > 0)
+                    throw new RuntimeException(e.getMessage(), e);
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static byte[] read(Location loc) throws IOException {
+        byte[] res = new byte[loc.size];
+        MappedByteBuffer mapped = loc.segment.mapped;
+        if (mapped != null) {
+            ByteBuffer view = mapped.duplicate();
+            view.position(loc.dataOffset);
+            view.get(res);
+        } else
+            readFully(loc.segment.channel, ByteBuffer.wrap(res), loc.dataOffset);
+        return res;
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> getSize(Multihash h) {
+        Location loc = index.get(h);
+        return CompletableFuture.completedFuture(loc == null ? Optional.empty() : Optional.of(loc.size));
+    }
+
+    public boolean contains(Multihash h) {
+        return index.containsKey(h);
+    }
+
+    @Override
+    public Stream<Multihash> getAllBlockHashes() {
+        return new ArrayList<>(index.keySet()).stream();
+    }
+
+    @Override
+    public void delete(Multihash h) {
+        bulkDelete(Collections.singletonList(h));
+    }
+
+    @Override
+    public void bulkDelete(List<Multihash> blocks) {
+        try {
+            synchronized (this) {
+                for (Multihash h : blocks) {
+                    Location existing = index.remove(h);
+                    if (existing == null)
+                        continue;
+                    Cid cid = h instanceof Cid ? (Cid) h : Cid.buildV0(h);
+                    append(cid, null);
+                    existing.segment.deadBytes.addAndGet(existing.recordSize(cid.toBytes().length));
+                }
+                sync();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        scheduleCompaction();
+    }
+
+    private void scheduleCompaction() {
+        if (! compactionScheduled.compareAndSet(false, true))
+            return;
+        compactor.submit(() -> {
+            compactionScheduled.set(false);
+            try {
+                compact();
+            } catch (Throwable t) {
+                LOG.log(Level.WARNING, "Error compacting pack files in " + root, t);
+            }
+        });
+    }
+
+    /** Rewrite the live blocks of every sealed segment which is mostly dead, then delete it.
+     *
+     * @return The number of segments removed
+     */
+    public int compact() throws IOException {
+        synchronized (compactionLock) {
+            int removed = 0;
+            for (Segment s : new ArrayList<>(segments.values())) {
+                if (s == active || s.deadBytes.get() < s.size * COMPACTION_THRESHOLD)
+                    continue;
+                boolean isOldest = segments.firstKey() == s.id;
+                List<Record> records = readIndexFile(s);
+                if (records == null)
+                    records = scan(s, false);
+                for (Record r : records) {
+                    // writes and deletes continue between records
+                    synchronized (this) {
+                        if (r.isTombstone()) {
+                            // an older segment may still hold the deleted block
+                            if (! isOldest && ! index.containsKey(r.cid))
+                                append(r.cid, null);
+                            continue;
+                        }
+                        Location current = index.get(r.cid);
+                        if (current == null || current.segment != s || current.recordOffset != r.recordOffset)
+                            continue;
+                        index.put(r.cid, append(r.cid, read(current)));
+                    }
+                }
+                // the copies must be durable before the original is deleted
+                sync();
+                segments.remove(s.id);
+                s.channel.close();
+                Files.deleteIfExists(indexPath(s));
+                Files.deleteIfExists(s.path);
+                removed++;
+            }
+            return removed;
+        }
+    }
+
+    /** Release all open segment files
+     */
+    public synchronized void close() throws IOException {
+        compactor.shutdown();
+        for (Segment s : segments.values())
+            s.channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "PackFileContentAddressedStorage " + root;
+    }
+}
@@ -11,21 +11,45 @@ import peergos.shared.storage.*;
 import peergos.shared.user.fs.cryptree.*;
 import peergos.shared.util.*;
 
+import java.nio.*;
 import java.security.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.stream.*;
 
+/** An in memory block store that is safe for concurrent use without any global lock.
+ *
+ *  Blocks are kept in a concurrent map, and CBOR is parsed by the caller's thread after the lookup. Optionally,
+ *  blocks can be kept off heap in direct buffers, up to a byte budget, so that large simulations don't grow the heap
+ *  and GC pauses with them. Blocks beyond the budget are kept on heap.
+ */
 public class RAMStorage implements DeletableContentAddressedStorage {
     private static final int CID_V1 = 1;
 
-    private Map<Multihash, byte[]> storage = new EfficientHashMap<>();
-    private Map<TransactionId, List<Multihash>> openTransactions = new ConcurrentHashMap<>();
+    // values are either a byte[] on heap, or a direct ByteBuffer off heap
+    private final Map<Multihash, Object> storage = new ConcurrentHashMap<>();
+    private final Map<TransactionId, Queue<Multihash>> openTransactions = new ConcurrentHashMap<>();
+    private final AtomicLong transactionCounter = new AtomicLong(0);
     private final Set<Multihash> pinnedRoots = new HashSet<>();
     private final Hasher hasher;
+    private final long offHeapBudget;
+    private final AtomicLong offHeapBytes = new AtomicLong(0);
+
+    /**
+     *
+     * @param hasher
+     * @param offHeapBudget The maximum total size of blocks to store off heap, 0 to store all blocks on heap
+     */
+    public RAMStorage(Hasher hasher, long offHeapBudget) {
+        if (offHeapBudget < 0)
+            throw new IllegalArgumentException("Off heap budget must be non-negative: " + offHeapBudget);
+        this.hasher = hasher;
+        this.offHeapBudget = offHeapBudget;
+    }
 
     public RAMStorage(Hasher hasher) {
-        this.hasher = hasher;
+        this(hasher, 0);
     }
 
     @Override
@@ -40,8 +64,8 @@ public class RAMStorage implements DeletableContentAddressedStorage {
 
     @Override
     public CompletableFuture<TransactionId> startTransaction(PublicKeyHash owner) {
-        TransactionId tid = new TransactionId(Long.toString(System.currentTimeMillis()));
-        openTransactions.put(tid, new ArrayList<>());
+        TransactionId tid = new TransactionId(System.currentTimeMillis() + "-" + transactionCounter.incrementAndGet());
+        openTransactions.put(tid, new ConcurrentLinkedQueue<>());
         return CompletableFuture.completedFuture(tid);
     }
 
@@ -68,14 +92,14 @@ public class RAMStorage implements DeletableContentAddressedStorage {
 
     @Override
     public void delete(Multihash hash) {
-        storage.remove(hash);
+        release(storage.remove(hash));
     }
 
     @Override
     public List<Multihash> getOpenTransactionBlocks() {
         return openTransactions.values()
                 .stream()
-                .flatMap(List::stream)
+                .flatMap(Queue::stream)
                 .collect(Collectors.toList());
     }
 
@@ -108,15 +132,56 @@ public class RAMStorage implements DeletableContentAddressedStorage {
                 }).collect(Collectors.toList()));
     }
 
-    private synchronized void put(Cid cid, byte[] data) {
-        storage.put(cid, data);
+    private void put(Cid cid, byte[] data) {
+        if (storage.containsKey(cid))
+            return;
+        Object stored = store(data);
+        if (storage.putIfAbsent(cid, stored) != null)
+            release(stored);
+    }
+
+    private Object store(byte[] data) {
+        if (offHeapBudget == 0)
+            return data;
+        while (true) {
+            long used = offHeapBytes.get();
+            if (used + data.length > offHeapBudget)
+                return data;
+            if (offHeapBytes.compareAndSet(used, used + data.length))
+                break;
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(data.length);
+        buf.put(data);
+        return buf;
+    }
+
+    private void release(Object stored) {
+        if (stored instanceof ByteBuffer)
+            offHeapBytes.addAndGet(-((ByteBuffer) stored).capacity());
+    }
+
+    private static byte[] bytes(Object stored) {
+        if (stored instanceof byte[])
+            return (byte[]) stored;
+        ByteBuffer buf = ((ByteBuffer) stored).duplicate();
+        byte[] res = new byte[buf.capacity()];
+        buf.clear();
+        buf.get(res);
+        return res;
+    }
+
+    private static int size(Object stored) {
+        return stored instanceof byte[] ? ((byte[]) stored).length : ((ByteBuffer) stored).capacity();
+    }
+
+    private Optional<byte[]> getBytes(Multihash hash) {
+        Object stored = storage.get(hash);
+        return stored == null ? Optional.empty() : Optional.of(bytes(stored));
     }
 
     @Override
     public CompletableFuture<Optional<byte[]>> getRaw(Multihash object) {
-        return CompletableFuture.completedFuture(storage.containsKey(object) ?
-                Optional.of(storage.get(object)) :
-                Optional.empty());
+        return CompletableFuture.completedFuture(getBytes(object));
     }
 
     @Override
@@ -126,20 +191,27 @@ public class RAMStorage implements DeletableContentAddressedStorage {
         return CompletableFuture.completedFuture(getAndParseObject(hash));
     }
 
-    private synchronized Optional<CborObject> getAndParseObject(Multihash hash) {
-        if (! storage.containsKey(hash))
-            return Optional.empty();
-        return Optional.of(CborObject.fromByteArray(storage.get(hash)));
+    private Optional<CborObject> getAndParseObject(Multihash hash) {
+        return getBytes(hash).map(CborObject::fromByteArray);
     }
 
-    public synchronized void clear() {
-        storage.clear();
+    public void clear() {
+        for (Multihash hash : storage.keySet())
+            delete(hash);
     }
 
-    public synchronized int size() {
+    public int size() {
         return storage.size();
     }
 
+    /**
+     *
+     * @return The total size of the blocks stored off heap
+     */
+    public long offHeapSize() {
+        return offHeapBytes.get();
+    }
+
     @Override
     public CompletableFuture<List<Multihash>> recursivePin(PublicKeyHash owner, Multihash h) {
         return CompletableFuture.completedFuture(Arrays.asList(h));
@@ -167,9 +239,8 @@ public class RAMStorage implements DeletableContentAddressedStorage {
 
     @Override
     public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
-        if (!storage.containsKey(block))
-            return CompletableFuture.completedFuture(Optional.empty());
-        return CompletableFuture.completedFuture(Optional.of(storage.get(block).length));
+        Object stored = storage.get(block);
+        return CompletableFuture.completedFuture(stored == null ? Optional.empty() : Optional.of(size(stored)));
     }
 
     public static Cid hashToCid(byte[] input, boolean isRaw) {
@@ -196,12 +267,10 @@ public class RAMStorage implements DeletableContentAddressedStorage {
 
         RAMStorage that = (RAMStorage) o;
 
-        for (Multihash ourKey : storage.keySet()) {
-            if (! Arrays.equals(storage.get(ourKey), ((RAMStorage) o).storage.get(ourKey)))
-                return false;
-        }
-        for (Multihash theirKey : ((RAMStorage) o).storage.keySet()) {
-            if (! Arrays.equals(storage.get(theirKey), ((RAMStorage) o).storage.get(theirKey)))
+        if (! storage.keySet().equals(that.storage.keySet()))
+            return false;
+        for (Multihash key : storage.keySet()) {
+            if (! Arrays.equals(getBytes(key).orElse(null), that.getBytes(key).orElse(null)))
                 return false;
         }
         return pinnedRoots != null ? pinnedRoots.equals(that.pinnedRoots) : that.pinnedRoots == null;
@@ -209,12 +278,12 @@ public class RAMStorage implements DeletableContentAddressedStorage {
 
     @Override
     public int hashCode() {
-        int result = storage != null ? storage.hashCode() : 0;
+        int result = storage.keySet().hashCode();
         result = 31 * result + (pinnedRoots != null ? pinnedRoots.hashCode() : 0);
         return result;
     }
 
     public int totalSize() {
-        return storage.values().stream().mapToInt(a -> a.length).sum();
+        return storage.values().stream().mapToInt(RAMStorage::size).sum();
     }
 }
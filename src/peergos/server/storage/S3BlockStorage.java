@@ -45,6 +45,13 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
             .name("p2p_block_gets")
             .help("Number of block gets which fell back to p2p retrieval")
             .register();
+    private static final Histogram nonLocalGetTimer = Histogram.build()
+            .name("s3_block_miss_seconds")
+            .help("Time to read a block which was not in S3, including the p2p retrieval")
+            .exponentialBuckets(0.01, 2, 16)
+            .register();
+    private static final int MAX_CONCURRENT_P2P_GETS = 32;
+    private static final int MAX_QUEUED_WRITE_BACKS = 1_000;
 
     private final Multihash id;
     private final String region, bucket, folder, regionEndpoint, host;
@@ -53,6 +60,7 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
     private final TransactionStore transactions;
     private final Hasher hasher;
     private final ContentAddressedStorage p2pFallback;
+    private final CoalescingBlockFetcher missingBlocks;
 
     public S3BlockStorage(S3Config config,
                           Multihash id,
@@ -73,6 +81,8 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
         this.transactions = transactions;
         this.hasher = hasher;
         this.p2pFallback = p2pFallback;
+        this.missingBlocks = new CoalescingBlockFetcher(p2pFallback, MAX_CONCURRENT_P2P_GETS, MAX_QUEUED_WRITE_BACKS,
+                this::writeBack);
     }
 
     @Override
@@ -171,7 +181,9 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
             }
 
             nonLocalGets.inc();
-            return p2pFallback.getRaw(hash);
+            Histogram.Timer missTimer = nonLocalGetTimer.startTimer();
+            return missingBlocks.getRaw(hash)
+                    .whenComplete((r, t) -> missTimer.observeDuration());
         } finally {
             readTimer.observeDuration();
         }
@@ -373,14 +385,7 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
         String key = hashToKey(cid);
         try {
             transactions.addBlock(cid, tid, owner);
-            String s3Key = folder + key;
-            Map<String, String> extraHeaders = new TreeMap<>();
-            extraHeaders.put("Content-Type", "application/octet-stream");
-            boolean hashContent = true;
-            String contentHash = hashContent ? ArrayOps.bytesToHex(hash.getHash()) : "UNSIGNED-PAYLOAD";
-            PresignedUrl putUrl = S3Request.preSignPut(s3Key, data.length, contentHash, false,
-                    ZonedDateTime.now(), host, extraHeaders, region, accessKeyId, secretKey);
-            HttpUtil.put(putUrl, data);
+            putToS3(key, hash.getHash(), data);
             return cid;
         } catch (IOException e) {
             LOG.log(Level.SEVERE, e.getMessage(), e);
@@ -390,6 +395,31 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
         }
     }
 
+    private void putToS3(String key, byte[] sha256, byte[] data) throws IOException {
+        String s3Key = folder + key;
+        Map<String, String> extraHeaders = new TreeMap<>();
+        extraHeaders.put("Content-Type", "application/octet-stream");
+        boolean hashContent = true;
+        String contentHash = hashContent ? ArrayOps.bytesToHex(sha256) : "UNSIGNED-PAYLOAD";
+        PresignedUrl putUrl = S3Request.preSignPut(s3Key, data.length, contentHash, false,
+                ZonedDateTime.now(), host, extraHeaders, region, accessKeyId, secretKey);
+        HttpUtil.put(putUrl, data);
+    }
+
+    /** Store a block retrieved over p2p so later reads are local. This is outside any transaction, so if nothing
+     *  references the block it will be removed by the next GC, like any other cache entry.
+     */
+    private void writeBack(Multihash hash, byte[] data) {
+        Histogram.Timer writeTimer = writeTimerLog.labels("write-back").startTimer();
+        try {
+            putToS3(hashToKey(hash), hash.getHash(), data);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            writeTimer.observeDuration();
+        }
+    }
+
     public Stream<Multihash> getAllBlockHashes() {
         // todo make this actually streaming
         return getFiles(Long.MAX_VALUE).stream();
@@ -448,33 +478,41 @@ public class S3BlockStorage implements DeletableContentAddressedStorage {
     }
 
     public void delete(Multihash hash) {
+        Histogram.Timer timer = writeTimerLog.labels("delete").startTimer();
         try {
             PresignedUrl delUrl = S3Request.preSignDelete(folder + hashToKey(hash), ZonedDateTime.now(), host,
                     region, accessKeyId, secretKey);
             HttpUtil.delete(delUrl);
         } catch (Exception e) {
             throw new RuntimeException(e);
+        } finally {
+            timer.observeDuration();
         }
     }
 
     public void bulkDelete(List<Multihash> hash) {
-        List<String> keys = hash.stream()
-                .map(h -> folder + hashToKey(h))
-                .collect(Collectors.toList());
-        S3Request.bulkDelete(keys, ZonedDateTime.now(), host, region, accessKeyId, secretKey,
-                b -> ArrayOps.bytesToHex(Hash.sha256(b)),
-                (url, body) -> {
-                    try {
-                        return HttpUtil.post(url, body);
-                    } catch (IOException e) {
-                        String msg = e.getMessage();
-                        boolean rateLimited = msg.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>SlowDown</Code>");
-                        if (rateLimited) {
-                            throw new RateLimitException();
+        Histogram.Timer timer = writeTimerLog.labels("bulk-delete").startTimer();
+        try {
+            List<String> keys = hash.stream()
+                    .map(h -> folder + hashToKey(h))
+                    .collect(Collectors.toList());
+            S3Request.bulkDelete(keys, ZonedDateTime.now(), host, region, accessKeyId, secretKey,
+                    b -> ArrayOps.bytesToHex(Hash.sha256(b)),
+                    (url, body) -> {
+                        try {
+                            return HttpUtil.post(url, body);
+                        } catch (IOException e) {
+                            String msg = e.getMessage();
+                            boolean rateLimited = msg.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>SlowDown</Code>");
+                            if (rateLimited) {
+                                throw new RateLimitException();
+                            }
+                            throw new RuntimeException(e);
                         }
-                        throw new RuntimeException(e);
-                    }
-                });
+                    });
+        } finally {
+            timer.observeDuration();
+        }
     }
 
     public static void main(String[] args) throws Exception {
@@ -21,6 +21,7 @@ import java.nio.file.*;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
 import java.util.stream.*;
 
@@ -282,6 +283,114 @@ public class ChampTests {
             }
     }
 
+    @Test
+    public void unchangedEncoding() {
+        // root hashes of these trees using the original BitSet based node layout
+        Map<Integer, String> expectedRoots = new HashMap<>();
+        expectedRoots.put(3, "zdpuAmX7HixsJNTKCQ4FWyHM3AqNf81CGF2x4ZB5XR1LgqBr3");
+        expectedRoots.put(5, "zdpuAzfTcpHHsXXPLp2bBjiPbjceseH1DmE6wgPjzr5AiXiGx");
+        Function<ByteArrayWrapper, CompletableFuture<byte[]>> identity = x -> Futures.of(x.data);
+        for (int bitWidth : expectedRoots.keySet()) {
+            RAMStorage storage = new RAMStorage(crypto.hasher);
+            SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+            TransactionId tid = storage.startTransaction(user.publicKeyHash).join();
+            Random r = new Random(7);
+            Champ<CborObject.CborMerkleLink> empty = Champ.empty(c -> (CborObject.CborMerkleLink) c);
+            Pair<Champ<CborObject.CborMerkleLink>, Multihash> current = new Pair<>(empty,
+                    storage.put(user.publicKeyHash, user, empty.serialize(), writeHasher, tid).join());
+            List<ByteArrayWrapper> keys = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                ByteArrayWrapper key = new ByteArrayWrapper(randomKey(new byte[0], 32, r));
+                Multihash value = new Multihash(Multihash.Type.sha2_256, randomKey(new byte[0], 32, r));
+                keys.add(key);
+                current = current.left.put(user.publicKeyHash, user, key, key.data, 0, Optional.empty(),
+                        Optional.of(new CborObject.CborMerkleLink(value)), bitWidth, 4, identity, tid, storage,
+                        writeHasher, current.right).join();
+            }
+            for (ByteArrayWrapper key : keys.subList(0, 500)) {
+                Optional<CborObject.CborMerkleLink> existing = current.left.get(key, key.data, 0, bitWidth, storage).join();
+                current = current.left.remove(user.publicKeyHash, user, key, key.data, 0, existing, bitWidth, 4, tid,
+                        storage, writeHasher, current.right).join();
+            }
+            Assert.assertEquals(expectedRoots.get(bitWidth), current.right.toString());
+
+            // decoding and re-encoding every node is the identity
+            LinkedList<Multihash> toVisit = new LinkedList<>(Collections.singletonList(current.right));
+            while (! toVisit.isEmpty()) {
+                Optional<CborObject> raw = storage.get(toVisit.poll()).join();
+                if (! raw.isPresent())
+                    continue; // a value
+                Champ<CborObject.CborMerkleLink> decoded = Champ.fromCbor(raw.get(), c -> (CborObject.CborMerkleLink) c);
+                decoded.hashCode(); // force every payload to be decoded
+                Assert.assertArrayEquals(raw.get().serialize(), decoded.serialize());
+                toVisit.addAll(raw.get().links());
+            }
+        }
+    }
+
+    @Test
+    public void putAllMatchesSinglePuts() throws Exception {
+        int bitWidth = ChampWrapper.BIT_WIDTH;
+        int maxCollisions = ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL;
+        RAMStorage singleStorage = new RAMStorage(crypto.hasher);
+        RAMStorage batchStorage = new RAMStorage(crypto.hasher);
+        SigningPrivateKeyAndPublicHash user = createUser(singleStorage, crypto);
+        createUser(batchStorage, crypto);
+        Random r = new Random(28);
+        Supplier<Multihash> randomHash = () -> {
+            byte[] hash = new byte[32];
+            r.nextBytes(hash);
+            return new Multihash(Multihash.Type.sha2_256, hash);
+        };
+        // build the same starting tree in both stores
+        Random singleRandom = new Random(1), batchRandom = new Random(1);
+        Pair<Champ<CborObject.CborMerkleLink>, Multihash> singleBase = randomTree(user, singleRandom, 0, 32, 1000,
+                bitWidth, maxCollisions, hasher, () -> new Multihash(Multihash.Type.sha2_256, randomKey(new byte[0], 32, singleRandom)),
+                singleStorage);
+        Pair<Champ<CborObject.CborMerkleLink>, Multihash> batchBase = randomTree(user, batchRandom, 0, 32, 1000,
+                bitWidth, maxCollisions, hasher, () -> new Multihash(Multihash.Type.sha2_256, randomKey(new byte[0], 32, batchRandom)),
+                batchStorage);
+        Assert.assertEquals(singleBase.right, batchBase.right);
+
+        // new keys, plus updates and removals of existing keys
+        List<Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>>> mutations = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            mutations.add(new Triple<>(new ByteArrayWrapper(randomKey(new byte[0], 32, r)), Optional.empty(),
+                    Optional.of(new CborObject.CborMerkleLink(randomHash.get()))));
+        Map<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>> existing = new HashMap<>();
+        singleBase.left.applyToAllMappings(existing, (m, p) -> {
+            m.put(p.left, p.right);
+            return Futures.of(m);
+        }, singleStorage).join();
+        existing.entrySet().stream().limit(100).forEach(e -> mutations.add(new Triple<>(e.getKey(), e.getValue(),
+                r.nextBoolean() ? Optional.empty() : Optional.of(new CborObject.CborMerkleLink(randomHash.get())))));
+
+        TransactionId tid = singleStorage.startTransaction(user.publicKeyHash).join();
+        int singleBlocksBefore = singleStorage.size();
+        long t0 = System.nanoTime();
+        Pair<Champ<CborObject.CborMerkleLink>, Multihash> single = singleBase;
+        for (Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>> m : mutations)
+            single = single.left.put(user.publicKeyHash, user, m.left, hasher.apply(m.left).join(), 0, m.middle, m.right,
+                    bitWidth, maxCollisions, hasher, tid, singleStorage, writeHasher, single.right).join();
+        long singleDuration = System.nanoTime() - t0;
+        int singleWrites = singleStorage.size() - singleBlocksBefore;
+
+        TransactionId batchTid = batchStorage.startTransaction(user.publicKeyHash).join();
+        int batchBlocksBefore = batchStorage.size();
+        long t1 = System.nanoTime();
+        Pair<Champ<CborObject.CborMerkleLink>, Multihash> batch = batchBase.left.putAll(user.publicKeyHash, user, mutations,
+                bitWidth, maxCollisions, hasher, batchTid, batchStorage, writeHasher, batchBase.right).join();
+        long batchDuration = System.nanoTime() - t1;
+        int batchWrites = batchStorage.size() - batchBlocksBefore;
+
+        System.out.printf("CHAMP %d mutations: single puts %d mS writing %d blocks, putAll %d mS writing %d blocks\n",
+                mutations.size(), singleDuration / 1_000_000, singleWrites, batchDuration / 1_000_000, batchWrites);
+        Assert.assertEquals("putAll gives the same root as single puts", single.right, batch.right);
+        Assert.assertTrue("putAll writes fewer blocks", batchWrites < singleWrites);
+        for (Triple<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>> m : mutations)
+            Assert.assertEquals(m.right, batch.left.get(m.left, hasher.apply(m.left).join(), 0, bitWidth, batchStorage).join());
+    }
+
     @Test
     public void correctDelete() throws Exception {
         ContentAddressedStorage storage = new FileContentAddressedStorage(Files.createTempDirectory("peergos-tmp"),
@@ -348,6 +457,65 @@ public class ChampTests {
         }
     }
 
+    @Test
+    public void prefetchingTraversal() throws Exception {
+        RAMStorage storage = new RAMStorage(crypto.hasher);
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(28);
+        Supplier<Multihash> randomHash = () -> new Multihash(Multihash.Type.sha2_256, randomKey(new byte[0], 32, r));
+        Pair<Champ<CborObject.CborMerkleLink>, Multihash> tree = randomTree(user, r, 0, 32, 3000,
+                ChampWrapper.BIT_WIDTH, ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL, hasher, randomHash, storage);
+
+        // complete block fetches out of order on other threads
+        ScheduledExecutorService timer = Executors.newScheduledThreadPool(4);
+        Random delays = new Random(1);
+        AtomicInteger inFlight = new AtomicInteger(0), maxInFlight = new AtomicInteger(0);
+        ContentAddressedStorage slow = new DelegatingStorage(storage) {
+            @Override
+            public ContentAddressedStorage directToOrigin() {
+                return this;
+            }
+
+            @Override
+            public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                CompletableFuture<Optional<CborObject>> res = new CompletableFuture<>();
+                int delay;
+                synchronized (delays) {
+                    delay = delays.nextInt(3);
+                }
+                timer.schedule(() -> {
+                    inFlight.decrementAndGet();
+                    res.complete(storage.get(hash).join());
+                }, delay, TimeUnit.MILLISECONDS);
+                return res;
+            }
+        };
+        BiFunction<List<ByteArrayWrapper>, Pair<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>>,
+                CompletableFuture<List<ByteArrayWrapper>>> collect = (acc, m) -> {
+            acc.add(m.left);
+            return Futures.of(acc);
+        };
+        List<ByteArrayWrapper> serial = tree.left.applyToAllMappings(new ArrayList<>(), collect, x -> false, 1, storage).join();
+        Assert.assertEquals(3000, serial.size());
+        Assert.assertEquals(3000, new HashSet<>(serial).size());
+        Assert.assertEquals(3000L, (long) tree.left.size(0, slow).join());
+
+        maxInFlight.set(0);
+        List<ByteArrayWrapper> parallel = tree.left.applyToAllMappings(new ArrayList<>(), collect, x -> false, 8, slow).join();
+        Assert.assertEquals("Same order", serial, parallel);
+        Assert.assertTrue("Bounded concurrency", maxInFlight.get() <= 9);
+
+        // stop early, with an asynchronous consumer
+        List<ByteArrayWrapper> prefix = tree.left.applyToAllMappings(new ArrayList<ByteArrayWrapper>(),
+                (acc, m) -> CompletableFuture.supplyAsync(() -> {
+                    acc.add(m.left);
+                    return acc;
+                }), acc -> acc.size() == 100, 8, slow).join();
+        Assert.assertEquals(serial.subList(0, 100), prefix);
+        timer.shutdown();
+    }
+
     private static byte[] randomKey(byte[] startingWith, int extraBytes, Random r) {
         byte[] suffix = new byte[extraBytes];
         r.nextBytes(suffix);
@@ -0,0 +1,137 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.storage.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class CoalescingBlockFetcherTests {
+    private static final Hasher hasher = Main.initCrypto().hasher;
+    private static final PublicKeyHash owner = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, new byte[32]));
+
+    /** A fallback whose reads only complete when released */
+    private static class GatedStorage extends RAMStorage {
+        final AtomicInteger gets = new AtomicInteger();
+        final CompletableFuture<Boolean> gate = new CompletableFuture<>();
+
+        GatedStorage() {
+            super(hasher);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getRaw(Multihash object) {
+            gets.incrementAndGet();
+            return gate.thenCompose(x -> super.getRaw(object));
+        }
+    }
+
+    private static Multihash putRaw(RAMStorage storage, byte[] block) {
+        TransactionId tid = storage.startTransaction(owner).join();
+        Multihash h = storage.putRaw(owner, owner, Arrays.asList(new byte[0]), Arrays.asList(block), tid, x -> {}).join().get(0);
+        storage.closeTransaction(owner, tid).join();
+        return h;
+    }
+
+    @Test
+    public void concurrentMissesAreCoalesced() throws Exception {
+        GatedStorage remote = new GatedStorage();
+        Random random = new Random(42);
+        List<Multihash> hashes = new ArrayList<>();
+        Map<Multihash, byte[]> blocks = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] block = new byte[1024];
+            random.nextBytes(block);
+            Multihash h = putRaw(remote, block);
+            hashes.add(h);
+            blocks.put(h, block);
+        }
+        Map<Multihash, byte[]> writtenBack = new ConcurrentHashMap<>();
+        CountDownLatch allWritten = new CountDownLatch(blocks.size());
+        CoalescingBlockFetcher fetcher = new CoalescingBlockFetcher(remote, 4, 100, (h, b) -> {
+            writtenBack.put(h, b);
+            allWritten.countDown();
+        });
+
+        List<CompletableFuture<Optional<byte[]>>> reads = new ArrayList<>();
+        for (int reader = 0; reader < 5; reader++)
+            for (Multihash h : hashes)
+                reads.add(fetcher.getRaw(h));
+        // only the first misses are started, the rest are queued behind them
+        Assert.assertEquals(4, remote.gets.get());
+
+        remote.gate.complete(true);
+        for (int i = 0; i < reads.size(); i++)
+            Assert.assertArrayEquals(blocks.get(hashes.get(i % hashes.size())), reads.get(i).join().get());
+        Assert.assertEquals(hashes.size(), remote.gets.get());
+
+        Assert.assertTrue(allWritten.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(blocks.keySet(), writtenBack.keySet());
+        fetcher.close();
+    }
+
+    @Test
+    public void unverifiedBlocksAreNotWrittenBack() {
+        RAMStorage remote = new RAMStorage(hasher) {
+            @Override
+            public CompletableFuture<Optional<byte[]>> getRaw(Multihash object) {
+                return CompletableFuture.completedFuture(Optional.of(new byte[]{1, 2, 3}));
+            }
+        };
+        List<Multihash> writtenBack = new ArrayList<>();
+        CoalescingBlockFetcher fetcher = new CoalescingBlockFetcher(remote, 4, 100, (h, b) -> writtenBack.add(h));
+        Multihash h = new Multihash(Multihash.Type.sha2_256, new byte[32]);
+        Assert.assertTrue(fetcher.getRaw(h).join().isPresent());
+        Assert.assertTrue(fetcher.getRaw(h).join().isPresent());
+        fetcher.close();
+        Assert.assertTrue(writtenBack.isEmpty());
+    }
+
+    @Test
+    public void synchronousFallbackDoesNotRunTheQueueInline() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        AtomicBoolean first = new AtomicBoolean(true);
+        // like IpfsDHT, reads block the calling thread and return a completed future
+        RAMStorage remote = new RAMStorage(hasher) {
+            @Override
+            public CompletableFuture<Optional<byte[]>> getRaw(Multihash object) {
+                if (first.getAndSet(false)) {
+                    firstStarted.countDown();
+                    try {
+                        releaseFirst.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return super.getRaw(object);
+            }
+        };
+        Random random = new Random(42);
+        List<Multihash> hashes = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            byte[] block = new byte[32];
+            random.nextBytes(block);
+            hashes.add(putRaw(remote, block));
+        }
+        CoalescingBlockFetcher fetcher = new CoalescingBlockFetcher(remote, 1, 10, (h, b) -> {});
+
+        CompletableFuture<CompletableFuture<Optional<byte[]>>> firstRead =
+                CompletableFuture.supplyAsync(() -> fetcher.getRaw(hashes.get(0)));
+        firstStarted.await();
+        List<CompletableFuture<Optional<byte[]>>> queued = new ArrayList<>();
+        for (Multihash h : hashes.subList(1, hashes.size()))
+            queued.add(fetcher.getRaw(h));
+
+        releaseFirst.countDown();
+        Assert.assertTrue(firstRead.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS).isPresent());
+        for (CompletableFuture<Optional<byte[]>> read : queued)
+            Assert.assertTrue(read.get(30, TimeUnit.SECONDS).isPresent());
+        fetcher.close();
+    }
+}
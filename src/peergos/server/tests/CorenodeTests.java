@@ -1,11 +1,24 @@
 package peergos.server.tests;
 
 import org.junit.*;
-import peergos.server.corenode.UsernameValidator;
+import peergos.server.*;
+import peergos.server.corenode.*;
+import peergos.shared.*;
+import peergos.shared.corenode.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.asymmetric.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
 
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
 import java.util.*;
 
 public class CorenodeTests {
+    private static final Crypto crypto = Main.initCrypto();
+    private static final PublicKeyHash pkiOwner = randomKey().left;
 
     @Test
     public void isValidUsernameTest() {
@@ -46,4 +59,146 @@ public class CorenodeTests {
         areValid.forEach(username -> Assert.assertTrue(username + " is valid", UsernameValidator.isValidUsername(username)));
         areNotValid.forEach(username -> Assert.assertFalse(username +" is not valid", UsernameValidator.isValidUsername(username)));
     }
+
+    @Test
+    public void usernamePrefixIndex() {
+        UsernameIndex index = new UsernameIndex(Arrays.asList("bob", "alice", "bobby", "carol"));
+        index.add("bo");
+        index.addAll(Arrays.asList("bob", "boris", "al"));
+
+        Assert.assertEquals(7, index.size());
+        Assert.assertTrue(index.contains("boris"));
+        Assert.assertFalse(index.contains("b"));
+        Assert.assertEquals(Arrays.asList("al", "alice", "bo", "bob", "bobby", "boris", "carol"), index.getAll());
+        Assert.assertEquals(Arrays.asList("bo", "bob", "bobby", "boris"), index.getByPrefix("bo"));
+        Assert.assertEquals(Arrays.asList("bob", "bobby"), index.getByPrefix("bo", 1, 2));
+        Assert.assertEquals(Arrays.asList("boris"), index.getByPrefix("bo", 3, 10));
+        Assert.assertEquals(Collections.emptyList(), index.getByPrefix("bo", 10, 10));
+        Assert.assertEquals(Collections.emptyList(), index.getByPrefix("dave"));
+        Assert.assertEquals(index.getAll(), index.getByPrefix(""));
+    }
+
+    private static Pair<PublicKeyHash, SecretSigningKey> randomKey() {
+        SigningKeyPair pair = SigningKeyPair.random(crypto.random, crypto.signer);
+        return new Pair<>(ContentAddressedStorage.hashKey(pair.publicSigningKey), pair.secretSigningKey);
+    }
+
+    private static List<UserPublicKeyLink> chain(String username) {
+        Pair<PublicKeyHash, SecretSigningKey> key = randomKey();
+        UserPublicKeyLink.Claim claim = UserPublicKeyLink.Claim.build(username, key.right,
+                LocalDate.now().plusYears(1), Collections.emptyList());
+        return Arrays.asList(new UserPublicKeyLink(key.left, claim));
+    }
+
+    /** Apply and journal a change, as a mirror sync does */
+    private static MirrorJournal.JournalEntry sync(MirrorJournal journal, Map<String, List<UserPublicKeyLink>> changed) {
+        MirrorJournal.JournalEntry entry = new MirrorJournal.JournalEntry(pkiOwner, pkiOwner, MaybeMultihash.empty(),
+                MaybeMultihash.empty(), journal.state.getSequence() + 1, changed);
+        journal.state.apply(entry);
+        journal.append(entry);
+        return entry;
+    }
+
+    private static Path mirrorState() throws IOException {
+        return Files.createTempDirectory("pki-mirror").resolve("pki-state.cbor");
+    }
+
+    @Test
+    public void mirrorJournalReplay() throws IOException {
+        Path statePath = mirrorState();
+        MirrorJournal journal = MirrorJournal.load(statePath, pkiOwner);
+        Assert.assertEquals(0, journal.state.getSequence());
+
+        List<UserPublicKeyLink> alice = chain("alice"), bob = chain("bob"), alice2 = chain("alice");
+        sync(journal, Map.of("alice", alice, "bob", bob));
+        sync(journal, Map.of("alice", alice2));
+        Assert.assertFalse(Files.exists(statePath));
+
+        // a fresh mirror rebuilds the state from the journal alone
+        MirrorJournal.CorenodeState replayed = MirrorJournal.load(statePath, pkiOwner).state;
+        Assert.assertEquals(2, replayed.getSequence());
+        Assert.assertEquals(alice2, replayed.getChain("alice"));
+        Assert.assertEquals(bob, replayed.getChain("bob"));
+        Assert.assertEquals(Optional.of("bob"), replayed.getUsername(bob.get(0).owner));
+        Assert.assertEquals(Optional.of("alice"), replayed.getUsername(alice2.get(0).owner));
+        Assert.assertEquals(Arrays.asList("alice", "bob"), replayed.getUsernames(""));
+        // loading compacts the journal into a snapshot
+        Assert.assertTrue(Files.exists(statePath));
+        Assert.assertFalse(Files.exists(MirrorJournal.journalPath(statePath)));
+    }
+
+    @Test
+    public void mirrorJournalCompactionThenReplay() throws IOException {
+        Path statePath = mirrorState();
+        MirrorJournal journal = MirrorJournal.load(statePath, pkiOwner);
+        List<UserPublicKeyLink> alice = chain("alice"), bob = chain("bob"), carol = chain("carol");
+        sync(journal, Map.of("alice", alice));
+        sync(journal, Map.of("bob", bob));
+        journal.compact();
+        Assert.assertFalse(Files.exists(MirrorJournal.journalPath(statePath)));
+        sync(journal, Map.of("carol", carol));
+
+        MirrorJournal.CorenodeState replayed = MirrorJournal.load(statePath, pkiOwner).state;
+        Assert.assertEquals(3, replayed.getSequence());
+        Assert.assertEquals(alice, replayed.getChain("alice"));
+        Assert.assertEquals(bob, replayed.getChain("bob"));
+        Assert.assertEquals(carol, replayed.getChain("carol"));
+        Assert.assertEquals(Arrays.asList("alice", "bob", "carol"), replayed.getUsernames(""));
+    }
+
+    @Test
+    public void mirrorJournalSkipsAppliedEntries() throws IOException {
+        Path statePath = mirrorState();
+        Path journalPath = MirrorJournal.journalPath(statePath);
+        MirrorJournal journal = MirrorJournal.load(statePath, pkiOwner);
+        List<UserPublicKeyLink> alice = chain("alice"), alice2 = chain("alice"), bob = chain("bob");
+        sync(journal, Map.of("alice", alice));
+        byte[] staleJournal = Files.readAllBytes(journalPath);
+        sync(journal, Map.of("alice", alice2));
+        journal.compact();
+
+        // a crash during compaction leaves entries which are already in the snapshot
+        Files.write(journalPath, staleJournal);
+        MirrorJournal reloaded = MirrorJournal.load(statePath, pkiOwner);
+        Assert.assertEquals(2, reloaded.state.getSequence());
+        Assert.assertEquals(alice2, reloaded.state.getChain("alice"));
+
+        // later entries still apply
+        sync(reloaded, Map.of("bob", bob));
+        MirrorJournal.CorenodeState replayed = MirrorJournal.load(statePath, pkiOwner).state;
+        Assert.assertEquals(3, replayed.getSequence());
+        Assert.assertEquals(alice2, replayed.getChain("alice"));
+        Assert.assertEquals(bob, replayed.getChain("bob"));
+    }
+
+    @Test
+    public void mirrorJournalTruncatedEntry() throws IOException {
+        Path statePath = mirrorState();
+        Path journalPath = MirrorJournal.journalPath(statePath);
+        MirrorJournal journal = MirrorJournal.load(statePath, pkiOwner);
+        List<UserPublicKeyLink> alice = chain("alice"), bob = chain("bob"), carol = chain("carol");
+        sync(journal, Map.of("alice", alice));
+        sync(journal, Map.of("bob", bob));
+
+        // a crash part way through appending the last entry
+        byte[] written = Files.readAllBytes(journalPath);
+        Files.write(journalPath, Arrays.copyOfRange(written, 0, written.length - 3));
+        MirrorJournal recovered = MirrorJournal.load(statePath, pkiOwner);
+        Assert.assertEquals(1, recovered.state.getSequence());
+        Assert.assertEquals(alice, recovered.state.getChain("alice"));
+        Assert.assertEquals(Collections.emptyList(), recovered.state.getChain("bob"));
+
+        // the next sync re-applies the lost change on top of the recovered state
+        sync(recovered, Map.of("bob", bob, "carol", carol));
+        MirrorJournal.CorenodeState replayed = MirrorJournal.load(statePath, pkiOwner).state;
+        Assert.assertEquals(2, replayed.getSequence());
+        Assert.assertEquals(Arrays.asList("alice", "bob", "carol"), replayed.getUsernames(""));
+
+        // anything other than a truncated final entry is an error
+        Files.write(journalPath, new byte[]{0, 0, 0, 1, (byte) 0xff});
+        try {
+            MirrorJournal.load(statePath, pkiOwner);
+            Assert.fail("Loaded a corrupt journal");
+        } catch (RuntimeException expected) {}
+    }
 }
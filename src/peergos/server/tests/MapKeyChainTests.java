@@ -0,0 +1,32 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.shared.*;
+import peergos.shared.user.fs.*;
+
+import java.util.*;
+
+public class MapKeyChainTests {
+    private static final Crypto crypto = Main.initCrypto();
+
+    @Test
+    public void randomAccessMatchesHashChain() {
+        byte[] streamSecret = crypto.random.randomBytes(32);
+        byte[] firstMapKey = crypto.random.randomBytes(32);
+        int nChunks = 100;
+        List<byte[]> expected = new ArrayList<>();
+        expected.add(firstMapKey);
+        for (int i = 1; i < nChunks; i++)
+            expected.add(FileProperties.calculateNextMapKey(streamSecret, expected.get(i - 1), crypto.hasher).join());
+
+        MapKeyChain.Cache chains = new MapKeyChain.Cache();
+        Random r = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            int chunk = r.nextInt(nChunks);
+            long offset = (long) chunk * Chunk.MAX_SIZE + r.nextInt(Chunk.MAX_SIZE);
+            byte[] mapKey = FileProperties.calculateMapKey(streamSecret, firstMapKey, offset, chains, crypto.hasher).join();
+            Assert.assertArrayEquals(expected.get(chunk), mapKey);
+        }
+    }
+}
@@ -204,6 +204,16 @@ public class MultiUserTests {
         PeergosNetworkUtils.socialFeedFailsInUI(network, random);
     }
 
+    @Test
+    public void socialFeedGroupSharing() {
+        PeergosNetworkUtils.socialFeedGroupSharing(network, random);
+    }
+
+    @Test
+    public void incomingCapCursorReuse() {
+        PeergosNetworkUtils.incomingCapCursorReuse(network, random);
+    }
+
     @Test
     public void socialFeedEmpty() {
         PeergosNetworkUtils.socialFeedEmpty(network, random);
@@ -357,6 +367,73 @@ public class MultiUserTests {
         checkUserValidity(network, u1.username);
     }
 
+    @Test
+    public void revokeReadAccessToLargeFolder() {
+        UserContext u1 = PeergosNetworkUtils.ensureSignedUp(random(), "a", network.clear(), crypto);
+        UserContext u2 = PeergosNetworkUtils.ensureSignedUp(random(), "a", network.clear(), crypto);
+        PeergosNetworkUtils.friendBetweenGroups(Arrays.asList(u1), Arrays.asList(u2));
+
+        // enough nodes to need several batches of puts, in a few levels of subdirectories
+        Path folder = Paths.get(u1.username, "folder");
+        u1.getUserRoot().join().mkdir("folder", u1.network, false, crypto).join();
+        Map<Path, byte[]> files = new HashMap<>();
+        for (String sub : Arrays.asList("a", "b", "c")) {
+            u1.getByPath(folder).join().get().mkdir(sub, u1.network, false, crypto).join();
+            List<Pair<String, byte[]>> small = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                byte[] data = ("file " + sub + i).getBytes();
+                small.add(new Pair<>("file" + i + ".txt", data));
+                files.put(folder.resolve(sub).resolve("file" + i + ".txt"), data);
+            }
+            u1.uploadSmallFiles(folder.resolve(sub), small).join();
+        }
+        byte[] large = new byte[6 * 1024 * 1024];
+        random.nextBytes(large);
+        u1.getByPath(folder.resolve("a")).join().get().uploadOrReplaceFile("large.bin", AsyncReader.build(large),
+                large.length, u1.network, crypto, x -> {}, crypto.random.randomBytes(32)).join();
+        files.put(folder.resolve("a").resolve("large.bin"), large);
+
+        u1.shareReadAccessWith(folder, Collections.singleton(u2.username)).join();
+        Assert.assertTrue(u2.getByPath(folder.resolve("b").resolve("file3.txt")).join().isPresent());
+        u1.unShareReadAccess(folder, u2.username).join();
+
+        UserContext u2Fresh = PeergosNetworkUtils.ensureSignedUp(u2.username, "a", network.clear(), crypto);
+        Assert.assertTrue("Revoked", u2Fresh.getByPath(folder).join().isEmpty());
+        UserContext u1Fresh = PeergosNetworkUtils.ensureSignedUp(u1.username, "a", network.clear(), crypto);
+        for (Map.Entry<Path, byte[]> e : files.entrySet())
+            UserTests.checkFileContents(e.getValue(), u1Fresh.getByPath(e.getKey()).join().get(), u1Fresh);
+        checkUserValidity(network, u1.username);
+    }
+
+    @Test
+    public void bulkSharedWithCacheUpdate() {
+        UserContext u1 = PeergosNetworkUtils.ensureSignedUp(random(), "a", network.clear(), crypto);
+        Path folder = Paths.get(u1.username, "folder");
+        u1.getUserRoot().join().mkdir("folder", u1.network, false, crypto).join();
+        Map<Path, Set<String>> reads = new HashMap<>();
+        Map<Path, Set<String>> writes = new HashMap<>();
+        for (String sub : Arrays.asList("a", "b")) {
+            u1.getByPath(folder).join().get().mkdir(sub, u1.network, false, crypto).join();
+            for (int i = 0; i < 20; i++) {
+                Path file = folder.resolve(sub).resolve("file" + i + ".txt");
+                reads.put(file, new HashSet<>(Arrays.asList("reader" + i, "friend")));
+                if (i % 3 == 0)
+                    writes.put(file, Collections.singleton("writer" + i));
+            }
+        }
+        FileWrapper home = u1.getUserRoot().join();
+        u1.network.synchronizer.applyComplexUpdate(home.owner(), home.signingPair(),
+                (s, c) -> u1.sharedWithCache.addSharedWith(SharedWithCache.Access.READ, reads, s, c)
+                        .thenCompose(s2 -> u1.sharedWithCache.addSharedWith(SharedWithCache.Access.WRITE, writes, s2, c))).join();
+
+        for (Path file : reads.keySet()) {
+            FileSharedWithState state = u1.sharedWith(file).join();
+            Assert.assertEquals(reads.get(file), state.readAccess);
+            Assert.assertEquals(writes.getOrDefault(file, Collections.emptySet()), state.writeAccess);
+        }
+        Assert.assertEquals(reads, u1.sharedWithCache.getAllReadShares(folder, u1.getUserRoot().join().version).join());
+    }
+
     @Test
     public void shareTwoFilesWithSameNameReadAccess() throws Exception {
         TriFunction<UserContext, List<UserContext>, Path, CompletableFuture<Snapshot>> readAccessSharingFunction =
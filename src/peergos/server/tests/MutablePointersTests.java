@@ -0,0 +1,140 @@
+package peergos.server.tests;
+
+import com.sun.net.httpserver.*;
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.net.*;
+import peergos.server.util.*;
+import peergos.shared.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+public class MutablePointersTests {
+    private static final Crypto crypto = Main.initCrypto();
+
+    private static class RamPointers implements MutablePointers {
+        final Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        final List<List<Pair<PublicKeyHash, PublicKeyHash>>> batches = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
+            pointers.put(writer, writerSignedBtreeRootHash);
+            return Futures.of(true);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+            return Futures.of(Optional.ofNullable(pointers.get(writer)));
+        }
+
+        @Override
+        public CompletableFuture<List<Optional<byte[]>>> getPointers(List<Pair<PublicKeyHash, PublicKeyHash>> ownersAndWriters) {
+            batches.add(ownersAndWriters);
+            return MutablePointers.super.getPointers(ownersAndWriters);
+        }
+    }
+
+    private static PublicKeyHash randomKey() {
+        return ContentAddressedStorage.hashKey(SigningKeyPair.random(crypto.random, crypto.signer).publicSigningKey);
+    }
+
+    private static List<Pair<PublicKeyHash, PublicKeyHash>> randomPointers(PublicKeyHash owner, int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new Pair<>(owner, randomKey()))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void httpBatchLookup() throws Exception {
+        RamPointers target = new RamPointers();
+        AtomicInteger requests = new AtomicInteger();
+        MutationHandler handler = new MutationHandler(target, false);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 10);
+        server.createContext("/" + Constants.MUTABLE_POINTERS_URL, ex -> {
+            requests.incrementAndGet();
+            handler.handle(ex);
+        });
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.start();
+        try {
+            JavaPoster poster = new JavaPoster(new URL("http://localhost:" + server.getAddress().getPort()), false);
+            HttpMutablePointers client = new HttpMutablePointers(poster, poster);
+
+            PublicKeyHash owner = randomKey();
+            List<Pair<PublicKeyHash, PublicKeyHash>> requested = randomPointers(owner, 10);
+            for (int i = 0; i < requested.size(); i += 2)
+                target.pointers.put(requested.get(i).right, crypto.random.randomBytes(100));
+
+            List<Optional<byte[]>> retrieved = client.getPointers(requested).join();
+            Assert.assertEquals(1, requests.get());
+            Assert.assertEquals(requested.size(), retrieved.size());
+            for (int i = 0; i < requested.size(); i++) {
+                byte[] expected = target.pointers.get(requested.get(i).right);
+                if (expected == null)
+                    Assert.assertTrue(retrieved.get(i).isEmpty());
+                else
+                    Assert.assertArrayEquals(expected, retrieved.get(i).get());
+            }
+
+            // an empty batch doesn't need a request
+            Assert.assertEquals(Collections.emptyList(), client.getPointers(Collections.emptyList()).join());
+            Assert.assertEquals(1, requests.get());
+
+            // a full batch is allowed, but not one more
+            Assert.assertEquals(1000, client.getPointers(randomPointers(owner, 1000)).join().size());
+            try {
+                client.getPointers(randomPointers(owner, 1001)).join();
+                Assert.fail("Served more than 1000 pointers");
+            } catch (CompletionException e) {
+                Assert.assertTrue(e.getCause().getMessage().contains("Too+many+pointers"));
+            }
+
+            // a request body over the size limit is rejected before it is parsed
+            try {
+                client.getPointers(randomPointers(owner, 2000)).join();
+                Assert.fail("Accepted an oversized request");
+            } catch (CompletionException e) {
+                Assert.assertTrue(e.getCause().getMessage().contains("Request+too+large"));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void cachedBatchLookup() {
+        RamPointers target = new RamPointers();
+        CachingPointers cache = new CachingPointers(target, 60_000);
+        PublicKeyHash owner = randomKey();
+        List<Pair<PublicKeyHash, PublicKeyHash>> requested = randomPointers(owner, 4);
+        for (Pair<PublicKeyHash, PublicKeyHash> p : requested)
+            target.pointers.put(p.right, crypto.random.randomBytes(100));
+
+        // warm the cache with the first two
+        cache.getPointer(owner, requested.get(0).right).join();
+        cache.getPointers(requested.subList(1, 2)).join();
+        target.batches.clear();
+
+        // only the misses are forwarded, and the results keep the requested order
+        List<Optional<byte[]>> retrieved = cache.getPointers(requested).join();
+        Assert.assertEquals(Collections.singletonList(requested.subList(2, 4)), target.batches);
+        for (int i = 0; i < requested.size(); i++)
+            Assert.assertArrayEquals(target.pointers.get(requested.get(i).right), retrieved.get(i).get());
+
+        // now the whole batch is served from the cache
+        target.batches.clear();
+        target.pointers.put(requested.get(3).right, crypto.random.randomBytes(100));
+        List<Optional<byte[]>> cached = cache.getPointers(requested).join();
+        Assert.assertTrue(target.batches.isEmpty());
+        Assert.assertArrayEquals(retrieved.get(3).get(), cached.get(3).get());
+    }
+}
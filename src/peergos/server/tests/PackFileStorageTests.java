@@ -0,0 +1,152 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.sql.*;
+import peergos.server.storage.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+public class PackFileStorageTests {
+    private static final Random random = new Random(42);
+    private static final long SEGMENT_SIZE = 64 * 1024;
+
+    private static PackFileContentAddressedStorage build(Path dir) {
+        return new PackFileContentAddressedStorage(dir,
+                JdbcTransactionStore.build(Main.buildEphemeralSqlite(), new SqliteCommands()), Main.initCrypto().hasher, SEGMENT_SIZE);
+    }
+
+    private static Map<Multihash, byte[]> putRandom(PackFileContentAddressedStorage store, int count) {
+        PublicKeyHash owner = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, new byte[32]));
+        TransactionId tid = store.startTransaction(owner).join();
+        Map<Multihash, byte[]> blocks = new HashMap<>();
+        for (int i=0; i < count; i++) {
+            byte[] data = new byte[1024 + random.nextInt(3 * 1024)];
+            random.nextBytes(data);
+            Multihash h = store.putRaw(owner, owner, Arrays.asList(new byte[0]), Arrays.asList(data), tid, x -> {}).join().get(0);
+            blocks.put(h, data);
+        }
+        store.closeTransaction(owner, tid).join();
+        return blocks;
+    }
+
+    private static void checkContents(PackFileContentAddressedStorage store, Map<Multihash, byte[]> expected) {
+        Assert.assertEquals(expected.keySet(), store.getAllBlockHashes().collect(Collectors.toSet()));
+        for (Map.Entry<Multihash, byte[]> e : expected.entrySet()) {
+            Assert.assertArrayEquals(e.getValue(), store.getRaw(e.getKey()).join().get());
+            Assert.assertEquals(e.getValue().length, (int) store.getSize(e.getKey()).join().get());
+        }
+    }
+
+    private static long segmentCount(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".pack")).count();
+        }
+    }
+
+    @Test
+    public void putGetAndReload() throws IOException {
+        Path dir = Files.createTempDirectory("peergos-pack");
+        PackFileContentAddressedStorage store = build(dir);
+        Map<Multihash, byte[]> blocks = putRandom(store, 200);
+        Assert.assertTrue("Multiple segments", segmentCount(dir) > 1);
+        checkContents(store, blocks);
+        store.close();
+
+        PackFileContentAddressedStorage reloaded = build(dir);
+        checkContents(reloaded, blocks);
+        reloaded.close();
+    }
+
+    @Test
+    public void tornWriteIsTruncated() throws IOException {
+        Path dir = Files.createTempDirectory("peergos-pack");
+        PackFileContentAddressedStorage store = build(dir);
+        Map<Multihash, byte[]> blocks = putRandom(store, 50);
+        store.close();
+
+        // simulate a crash part way through appending a record
+        Path last;
+        try (Stream<Path> files = Files.list(dir)) {
+            last = files.filter(p -> p.toString().endsWith(".pack")).sorted().reduce((a, b) -> b).get();
+        }
+        byte[] partial = new byte[100];
+        random.nextBytes(partial);
+        partial[0] = 0x50; partial[1] = 0x41; partial[2] = 0x4b; partial[3] = 0x31;
+        Files.write(last, partial, StandardOpenOption.APPEND);
+
+        PackFileContentAddressedStorage reloaded = build(dir);
+        checkContents(reloaded, blocks);
+        blocks.putAll(putRandom(reloaded, 10));
+        checkContents(reloaded, blocks);
+        reloaded.close();
+
+        PackFileContentAddressedStorage again = build(dir);
+        checkContents(again, blocks);
+        again.close();
+    }
+
+    @Test
+    public void corruptSealedSegmentIsNotTruncated() throws IOException {
+        Path dir = Files.createTempDirectory("peergos-pack");
+        PackFileContentAddressedStorage store = build(dir);
+        Map<Multihash, byte[]> blocks = putRandom(store, 50);
+        store.close();
+
+        // damage a record near the start of the first sealed segment and lose its index
+        Path first;
+        try (Stream<Path> files = Files.list(dir)) {
+            first = files.filter(p -> p.toString().endsWith(".pack")).sorted().findFirst().get();
+        }
+        Files.delete(Paths.get(first.toString().replace(".pack", ".idx")));
+        byte[] raw = Files.readAllBytes(first);
+        raw[2000] ^= 0xff;
+        Files.write(first, raw);
+
+        PackFileContentAddressedStorage reloaded = build(dir);
+        Assert.assertEquals(raw.length, Files.size(first));
+        Set<Multihash> remaining = reloaded.getAllBlockHashes().collect(Collectors.toSet());
+        Assert.assertEquals(blocks.size() - 1, remaining.size());
+        blocks.keySet().retainAll(remaining);
+        checkContents(reloaded, blocks);
+        reloaded.close();
+
+        PackFileContentAddressedStorage again = build(dir);
+        Assert.assertEquals(raw.length, Files.size(first));
+        checkContents(again, blocks);
+        again.close();
+    }
+
+    @Test
+    public void deleteAndCompact() throws IOException {
+        Path dir = Files.createTempDirectory("peergos-pack");
+        PackFileContentAddressedStorage store = build(dir);
+        Map<Multihash, byte[]> blocks = putRandom(store, 300);
+        long segmentsBefore = segmentCount(dir);
+
+        List<Multihash> toDelete = blocks.keySet().stream()
+                .filter(h -> random.nextInt(10) < 8)
+                .collect(Collectors.toList());
+        store.bulkDelete(toDelete);
+        toDelete.forEach(blocks::remove);
+        for (Multihash deleted : toDelete)
+            Assert.assertTrue(store.getRaw(deleted).join().isEmpty());
+        checkContents(store, blocks);
+
+        store.compact();
+        Assert.assertTrue("Compaction removed segments", segmentCount(dir) < segmentsBefore);
+        checkContents(store, blocks);
+        store.close();
+
+        // deletes survive a restart, including those whose tombstones were compacted
+        PackFileContentAddressedStorage reloaded = build(dir);
+        checkContents(reloaded, blocks);
+        reloaded.close();
+    }
+}
@@ -5,6 +5,7 @@ import peergos.server.*;
 import peergos.server.storage.ResetableFileInputStream;
 import peergos.shared.Crypto;
 import peergos.shared.NetworkAccess;
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.crypto.symmetric.SymmetricKey;
 import peergos.shared.display.*;
@@ -12,6 +13,7 @@ import peergos.shared.io.ipfs.multihash.Multihash;
 import peergos.shared.messaging.*;
 import peergos.shared.messaging.messages.*;
 import peergos.shared.social.*;
+import peergos.shared.storage.*;
 import peergos.shared.user.*;
 import peergos.shared.user.fs.*;
 import peergos.shared.user.fs.FileWrapper;
@@ -24,6 +26,8 @@ import java.nio.file.*;
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 import java.util.stream.*;
 
 import static org.junit.Assert.assertEquals;
@@ -1648,6 +1652,106 @@ public class PeergosNetworkUtils {
         Assert.assertTrue(items.size() == initialFeedSize + 3);
     }
 
+    public static void socialFeedGroupSharing(NetworkAccess network, Random random) {
+        CryptreeNode.setMaxChildLinkPerBlob(10);
+
+        String password = "notagoodone";
+        UserContext sharer = PeergosNetworkUtils.ensureSignedUp(generateUsername(random), password, network, crypto);
+
+        List<UserContext> shareeUsers = getUserContextsForNode(network, random, 1, Arrays.asList(password, password));
+        UserContext a = shareeUsers.get(0);
+
+        // friend sharer with others
+        friendBetweenGroups(Arrays.asList(sharer), shareeUsers);
+        String friends = sharer.getSocialState().join().getFriendsGroupUid();
+        String dir1 = "one";
+        sharer.getUserRoot().join().mkdir(dir1, sharer.network, false, sharer.crypto).join();
+        sharer.shareReadAccessWith(Paths.get(sharer.username, dir1), Set.of(friends)).join();
+
+        SocialFeed feed = a.getSocialFeed().join().update().join();
+        // the first update discovers the group, the second records the state of its sharing directory
+        feed = feed.update().join();
+        int initialFeedSize = feed.getShared(0, 1000, a.crypto, a.network).join().size();
+
+        // a second share with the group only changes the group's sharing directory
+        String dir2 = "two";
+        sharer.getUserRoot().join().mkdir(dir2, sharer.network, false, sharer.crypto).join();
+        sharer.shareReadAccessWith(Paths.get(sharer.username, dir2), Set.of(friends)).join();
+
+        feed = a.getSocialFeed().join().update().join();
+        List<SharedItem> items = feed.getShared(0, 1000, a.crypto, a.network).join();
+        Assert.assertEquals(initialFeedSize + 1, items.size());
+        Assert.assertTrue(items.stream().anyMatch(i -> i.path.endsWith("/" + dir2)));
+    }
+
+    public static void incomingCapCursorReuse(NetworkAccess network, Random random) {
+        CryptreeNode.setMaxChildLinkPerBlob(10);
+
+        String password = "notagoodone";
+        UserContext sharer = PeergosNetworkUtils.ensureSignedUp(generateUsername(random), password, network, crypto);
+
+        List<UserContext> shareeUsers = getUserContextsForNode(network, random, 1, Arrays.asList(password, password));
+        UserContext a = shareeUsers.get(0);
+
+        friendBetweenGroups(Arrays.asList(sharer), shareeUsers);
+        String dir1 = "one";
+        sharer.getUserRoot().join().mkdir(dir1, sharer.network, false, sharer.crypto).join();
+        sharer.shareReadAccessWith(Paths.get(sharer.username, dir1), Set.of(a.username)).join();
+
+        FriendSourcedTrieNode friend = a.getFollowingNodes().join().stream()
+                .filter(n -> n.ownerName.equals(sharer.username))
+                .findFirst().get();
+        // count block reads, with a fresh cryptree cache each time, so only the cursors can avoid them
+        AtomicInteger reads = new AtomicInteger();
+        ContentAddressedStorage countingDht = new DelegatingStorage(a.network.dhtClient) {
+            @Override
+            public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+                reads.incrementAndGet();
+                return super.get(hash);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+                reads.incrementAndGet();
+                return super.getRaw(hash);
+            }
+
+            @Override
+            public CompletableFuture<List<byte[]>> getChampLookup(PublicKeyHash owner, Multihash root, byte[] champKey) {
+                reads.incrementAndGet();
+                return super.getChampLookup(owner, root, champKey);
+            }
+
+            @Override
+            public ContentAddressedStorage directToOrigin() {
+                return this;
+            }
+        };
+        Supplier<NetworkAccess> counting = () -> new NetworkAccess(a.network.coreNode, a.network.social, countingDht,
+                a.network.mutable, a.network.tree, a.network.synchronizer, a.network.instanceAdmin,
+                a.network.spaceUsage, a.network.serverMessager, a.network.hasher, a.network.usernames, false);
+
+        CapsDiff initial = friend.getCaps(ProcessedCaps.empty(), counting.get()).join();
+        Assert.assertTrue(initial.getNewCaps().stream().anyMatch(c -> c.path.endsWith("/" + dir1)));
+        ProcessedCaps processed = ProcessedCaps.empty().add(initial);
+
+        // the sharing directories are unchanged, so their cursors mean nothing is read
+        reads.set(0);
+        CapsDiff unchanged = friend.getCaps(processed, counting.get()).join();
+        Assert.assertTrue(unchanged.isEmpty());
+        Assert.assertEquals(0, reads.get());
+
+        // a new share moves the pointer, and only the new capability is read
+        String dir2 = "two";
+        sharer.getUserRoot().join().mkdir(dir2, sharer.network, false, sharer.crypto).join();
+        sharer.shareReadAccessWith(Paths.get(sharer.username, dir2), Set.of(a.username)).join();
+        CapsDiff updated = friend.getCaps(processed, counting.get()).join();
+        List<CapabilityWithPath> newCaps = updated.getNewCaps();
+        Assert.assertEquals(1, newCaps.size());
+        Assert.assertTrue(newCaps.get(0).path.endsWith("/" + dir2));
+        Assert.assertTrue(reads.get() > 0);
+    }
+
     public static void chat(NetworkAccess network, Random random) {
         CryptreeNode.setMaxChildLinkPerBlob(10);
 
@@ -2,10 +2,13 @@ package peergos.server.tests;
 
 import org.junit.*;
 import peergos.server.*;
+import peergos.server.crypto.hash.*;
 import peergos.shared.*;
 import peergos.shared.crypto.*;
 import peergos.shared.util.*;
 
+import java.util.concurrent.*;
+
 public class ProofOfWorkTests {
     private static final Crypto crypto = Main.initCrypto();
 
@@ -23,4 +26,20 @@ public class ProofOfWorkTests {
             Assert.assertTrue(ProofOfWork.satisfiesDifficulty(d, hash));
         }
     }
+
+    @Test
+    public void parallelAndCancellable() throws Exception {
+        ScryptJava hasher = new ScryptJava(4);
+        byte[] data = crypto.random.randomBytes(100);
+        for (int d = 12; d < 20; d++) {
+            ProofOfWork work = hasher.generateProofOfWork(d, data).join();
+            byte[] hash = hasher.sha256(ArrayOps.concat(work.prefix, data)).join();
+            Assert.assertTrue(ProofOfWork.satisfiesDifficulty(d, hash));
+        }
+
+        CompletableFuture<ProofOfWork> impossible = hasher.generateProofOfWork(200, data);
+        Thread.sleep(100);
+        Assert.assertTrue(impossible.cancel(true));
+        Assert.assertTrue(impossible.isCancelled());
+    }
 }
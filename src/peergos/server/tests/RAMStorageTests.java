@@ -0,0 +1,85 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.storage.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+public class RAMStorageTests {
+    private static final Hasher hasher = Main.initCrypto().hasher;
+    private static final PublicKeyHash owner = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, new byte[32]));
+
+    private static Multihash putRaw(RAMStorage storage, byte[] block) {
+        TransactionId tid = storage.startTransaction(owner).join();
+        Multihash h = storage.putRaw(owner, owner, Arrays.asList(new byte[0]), Arrays.asList(block), tid, x -> {}).join().get(0);
+        storage.closeTransaction(owner, tid).join();
+        return h;
+    }
+
+    @Test
+    public void concurrentWritesAndReads() throws Exception {
+        RAMStorage storage = new RAMStorage(hasher);
+        int threads = 8, perThread = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Map<Multihash, byte[]>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            results.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                Map<Multihash, byte[]> written = new HashMap<>();
+                for (int i = 0; i < perThread; i++) {
+                    byte[] block = new CborObject.CborString("block " + seed + " " + i + " " + random.nextLong()).serialize();
+                    TransactionId tid = storage.startTransaction(owner).join();
+                    Multihash h = storage.put(owner, owner, Arrays.asList(new byte[0]), Arrays.asList(block), tid).join().get(0);
+                    storage.closeTransaction(owner, tid).join();
+                    written.put(h, block);
+                    Assert.assertTrue(storage.get(h).join().isPresent());
+                }
+                return written;
+            }));
+        }
+        Map<Multihash, byte[]> all = new HashMap<>();
+        for (Future<Map<Multihash, byte[]>> f : results)
+            all.putAll(f.get());
+        pool.shutdown();
+
+        Assert.assertEquals(threads * perThread, storage.size());
+        Assert.assertEquals(all.keySet(), storage.getAllBlockHashes().collect(Collectors.toSet()));
+        for (Map.Entry<Multihash, byte[]> e : all.entrySet())
+            Assert.assertArrayEquals(e.getValue(), storage.get(e.getKey()).join().get().serialize());
+    }
+
+    @Test
+    public void offHeapBudget() {
+        int budget = 10 * 1024;
+        RAMStorage storage = new RAMStorage(hasher, budget);
+        Random random = new Random(42);
+        Map<Multihash, byte[]> blocks = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] block = new byte[1024];
+            random.nextBytes(block);
+            blocks.put(putRaw(storage, block), block);
+        }
+        // duplicate puts don't count against the budget twice
+        putRaw(storage, blocks.values().iterator().next());
+
+        Assert.assertEquals(budget, storage.offHeapSize());
+        Assert.assertEquals(20, storage.size());
+        Assert.assertEquals(20 * 1024, storage.totalSize());
+        for (Map.Entry<Multihash, byte[]> e : blocks.entrySet()) {
+            Assert.assertArrayEquals(e.getValue(), storage.getRaw(e.getKey()).join().get());
+            Assert.assertEquals(1024, (int) storage.getSize(e.getKey()).join().get());
+        }
+
+        storage.clear();
+        Assert.assertEquals(0, storage.offHeapSize());
+        Assert.assertEquals(0, storage.size());
+    }
+}
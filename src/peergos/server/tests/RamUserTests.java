@@ -16,6 +16,7 @@ import java.net.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.zip.*;
 
 @RunWith(Parameterized.class)
 public class RamUserTests extends UserTests {
@@ -60,6 +61,17 @@ public class RamUserTests extends UserTests {
         context.getByPath(username + "/" + dirName).join().get()
                 .uploadOrReplaceFile("index.html", AsyncReader.build(data), data.length, network, crypto, x -> {},
                         crypto.random.randomBytes(32)).join();
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzout = new GZIPOutputStream(gzipped)) {
+            gzout.write(data);
+        }
+        byte[] gz = gzipped.toByteArray();
+        context.getByPath(username + "/" + dirName).join().get()
+                .uploadOrReplaceFile("index.html.gz", AsyncReader.build(gz), gz.length, network, crypto, x -> {},
+                        crypto.random.randomBytes(32)).join();
+        context.getByPath(username + "/" + dirName).join().get()
+                .uploadOrReplaceFile("empty.txt", AsyncReader.build(new byte[0]), 0, network, crypto, x -> {},
+                        crypto.random.randomBytes(32)).join();
         ProfilePaths.setWebRoot(context, "/" + username + "/" + dirName).join();
         ProfilePaths.publishWebroot(context).join();
 
@@ -73,12 +85,97 @@ public class RamUserTests extends UserTests {
         PublicGateway publicGateway = Main.startGateway(a);
 
         // retrieve website
-        byte[] retrieved = get(new URI("http://" + username + ".peergos.localhost:9000").toURL());
+        URL site = new URI("http://" + username + ".peergos.localhost:9000").toURL();
+        byte[] retrieved = get(site);
         Assert.assertTrue(Arrays.equals(retrieved, data));
 
+        // a HEAD gets the same headers as a GET
+        Response plain = request(site, "GET", Collections.emptyMap());
+        Response head = request(site, "HEAD", Collections.emptyMap());
+        Assert.assertEquals(200, plain.status);
+        Assert.assertEquals(200, head.status);
+        for (String header : Arrays.asList("Content-Length", "Content-Type", "Content-Security-Policy", "ETag"))
+            Assert.assertEquals(header, plain.headers.get(header), head.headers.get(header));
+        String etag = plain.header("ETag");
+
+        // the gzip variant has its own validator
+        Map<String, String> acceptGzip = Map.of("Accept-Encoding", "gzip");
+        Response compressed = request(site, "GET", acceptGzip);
+        Assert.assertEquals("gzip", compressed.header("Content-Encoding"));
+        Assert.assertTrue(Arrays.equals(compressed.body, gz));
+        String gzipEtag = compressed.header("ETag");
+        Assert.assertNotEquals(etag, gzipEtag);
+        Response compressedHead = request(site, "HEAD", acceptGzip);
+        Assert.assertEquals("gzip", compressedHead.header("Content-Encoding"));
+        Assert.assertEquals("" + gz.length, compressedHead.header("Content-Length"));
+
+        // conditional requests match the tag of the variant being served
+        Assert.assertEquals(304, request(site, "GET", Map.of("If-None-Match", etag)).status);
+        Assert.assertEquals(304, request(site, "GET", Map.of("If-None-Match", "W/" + etag)).status);
+        Assert.assertEquals(200, request(site, "GET", Map.of("If-None-Match", gzipEtag)).status);
+        Assert.assertEquals(304, request(site, "GET", Map.of("If-None-Match", gzipEtag, "Accept-Encoding", "gzip")).status);
+        Assert.assertEquals(200, request(site, "GET", Map.of("If-None-Match", etag, "Accept-Encoding", "gzip")).status);
+
+        // a range is served from the identity representation
+        Response range = request(site, "GET", Map.of("Range", "bytes=6-11", "Accept-Encoding", "gzip"));
+        Assert.assertEquals(206, range.status);
+        Assert.assertNull(range.header("Content-Encoding"));
+        Assert.assertEquals("bytes 6-11/" + data.length, range.header("Content-Range"));
+        Assert.assertTrue(Arrays.equals(range.body, Arrays.copyOfRange(data, 6, 12)));
+        Response suffix = request(site, "GET", Map.of("Range", "bytes=-7"));
+        Assert.assertEquals(206, suffix.status);
+        Assert.assertTrue(Arrays.equals(suffix.body, Arrays.copyOfRange(data, data.length - 7, data.length)));
+
+        // an empty asset has an explicit zero length rather than a chunked body
+        Response empty = request(new URL(site, "/empty.txt"), "GET", Collections.emptyMap());
+        Assert.assertEquals(200, empty.status);
+        Assert.assertEquals("0", empty.header("Content-Length"));
+        Assert.assertNull(empty.header("Transfer-Encoding"));
+        Assert.assertEquals(0, empty.body.length);
+
+        // a change to the site is served rather than the cached asset
+        byte[] updated = "<html><body><h1>You are still AWESOME!</h1></body></html>".getBytes();
+        context.getByPath(username + "/" + dirName).join().get()
+                .uploadOrReplaceFile("index.html", AsyncReader.build(updated), updated.length, network, crypto, x -> {},
+                        crypto.random.randomBytes(32)).join();
+        Thread.sleep(7_500); // the gateway caches pointers for 7s
+        Assert.assertTrue(Arrays.equals(get(site), updated));
+
         publicGateway.shutdown();
     }
 
+    private static class Response {
+        public final int status;
+        public final Map<String, List<String>> headers;
+        public final byte[] body;
+
+        public Response(int status, Map<String, List<String>> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public String header(String name) {
+            return Optional.ofNullable(headers.get(name)).map(v -> v.get(0)).orElse(null);
+        }
+    }
+
+    private static Response request(URL target, String method, Map<String, String> requestHeaders) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+        conn.setRequestMethod(method);
+        conn.setRequestProperty("Host", target.getHost());
+        requestHeaders.forEach(conn::setRequestProperty);
+        int status = conn.getResponseCode();
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        conn.getHeaderFields().forEach((k, v) -> {
+            if (k != null)
+                headers.put(k, v);
+        });
+        try (InputStream in = conn.getInputStream()) {
+            return new Response(status, headers, in.readAllBytes());
+        }
+    }
+
     private static byte[] get(URL target) throws IOException {
         HttpURLConnection conn = (HttpURLConnection) target.openConnection();
         conn.setRequestMethod("GET");
@@ -8,6 +8,7 @@ import peergos.shared.cbor.CborObject;
 import peergos.shared.crypto.hash.PublicKeyHash;
 import peergos.shared.io.ipfs.multihash.Multihash;
 import peergos.server.space.*;
+import peergos.server.sql.*;
 
 import java.util.HashSet;
 import java.util.Random;
@@ -43,4 +44,68 @@ public class SpaceCheckingKeyFilterTests {
         //check that deserialize(serialize(object)) == object
         Assert.assertEquals(deserialized, state);
     }
+
+    @Test
+    public void inMemoryAdmission() {
+        JdbcUsageStore persistent = new JdbcUsageStore(Main.buildEphemeralSqlite(), new SqliteCommands());
+        String username = "alice";
+        PublicKeyHash writer = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, random()));
+        persistent.addUserIfAbsent(username);
+        persistent.addWriter(username, writer);
+
+        long quota = 1000;
+        UsageAccountant accountant = new UsageAccountant(persistent, 60_000);
+        try {
+            Assert.assertEquals(username, accountant.owner(writer));
+            Assert.assertTrue(accountant.tryAddPending(username, writer, 600, quota, 0));
+            Assert.assertTrue(accountant.tryAddPending(username, writer, 400, quota, 0));
+            Assert.assertFalse(accountant.tryAddPending(username, writer, 1, quota, 0));
+            Assert.assertEquals(1000, accountant.getUsage(username).getPending(writer));
+
+            // pending usage is only persisted on flush
+            Assert.assertEquals(0, persistent.getUsage(username).getPending(writer));
+            accountant.flush();
+            Assert.assertEquals(1000, persistent.getUsage(username).getPending(writer));
+        } finally {
+            accountant.close();
+        }
+
+        // a restart reloads the persisted pending usage
+        UsageAccountant restarted = new UsageAccountant(persistent, 60_000);
+        try {
+            Assert.assertFalse(restarted.tryAddPending(username, writer, 1, quota, 0));
+
+            // confirming replaces pending with real usage, and discards unflushed pending usage
+            Assert.assertTrue(restarted.tryAddPending(username, writer, 0, quota, 0));
+            restarted.confirmUsage(username, writer, 700, false);
+            restarted.flush();
+            Assert.assertEquals(700, restarted.getUsage(username).totalUsage());
+            Assert.assertEquals(0, persistent.getUsage(username).getPending(writer));
+            Assert.assertEquals(700, persistent.getUsage(username).totalUsage());
+            Assert.assertTrue(restarted.tryAddPending(username, writer, 300, quota, 0));
+            Assert.assertFalse(restarted.tryAddPending(username, writer, 1, quota, 0));
+
+            // errored users are allowed the tolerance
+            restarted.confirmUsage(username, writer, 0, true);
+            Assert.assertTrue(restarted.tryAddPending(username, writer, 400, quota, 500));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void userWithoutWritersStartsWithNoUsage() {
+        JdbcUsageStore persistent = new JdbcUsageStore(Main.buildEphemeralSqlite(), new SqliteCommands());
+        String username = "bob";
+        persistent.addUserIfAbsent(username);
+        UsageAccountant accountant = new UsageAccountant(persistent, 60_000);
+        Assert.assertEquals(0, accountant.getUsage(username).totalUsage());
+
+        PublicKeyHash writer = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, random()));
+        accountant.addWriter(username, writer);
+        long quota = 1000;
+        Assert.assertTrue(accountant.tryAddPending(username, writer, 1000, quota, 0));
+        Assert.assertFalse(accountant.tryAddPending(username, writer, 1, quota, 0));
+        accountant.close();
+    }
 }
@@ -0,0 +1,35 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+
+import java.io.*;
+import java.nio.file.*;
+
+public class SyncManifestTests {
+
+    @Test
+    public void editDuringUploadIsNotRecordedAsSynced() throws Exception {
+        Path dir = Files.createTempDirectory("sync-manifest");
+        Path manifestFile = dir.resolve("manifest");
+        Path local = dir.resolve("file.txt");
+        Files.write(local, "original contents".getBytes());
+        String target = SyncManifest.target("alice", Paths.get("alice/backup"));
+
+        try (SyncManifest manifest = SyncManifest.load(manifestFile, target)) {
+            SyncManifest.Entry captured = SyncManifest.Entry.capture(local.toFile());
+            // the file is edited while it uploads, keeping its size
+            Files.write(local, "modified contents".getBytes());
+            local.toFile().setLastModified(captured.modifiedMillis + 2_000);
+            manifest.record("file.txt", captured);
+
+            Assert.assertFalse(manifest.isUnchanged("file.txt", local.toFile()));
+        }
+        // the captured state is what persists
+        try (SyncManifest manifest = SyncManifest.load(manifestFile, target)) {
+            Assert.assertFalse(manifest.isUnchanged("file.txt", local.toFile()));
+            manifest.record("file.txt", SyncManifest.Entry.capture(local.toFile()));
+            Assert.assertTrue(manifest.isUnchanged("file.txt", local.toFile()));
+        }
+    }
+}
@@ -3,6 +3,9 @@ import org.junit.*;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import peergos.server.crypto.JniTweetNacl;
+import peergos.server.crypto.TweetNaCl;
+import peergos.server.crypto.symmetric.*;
+import peergos.shared.crypto.*;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -13,6 +16,7 @@ public class TestJniTweetNacl {
 
     private static JniTweetNacl.Signer signer;
     private static JniTweetNacl.Symmetric symmetric;
+    private static Salsa20Poly1305Java javaSymmetric = new Salsa20Poly1305Java();
 
     private static Random random = new Random(1337);
 
@@ -79,4 +83,43 @@ public class TestJniTweetNacl {
         Assert.assertFalse(Arrays.equals(message, boxed));
         Assert.assertFalse(Arrays.equals(boxed, unboxed));
     }
+
+    @Test
+    public void testSecretboxImplementationsAgree() {
+        byte[] key = new byte[32];
+        byte[] nonce = new byte[24];
+        random.nextBytes(key);
+        random.nextBytes(nonce);
+
+        byte[] message = new byte[messageLength];
+        random.nextBytes(message);
+
+        byte[] reference = TweetNaCl.secretbox(message, nonce, key);
+        Assert.assertArrayEquals(reference, symmetric.secretbox(message, nonce, key));
+        Assert.assertArrayEquals(reference, javaSymmetric.secretbox(message, nonce, key));
+        Assert.assertArrayEquals(message, javaSymmetric.secretbox_open(reference, nonce, key));
+
+        // into a caller provided buffer at an offset
+        byte[] out = new byte[messageLength + 16 + 7];
+        Assert.assertEquals(messageLength + 16, symmetric.secretbox(message, 0, messageLength, nonce, key, out, 7));
+        Assert.assertArrayEquals(reference, Arrays.copyOfRange(out, 7, out.length));
+        byte[] plain = new byte[messageLength + 3];
+        Assert.assertEquals(messageLength, symmetric.secretbox_open(out, 7, messageLength + 16, nonce, key, plain, 3));
+        Assert.assertArrayEquals(message, Arrays.copyOfRange(plain, 3, plain.length));
+
+        // in place, with 16 bytes of headroom for the mac
+        byte[] buf = new byte[messageLength + 16];
+        System.arraycopy(message, 0, buf, 16, messageLength);
+        javaSymmetric.secretbox(buf, 16, messageLength, nonce, key, buf, 0);
+        Assert.assertArrayEquals(reference, buf);
+        javaSymmetric.secretbox_open(buf, 0, buf.length, nonce, key, buf, 16);
+        Assert.assertArrayEquals(message, Arrays.copyOfRange(buf, 16, buf.length));
+
+        byte[] tampered = Arrays.copyOf(reference, reference.length);
+        tampered[random.nextInt(tampered.length)] ^= 1;
+        try {
+            javaSymmetric.secretbox_open(tampered, nonce, key);
+            Assert.fail("Tampered cipher text decrypted!");
+        } catch (InvalidCipherTextException expected) {}
+    }
 }
@@ -764,6 +764,38 @@ public abstract class UserTests {
         }
     }
 
+    @Test
+    public void bulkSmallFileUpload() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
+        FileWrapper userRoot = context.getUserRoot().get();
+        String dirName = "bulk";
+        userRoot.mkdir(dirName, network, false, crypto).join();
+        Path dirPath = Paths.get(username, dirName);
+
+        // more than fit in a single directory blob
+        int nFiles = CryptreeNode.getMaxChildLinksPerBlob() + 100;
+        List<Pair<String, byte[]>> files = new ArrayList<>();
+        for (int i=0; i < nFiles; i++)
+            files.add(new Pair<>("file-" + i + ".txt", ("Contents of file " + i).getBytes()));
+        context.uploadSmallFiles(dirPath, files).join();
+
+        Set<FileWrapper> children = context.getChildren(dirPath.toString()).join();
+        Assert.assertEquals(nFiles, children.size());
+        for (int i : Arrays.asList(0, 1, nFiles / 2, nFiles - 1)) {
+            Pair<String, byte[]> expected = files.get(i);
+            FileWrapper file = context.getByPath(dirPath.resolve(expected.left)).join().get();
+            Assert.assertEquals("text/plain", file.getFileProperties().mimeType);
+            checkFileContents(expected.right, file, context);
+        }
+
+        try {
+            context.uploadSmallFiles(dirPath, files.subList(0, 1)).join();
+            Assert.fail("Shouldn't be able to overwrite with a small file upload");
+        } catch (CompletionException expected) {}
+    }
+
     static class ThrowingStream implements AsyncReader {
         private final byte[] data;
         private int index = 0;
@@ -1511,6 +1543,134 @@ public abstract class UserTests {
         Assert.assertTrue("File copied in dir", file.isPresent());
     }
 
+    @Test
+    public void resumableDirectoryCopy() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network.clear(), crypto);
+        FileWrapper userRoot = context.getUserRoot().join();
+        Path home = Paths.get(username);
+
+        String foldername = "photos";
+        userRoot = userRoot.mkdir(foldername, context.network, false, crypto).join();
+        userRoot.mkdir("target", context.network, false, crypto).join();
+        Path source = home.resolve(foldername);
+        Path subdir = source.resolve("2020");
+        context.getByPath(source).join().get().mkdir("2020", context.network, false, crypto).join();
+
+        Map<Path, byte[]> files = new HashMap<>();
+        List<Pair<String, byte[]>> small = new ArrayList<>();
+        for (int i=0; i < 120; i++)
+            small.add(new Pair<>("small-" + i + ".txt", randomData(i * 100)));
+        context.uploadSmallFiles(source, small).join();
+        small.forEach(p -> files.put(Paths.get(foldername, p.left), p.right));
+        byte[] large = randomData(6*1024*1024);
+        context.getByPath(subdir).join().get().uploadOrReplaceFile("large.bin", new AsyncReader.ArrayBacked(large),
+                large.length, context.network, crypto, x -> {}, crypto.random.randomBytes(32)).join();
+        files.put(Paths.get(foldername, "2020", "large.bin"), large);
+        byte[] nested = randomData(1000);
+        context.uploadSmallFiles(subdir, Arrays.asList(new Pair<>("nested.txt", nested))).join();
+        files.put(Paths.get(foldername, "2020", "nested.txt"), nested);
+
+        FileWrapper original = context.getByPath(source).join().get();
+        FileWrapper target = context.getByPath(home.resolve("target")).join().get();
+        original.copyTo(target, context).join();
+        Path copy = home.resolve("target");
+        for (Map.Entry<Path, byte[]> e : files.entrySet())
+            checkFileContents(e.getValue(), context.getByPath(copy.resolve(e.getKey())).join().get(), context);
+
+        try {
+            original.copyTo(context.getByPath(copy).join().get(), context).join();
+            Assert.fail("Copy should not merge into an existing directory");
+        } catch (CompletionException expected) {}
+
+        // simulate an interrupted copy by removing part of it
+        for (String name : Arrays.asList("small-7.txt", "small-99.txt", "2020")) {
+            FileWrapper copyDir = context.getByPath(copy.resolve(foldername)).join().get();
+            context.getByPath(copy.resolve(foldername).resolve(name)).join().get()
+                    .remove(copyDir, copy.resolve(foldername).resolve(name), context).join();
+        }
+
+        // change a copied file without changing its size
+        Thread.sleep(1_100);
+        byte[] changed = randomData(300);
+        context.getByPath(source).join().get().uploadOrReplaceFile("small-3.txt", new AsyncReader.ArrayBacked(changed),
+                changed.length, context.network, crypto, x -> {}, crypto.random.randomBytes(32)).join();
+        files.put(Paths.get(foldername, "small-3.txt"), changed);
+        original = context.getByPath(source).join().get();
+
+        original.resumeCopyTo(context.getByPath(copy).join().get(), context).join();
+        Assert.assertEquals(121, context.getChildren(copy.resolve(foldername).toString()).join().size());
+        for (Map.Entry<Path, byte[]> e : files.entrySet())
+            checkFileContents(e.getValue(), context.getByPath(copy.resolve(e.getKey())).join().get(), context);
+    }
+
+    @Test
+    public void syncUpAndDown() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network.clear(), crypto);
+        Path localRoot = Files.createTempDirectory("peergos-sync");
+        Path source = localRoot.resolve("docs");
+        Files.createDirectories(source.resolve("sub/subsub"));
+        Map<Path, byte[]> files = new HashMap<>();
+        for (int i=0; i < 20; i++)
+            files.put(Paths.get("docs", "file-" + i), randomData(i * 1000));
+        files.put(Paths.get("docs", "sub", "nested"), randomData(5000));
+        files.put(Paths.get("docs", "sub", "subsub", "large.bin"), randomData(6*1024*1024));
+        for (Map.Entry<Path, byte[]> e : files.entrySet())
+            Files.write(localRoot.resolve(e.getKey()), e.getValue());
+
+        Path manifestFile = localRoot.resolve("manifest");
+        Path remote = Paths.get(username, "backup");
+        String target = SyncManifest.target(username, remote);
+        SyncProgress first = new SyncProgress();
+        try (SyncManifest manifest = SyncManifest.load(manifestFile, target)) {
+            Uploader.uploadTo(context, source, remote, f -> true, 4, manifest, first);
+        }
+        Assert.assertEquals(files.size(), first.filesTransferred());
+        for (Map.Entry<Path, byte[]> e : files.entrySet())
+            checkFileContents(e.getValue(), context.getByPath(remote.resolve(e.getKey())).join().get(), context);
+
+        // change one file, and touch another without changing it
+        byte[] modified = randomData(3000);
+        Files.write(localRoot.resolve(Paths.get("docs", "file-3")), modified);
+        files.put(Paths.get("docs", "file-3"), modified);
+        File touched = localRoot.resolve(Paths.get("docs", "file-4")).toFile();
+        touched.setLastModified(touched.lastModified() + 10_000);
+        SyncProgress second = new SyncProgress();
+        try (SyncManifest manifest = SyncManifest.load(manifestFile, target)) {
+            Uploader.uploadTo(context, source, remote, f -> true, 4, manifest, second);
+        }
+        Assert.assertEquals(1, second.filesTransferred());
+        Assert.assertEquals(files.size() - 1, second.filesUnchanged());
+        checkFileContents(modified, context.getByPath(remote.resolve("docs/file-3")).join().get(), context);
+        // reloading compacts the manifest to one line per file, after its target
+        SyncManifest.load(manifestFile, target).close();
+        Assert.assertEquals(files.size() + 1, Files.readAllLines(manifestFile).size());
+
+        // the same local directory synced to a different target starts from scratch
+        Path otherRemote = Paths.get(username, "other-backup");
+        SyncProgress other = new SyncProgress();
+        try (SyncManifest manifest = SyncManifest.load(manifestFile, SyncManifest.target(username, otherRemote))) {
+            Uploader.uploadTo(context, source, otherRemote, f -> true, 4, manifest, other);
+        }
+        Assert.assertEquals(files.size(), other.filesTransferred());
+        checkFileContents(modified, context.getByPath(otherRemote.resolve("docs/file-3")).join().get(), context);
+
+        Path downloadDir = Files.createTempDirectory("peergos-sync-down");
+        SyncProgress download = new SyncProgress();
+        Downloader.downloadTo(context, remote.resolve("docs").toString(), downloadDir, p -> true, 4, download);
+        Assert.assertEquals(files.size(), download.filesTransferred());
+        for (Map.Entry<Path, byte[]> e : files.entrySet())
+            Assert.assertArrayEquals(e.getValue(), Files.readAllBytes(downloadDir.resolve(e.getKey())));
+
+        SyncProgress again = new SyncProgress();
+        Downloader.downloadTo(context, remote.resolve("docs").toString(), downloadDir, p -> true, 4, again);
+        Assert.assertEquals(0, again.filesTransferred());
+        Assert.assertEquals(files.size(), again.filesUnchanged());
+    }
+
     @Test
     public void usage() {
         String username = generateUsername();
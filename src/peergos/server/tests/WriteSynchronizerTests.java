@@ -0,0 +1,96 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.*;
+import peergos.server.corenode.*;
+import peergos.server.sql.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
+import peergos.shared.user.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class WriteSynchronizerTests {
+    private static final Crypto crypto = Main.initCrypto();
+    private static final Hasher hasher = crypto.hasher;
+
+    private static class CountingPointers implements MutablePointers {
+        final MutablePointers source;
+        final AtomicInteger sets = new AtomicInteger();
+
+        CountingPointers(MutablePointers source) {
+            this.source = source;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
+            sets.incrementAndGet();
+            return source.setPointer(owner, writer, writerSignedBtreeRootHash);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+            return source.getPointer(owner, writer);
+        }
+    }
+
+    @Test
+    public void queuedUpdatesAreCommittedTogether() {
+        ContentAddressedStorage dht = new RAMStorage(hasher);
+        CountingPointers mutable = new CountingPointers(
+                UserRepository.build(dht, new JdbcIpnsAndSocial(Main.buildEphemeralSqlite(), new SqliteCommands())));
+
+        SigningKeyPair pair = SigningKeyPair.random(crypto.random, crypto.signer);
+        PublicKeyHash pub = ContentAddressedStorage.hashKey(pair.publicSigningKey);
+        SigningPrivateKeyAndPublicHash signer = new SigningPrivateKeyAndPublicHash(pub, pair.secretSigningKey);
+        IpfsTransaction.call(pub, tid -> WriterData.createEmpty(pub, signer, dht, hasher, tid)
+                .thenCompose(wd -> wd.commit(pub, signer, MaybeMultihash.empty(), mutable, dht, hasher, tid)), dht).join();
+
+        WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, dht, hasher, true);
+        mutable.sets.set(0);
+
+        // hold the lock with the first update until the rest are queued
+        CompletableFuture<Boolean> gate = new CompletableFuture<>();
+        Multihash firstRoot = new Multihash(Multihash.Type.sha2_256, new byte[32]);
+        CompletableFuture<Snapshot> first = synchronizer.applyUpdate(pub, signer,
+                (wd, tid) -> gate.thenApply(x -> wd.withChamp(firstRoot)));
+
+        int updates = 20;
+        List<WriterData> seen = Collections.synchronizedList(new ArrayList<>());
+        List<WriterData> produced = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Snapshot>> results = new ArrayList<>();
+        for (int i = 0; i < updates; i++) {
+            Multihash root = new Multihash(Multihash.Type.sha2_256, hasher.sha256(new byte[]{(byte) i}).join());
+            results.add(synchronizer.applyUpdate(pub, signer, (wd, tid) -> {
+                seen.add(wd);
+                WriterData updated = wd.withChamp(root);
+                produced.add(updated);
+                return CompletableFuture.completedFuture(updated);
+            }));
+        }
+        // a failing update is dropped without affecting the rest of its group
+        CompletableFuture<Snapshot> failed = synchronizer.applyUpdate(pub, signer,
+                (wd, tid) -> { throw new IllegalStateException("Failing update"); });
+
+        gate.complete(true);
+        first.join();
+        Snapshot last = null;
+        for (CompletableFuture<Snapshot> result : results)
+            last = result.join();
+        Assert.assertTrue(failed.isCompletedExceptionally());
+
+        // the first update commits alone, and everything queued behind it commits once
+        Assert.assertEquals(2, mutable.sets.get());
+        for (int i = 1; i < updates; i++)
+            Assert.assertSame(produced.get(i - 1), seen.get(i));
+        Assert.assertEquals(produced.get(updates - 1).tree, last.get(pub).props.tree);
+        Assert.assertEquals(last.get(pub).hash, synchronizer.getValue(pub, pub).join().get(pub).hash);
+    }
+}
@@ -42,7 +42,7 @@ public class EfficiencyComparison {
     }
 
     public static void calculateChampOverhead(Map<ByteArrayWrapper, Optional<CborObject.CborMerkleLink>> state) throws Exception {
-        for (int bitWidth = 2; bitWidth <= 8; bitWidth++) {
+        for (int bitWidth = 2; bitWidth <= Champ.MAX_BIT_WIDTH; bitWidth++) {
             for (int maxCollisions = 1; maxCollisions <= 6; maxCollisions++) {
                 RAMStorage champStorage = new RAMStorage(crypto.hasher);
                 SigningPrivateKeyAndPublicHash champUser = ChampTests.createUser(champStorage, crypto);
@@ -0,0 +1,95 @@
+package peergos.server.tests.slow;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+import peergos.server.*;
+import peergos.server.tests.*;
+import peergos.server.util.*;
+import peergos.shared.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.user.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** Load test of the api http server. Clients post mutable pointer reads as fast as they can at increasing
+ *  concurrency, and we report the requests per second and p99 latency at each level, and the highest throughput whose
+ *  p99 is within the target.
+ */
+@RunWith(Parameterized.class)
+public class HandlerLoadBenchmark {
+    private static final long TARGET_P99_MILLIS = 50;
+    private static final long DURATION_MILLIS = 5_000;
+    private static final int[] CONCURRENCY = {1, 4, 16, 64, 256};
+
+    private final String url;
+
+    public HandlerLoadBenchmark(boolean virtualThreads) throws Exception {
+        Args args = UserTests.buildArgs()
+                .with("useIPFS", "false")
+                .with("virtual-thread-handlers", "" + virtualThreads);
+        Main.PKI_INIT.main(args);
+        NetworkAccess network = Builder.buildJavaNetworkAccess(new URL("http://localhost:" + args.getInt("port")), false).get();
+        UserContext user = PeergosNetworkUtils.ensureSignedUp("loadtest", "password", network, Main.initCrypto());
+        PublicKeyHash owner = user.signer.publicKeyHash;
+        url = "http://localhost:" + args.getInt("port") + "/" + Constants.MUTABLE_POINTERS_URL +
+                "getPointer?owner=" + owner + "&writer=" + owner;
+    }
+
+    @Parameterized.Parameters(name = "virtual threads: {0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][] {{false}, {true}});
+    }
+
+    private void request() throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.getOutputStream().close();
+        try (InputStream in = conn.getInputStream()) {
+            Serialize.readFully(in);
+        }
+        if (conn.getResponseCode() != 200)
+            throw new IllegalStateException("Request failed: " + conn.getResponseCode());
+    }
+
+    @Test
+    public void throughputAtFixedP99() throws Exception {
+        double best = 0;
+        for (int clients : CONCURRENCY) {
+            ExecutorService pool = Executors.newFixedThreadPool(clients);
+            List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger errors = new AtomicInteger();
+            long end = System.currentTimeMillis() + DURATION_MILLIS;
+            for (int i = 0; i < clients; i++)
+                pool.submit(() -> {
+                    while (System.currentTimeMillis() < end) {
+                        long t0 = System.nanoTime();
+                        try {
+                            request();
+                            latencies.add(System.nanoTime() - t0);
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                });
+            pool.shutdown();
+            pool.awaitTermination(DURATION_MILLIS * 2, TimeUnit.MILLISECONDS);
+
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            double rps = sorted.size() * 1000.0 / DURATION_MILLIS;
+            long p99Millis = sorted.isEmpty() ? Long.MAX_VALUE : sorted.get((int) (sorted.size() * 0.99)) / 1_000_000;
+            System.out.printf("Clients: %d, requests/s: %.0f, p99: %d mS, errors: %d\n", clients, rps, p99Millis, errors.get());
+            if (p99Millis <= TARGET_P99_MILLIS)
+                best = Math.max(best, rps);
+        }
+        System.out.printf("Best throughput with p99 <= %d mS: %.0f requests/s\n", TARGET_P99_MILLIS, best);
+        Assert.assertTrue("Some load within the target latency", best > 0);
+    }
+}
@@ -0,0 +1,88 @@
+package peergos.server.tests.slow;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.junit.runners.*;
+import peergos.server.*;
+import peergos.server.tests.*;
+import peergos.server.util.*;
+import peergos.shared.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.user.*;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+@RunWith(Parameterized.class)
+public class PkiLookupBenchmark {
+
+    private static int RANDOM_SEED = 666;
+    private static final int READER_THREADS = 8;
+    private final NetworkAccess network;
+    private final Crypto crypto = Main.initCrypto();
+
+    private static Random random = new Random(RANDOM_SEED);
+
+    public PkiLookupBenchmark(String useIPFS, Random r) throws Exception {
+        this.network = buildHttpNetworkAccess(useIPFS.equals("IPFS"), r);
+    }
+
+    private static NetworkAccess buildHttpNetworkAccess(boolean useIpfs, Random r) throws Exception {
+        Args args = UserTests.buildArgs().with("useIPFS", "" + useIpfs);
+        Main.PKI_INIT.main(args);
+        return Builder.buildJavaNetworkAccess(new URL("http://localhost:" + args.getInt("port")), false).get();
+    }
+
+    @Parameterized.Parameters()
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][] {
+//                {"IPFS", new Random(0)}
+                {"NOTIPFS", new Random(0)}
+        });
+    }
+
+    private String generateUsername() {
+        return "test" + Math.abs(random.nextInt() % 10000);
+    }
+
+    // Key lookups should not be delayed by concurrent signups (which hold the pki write lock)
+    // LOOKUPS(4844) during 10 signups in 54059 mS: p50 88 mS, p99 104 mS, worst 136 mS
+    @Test
+    public void lookupsDuringSignups() throws Exception {
+        String existing = generateUsername();
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(existing, "test01", network, crypto);
+        PublicKeyHash identity = context.signer.publicKeyHash;
+
+        AtomicBoolean signingUp = new AtomicBoolean(true);
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService readers = Executors.newFixedThreadPool(READER_THREADS);
+        for (int t=0; t < READER_THREADS; t++)
+            readers.submit(() -> {
+                while (signingUp.get()) {
+                    long t1 = System.nanoTime();
+                    network.coreNode.getChain(existing).join();
+                    network.coreNode.getUsername(identity).join();
+                    latencies.add(System.nanoTime() - t1);
+                }
+            });
+
+        long start = System.currentTimeMillis();
+        for (int i=0; i < 10; i++)
+            PeergosNetworkUtils.ensureSignedUp(generateUsername(), "test01", network, crypto);
+        long signupDuration = System.currentTimeMillis() - start;
+        signingUp.set(false);
+        readers.shutdown();
+        readers.awaitTermination(1, TimeUnit.MINUTES);
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        long p50 = sorted.get(sorted.size() / 2) / 1_000_000;
+        long p99 = sorted.get(sorted.size() * 99 / 100) / 1_000_000;
+        long worst = sorted.get(sorted.size() - 1) / 1_000_000;
+        System.err.printf("LOOKUPS(%d) during 10 signups in %d mS: p50 %d mS, p99 %d mS, worst %d mS\n",
+                sorted.size(), signupDuration, p50, p99, worst);
+        Assert.assertTrue("Lookups blocked on signups", worst < signupDuration / 2);
+    }
+}
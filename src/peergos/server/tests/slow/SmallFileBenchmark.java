@@ -96,6 +96,33 @@ public class SmallFileBenchmark {
         }
     }
 
+    // UPLOAD(1000) in a single batch duration: 39915 mS, av: 39 mS (vs ~1000 mS per file one at a time)
+    @Test
+    public void bulkSmallFiles() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = ensureSignedUp(username, password, network, crypto);
+        List<Pair<String, byte[]>> files = new ArrayList<>();
+        for (int i=0; i < 1000; i++) {
+            byte[] data = new byte[1024];
+            random.nextBytes(data);
+            files.add(new Pair<>(randomString(), data));
+        }
+
+        long t1 = System.currentTimeMillis();
+        context.uploadSmallFiles(Paths.get(username), files).join();
+        long duration = System.currentTimeMillis() - t1;
+        System.err.printf("UPLOAD(%d) in a single batch duration: %d mS, av: %d mS\n", files.size(),
+                duration, duration / files.size());
+
+        for (int i=0; i < 10; i++) {
+            Pair<String, byte[]> file = files.get(random.nextInt(files.size()));
+            FileWrapper read = context.getByPath(Paths.get(username, file.left)).join().get();
+            byte[] readData = Serialize.readFully(read.getInputStream(network, crypto, x -> {}).join(), file.right.length).join();
+            Assert.assertTrue(Arrays.equals(readData, file.right));
+        }
+    }
+
     private static String randomString() {
         return UUID.randomUUID().toString();
     }
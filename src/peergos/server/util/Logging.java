@@ -4,6 +4,7 @@ package peergos.server.util;
 import java.io.*;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.atomic.*;
 import java.util.logging.*;
 
 public class  Logging {
@@ -11,10 +12,21 @@ public class  Logging {
     private  static final String NULL_FORMAT =  "NULL_FORMAT";
     private static final Logger NULL_LOG = Logger.getLogger(NULL_FORMAT);
 
+    private static final long SLOW_REQUEST_MILLIS = 1_000;
+    private static final AtomicLong requestsSeen = new AtomicLong();
+    private static volatile int requestSampleRate = 100;
+
     private static boolean isInitialised = false;
     public static Logger LOG() {
         return LOG;
     }
+
+    /** Whether to log the details of a request on a hot path. Slow requests are always logged, and otherwise one in
+     *  every log-sample-rate requests. Latencies of every request are in the metrics.
+     */
+    public static boolean shouldLogRequest(long durationMillis) {
+        return durationMillis >= SLOW_REQUEST_MILLIS || requestsSeen.incrementAndGet() % requestSampleRate == 0;
+    }
     private static Logger nullLog() {
         return NULL_LOG;
     }
@@ -32,6 +44,7 @@ public class  Logging {
         boolean logToConsole = a.getBoolean("log-to-console", false);
         boolean logToFile = a.getBoolean("log-to-file", true);
         boolean printLogLocation = a.getBoolean("print-log-location", true);
+        requestSampleRate = Math.max(1, a.getInt("log-sample-rate", 100));
 
         NULL_LOG.setParent(LOG());
 
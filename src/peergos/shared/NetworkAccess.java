@@ -39,6 +39,7 @@ public class NetworkAccess {
     public final InstanceAdmin instanceAdmin;
     public final SpaceUsage spaceUsage;
     public final ServerMessager serverMessager;
+    public final MapKeyChain.Cache mapKeys;
 
     @JsProperty
     public final List<String> usernames;
@@ -71,6 +72,7 @@ public class NetworkAccess {
         this.hasher = hasher;
         this.usernames = usernames;
         this.cache = cache;
+        this.mapKeys = new MapKeyChain.Cache();
         this.creationTime = LocalDateTime.now();
         this.isJavascript = isJavascript;
     }
@@ -102,7 +104,7 @@ public class NetworkAccess {
 
     public NetworkAccess withoutS3BlockStore() {
         ContentAddressedStorage directDht = dhtClient.directToOrigin();
-        WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, directDht, hasher);
+        WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, directDht, hasher, this.synchronizer.isGroupCommit());
         MutableTree tree = new MutableTreeImpl(mutable, directDht, hasher, synchronizer);
         return new NetworkAccess(coreNode, social, directDht, mutable, tree, synchronizer, instanceAdmin,
                 spaceUsage, serverMessager, hasher, usernames, isJavascript);
@@ -131,7 +133,7 @@ public class NetworkAccess {
     }
 
     public NetworkAccess clear() {
-        WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, dhtClient, hasher);
+        WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, dhtClient, hasher, this.synchronizer.isGroupCommit());
         MutableTree mutableTree = new MutableTreeImpl(mutable, dhtClient, hasher, synchronizer);
         return new NetworkAccess(coreNode, social, dhtClient, mutable, mutableTree, synchronizer, instanceAdmin,
                 spaceUsage, serverMessager, hasher, usernames, isJavascript);
@@ -139,7 +141,16 @@ public class NetworkAccess {
 
     public NetworkAccess withMutablePointerCache(int ttl) {
         CachingPointers mutable = new CachingPointers(this.mutable, ttl);
-        WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, dhtClient, hasher);
+        WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, dhtClient, hasher, this.synchronizer.isGroupCommit());
+        MutableTree mutableTree = new MutableTreeImpl(mutable, dhtClient, hasher, synchronizer);
+        return new NetworkAccess(coreNode, social, dhtClient, mutable, mutableTree, synchronizer, instanceAdmin,
+                spaceUsage, serverMessager, hasher, usernames, isJavascript);
+    }
+
+    /** Commit simple updates which are queued behind each other for a writer together, with a single pointer update
+     */
+    public NetworkAccess withGroupCommit() {
+        WriteSynchronizer synchronizer = new WriteSynchronizer(mutable, dhtClient, hasher, true);
         MutableTree mutableTree = new MutableTreeImpl(mutable, dhtClient, hasher, synchronizer);
         return new NetworkAccess(coreNode, social, dhtClient, mutable, mutableTree, synchronizer, instanceAdmin,
                 spaceUsage, serverMessager, hasher, usernames, isJavascript);
@@ -520,6 +531,51 @@ public class NetworkAccess {
         }
     }
 
+    /** Upload many metadata blobs in one block put, add them all to the writer's tree, and then commit once
+     *
+     * @param chunks The map keys and metadata of new chunks
+     * @return
+     */
+    public CompletableFuture<Snapshot> uploadChunks(Snapshot current,
+                                                    Committer committer,
+                                                    List<Pair<byte[], CryptreeNode>> chunks,
+                                                    PublicKeyHash owner,
+                                                    SigningPrivateKeyAndPublicHash writer,
+                                                    TransactionId tid) {
+        if (! current.versions.containsKey(writer.publicKeyHash))
+            throw new IllegalStateException("Trying to commit to incorrect writer!");
+        if (chunks.isEmpty())
+            return CompletableFuture.completedFuture(current);
+        LOG.info("Uploading " + chunks.size() + " chunks");
+        List<byte[]> metaBlobs = chunks.stream()
+                .map(c -> c.right.serialize())
+                .collect(Collectors.toList());
+        CommittedWriterData version = current.get(writer);
+        return Futures.combineAllInOrder(metaBlobs.stream()
+                .map(hasher::sha256)
+                .collect(Collectors.toList()))
+                .thenCompose(hashes -> dhtClient.put(owner, writer.publicKeyHash, hashes.stream()
+                        .map(writer.secret::signMessage)
+                        .collect(Collectors.toList()), metaBlobs, tid))
+                .thenCompose(blobHashes -> tree.putAll(version.props, owner, writer, IntStream.range(0, chunks.size())
+                        .mapToObj(i -> new Triple<>(chunks.get(i).left, chunks.get(i).right.committedHash(), blobHashes.get(i)))
+                        .collect(Collectors.toList()), tid)
+                        .thenCompose(wd -> committer.commit(owner, writer, wd, version, tid)
+                                .thenApply(s -> {
+                                    for (int i = 0; i < chunks.size(); i++) {
+                                        Pair<Multihash, ByteArrayWrapper> cacheKey = new Pair<>(wd.tree.get(),
+                                                new ByteArrayWrapper(chunks.get(i).left));
+                                        Optional<CryptreeNode> cached = Optional.of(chunks.get(i).right.withHash(blobHashes.get(i)));
+                                        if (i == 0)
+                                            cache.update(version.props.tree, cacheKey, cached);
+                                        else
+                                            cache.put(cacheKey, cached);
+                                    }
+                                    return s;
+                                })))
+                .thenApply(committed -> current.withVersion(writer.publicKeyHash, committed.get(writer)));
+    }
+
     public CompletableFuture<Snapshot> addPreexistingChunk(CryptreeNode metadata,
                                                            PublicKeyHash owner,
                                                            byte[] mapKey,
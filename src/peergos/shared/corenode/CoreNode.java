@@ -8,9 +8,11 @@ import peergos.shared.user.*;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.*;
 
 public interface CoreNode {
     int MAX_USERNAME_SIZE = 64;
+    int MAX_USERNAMES_PAGE_SIZE = 1000;
 
     CompletableFuture<Optional<RequiredDifficulty>> signup(String username,
                                                            UserPublicKeyLink chain,
@@ -52,6 +54,22 @@ public interface CoreNode {
      */
     CompletableFuture<List<String>> getUsernames(String prefix);
 
+    /**
+     *
+     * @param prefix
+     * @param offset the number of matching usernames to skip
+     * @param limit the maximum number of usernames to return
+     * @return A page of the usernames starting with prefix, in lexicographic order
+     */
+    default CompletableFuture<List<String>> getUsernames(String prefix, int offset, int limit) {
+        return getUsernames(prefix).thenApply(all -> all.stream()
+                .filter(u -> u.startsWith(prefix))
+                .sorted()
+                .skip(offset)
+                .limit(limit)
+                .collect(Collectors.toList()));
+    }
+
     CompletableFuture<UserSnapshot> migrateUser(String username,
                                                 List<UserPublicKeyLink> newChain,
                                                 Multihash currentStorageId);
@@ -194,6 +194,15 @@ public class HTTPCoreNode implements CoreNode {
                 .thenApply(raw -> (List) JSONParser.parse(new String(raw)));
     }
 
+    @Override
+    public CompletableFuture<List<String>> getUsernames(String prefix, int offset, int limit) {
+        return poster.postUnzip(urlPrefix + Constants.CORE_URL + "getUsernamesGzip/" + prefix +
+                        "?offset=" + offset + "&limit=" + limit, new byte[0])
+                .thenApply(raw -> ((List<?>) JSONParser.parse(new String(raw))).stream()
+                        .map(name -> (String) name)
+                        .collect(Collectors.toList()));
+    }
+
     @Override
     public CompletableFuture<UserSnapshot> migrateUser(String username,
                                                        List<UserPublicKeyLink> newChain,
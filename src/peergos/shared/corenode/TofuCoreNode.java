@@ -158,6 +158,11 @@ public class TofuCoreNode implements CoreNode {
         return source.getUsernames(prefix);
     }
 
+    @Override
+    public CompletableFuture<List<String>> getUsernames(String prefix, int offset, int limit) {
+        return source.getUsernames(prefix, offset, limit);
+    }
+
     @Override
     public CompletableFuture<UserSnapshot> migrateUser(String username,
                                                        List<UserPublicKeyLink> newChain,
@@ -3,6 +3,7 @@ package peergos.shared.crypto.symmetric;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.random.JSNaCl;
 
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 
 public interface Salsa20Poly1305 {
@@ -11,6 +12,26 @@ public interface Salsa20Poly1305 {
 
     byte[] secretbox_open(byte[] cipher, byte[] nonce, byte[] key);
 
+    /** Encrypt length bytes of data from offset into a caller provided buffer, as the 16 byte mac then the cipher text
+     *
+     * @return the number of bytes written to out
+     */
+    default int secretbox(byte[] data, int offset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+        byte[] cipher = secretbox(Arrays.copyOfRange(data, offset, offset + length), nonce, key);
+        System.arraycopy(cipher, 0, out, outOffset, cipher.length);
+        return cipher.length;
+    }
+
+    /** Decrypt length bytes of mac and cipher text from offset into a caller provided buffer
+     *
+     * @return the number of bytes written to out
+     */
+    default int secretbox_open(byte[] cipher, int offset, int length, byte[] nonce, byte[] key, byte[] out, int outOffset) {
+        byte[] plain = secretbox_open(Arrays.copyOfRange(cipher, offset, offset + length), nonce, key);
+        System.arraycopy(plain, 0, out, outOffset, plain.length);
+        return plain.length;
+    }
+
     class Javascript implements Salsa20Poly1305 {
         JSNaCl scriptJS = new JSNaCl();
 
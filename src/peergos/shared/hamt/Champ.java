@@ -16,10 +16,14 @@ import java.util.stream.*;
 
 /**
  * A Compressed Hash-Array Mapped Prefix-tree (CHAMP), a refinement of a Hash Array Mapped Trie (HAMT)
+ *
+ * The data and node bitmaps are primitive longs, which limits the bit width to 6, and a node decoded from cbor only
+ * decodes each of its payloads when it is first accessed.
  */
 public class Champ<V extends Cborable> implements Cborable {
 
     private static final int HASH_CODE_LENGTH = 32;
+    public static final int MAX_BIT_WIDTH = 6;
 
     private static class KeyElement<V extends Cborable> {
         public final ByteArrayWrapper key;
@@ -90,39 +94,67 @@ public class Champ<V extends Cborable> implements Cborable {
     }
 
     public static <V extends Cborable> Champ<V> empty(Function<Cborable, V> fromCbor) {
-        return new Champ<>(new BitSet(), new BitSet(), new HashPrefixPayload[0], fromCbor);
+        return new Champ<>(0L, 0L, new HashPrefixPayload[0], fromCbor);
     }
 
-    private final BitSet dataMap, nodeMap;
+    private final long dataMap, nodeMap;
+    // payloads decoded from cbor are null until first accessed
     private final HashPrefixPayload<V>[] contents;
+    private final List<? extends Cborable> encoded;
     private final Function<Cborable, V> fromCbor;
 
-    public Champ(BitSet dataMap, BitSet nodeMap, HashPrefixPayload<V>[] contents, Function<Cborable, V> fromCbor) {
+    private Champ(long dataMap,
+                  long nodeMap,
+                  HashPrefixPayload<V>[] contents,
+                  List<? extends Cborable> encoded,
+                  Function<Cborable, V> fromCbor) {
         this.dataMap = dataMap;
         this.nodeMap = nodeMap;
         this.contents = contents;
+        this.encoded = encoded;
         this.fromCbor = fromCbor;
+    }
+
+    public Champ(long dataMap, long nodeMap, HashPrefixPayload<V>[] contents, Function<Cborable, V> fromCbor) {
+        this(dataMap, nodeMap, contents, null, fromCbor);
         for (int i=0; i< contents.length; i++)
             if (contents[i] == null)
                 throw new IllegalStateException();
     }
 
+    private HashPrefixPayload<V> payload(int index) {
+        HashPrefixPayload<V> payload = contents[index];
+        if (payload == null) {
+            payload = decodePayload(encoded.get(index), fromCbor);
+            contents[index] = payload;
+        }
+        return payload;
+    }
+
+    private HashPrefixPayload<V>[] payloads() {
+        for (int i=0; i < contents.length; i++)
+            payload(i);
+        return contents;
+    }
+
     private int keyCount() {
         int count = 0;
-        for (HashPrefixPayload<V> payload : contents) {
-            if (! payload.isShard())
-                    count += payload.keyCount();
-        }
+        int dataCount = Long.bitCount(dataMap);
+        for (int i=0; i < dataCount; i++)
+            count += payload(i).keyCount();
         return count;
     }
 
     private int nodeCount() {
-        int count = 0;
-        for (HashPrefixPayload<V> payload : contents)
-            if (payload.isShard())
-                count++;
+        return Long.bitCount(nodeMap);
+    }
 
-        return count;
+    private static boolean isSet(long bitmap, int bitpos) {
+        return (bitmap & (1L << bitpos)) != 0;
+    }
+
+    private static int bitLength(long bitmap) {
+        return 64 - Long.numberOfLeadingZeros(bitmap);
     }
 
     private static int mask(byte[] hash, int depth, int nbits) {
@@ -136,46 +168,24 @@ public class Champ<V extends Cborable> implements Cborable {
                 ((val2 & ((1 << hiBits) - 1)) << lowBits);
     }
 
-    private static int getIndex(BitSet bitmap, int bitpos) {
-        int total = 0;
-        for (int i = 0; i < bitpos;) {
-            int next = bitmap.nextSetBit(i);
-            if (next == -1 || next >= bitpos)
-                return total;
-            total++;
-            i = next + 1;
-        }
-        return total;
+    private static int getIndex(long bitmap, int bitpos) {
+        return Long.bitCount(bitmap & ((1L << bitpos) - 1));
     }
 
     CompletableFuture<Pair<Multihash, Optional<Champ<V>>>> getChild(byte[] hash, int depth, int bitWidth, ContentAddressedStorage storage) {
         int bitpos = mask(hash, depth, bitWidth);
         int index = contents.length - 1 - getIndex(this.nodeMap, bitpos);
-        Multihash childHash = contents[index].link.get();
+        Multihash childHash = contents[index] == null ?
+                ((CborObject.CborMerkleLink) encoded.get(index)).target :
+                contents[index].link.get();
         return storage.get(childHash)
                 .thenApply(x -> new Pair<>(childHash, x.map(y -> Champ.fromCbor(y, fromCbor))));
     }
 
     public CompletableFuture<Long> size(int depth, ContentAddressedStorage storage) {
-        long keys = keyCount();
         if (nodeCount() == 0)
-            return CompletableFuture.completedFuture(keys);
-
-        List<CompletableFuture<Long>> childCounts = new ArrayList<>();
-        for (int i = contents.length - 1; i >= 0; i--) {
-            HashPrefixPayload<V> pointer = contents[i];
-            if (! pointer.isShard())
-                break; // we reach the key section
-            childCounts.add(storage.get(pointer.link.get())
-                    .thenApply(x -> new Pair<>(pointer.link.get(), x.map(y -> Champ.fromCbor(y, fromCbor))))
-                    .thenCompose(child -> child.right.map(c -> c.size(depth + 1, storage))
-                            .orElse(CompletableFuture.completedFuture(0L)))
-            );
-        }
-        List<Integer> indices = IntStream.range(0, childCounts.size())
-                .mapToObj(x -> x)
-                .collect(Collectors.toList());
-        return Futures.reduceAll(indices, keys, (t, index) -> childCounts.get(index).thenApply(c -> c + t), (a, b) -> a + b);
+            return CompletableFuture.completedFuture((long) keyCount());
+        return applyToAllMappings(0L, (count, mapping) -> CompletableFuture.completedFuture(count + 1), storage);
     }
 
     public boolean hasMultipleMappings() {
@@ -194,8 +204,16 @@ public class Champ<V extends Cborable> implements Cborable {
     public CompletableFuture<Optional<V>> get(ByteArrayWrapper key, byte[] hash, int depth, int bitWidth, ContentAddressedStorage storage) {
         final int bitpos = mask(hash, depth, bitWidth);
 
-        if (dataMap.get(bitpos)) { // local value
+        if (isSet(dataMap, bitpos)) { // local value
             int index = getIndex(this.dataMap, bitpos);
+            if (contents[index] == null) {
+                // scan the encoded mappings without decoding them
+                List<? extends Cborable> mappingsCbor = ((CborObject.CborList) encoded.get(index)).value;
+                for (int j=0; j < mappingsCbor.size(); j += 2)
+                    if (Arrays.equals(((CborObject.CborByteArray) mappingsCbor.get(j)).value, key.data))
+                        return CompletableFuture.completedFuture(decodeValue(mappingsCbor.get(j + 1), fromCbor));
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
             HashPrefixPayload<V> payload = contents[index];
             for (KeyElement<V> candidate : payload.mappings) {
                 if (candidate.key.equals(key)) {
@@ -206,7 +224,7 @@ public class Champ<V extends Cborable> implements Cborable {
             return CompletableFuture.completedFuture(Optional.empty());
         }
 
-        if (nodeMap.get(bitpos)) { // child node
+        if (isSet(nodeMap, bitpos)) { // child node
             return getChild(hash, depth, bitWidth, storage)
                     .thenCompose(child -> child.right.map(c -> c.get(key, hash, depth + 1, bitWidth, storage))
                             .orElse(CompletableFuture.completedFuture(Optional.empty())));
@@ -245,11 +263,13 @@ public class Champ<V extends Cborable> implements Cborable {
                                                             ContentAddressedStorage storage,
                                                             Hasher writeHasher,
                                                             Multihash ourHash) {
+        if (bitWidth > MAX_BIT_WIDTH)
+            throw new IllegalStateException("Champ bit width must be at most " + MAX_BIT_WIDTH);
         int bitpos = mask(hash, depth, bitWidth);
 
-        if (dataMap.get(bitpos)) { // local value
+        if (isSet(dataMap, bitpos)) { // local value
             int index = getIndex(this.dataMap, bitpos);
-            HashPrefixPayload<V> payload = contents[index];
+            HashPrefixPayload<V> payload = payload(index);
             KeyElement<V>[] mappings = payload.mappings;
             for (int payloadIndex = 0; payloadIndex < mappings.length; payloadIndex++) {
                 KeyElement<V> mapping = mappings[payloadIndex];
@@ -278,7 +298,7 @@ public class Champ<V extends Cborable> implements Cborable {
                         Champ<V> champ = copyAndMigrateFromInlineToNode(bitpos, p);
                         return storage.put(owner, writer, champ.serialize(), writeHasher, tid).thenApply(h -> new Pair<>(champ, h));
                     });
-        } else if (nodeMap.get(bitpos)) { // child node
+        } else if (isSet(nodeMap, bitpos)) { // child node
             return getChild(hash, depth, bitWidth, storage)
                     .thenCompose(child -> child.right.get().put(owner, writer, key, hash, depth + 1, expected, value,
                             bitWidth, maxCollisions, hasher, tid, storage, writeHasher, child.left)
@@ -295,6 +315,49 @@ public class Champ<V extends Cborable> implements Cborable {
         }
     }
 
+    /** Apply many mutations to this champ, only writing the final version of each modified node.
+     *
+     *  The mutations are sorted by key hash, so those in the same subtree are mostly adjacent, and applied against an in
+     *  memory overlay of the storage. Then only the new nodes reachable from the final root are signed and uploaded, in
+     *  a single put. The result is identical to applying each mutation in turn with put.
+     *
+     * @param mutations The keys, their expected current values, and their new values
+     * @return A new champ and its hash after all the mutations
+     */
+    public CompletableFuture<Pair<Champ<V>, Multihash>> putAll(PublicKeyHash owner,
+                                                               SigningPrivateKeyAndPublicHash writer,
+                                                               List<Triple<ByteArrayWrapper, Optional<V>, Optional<V>>> mutations,
+                                                               int bitWidth,
+                                                               int maxCollisions,
+                                                               Function<ByteArrayWrapper, CompletableFuture<byte[]>> hasher,
+                                                               TransactionId tid,
+                                                               ContentAddressedStorage storage,
+                                                               Hasher writeHasher,
+                                                               Multihash ourHash) {
+        BufferedStorage buffer = new BufferedStorage(storage);
+        return Futures.combineAllInOrder(mutations.stream()
+                .map(m -> hasher.apply(m.left).thenApply(h -> new Pair<>(h, m)))
+                .collect(Collectors.toList()))
+                .thenApply(hashed -> hashed.stream()
+                        .sorted((a, b) -> compareHashes(a.left, b.left))
+                        .collect(Collectors.toList()))
+                .thenCompose(sorted -> Futures.reduceAll(sorted, new Pair<>(this, ourHash),
+                        (current, m) -> current.left.put(owner, writer, m.right.left, m.left, 0, m.right.middle,
+                                m.right.right, bitWidth, maxCollisions, hasher, tid, buffer, writeHasher, current.right),
+                        (a, b) -> b))
+                .thenCompose(root -> buffer.commit(owner, writer, root.right, tid)
+                        .thenApply(written -> root));
+    }
+
+    private static int compareHashes(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0)
+                return diff;
+        }
+        return a.length - b.length;
+    }
+
     private CompletableFuture<Pair<Champ<V>, Multihash>> pushMappingsDownALevel(PublicKeyHash owner,
                                                                                 SigningPrivateKeyAndPublicHash writer,
                                                                                 KeyElement<V>[] mappings,
@@ -328,7 +391,7 @@ public class Champ<V extends Cborable> implements Cborable {
     }
 
     private Champ<V> copyAndSetValue(final int setIndex, final int payloadIndex, final Optional<V> val) {
-        final HashPrefixPayload<V>[] src = this.contents;
+        final HashPrefixPayload<V>[] src = payloads();
         final HashPrefixPayload<V>[] dst = Arrays.copyOf(src, src.length);
 
         HashPrefixPayload<V> existing = dst[setIndex];
@@ -341,7 +404,7 @@ public class Champ<V extends Cborable> implements Cborable {
     }
 
     private Champ<V> insertIntoPrefix(final int index, final ByteArrayWrapper key, final Optional<V> val) {
-        final HashPrefixPayload<V>[] src = this.contents;
+        final HashPrefixPayload<V>[] src = payloads();
         final HashPrefixPayload<V>[] result = Arrays.copyOf(src, src.length);
 
         KeyElement<V>[] prefix = new KeyElement[src[index].mappings.length + 1];
@@ -357,16 +420,14 @@ public class Champ<V extends Cborable> implements Cborable {
     private Champ<V> addNewPrefix(final int bitpos, final ByteArrayWrapper key, final Optional<V> val) {
         final int insertIndex = getIndex(dataMap, bitpos);
 
-        final HashPrefixPayload<V>[] src = this.contents;
+        final HashPrefixPayload<V>[] src = payloads();
         final HashPrefixPayload<V>[] result = new HashPrefixPayload[src.length + 1];
 
         System.arraycopy(src, 0, result, 0, insertIndex);
         System.arraycopy(src, insertIndex, result, insertIndex + 1, src.length - insertIndex);
         result[insertIndex] = new HashPrefixPayload<>(new KeyElement[]{new KeyElement<>(key, val)});
 
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        newDataMap.set(bitpos);
-        return new Champ<>(newDataMap, nodeMap, result, fromCbor);
+        return new Champ<>(dataMap | (1L << bitpos), nodeMap, result, fromCbor);
     }
 
     private Champ<V> copyAndMigrateFromInlineToNode(final int bitpos, final Pair<Champ<V>, Multihash> node) {
@@ -374,7 +435,7 @@ public class Champ<V extends Cborable> implements Cborable {
         final int oldIndex = getIndex(dataMap, bitpos);
         final int newIndex = this.contents.length - 1 - getIndex(nodeMap, bitpos);
 
-        final HashPrefixPayload<V>[] src = this.contents;
+        final HashPrefixPayload<V>[] src = payloads();
         final HashPrefixPayload<V>[] dst = new HashPrefixPayload[src.length];
 
         // copy 'src' and remove 1 element at position oldIndex and insert 1 element at position newIndex
@@ -385,18 +446,14 @@ public class Champ<V extends Cborable> implements Cborable {
         dst[newIndex] = new HashPrefixPayload<>(MaybeMultihash.of(node.right));
         System.arraycopy(src, newIndex + 1, dst, newIndex + 1, src.length - newIndex - 1);
 
-        BitSet newNodeMap = BitSet.valueOf(nodeMap.toByteArray());
-        newNodeMap.set(bitpos);
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        newDataMap.set(bitpos, false);
-        return new Champ<>(newDataMap, newNodeMap, dst, fromCbor);
+        return new Champ<>(dataMap & ~(1L << bitpos), nodeMap | (1L << bitpos), dst, fromCbor);
     }
 
     private Champ<V> overwriteChildLink(final int bitpos, final Pair<Champ<V>, Multihash> node) {
 
         final int setIndex = this.contents.length - 1 - getIndex(nodeMap, bitpos);
 
-        final HashPrefixPayload<V>[] src = this.contents;
+        final HashPrefixPayload<V>[] src = payloads();
         final HashPrefixPayload<V>[] dst = Arrays.copyOf(src, src.length);
 
         dst[setIndex] = new HashPrefixPayload<>(MaybeMultihash.of(node.right));
@@ -431,10 +488,10 @@ public class Champ<V extends Cborable> implements Cborable {
                                                                Multihash ourHash) {
         int bitpos = mask(hash, depth, bitWidth);
 
-        if (dataMap.get(bitpos)) { // in place value
+        if (isSet(dataMap, bitpos)) { // in place value
             final int dataIndex = getIndex(dataMap, bitpos);
 
-            HashPrefixPayload<V> payload = contents[dataIndex];
+            HashPrefixPayload<V> payload = payload(dataIndex);
             KeyElement<V>[] mappings = payload.mappings;
             for (int payloadIndex = 0; payloadIndex < mappings.length; payloadIndex++) {
                 KeyElement<V> mapping = mappings[payloadIndex];
@@ -458,12 +515,11 @@ public class Champ<V extends Cborable> implements Cborable {
                         if (depth > 0) {
                             // inline all mappings into a single node because at a higher level, all mappings have the
                             // same hash prefix
-                            final BitSet newDataMap = new BitSet();
-                            newDataMap.set(mask(hash, 0, bitWidth));
+                            final long newDataMap = 1L << mask(hash, 0, bitWidth);
 
                             KeyElement<V>[] remainingMappings = new KeyElement[maxCollisions];
                             int nextIndex = 0;
-                            for (HashPrefixPayload<V> grouped : contents) {
+                            for (HashPrefixPayload<V> grouped : payloads()) {
                                 for (KeyElement<V> pair : grouped.mappings) {
                                     if (!pair.key.equals(key))
                                         remainingMappings[nextIndex++] = pair;
@@ -472,16 +528,14 @@ public class Champ<V extends Cborable> implements Cborable {
                             Arrays.sort(remainingMappings, Comparator.comparing(x -> x.key));
                             HashPrefixPayload<V>[] oneBucket = new HashPrefixPayload[]{new HashPrefixPayload(remainingMappings)};
 
-                            champ = new Champ<>(newDataMap, new BitSet(), oneBucket, fromCbor);
+                            champ = new Champ<>(newDataMap, 0L, oneBucket, fromCbor);
                         } else {
-                            final BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
                             boolean lastInPrefix = mappings.length == 1;
-                            if (lastInPrefix)
-                                newDataMap.clear(bitpos);
-                            else
-                                newDataMap.set(mask(hash, 0, bitWidth));
+                            final long newDataMap = lastInPrefix ?
+                                    dataMap & ~(1L << bitpos) :
+                                    dataMap | (1L << mask(hash, 0, bitWidth));
 
-                            HashPrefixPayload<V>[] src = this.contents;
+                            HashPrefixPayload<V>[] src = payloads();
                             HashPrefixPayload<V>[] dst = new HashPrefixPayload[src.length - (lastInPrefix ? 1 : 0)];
                             System.arraycopy(src, 0, dst, 0, dataIndex);
                             System.arraycopy(src, dataIndex + 1, dst, dataIndex + (lastInPrefix ? 0 : 1), src.length - dataIndex - 1);
@@ -492,7 +546,7 @@ public class Champ<V extends Cborable> implements Cborable {
                                 dst[dataIndex] = new HashPrefixPayload<>(remaining);
                             }
 
-                            champ = new Champ(newDataMap, new BitSet(), dst, fromCbor);
+                            champ = new Champ<>(newDataMap, 0L, dst, fromCbor);
                         }
                         return storage.put(owner, writer, champ.serialize(), writeHasher, tid).thenApply(h -> new Pair<>(champ, h));
                     } else {
@@ -502,7 +556,7 @@ public class Champ<V extends Cborable> implements Cborable {
                 }
             }
             return CompletableFuture.completedFuture(new Pair<>(this, ourHash));
-        } else if (nodeMap.get(bitpos)) { // node (not value)
+        } else if (isSet(nodeMap, bitpos)) { // node (not value)
             return getChild(hash, depth, bitWidth, storage)
                     .thenCompose(child -> child.right.get().remove(owner, writer, key, hash, depth + 1, expected,
                             bitWidth, maxCollisions, tid, storage, writeHasher, child.left)
@@ -537,7 +591,7 @@ public class Champ<V extends Cborable> implements Cborable {
         final int oldIndex = this.contents.length - 1 - getIndex(nodeMap, bitpos);
         final int newIndex = getIndex(dataMap, bitpos);
 
-        final HashPrefixPayload<V>[] src = this.contents;
+        final HashPrefixPayload<V>[] src = payloads();
         final HashPrefixPayload<V>[] dst = new HashPrefixPayload[src.length];
 
         // copy src and remove element at position oldIndex and insert element at position newIndex
@@ -547,7 +601,7 @@ public class Champ<V extends Cborable> implements Cborable {
         KeyElement<V>[] merged = new KeyElement[node.keyCount()];
         int count = 0;
         for (int i=0; i < node.contents.length; i++) {
-            KeyElement<V>[] toAdd = node.contents[i].mappings;
+            KeyElement<V>[] toAdd = node.payload(i).mappings;
             System.arraycopy(toAdd, 0, merged, count, toAdd.length);
             count += toAdd.length;
         }
@@ -556,16 +610,12 @@ public class Champ<V extends Cborable> implements Cborable {
         System.arraycopy(src, newIndex, dst, newIndex + 1, oldIndex - newIndex);
         System.arraycopy(src, oldIndex + 1, dst, oldIndex + 1, src.length - oldIndex - 1);
 
-        BitSet newNodeMap = BitSet.valueOf(nodeMap.toByteArray());
-        newNodeMap.set(bitpos, false);
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        newDataMap.set(bitpos, true);
-        return new Champ<>(newDataMap, newNodeMap, dst, fromCbor);
+        return new Champ<>(dataMap | (1L << bitpos), nodeMap & ~(1L << bitpos), dst, fromCbor);
     }
 
     private Champ<V> removeMapping(final int bitpos, final int payloadIndex) {
         final int index = getIndex(dataMap, bitpos);
-        final HashPrefixPayload<V>[] src = this.contents;
+        final HashPrefixPayload<V>[] src = payloads();
         KeyElement<V>[] existing = src[index].mappings;
         boolean lastInPrefix = existing.length == 1;
         final HashPrefixPayload<V>[] dst = new HashPrefixPayload[src.length - (lastInPrefix ? 1 : 0)];
@@ -580,41 +630,67 @@ public class Champ<V extends Cborable> implements Cborable {
             dst[index] = new HashPrefixPayload<>(remaining);
         }
 
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        if (lastInPrefix)
-            newDataMap.clear(bitpos);
+        long newDataMap = lastInPrefix ? dataMap & ~(1L << bitpos) : dataMap;
         return new Champ<>(newDataMap, nodeMap, dst, fromCbor);
     }
 
     public <T> CompletableFuture<T> applyToAllMappings(T identity,
                                                        BiFunction<T, Pair<ByteArrayWrapper, Optional<V>>, CompletableFuture<T>> consumer,
                                                        ContentAddressedStorage storage) {
-        return Futures.reduceAll(Arrays.stream(contents).collect(Collectors.toList()), identity, (res, payload) ->
-                (! payload.isShard() ?
-                        Futures.reduceAll(
-                                Arrays.stream(payload.mappings).collect(Collectors.toList()),
-                                res,
-                                (x, mapping) -> consumer.apply(x, new Pair<>(mapping.key, mapping.valueHash)),
-                                (a, b) ->  a) :
-                        CompletableFuture.completedFuture(res)
-                ).thenCompose(newRes ->
-                        payload.isShard() && payload.link.isPresent() ?
-                                storage.get(payload.link.get())
-                                        .thenApply(rawOpt -> Champ.fromCbor(rawOpt.orElseThrow(() -> new IllegalStateException("Hash not present! " + payload.link)), fromCbor))
-                                        .thenCompose(child -> child.applyToAllMappings(newRes, consumer, storage)) :
-                                CompletableFuture.completedFuture(newRes)
-                ), (a, b) -> a);
+        return applyToAllMappings(identity, consumer, x -> false, ChampTraversal.DEFAULT_PARALLELISM, storage);
+    }
+
+    /** Apply a function sequentially to every mapping, in order, prefetching child nodes ahead of the consumer
+     *
+     * @param identity The initial result
+     * @param consumer The function to fold over the mappings
+     * @param isDone A test on the accumulated result to terminate the traversal early
+     * @param parallelism The maximum number of concurrent block fetches
+     * @param storage The storage
+     * @return The accumulated result
+     */
+    public <T> CompletableFuture<T> applyToAllMappings(T identity,
+                                                       BiFunction<T, Pair<ByteArrayWrapper, Optional<V>>, CompletableFuture<T>> consumer,
+                                                       Predicate<T> isDone,
+                                                       int parallelism,
+                                                       ContentAddressedStorage storage) {
+        return new ChampTraversal<>(storage, fromCbor, identity, consumer, isDone, parallelism,
+                ChampTraversal.DEFAULT_MAX_PREFETCHED).run(this);
+    }
+
+    int payloadCount() {
+        return contents.length;
+    }
+
+    /**
+     *
+     * @return The (possibly empty) child link of a shard payload, or null for a payload of mappings
+     */
+    MaybeMultihash link(int index) {
+        return payload(index).link;
+    }
+
+    int mappingCount(int index) {
+        return payload(index).mappings.length;
+    }
+
+    ByteArrayWrapper key(int index, int mapping) {
+        return payload(index).mappings[mapping].key;
+    }
+
+    Optional<V> value(int index, int mapping) {
+        return payload(index).mappings[mapping].valueHash;
     }
 
     private List<KeyElement<V>> getMappings() {
-        return Arrays.stream(contents)
+        return Arrays.stream(payloads())
                 .filter(p -> !p.isShard())
                 .flatMap(p -> Arrays.stream(p.mappings))
                 .collect(Collectors.toList());
     }
 
     private List<HashPrefixPayload<V>> getLinks() {
-        return Arrays.stream(contents)
+        return Arrays.stream(payloads())
                 .filter(p -> p.isShard())
                 .collect(Collectors.toList());
     }
@@ -626,10 +702,10 @@ public class Champ<V extends Cborable> implements Cborable {
         if (! c.isPresent())
             return Optional.empty();
         Champ<V> champ = c.get();
-        if (champ.dataMap.get(bitIndex))
-            return Optional.of(champ.contents[dataIndex]);
-        if (champ.nodeMap.get(bitIndex))
-            return Optional.of(champ.contents[champ.contents.length - 1 - nodeIndex]);
+        if (isSet(champ.dataMap, bitIndex))
+            return Optional.of(champ.payload(dataIndex));
+        if (isSet(champ.nodeMap, bitIndex))
+            return Optional.of(champ.payload(champ.contents.length - 1 - nodeIndex));
         return Optional.empty();
     }
 
@@ -673,8 +749,8 @@ public class Champ<V extends Cborable> implements Cborable {
                                 .thenCompose(leftHigherMappingsByBit -> hashAndMaskKeys(higherRightMappings, depth, bitWidth, hasher)
                                         .thenCompose(rightHigherMappingsByBit -> {
 
-                            int leftMax = left.map(c -> Math.max(c.dataMap.length(), c.nodeMap.length())).orElse(0);
-                            int rightMax = right.map(c -> Math.max(c.dataMap.length(), c.nodeMap.length())).orElse(0);
+                            int leftMax = left.map(c -> Math.max(bitLength(c.dataMap), bitLength(c.nodeMap))).orElse(0);
+                            int rightMax = right.map(c -> Math.max(bitLength(c.dataMap), bitLength(c.nodeMap))).orElse(0);
                             int maxBit = Math.max(leftMax, rightMax);
                             int leftDataIndex = 0, rightDataIndex = 0, leftNodeCount = 0, rightNodeCount = 0;
 
@@ -754,35 +830,79 @@ public class Champ<V extends Cborable> implements Cborable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Champ<?> champ = (Champ<?>) o;
-        return dataMap.equals(champ.dataMap) &&
-                nodeMap.equals(champ.nodeMap) &&
-                Arrays.equals(contents, champ.contents);
+        return dataMap == champ.dataMap &&
+                nodeMap == champ.nodeMap &&
+                Arrays.equals(payloads(), champ.payloads());
     }
 
     @Override
     public int hashCode() {
         int result = Objects.hash(dataMap, nodeMap);
-        result = 31 * result + Arrays.hashCode(contents);
+        result = 31 * result + Arrays.hashCode(payloads());
         return result;
     }
 
+    private static byte[] bitmapToBytes(long bitmap) {
+        // the same little endian, trailing zero trimmed, encoding as BitSet.toByteArray()
+        int len = (bitLength(bitmap) + 7) / 8;
+        byte[] res = new byte[len];
+        for (int i=0; i < len; i++)
+            res[i] = (byte) (bitmap >>> (8 * i));
+        return res;
+    }
+
+    private static long bitmapFromBytes(byte[] raw) {
+        long bitmap = 0;
+        for (int i=0; i < raw.length; i++) {
+            if (raw[i] == 0)
+                continue;
+            if (i >= 8)
+                throw new IllegalStateException("Champ bitmap too large! Bit width must be at most " + MAX_BIT_WIDTH);
+            bitmap |= (raw[i] & 0xFFL) << (8 * i);
+        }
+        return bitmap;
+    }
+
+    private static <V extends Cborable> Cborable encodePayload(HashPrefixPayload<V> payload) {
+        if (payload.link != null)
+            return new CborObject.CborMerkleLink(payload.link.get());
+        return new CborObject.CborList(Arrays.stream(payload.mappings)
+                .flatMap(m -> Stream.of(
+                        new CborObject.CborByteArray(m.key.data),
+                        m.valueHash.isPresent() ?
+                                m.valueHash.get().toCbor() :
+                                new CborObject.CborNull()
+                ))
+                .collect(Collectors.toList()));
+    }
+
+    private static <V extends Cborable> HashPrefixPayload<V> decodePayload(Cborable keyOrHash, Function<Cborable, V> fromCbor) {
+        if (! (keyOrHash instanceof CborObject.CborList))
+            return new HashPrefixPayload<>(MaybeMultihash.of(((CborObject.CborMerkleLink)keyOrHash).target));
+        List<? extends Cborable> mappingsCbor = ((CborObject.CborList) keyOrHash).value;
+        KeyElement<V>[] mappings = new KeyElement[mappingsCbor.size() / 2];
+        for (int j=0; j < mappingsCbor.size(); j += 2) {
+            byte[] key = ((CborObject.CborByteArray) mappingsCbor.get(j)).value;
+            mappings[j / 2] = new KeyElement<>(new ByteArrayWrapper(key), decodeValue(mappingsCbor.get(j + 1), fromCbor));
+        }
+        return new HashPrefixPayload<>(mappings);
+    }
+
+    private static <V extends Cborable> Optional<V> decodeValue(Cborable value, Function<Cborable, V> fromCbor) {
+        return value instanceof CborObject.CborNull ?
+                Optional.empty() :
+                Optional.of(fromCbor.apply(value));
+    }
+
     @Override
     public CborObject toCbor() {
+        List<Cborable> contentsCbor = new ArrayList<>(contents.length);
+        for (int i=0; i < contents.length; i++)
+            contentsCbor.add(contents[i] == null ? encoded.get(i) : encodePayload(contents[i]));
         return new CborObject.CborList(Arrays.asList(
-                new CborObject.CborByteArray(dataMap.toByteArray()),
-                new CborObject.CborByteArray(nodeMap.toByteArray()),
-                new CborObject.CborList(Arrays.stream(contents)
-                        .flatMap(e -> e.link != null ?
-                                Stream.of(new CborObject.CborMerkleLink(e.link.get())) :
-                                Stream.of(new CborObject.CborList(Arrays.stream(e.mappings)
-                                        .flatMap(m -> Stream.of(
-                                                new CborObject.CborByteArray(m.key.data),
-                                                m.valueHash.isPresent() ?
-                                                        m.valueHash.get().toCbor() :
-                                                        new CborObject.CborNull()
-                                        ))
-                                        .collect(Collectors.toList()))))
-                        .collect(Collectors.toList()))
+                new CborObject.CborByteArray(bitmapToBytes(dataMap)),
+                new CborObject.CborByteArray(bitmapToBytes(nodeMap)),
+                new CborObject.CborList(contentsCbor)
         ));
     }
 
@@ -793,29 +913,9 @@ public class Champ<V extends Cborable> implements Cborable {
 
         if (! (list.get(0) instanceof CborObject.CborByteArray))
             throw new IllegalStateException("Invalid cbor for a champ, is this a btree?");
-        BitSet dataMap = BitSet.valueOf(((CborObject.CborByteArray)list.get(0)).value);
-        BitSet nodeMap = BitSet.valueOf(((CborObject.CborByteArray)list.get(1)).value);
+        long dataMap = bitmapFromBytes(((CborObject.CborByteArray)list.get(0)).value);
+        long nodeMap = bitmapFromBytes(((CborObject.CborByteArray)list.get(1)).value);
         List<? extends Cborable> contentsCbor = ((CborObject.CborList) list.get(2)).value;
-
-        List<HashPrefixPayload<V>> contents = new ArrayList<>();
-        for (int i=0; i < contentsCbor.size(); i++) {
-            Cborable keyOrHash = contentsCbor.get(i);
-            if (keyOrHash instanceof CborObject.CborList) {
-                List<KeyElement<V>> mappings = new ArrayList<>();
-                List<? extends Cborable> mappingsCbor = ((CborObject.CborList) keyOrHash).value;
-                for (int j=0; j < mappingsCbor.size(); j += 2) {
-                    byte[] key = ((CborObject.CborByteArray) mappingsCbor.get(j)).value;
-                    Cborable value = mappingsCbor.get(j + 1);
-                    mappings.add(new KeyElement<>(new ByteArrayWrapper(key),
-                        value instanceof CborObject.CborNull ?
-                                Optional.empty() :
-                                Optional.of(fromCbor.apply(value))));
-                }
-                contents.add(new HashPrefixPayload<>(mappings.toArray(new KeyElement[0])));
-            } else {
-                contents.add(new HashPrefixPayload<>(MaybeMultihash.of(((CborObject.CborMerkleLink)keyOrHash).target)));
-            }
-        }
-        return new Champ<>(dataMap, nodeMap, contents.toArray(new HashPrefixPayload[contents.size()]), fromCbor);
+        return new Champ<>(dataMap, nodeMap, new HashPrefixPayload[contentsCbor.size()], contentsCbor, fromCbor);
     }
 }
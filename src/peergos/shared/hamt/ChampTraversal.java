@@ -0,0 +1,239 @@
+package peergos.shared.hamt;
+
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** An in order traversal of all the mappings in a champ, which fetches child nodes ahead of the consumer.
+ *
+ *  Child links are queued in depth first order as soon as their parent arrives, and fetched with at most parallelism
+ *  requests outstanding, so a traversal costs roughly (nodes / parallelism) round trips rather than one per node.
+ *  Once maxPrefetched nodes are waiting to be consumed, the children of further nodes are only queued when they are
+ *  reached. Each prefetch is dropped as soon as the consumer reaches it, so at most maxPrefetched fetched nodes, plus
+ *  those in flight and on the current path, are held at once, however large the tree. The consumer is still called
+ *  sequentially, in the same order as a plain recursive walk, and the traversal stops early as soon as the
+ *  accumulated result satisfies isDone.
+ */
+class ChampTraversal<V extends Cborable, T> {
+    public static final int DEFAULT_PARALLELISM = 32;
+    public static final int DEFAULT_MAX_PREFETCHED = 1024;
+
+    private final ContentAddressedStorage storage;
+    private final Function<Cborable, V> fromCbor;
+    private final BiFunction<T, Pair<ByteArrayWrapper, Optional<V>>, CompletableFuture<T>> consumer;
+    private final Predicate<T> isDone;
+    private final int parallelism, maxPrefetched;
+
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    // the nodes on the path from the root to the current node, only touched by the sequential consumer
+    private final Deque<Frame> path = new ArrayDeque<>();
+    private T acc;
+
+    // prefetch state, guarded by this
+    private final Deque<Prefetch> queued = new ArrayDeque<>();
+    private int inFlight = 0, prefetched = 0;
+    private boolean pumping = false;
+
+    private class Prefetch {
+        final Multihash link;
+        final CompletableFuture<Champ<V>> node = new CompletableFuture<>();
+        boolean started;
+        // set before node completes, if the children were queued on arrival
+        volatile List<Prefetch> children;
+
+        Prefetch(Multihash link) {
+            this.link = link;
+        }
+    }
+
+    private class Frame {
+        final Champ<V> node;
+        final List<Prefetch> children;
+        int payloadIndex = 0, mappingIndex = 0, mappingCount = 0, childIndex = 0;
+
+        Frame(Champ<V> node, List<Prefetch> children) {
+            this.node = node;
+            this.children = children;
+        }
+    }
+
+    ChampTraversal(ContentAddressedStorage storage,
+                   Function<Cborable, V> fromCbor,
+                   T identity,
+                   BiFunction<T, Pair<ByteArrayWrapper, Optional<V>>, CompletableFuture<T>> consumer,
+                   Predicate<T> isDone,
+                   int parallelism,
+                   int maxPrefetched) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive!");
+        this.storage = storage;
+        this.fromCbor = fromCbor;
+        this.acc = identity;
+        this.consumer = consumer;
+        this.isDone = isDone;
+        this.parallelism = parallelism;
+        this.maxPrefetched = maxPrefetched;
+    }
+
+    CompletableFuture<T> run(Champ<V> root) {
+        path.push(new Frame(root, enqueueChildren(root)));
+        step();
+        return result;
+    }
+
+    private List<Prefetch> enqueueChildren(Champ<V> node) {
+        List<Prefetch> children = new ArrayList<>();
+        for (int i = 0; i < node.payloadCount(); i++) {
+            MaybeMultihash link = node.link(i);
+            if (link != null && link.isPresent())
+                children.add(new Prefetch(link.get()));
+        }
+        synchronized (this) {
+            // push in reverse so the queue is consumed in depth first order
+            for (int i = children.size() - 1; i >= 0; i--)
+                queued.addFirst(children.get(i));
+        }
+        pump();
+        return children;
+    }
+
+    /** Start queued fetches up to the parallelism limit. Fetches which complete immediately queue their children
+     *  for this loop rather than recursing.
+     */
+    private void pump() {
+        synchronized (this) {
+            if (pumping)
+                return;
+            pumping = true;
+        }
+        while (true) {
+            Prefetch next;
+            synchronized (this) {
+                if (inFlight >= parallelism || queued.isEmpty() || result.isDone()) {
+                    pumping = false;
+                    return;
+                }
+                next = queued.pollFirst();
+                if (next.started)
+                    continue;
+                next.started = true;
+                inFlight++;
+            }
+            fetch(next);
+        }
+    }
+
+    private void fetch(Prefetch p) {
+        storage.get(p.link).thenApply(raw -> Champ.fromCbor(raw.orElseThrow(() ->
+                        new IllegalStateException("Hash not present! " + p.link)), fromCbor))
+                .whenComplete((node, t) -> {
+                    boolean expand;
+                    synchronized (this) {
+                        inFlight--;
+                        if (t == null)
+                            prefetched++;
+                        expand = t == null && prefetched <= maxPrefetched;
+                    }
+                    if (expand)
+                        p.children = enqueueChildren(node);
+                    if (t != null)
+                        p.node.completeExceptionally(t);
+                    else
+                        p.node.complete(node);
+                    pump();
+                });
+    }
+
+    /** The consumer has reached this node, so fetch it now if it is still queued
+     */
+    private CompletableFuture<Champ<V>> demand(Prefetch p) {
+        synchronized (this) {
+            if (p.started)
+                return p.node;
+            p.started = true;
+            inFlight++;
+            // it is in depth first order, so near the front
+            queued.removeFirstOccurrence(p);
+        }
+        fetch(p);
+        return p.node;
+    }
+
+    private void enter(Prefetch p) {
+        Champ<V> node = p.node.join();
+        synchronized (this) {
+            prefetched--;
+        }
+        List<Prefetch> children = p.children;
+        path.push(new Frame(node, children != null ? children : enqueueChildren(node)));
+    }
+
+    /** Advance the traversal, looping over already completed futures rather than recursing to avoid deep stacks
+     */
+    private void step() {
+        try {
+            while (true) {
+                if (path.isEmpty() || isDone.test(acc)) {
+                    result.complete(acc);
+                    return;
+                }
+                Frame f = path.peek();
+                if (f.mappingIndex < f.mappingCount) {
+                    int payload = f.payloadIndex - 1, mapping = f.mappingIndex++;
+                    CompletableFuture<T> next = consumer.apply(acc,
+                            new Pair<>(f.node.key(payload, mapping), f.node.value(payload, mapping)));
+                    if (! next.isDone()) {
+                        next.whenComplete((r, t) -> {
+                            if (t != null) {
+                                result.completeExceptionally(t);
+                                return;
+                            }
+                            acc = r;
+                            step();
+                        });
+                        return;
+                    }
+                    acc = next.join();
+                    continue;
+                }
+                if (f.payloadIndex >= f.node.payloadCount()) {
+                    path.pop();
+                    continue;
+                }
+                int payload = f.payloadIndex++;
+                MaybeMultihash link = f.node.link(payload);
+                if (link == null) {
+                    f.mappingIndex = 0;
+                    f.mappingCount = f.node.mappingCount(payload);
+                    continue;
+                }
+                f.mappingCount = 0;
+                if (! link.isPresent())
+                    continue;
+                // release the prefetch once reached, so consumed siblings aren't held until their parent is done
+                Prefetch child = f.children.set(f.childIndex++, null);
+                CompletableFuture<Champ<V>> fetched = demand(child);
+                if (! fetched.isDone()) {
+                    fetched.whenComplete((n, t) -> {
+                        if (t != null) {
+                            result.completeExceptionally(t);
+                            return;
+                        }
+                        enter(child);
+                        step();
+                    });
+                    return;
+                }
+                enter(child);
+            }
+        } catch (Throwable t) {
+            result.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+        }
+    }
+}
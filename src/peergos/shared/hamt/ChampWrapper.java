@@ -12,6 +12,7 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class ChampWrapper<V extends Cborable> implements ImmutableTree<V>
 {
@@ -101,6 +102,24 @@ public class ChampWrapper<V extends Cborable> implements ImmutableTree<V>
                 .thenCompose(newRoot -> commit(writer, newRoot));
     }
 
+    /** Apply many puts (or removes, where the new value is empty), only uploading the final version of each
+     *  modified node
+     *
+     * @param mutations The raw keys, their expected current values, and their new values
+     * @return hash of new tree root
+     */
+    public CompletableFuture<Multihash> putAll(PublicKeyHash owner,
+                                               SigningPrivateKeyAndPublicHash writer,
+                                               List<Triple<byte[], Optional<V>, Optional<V>>> mutations,
+                                               TransactionId tid) {
+        List<Triple<ByteArrayWrapper, Optional<V>, Optional<V>>> wrapped = mutations.stream()
+                .map(m -> new Triple<>(new ByteArrayWrapper(m.left), m.middle, m.right))
+                .collect(Collectors.toList());
+        return root.left.putAll(owner, writer, wrapped, BIT_WIDTH, MAX_HASH_COLLISIONS_PER_LEVEL, keyHasher, tid,
+                storage, writeHasher, root.right)
+                .thenCompose(newRoot -> commit(writer, newRoot));
+    }
+
     /**
      *
      * @param rawKey
@@ -143,4 +162,17 @@ public class ChampWrapper<V extends Cborable> implements ImmutableTree<V>
                                                        BiFunction<T, Pair<ByteArrayWrapper, Optional<V>>, CompletableFuture<T>> consumer) {
         return root.left.applyToAllMappings(identity, consumer, storage);
     }
+
+    /**
+     *
+     * @param isDone A test on the accumulated result to stop the traversal early
+     * @param parallelism The maximum number of concurrent block fetches
+     * @return The result of folding consumer over the mappings in order
+     */
+    public <T> CompletableFuture<T> applyToAllMappings(T identity,
+                                                       BiFunction<T, Pair<ByteArrayWrapper, Optional<V>>, CompletableFuture<T>> consumer,
+                                                       Predicate<T> isDone,
+                                                       int parallelism) {
+        return root.left.applyToAllMappings(identity, consumer, isDone, parallelism, storage);
+    }
 }
@@ -5,6 +5,7 @@ import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.*;
 
 /*
  * A CoreNode that caches previous metadata blob reads for a certain time
@@ -35,6 +36,40 @@ public class CachingPointers implements MutablePointers {
         });
     }
 
+    @Override
+    public CompletableFuture<List<Optional<byte[]>>> getPointers(List<Pair<PublicKeyHash, PublicKeyHash>> ownersAndWriters) {
+        List<Optional<byte[]>> res = new ArrayList<>();
+        List<Integer> missing = new ArrayList<>();
+        synchronized (cache) {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < ownersAndWriters.size(); i++) {
+                Pair<Optional<byte[]>, Long> cached = cache.get(ownersAndWriters.get(i).right);
+                if (cached != null && now - cached.right < cacheTTL)
+                    res.add(cached.left);
+                else {
+                    res.add(Optional.empty());
+                    missing.add(i);
+                }
+            }
+        }
+        if (missing.isEmpty())
+            return CompletableFuture.completedFuture(res);
+        return target.getPointers(missing.stream()
+                .map(ownersAndWriters::get)
+                .collect(Collectors.toList()))
+                .thenApply(retrieved -> {
+                    synchronized (cache) {
+                        long now = System.currentTimeMillis();
+                        for (int i = 0; i < missing.size(); i++) {
+                            int index = missing.get(i);
+                            res.set(index, retrieved.get(i));
+                            cache.put(ownersAndWriters.get(index).right, new Pair<>(retrieved.get(i), now));
+                        }
+                    }
+                    return res;
+                });
+    }
+
     @Override
     public CompletableFuture<Boolean> setPointer(PublicKeyHash ownerPublicKey, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
         synchronized (cache) {
@@ -2,6 +2,7 @@
 package peergos.shared.mutable;
 import java.util.logging.*;
 
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.user.*;
@@ -11,6 +12,7 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.*;
 
 public class HttpMutablePointers implements MutablePointersProxy {
 	private static final Logger LOG = Logger.getGlobal();
@@ -107,4 +109,25 @@ public class HttpMutablePointers implements MutablePointersProxy {
                 LOG.info("HttpMutablePointers.get took " + (t2 -t1) + "mS for (" + owner + ", " + writer + ")");
         }
     }
+
+    @Override
+    public CompletableFuture<List<Optional<byte[]>>> getPointers(List<Pair<PublicKeyHash, PublicKeyHash>> ownersAndWriters) {
+        if (ownersAndWriters.isEmpty())
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        long t1 = System.currentTimeMillis();
+        byte[] body = new CborObject.CborList(ownersAndWriters.stream()
+                .map(p -> new CborObject.CborList(Arrays.asList(p.left, p.right)))
+                .collect(Collectors.toList())).serialize();
+        return direct.postUnzip(directUrlPrefix + Constants.MUTABLE_POINTERS_URL + "getPointers", body)
+                .thenApply(res -> ((CborObject.CborList) CborObject.fromByteArray(res)).value.stream()
+                        .map(c -> ((CborObject.CborByteArray) c).value)
+                        .map(p -> p.length == 0 ? Optional.<byte[]>empty() : Optional.of(p))
+                        .collect(Collectors.toList()))
+                .thenApply(res -> {
+                    long t2 = System.currentTimeMillis();
+                    if (LOGGING)
+                        LOG.info("HttpMutablePointers.getPointers took " + (t2 -t1) + "mS for " + ownersAndWriters.size() + " pointers");
+                    return res;
+                });
+    }
 }
@@ -6,9 +6,11 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.MaybeMultihash;
 import peergos.shared.storage.ContentAddressedStorage;
+import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.*;
 
 public interface MutablePointers {
 
@@ -28,6 +30,17 @@ public interface MutablePointers {
      */
     CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer);
 
+    /** Get the current values of many pointers at once, in a single request where the implementation supports it
+     *
+     * @param ownersAndWriters The owner and writer of each pointer
+     * @return The signed cas of each pointer, in the order requested
+     */
+    default CompletableFuture<List<Optional<byte[]>>> getPointers(List<Pair<PublicKeyHash, PublicKeyHash>> ownersAndWriters) {
+        return Futures.combineAllInOrder(ownersAndWriters.stream()
+                .map(p -> getPointer(p.left, p.right))
+                .collect(Collectors.toList()));
+    }
+
     /**
      * Get the CAS key-hash for the data pointed to by a writer-key.
      * @param writerKeyHash
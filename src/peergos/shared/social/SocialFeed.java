@@ -13,6 +13,7 @@ import java.nio.file.*;
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 import java.util.stream.*;
 
 /** This social feed stores a list of caps shared with you.
@@ -28,11 +29,14 @@ public class SocialFeed {
     private static final String FEED_FILE = "feed.cbor";
     private static final String FEED_INDEX = "feed-index.cbor";
     private static final String FEED_STATE = "feed-state.cbor";
+    private static final int MAX_CONCURRENT_FRIEND_UPDATES = 10;
 
     private FileWrapper dataDir, stateFile;
     private int lastSeenIndex, feedSizeRecords;
     private long feedSizeBytes;
     private Map<String, ProcessedCaps> currentCapBytesProcessed;
+    // The sharing state of each friend when we last processed their caps, to skip unchanged friends
+    private final Map<String, List<ByteArrayWrapper>> processedFriendStates = new ConcurrentHashMap<>();
     private final UserContext context;
     private final NetworkAccess network;
     private final Crypto crypto;
@@ -231,37 +235,70 @@ public class SocialFeed {
      * @return
      */
     @JsMethod
-    public synchronized CompletableFuture<SocialFeed> update() {
+    public CompletableFuture<SocialFeed> update() {
+        return updateAndStream(x -> {});
+    }
+
+    /** Incorporate any new shares from friends into the feed. The sharing directories of all friends, and of the groups
+     *  they share with, are checked with a single pointer lookup. Friends whose directories are all unchanged since the
+     *  last update are skipped, and the rest are polled concurrently. New items are passed to the consumer as each
+     *  friend is processed, and then all of them are appended to the feed with a single commit of the feed state.
+     *
+     * @param partialResults receives the new items from each friend as they are retrieved
+     * @return
+     */
+    @JsMethod
+    public synchronized CompletableFuture<SocialFeed> updateAndStream(Consumer<List<SharedItem>> partialResults) {
+        Map<String, List<ByteArrayWrapper>> checked = new ConcurrentHashMap<>();
         return context.getFollowingNodes()
-                .thenCompose(friends -> Futures.combineAll(friends.stream()
-                        .parallel()
-                        .map(this::getFriendUpdate)
-                        .collect(Collectors.toList())))
+                .thenApply(ArrayList::new)
+                .thenCompose(friends -> FriendSourcedTrieNode.getSharingStates(friends, network)
+                        .thenApply(states -> friends.stream()
+                                .filter(f -> ! states.get(f.ownerName).equals(processedFriendStates.get(f.ownerName)))
+                                .map(f -> new Pair<>(f, states.get(f.ownerName)))
+                                .collect(Collectors.toList())))
+                .thenCompose(changed -> Futures.mapBounded(changed, MAX_CONCURRENT_FRIEND_UPDATES,
+                        friend -> getFriendUpdate(friend.left, friend.right, checked)
+                                .thenApply(update -> {
+                                    update.ifPresent(t -> partialResults.accept(toSharedItems(t.left, t.right)));
+                                    return update;
+                                })))
                 .thenCompose(updates -> mergeUpdates(updates.stream()
                         .flatMap(Optional::stream)
-                        .collect(Collectors.toList())));
+                        .collect(Collectors.toList())))
+                .thenApply(feed -> {
+                    // only mark friends as processed once their caps are committed
+                    processedFriendStates.putAll(checked);
+                    return feed;
+                });
     }
 
-    private CompletableFuture<Optional<Triple<String, ProcessedCaps, CapsDiff>>> getFriendUpdate(FriendSourcedTrieNode friend) {
+    private CompletableFuture<Optional<Triple<String, ProcessedCaps, CapsDiff>>> getFriendUpdate(FriendSourcedTrieNode friend,
+                                                                                                 List<ByteArrayWrapper> sharingState,
+                                                                                                 Map<String, List<ByteArrayWrapper>> checked) {
         ProcessedCaps current = currentCapBytesProcessed.getOrDefault(friend.ownerName, ProcessedCaps.empty());
         return friend.updateIncludingGroups(network)
                 .thenCompose(x -> friend.getCaps(current, network))
                 .thenApply(diff -> {
+                    checked.put(friend.ownerName, sharingState);
                     if (diff.isEmpty())
                         return Optional.empty();
                     return Optional.of(new Triple<>(friend.ownerName, current, diff));
                 });
     }
 
+    private static List<SharedItem> toSharedItems(String friendName, CapsDiff diff) {
+        return diff.getNewCaps().stream()
+                .map(c -> new SharedItem(c.cap, extractOwner(c.path), friendName, c.path))
+                .collect(Collectors.toList());
+    }
+
     private synchronized CompletableFuture<SocialFeed> mergeUpdates(Collection<Triple<String, ProcessedCaps, CapsDiff>> updates) {
         List<SharedItem> forFeed = new ArrayList<>();
         for (Triple<String, ProcessedCaps, CapsDiff> update : updates) {
             ProcessedCaps updated = update.middle.add(update.right);
             currentCapBytesProcessed.put(update.left, updated);
-            List<CapabilityWithPath> newCaps = update.right.getNewCaps();
-            newCaps.stream()
-                    .map(c -> new SharedItem(c.cap, extractOwner(c.path), update.left, c.path))
-                    .forEach(forFeed::add);
+            forFeed.addAll(toSharedItems(update.left, update.right));
         }
         return addToFeed(forFeed);
     }
@@ -294,11 +331,7 @@ public class SocialFeed {
                                                                    CapsDiff diff) {
         ProcessedCaps updated = current.add(diff);
         currentCapBytesProcessed.put(friendName, updated);
-        List<CapabilityWithPath> newCaps = diff.getNewCaps();
-        List<SharedItem> forFeed = newCaps.stream()
-                .map(c -> new SharedItem(c.cap, extractOwner(c.path), friendName, c.path))
-                .collect(Collectors.toList());
-        return addToFeed(forFeed);
+        return addToFeed(toSharedItems(friendName, diff));
     }
 
     private synchronized CompletableFuture<SocialFeed> addToFeed(List<SharedItem> newItems) {
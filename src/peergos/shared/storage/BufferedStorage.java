@@ -0,0 +1,93 @@
+package peergos.shared.storage;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/** A storage overlay that keeps cbor block writes in memory, hashing but not signing them.
+ *
+ *  This lets a series of tree mutations be applied without uploading the intermediate nodes which are immediately
+ *  replaced. A call to commit then signs and uploads, in a single put, only the buffered blocks which are reachable
+ *  from the final root.
+ */
+public class BufferedStorage extends DelegatingStorage {
+    private final ContentAddressedStorage target;
+    private final Map<Multihash, byte[]> buffered = new HashMap<>();
+
+    public BufferedStorage(ContentAddressedStorage target) {
+        super(target);
+        this.target = target;
+    }
+
+    @Override
+    public ContentAddressedStorage directToOrigin() {
+        return new BufferedStorage(target.directToOrigin());
+    }
+
+    @Override
+    public CompletableFuture<Multihash> put(PublicKeyHash owner,
+                                            SigningPrivateKeyAndPublicHash writer,
+                                            byte[] block,
+                                            Hasher hasher,
+                                            TransactionId tid) {
+        return hasher.sha256(block)
+                .thenApply(sha256 -> {
+                    Multihash cid = CommittableStorage.hashToCid(sha256, false);
+                    synchronized (buffered) {
+                        buffered.put(cid, block);
+                    }
+                    return cid;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+        byte[] local;
+        synchronized (buffered) {
+            local = buffered.get(hash);
+        }
+        if (local != null)
+            return Futures.of(Optional.of(CborObject.fromByteArray(local)));
+        return target.get(hash);
+    }
+
+    /** Sign and upload all the buffered blocks reachable from root, and discard the rest
+     *
+     * @param root The final root of the structure being written
+     * @return The hashes of the uploaded blocks
+     */
+    public CompletableFuture<List<Multihash>> commit(PublicKeyHash owner,
+                                                     SigningPrivateKeyAndPublicHash writer,
+                                                     Multihash root,
+                                                     TransactionId tid) {
+        List<Multihash> hashes = new ArrayList<>();
+        List<byte[]> blocks = new ArrayList<>();
+        synchronized (buffered) {
+            Set<Multihash> seen = new HashSet<>();
+            LinkedList<Multihash> toVisit = new LinkedList<>();
+            toVisit.add(root);
+            while (! toVisit.isEmpty()) {
+                Multihash next = toVisit.poll();
+                byte[] block = buffered.get(next);
+                if (block == null || ! seen.add(next))
+                    continue;
+                hashes.add(next);
+                blocks.add(block);
+                toVisit.addAll(CborObject.fromByteArray(block).links());
+            }
+            buffered.clear();
+        }
+        if (blocks.isEmpty())
+            return Futures.of(Collections.emptyList());
+        List<byte[]> signatures = hashes.stream()
+                .map(h -> writer.secret.signMessage(h.getHash()))
+                .collect(Collectors.toList());
+        return target.put(owner, writer.publicKeyHash, signatures, blocks, tid);
+    }
+}
@@ -1,5 +1,6 @@
 package peergos.shared.storage;
 
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multihash.*;
@@ -14,6 +15,7 @@ public class CommittableStorage extends DelegatingStorage {
 
     private final ContentAddressedStorage target;
     private final List<PutArgs> pending = new ArrayList<>();
+    private final Map<Multihash, byte[]> pendingBlocks = new HashMap<>();
 
     public CommittableStorage(ContentAddressedStorage target) {
         super(target);
@@ -25,6 +27,7 @@ public class CommittableStorage extends DelegatingStorage {
         synchronized (pending) {
             local = new ArrayList<>(pending);
             pending.clear();
+            pendingBlocks.clear();
         }
         List<CompletableFuture<Multihash>> uploads = local.stream()
                 .map(p -> target.put(p.owner, p.writer, p.signature, p.block, p.tid)
@@ -58,10 +61,34 @@ public class CommittableStorage extends DelegatingStorage {
         Cid cid = hashToCid(sha256, false);
         synchronized (pending) {
             pending.add(new PutArgs(owner, writer, cid, signature, block, tid));
+            pendingBlocks.put(cid, block);
         }
         return Futures.of(cid);
     }
 
+    private Optional<byte[]> getPending(Multihash hash) {
+        synchronized (pending) {
+            return Optional.ofNullable(pendingBlocks.get(hash));
+        }
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+        // make blocks from multiple updates before a flush visible to each other
+        Optional<byte[]> local = getPending(hash);
+        if (local.isPresent())
+            return Futures.of(Optional.of(CborObject.fromByteArray(local.get())));
+        return target.get(hash);
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+        Optional<byte[]> local = getPending(hash);
+        if (local.isPresent())
+            return Futures.of(local);
+        return target.getRaw(hash);
+    }
+
     public static Cid hashToCid(byte[] sha256, boolean isRaw) {
         return new Cid(CID_V1, isRaw ? Cid.Codec.Raw : Cid.Codec.DagCbor, Multihash.Type.sha2_256, sha256);
     }
@@ -34,6 +34,53 @@ public class FriendSourcedTrieNode implements TrieNode {
         this.groupAdder = groupAdder;
     }
 
+    /**
+     *
+     * @param network
+     * @return the current pointer values of the writers of the friend's sharing directory and of each of their groups we
+     * know about.
+     * If these are unchanged then there can be no new capabilities from this friend.
+     */
+    public CompletableFuture<List<ByteArrayWrapper>> getSharingState(NetworkAccess network) {
+        return getSharingStates(Collections.singletonList(this), network)
+                .thenApply(states -> states.get(ownerName));
+    }
+
+    /** Get the sharing state of many friends with a single pointer lookup
+     *
+     * @param friends
+     * @param network
+     * @return the sharing state of each friend, by name
+     */
+    public static CompletableFuture<Map<String, List<ByteArrayWrapper>>> getSharingStates(List<FriendSourcedTrieNode> friends,
+                                                                                          NetworkAccess network) {
+        // group directories are usually under the same writer as the friend's sharing directory, so dedupe them
+        List<List<Pair<PublicKeyHash, PublicKeyHash>>> sharingWriters = new ArrayList<>();
+        for (FriendSourcedTrieNode friend : friends) {
+            Set<Pair<PublicKeyHash, PublicKeyHash>> writers = new LinkedHashSet<>();
+            writers.add(new Pair<>(friend.sharedDir.pointer.owner, friend.sharedDir.pointer.writer));
+            synchronized (friend) {
+                for (EntryPoint group : friend.groups)
+                    writers.add(new Pair<>(group.pointer.owner, group.pointer.writer));
+            }
+            sharingWriters.add(new ArrayList<>(writers));
+        }
+        return network.mutable.getPointers(sharingWriters.stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toList()))
+                .thenApply(pointers -> {
+                    Map<String, List<ByteArrayWrapper>> res = new HashMap<>();
+                    int index = 0;
+                    for (int i = 0; i < friends.size(); i++) {
+                        List<ByteArrayWrapper> state = new ArrayList<>();
+                        for (int j = 0; j < sharingWriters.get(i).size(); j++)
+                            state.add(new ByteArrayWrapper(pointers.get(index++).orElse(new byte[0])));
+                        res.put(friends.get(i).ownerName, state);
+                    }
+                    return res;
+                });
+    }
+
     public synchronized void addGroup(EntryPoint group) {
         if (! groups.contains(group))
             groups.add(group);
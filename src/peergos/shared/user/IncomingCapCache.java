@@ -31,7 +31,8 @@ public class IncomingCapCache {
     private static final String DIR_STATE = "items.cbor";
 
     private FileWrapper cacheRoot, worldRoot;
-    private final Map<PublicKeyHash, Pair<byte[], CapsDiff>> pointerCache;
+    private final Map<PublicKeyHash, Pair<List<ByteArrayWrapper>, CapsDiff>> pointerCache;
+    private final Map<EntryPoint, SharingCursor> cursors;
     private final Crypto crypto;
     private final Hasher hasher;
 
@@ -41,6 +42,23 @@ public class IncomingCapCache {
         this.crypto = crypto;
         this.hasher = crypto.hasher;
         this.pointerCache = new HashMap<>();
+        this.cursors = new HashMap<>();
+    }
+
+    /** Our position in a sharing directory: the value of its writer's pointer when we last read it, the directory
+     *  as retrieved then, and the sizes of its capability files at that version.
+     */
+    private static final class SharingCursor {
+        public final ByteArrayWrapper pointer;
+        public final RetrievedEntryPoint dir;
+        public final long readCapBytes, writeCapBytes;
+
+        public SharingCursor(ByteArrayWrapper pointer, RetrievedEntryPoint dir, long readCapBytes, long writeCapBytes) {
+            this.pointer = pointer;
+            this.dir = dir;
+            this.readCapBytes = readCapBytes;
+            this.writeCapBytes = writeCapBytes;
+        }
     }
 
     public static CompletableFuture<IncomingCapCache> build(FileWrapper cacheRoot, Crypto crypto, NetworkAccess network) {
@@ -370,20 +388,17 @@ public class IncomingCapCache {
                                                                          EntryPoint sharedDir,
                                                                          List<EntryPoint> groups,
                                                                          NetworkAccess network) {
-        // if the friend's mutable pointer hasn't changed since our last update we can short circuit early
-        PublicKeyHash owner = sharedDir.pointer.owner;
+        // if the pointers of the friend's sharing directory and their groups haven't changed since our last update we
+        // can short circuit early
         PublicKeyHash writer = sharedDir.pointer.writer;
-        return network.mutable.getPointer(owner, writer)
-                .thenCompose(latestPointer -> {
-                    if (latestPointer.isEmpty())
+        List<EntryPoint> dirs = Stream.concat(Stream.of(sharedDir), groups.stream()).collect(Collectors.toList());
+        return getPointers(dirs, network)
+                .thenCompose(latestPointers -> {
+                    if (latestPointers.get(0).data.length == 0)
                         throw new IllegalStateException("Couldn't get pointer for directory of " + friend);
-                    byte[] current = latestPointer.get();
-                    Pair<byte[], CapsDiff> cached = pointerCache.get(writer);
-                    boolean equal = cached != null && Arrays.equals(current, cached.left);
-                    if (equal) {
-                        if (cached.right.groupDiffs.size() == groups.size())
-                            return Futures.of(cached.right);
-                    }
+                    Pair<List<ByteArrayWrapper>, CapsDiff> cached = pointerCache.get(writer);
+                    if (cached != null && cached.left.equals(latestPointers))
+                        return Futures.of(cached.right);
 
                     return getAndUpdateRoot(network)
                             .thenCompose(root -> root.getDescendentByPath(friend + FRIEND_STATE_SUFFIX, hasher, network)
@@ -393,26 +408,53 @@ public class IncomingCapCache {
                                         return Serialize.readFully(stateOpt.get(), crypto, network)
                                                 .thenApply(arr -> ProcessedCaps.fromCbor(CborObject.fromByteArray(arr)));
                                     }))
-                            .thenCompose(currentState -> ensureUptodate(friend, sharedDir, groups, currentState, crypto, network))
+                            .thenCompose(currentState -> ensureUptodate(friend, sharedDir, groups, currentState, latestPointers, crypto, network))
                             .thenApply(res -> {
-                                pointerCache.put(writer, new Pair<>(latestPointer.get(), res.flatten()));
+                                pointerCache.put(writer, new Pair<>(latestPointers, res.flatten()));
                                 return res;
                             });
                 });
     }
 
+    private static CompletableFuture<List<ByteArrayWrapper>> getPointers(List<EntryPoint> dirs, NetworkAccess network) {
+        return network.mutable.getPointers(dirs.stream()
+                .map(e -> new Pair<>(e.pointer.owner, e.pointer.writer))
+                .collect(Collectors.toList()))
+                .thenApply(pointers -> pointers.stream()
+                        .map(p -> new ByteArrayWrapper(p.orElse(new byte[0])))
+                        .collect(Collectors.toList()));
+    }
+
     public CompletableFuture<CapsDiff> getCapsFrom(String friend,
                                                    EntryPoint originalSharedDir,
                                                    List<EntryPoint> groups,
                                                    ProcessedCaps current,
                                                    NetworkAccess network) {
-        return retrieveNewCaps(originalSharedDir, current, network, crypto)
-                .thenCompose(direct -> Futures.combineAll(groups.stream()
-                        .parallel()
-                        .map(e -> NetworkAccess.getLatestEntryPoint(e, network)
-                                .thenCompose(sharedDir -> retrieveNewCaps(sharedDir,
-                                        current.groups.getOrDefault(sharedDir.file.getName(), ProcessedCaps.empty()), network, crypto)
-                                        .thenApply(diff -> Optional.of(new Pair<>(sharedDir.file.getName(), diff))))
+        List<EntryPoint> dirs = Stream.concat(Stream.of(originalSharedDir), groups.stream()).collect(Collectors.toList());
+        return getPointers(dirs, network)
+                .thenCompose(pointers -> getCapsFrom(originalSharedDir, groups, current, pointers, network));
+    }
+
+    /**
+     *
+     * @param pointers the current pointer values of the shared directory followed by each of the groups
+     */
+    private CompletableFuture<CapsDiff> getCapsFrom(EntryPoint originalSharedDir,
+                                                    List<EntryPoint> groups,
+                                                    ProcessedCaps current,
+                                                    List<ByteArrayWrapper> pointers,
+                                                    NetworkAccess network) {
+        return retrieveNewCaps(originalSharedDir, pointers.get(0), d -> current, network)
+                .thenApply(p -> p.right)
+                .exceptionally(t -> {
+                    // we might have been removed from a group or similar
+                    t.printStackTrace();
+                    return CapsDiff.empty();
+                })
+                .thenCompose(direct -> Futures.combineAll(IntStream.range(0, groups.size())
+                        .mapToObj(i -> retrieveNewCaps(groups.get(i), pointers.get(i + 1),
+                                name -> current.groups.getOrDefault(name, ProcessedCaps.empty()), network)
+                                .thenApply(Optional::of)
                                 .exceptionally(t -> Optional.empty()))
                         .collect(Collectors.toList()))
                         .thenApply(groupDiffs -> groupDiffs.stream()
@@ -422,29 +464,44 @@ public class IncomingCapCache {
                                         CapsDiff::mergeGroups)));
     }
 
-    private static CompletableFuture<CapsDiff> retrieveNewCaps(EntryPoint sharingDir,
-                                                               ProcessedCaps current,
-                                                               NetworkAccess network,
-                                                               Crypto crypto) {
-        return NetworkAccess.getLatestEntryPoint(sharingDir, network)
-                .thenCompose(sharedDir ->retrieveNewCaps(sharedDir, current.readCapBytes, current.writeCapBytes, network, crypto))
-                .exceptionally(t -> {
-                    // we might have been removed from a group or similar
-                    t.printStackTrace();
-                    return CapsDiff.empty();
-                });
-    }
-
-    private static CompletableFuture<CapsDiff> retrieveNewCaps(RetrievedEntryPoint sharedDir,
-                                                               ProcessedCaps current,
-                                                               NetworkAccess network,
-                                                               Crypto crypto) {
-        return retrieveNewCaps(sharedDir, current.readCapBytes, current.writeCapBytes, network, crypto)
-                .exceptionally(t -> {
-                    // we might have been removed from a group or similar
-                    t.printStackTrace();
-                    return CapsDiff.empty();
-                });
+    /** Retrieve any capabilities in a sharing directory after those already processed. If the directory's pointer is
+     *  unchanged since we last read it we already know the sizes of its capability files, and where it is, so there
+     *  is nothing to retrieve when we are up to date, and otherwise we can read from the processed offsets directly.
+     *
+     * @param processed the caps already processed from a directory with the given name
+     * @return the name of the directory and the new caps
+     */
+    private CompletableFuture<Pair<String, CapsDiff>> retrieveNewCaps(EntryPoint sharingDir,
+                                                                      ByteArrayWrapper pointer,
+                                                                      Function<String, ProcessedCaps> processed,
+                                                                      NetworkAccess network) {
+        SharingCursor cursor;
+        synchronized (cursors) {
+            cursor = cursors.get(sharingDir);
+        }
+        boolean unchanged = cursor != null && cursor.pointer.equals(pointer);
+        if (unchanged) {
+            String name = cursor.dir.file.getName();
+            ProcessedCaps current = processed.apply(name);
+            if (current.readCapBytes == cursor.readCapBytes && current.writeCapBytes == cursor.writeCapBytes)
+                return Futures.of(new Pair<>(name, new CapsDiff(current.readCapBytes, current.writeCapBytes,
+                        CapsDiff.ReadAndWriteCaps.empty(), Collections.emptyMap())));
+        }
+        CompletableFuture<RetrievedEntryPoint> dir = unchanged ?
+                Futures.of(cursor.dir) :
+                NetworkAccess.getLatestEntryPoint(sharingDir, network);
+        return dir.thenCompose(sharedDir -> {
+            String name = sharedDir.file.getName();
+            ProcessedCaps current = processed.apply(name);
+            return retrieveNewCaps(sharedDir, current.readCapBytes, current.writeCapBytes, network, crypto)
+                    .thenApply(diff -> {
+                        synchronized (cursors) {
+                            cursors.put(sharingDir, new SharingCursor(pointer, sharedDir,
+                                    diff.updatedReadBytes(), diff.updatedWriteBytes()));
+                        }
+                        return new Pair<>(name, diff);
+                    });
+        });
     }
 
     private static CompletableFuture<CapsDiff> retrieveNewCaps(RetrievedEntryPoint sharedDir,
@@ -455,7 +512,8 @@ public class IncomingCapCache {
         return CapabilityStore.loadReadAccessSharingLinksFromIndex(null, sharedDir.file,
                 null, network, crypto, readCapBytes, false, true)
                 .thenCompose(newReadCaps ->
-                        getWritableCaps(sharedDir.file, writeCapBytes, crypto, network)
+                        CapabilityStore.loadWriteAccessSharingLinksFromIndex(null, sharedDir.file,
+                                null, network, crypto, writeCapBytes, false, true)
                                 .thenApply(writeable ->
                                         new CapsDiff.ReadAndWriteCaps(newReadCaps, writeable)))
                 .thenApply(newCaps -> new CapsDiff(readCapBytes, writeCapBytes, newCaps, Collections.emptyMap()));
@@ -465,28 +523,16 @@ public class IncomingCapCache {
                                                                     EntryPoint originalSharedDir,
                                                                     List<EntryPoint> groups,
                                                                     ProcessedCaps current,
+                                                                    List<ByteArrayWrapper> pointers,
                                                                     Crypto crypto,
                                                                     NetworkAccess network) {
         // check there are no new capabilities in the friend's shared directory, or any of their groups
-        return getCapsFrom(friend, originalSharedDir, groups, current, network)
+        return getCapsFrom(originalSharedDir, groups, current, pointers, network)
                 .thenCompose(diff -> addNewCapsToMirror(friend, current, diff, network))
                 .thenCompose(diff -> getAndUpdateWorldRoot(network)
                         .thenApply(y -> diff));
     }
 
-    private static synchronized CompletableFuture<CapabilitiesFromUser> getWritableCaps(FileWrapper sharedDir,
-                                                                                        long byteOffsetWrite,
-                                                                                        Crypto crypto,
-                                                                                        NetworkAccess network) {
-        return CapabilityStore.getEditableCapabilityFileSize(sharedDir, crypto, network)
-                .thenCompose(editFilesize -> {
-                    if (editFilesize == byteOffsetWrite)
-                        return CompletableFuture.completedFuture(CapabilitiesFromUser.empty());
-                    return CapabilityStore.loadWriteAccessSharingLinksFromIndex(null, sharedDir,
-                            null, network, crypto, byteOffsetWrite, false, true);
-                });
-    }
-
     private CompletableFuture<CapsDiff> addNewCapsToMirror(String friend,
                                                            ProcessedCaps current,
                                                            CapsDiff diff,
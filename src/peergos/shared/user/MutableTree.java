@@ -5,8 +5,10 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.MaybeMultihash;
 import peergos.shared.storage.*;
+import peergos.shared.util.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 
 public interface MutableTree {
@@ -29,6 +31,20 @@ public interface MutableTree {
                                       Multihash value,
                                       TransactionId tid);
 
+    /** Put many mappings in a single pass over the tree, only writing the final version of each modified node
+     *
+     * @param base
+     * @param owner
+     * @param sharingKey
+     * @param mappings The map keys, their expected current values and their new values
+     * @return the new root WriterData
+     */
+    CompletableFuture<WriterData> putAll(WriterData base,
+                                         PublicKeyHash owner,
+                                         SigningPrivateKeyAndPublicHash sharingKey,
+                                         List<Triple<byte[], MaybeMultihash, Multihash>> mappings,
+                                         TransactionId tid);
+
     /**
      *
      * @param base The WriterData at the current mutable pointer for the writer
@@ -11,8 +11,10 @@ import peergos.shared.mutable.*;
 import peergos.shared.storage.*;
 import peergos.shared.util.*;
 
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class MutableTreeImpl implements MutableTree {
 	private static final Logger LOG = Logger.getGlobal();
@@ -56,6 +58,26 @@ public class MutableTreeImpl implements MutableTree {
                 .thenApply(base::withChamp);
     }
 
+    @Override
+    public CompletableFuture<WriterData> putAll(WriterData base,
+                                                PublicKeyHash owner,
+                                                SigningPrivateKeyAndPublicHash writer,
+                                                List<Triple<byte[], MaybeMultihash, Multihash>> mappings,
+                                                TransactionId tid) {
+        List<Triple<byte[], Optional<CborObject.CborMerkleLink>, Optional<CborObject.CborMerkleLink>>> mutations = mappings.stream()
+                .map(m -> new Triple<>(m.left,
+                        m.middle.map(CborObject.CborMerkleLink::new),
+                        Optional.of(new CborObject.CborMerkleLink(m.right))))
+                .collect(Collectors.toList());
+        return (base.tree.isPresent() ?
+                ChampWrapper.create(base.tree.get(), hasher, dht, writeHasher, c -> (CborObject.CborMerkleLink)c) :
+                ChampWrapper.create(owner, writer, hasher, tid, dht, writeHasher, c -> (CborObject.CborMerkleLink)c)
+        ).thenCompose(tree -> tree.putAll(owner, writer, mutations, tid))
+                .thenApply(newRoot -> LOGGING ? log(newRoot, "TREE.putAll (" + mappings.size() + " mappings) => CAS("
+                        + base.tree + ", " + newRoot + ")") : newRoot)
+                .thenApply(base::withChamp);
+    }
+
     @Override
     public CompletableFuture<MaybeMultihash> get(WriterData base, PublicKeyHash owner, PublicKeyHash writer, byte[] mapKey) {
         if (! base.tree.isPresent())
@@ -20,6 +20,7 @@ public class SharedWithCache {
     public enum Access { READ, WRITE }
 
     private static final String DIR_CACHE_FILENAME = "sharedWith.cbor";
+    private static final int MAX_PARALLEL_DIRECTORY_READS = 8;
     private static final String CACHE_BASE_NAME = "outbound";
     private static final Path CACHE_BASE = Paths.get(CapabilityStore.CAPABILITY_CACHE_DIR, CACHE_BASE_NAME);
 
@@ -56,7 +57,14 @@ public class SharedWithCache {
 
     private CompletableFuture<Optional<Pair<FileWrapper, SharedWithState>>> retrieveWithFile(Path dir, Snapshot s) {
         return base.getUpdated(s, network)
-                .thenCompose(updated -> updated.getDescendentByPath(toRelative(dir).resolve(DIR_CACHE_FILENAME).toString(), crypto.hasher, network))
+                .thenCompose(updated -> retrieveWithFile(updated, dir, network, crypto));
+    }
+
+    private static CompletableFuture<Optional<Pair<FileWrapper, SharedWithState>>> retrieveWithFile(FileWrapper base,
+                                                                                                    Path dir,
+                                                                                                    NetworkAccess network,
+                                                                                                    Crypto crypto) {
+        return base.getDescendentByPath(toRelative(dir).resolve(DIR_CACHE_FILENAME).toString(), crypto.hasher, network)
                 .thenCompose(opt -> opt.isEmpty() ?
                         Futures.of(Optional.empty()) :
                         parseCacheFile(opt.get(), network, crypto)
@@ -65,28 +73,19 @@ public class SharedWithCache {
                 );
     }
 
-    private static CompletableFuture<Snapshot> addSharedWith(FileWrapper base,
-                                                             Access access,
-                                                             Path toFile,
-                                                             Set<String> names,
-                                                             NetworkAccess network,
-                                                             Crypto crypto,
-                                                             Snapshot in,
-                                                             Committer committer) {
-        return base.getUpdated(in, network)
-                .thenCompose(updateed -> retrieveWithFileOrCreate(updateed, toFile.getParent(), network, crypto, in, committer))
-                .thenCompose(p -> {
-                    FileWrapper source = p.left;
-                    SharedWithState current = p.right;
-                    SharedWithState updated = current.add(access, getFilename(toFile), names);
-                    byte[] raw = updated.serialize();
-                    return source.overwriteFile(AsyncReader.build(raw), raw.length, network, crypto, x -> {}, source.version, committer);
-                });
+    private static List<Pair<Path, Function<SharedWithState, SharedWithState>>> toUpdates(Access access,
+                                                                                       Collection<Path> files,
+                                                                                       Set<String> names) {
+        return files.stream()
+                .map(p -> new Pair<Path, Function<SharedWithState, SharedWithState>>(p,
+                        current -> current.add(access, getFilename(p), names)))
+                .collect(Collectors.toList());
     }
 
     private static CompletableFuture<Boolean> buildSharedWithCache(TrieNode root, String ourname, NetworkAccess network, Crypto crypto) {
         return root.getByPath(Paths.get(ourname, CapabilityStore.CAPABILITY_CACHE_DIR).toString(), crypto.hasher, network)
-                .thenCompose(cacheDirOpt -> root.getByPath(Paths.get("/" + ourname + "/" + UserContext.SHARED_DIR_NAME).toString(), crypto.hasher, network)
+                .thenCompose(cacheDirOpt -> root.getByPath(cacheBase(ourname).toString(), crypto.hasher, network)
+                        .thenCompose(outboundOpt -> root.getByPath(Paths.get("/" + ourname + "/" + UserContext.SHARED_DIR_NAME).toString(), crypto.hasher, network)
                         .thenCompose(shared -> shared.get().getChildren(crypto.hasher, network))
                         .thenCompose(children ->
                                 Futures.reduceAll(children,
@@ -95,23 +94,24 @@ public class SharedWithCache {
                                                 friendDirectory.getUpdated(network)
                                                         .thenCompose(updatedFriendDir -> CapabilityStore.loadReadOnlyLinks(cacheDirOpt.get(), updatedFriendDir,
                                                                 ourname, network, crypto, false))
-                                                        .thenCompose(readCaps ->
-                                                                network.synchronizer.applyComplexUpdate(friendDirectory.owner(),
-                                                                        friendDirectory.signingPair(),
-                                                                        (s, c) -> Futures.reduceAll(readCaps.getRetrievedCapabilities(),
-                                                                                s,
-                                                                                (v, rc) -> addSharedWith(cacheDirOpt.get(), Access.READ, Paths.get(rc.path), Collections.singleton(friendDirectory.getName()), network, crypto, v, c),
-                                                                                (a, b) -> b)
-                                                                                .thenCompose(s2 -> friendDirectory.getUpdated(network)
-                                                                                        .thenCompose(updatedFriendDir -> CapabilityStore.loadWriteableLinks(cacheDirOpt.get(), updatedFriendDir,
-                                                                                                ourname, network, crypto, false))
-                                                                                        .thenCompose(writeCaps ->
-                                                                                                Futures.reduceAll(writeCaps.getRetrievedCapabilities(), s2,
-                                                                                                        (v, rc) -> addSharedWith(cacheDirOpt.get(), Access.WRITE, Paths.get(rc.path), Collections.singleton(friendDirectory.getName()), network, crypto, v, c),
-                                                                                                        (a, b) -> b)
-                                                                                        ))))
+                                                        .thenCompose(readCaps -> friendDirectory.getUpdated(network)
+                                                                .thenCompose(updatedFriendDir -> CapabilityStore.loadWriteableLinks(cacheDirOpt.get(), updatedFriendDir,
+                                                                        ourname, network, crypto, false))
+                                                                .thenCompose(writeCaps -> {
+                                                                    Set<String> friend = Collections.singleton(friendDirectory.getName());
+                                                                    List<Pair<Path, Function<SharedWithState, SharedWithState>>> updates = new ArrayList<>();
+                                                                    updates.addAll(toUpdates(Access.READ, readCaps.getRetrievedCapabilities().stream()
+                                                                            .map(rc -> Paths.get(rc.path))
+                                                                            .collect(Collectors.toList()), friend));
+                                                                    updates.addAll(toUpdates(Access.WRITE, writeCaps.getRetrievedCapabilities().stream()
+                                                                            .map(rc -> Paths.get(rc.path))
+                                                                            .collect(Collectors.toList()), friend));
+                                                                    return network.synchronizer.applyComplexUpdate(friendDirectory.owner(),
+                                                                            friendDirectory.signingPair(),
+                                                                            (s, c) -> applyAndCommit(outboundOpt.get(), updates, network, crypto, s, c));
+                                                                }))
                                                         .thenApply(y -> true),
-                                        (a, b) -> a && b)));
+                                        (a, b) -> a && b))));
     }
 
     private static CompletableFuture<SharedWithCache> initializeCache(TrieNode root, String username, NetworkAccess network, Crypto crypto) {
@@ -270,8 +270,18 @@ public class SharedWithCache {
     }
 
     public CompletableFuture<Snapshot> applyAndCommit(Path toFile, Function<SharedWithState, SharedWithState> transform, Snapshot in, Committer committer) {
+        return applyAndCommitToDir(base, toFile.getParent(), transform, network, crypto, in, committer);
+    }
+
+    private static CompletableFuture<Snapshot> applyAndCommitToDir(FileWrapper base,
+                                                                   Path dir,
+                                                                   Function<SharedWithState, SharedWithState> transform,
+                                                                   NetworkAccess network,
+                                                                   Crypto crypto,
+                                                                   Snapshot in,
+                                                                   Committer committer) {
         return base.getUpdated(in, network)
-                .thenCompose(updated -> retrieveWithFileOrCreate(updated, toFile.getParent(), network, crypto, in, committer))
+                .thenCompose(updated -> retrieveWithFileOrCreate(updated, dir, network, crypto, in, committer))
                 .thenCompose(p -> {
                     FileWrapper source = p.left;
                     SharedWithState current = p.right;
@@ -281,6 +291,52 @@ public class SharedWithCache {
                 });
     }
 
+    /** Apply changes to the sharing state of many files, writing the cache file of each directory at most once.
+     *  The current state of each directory is read in parallel, then the changed directories are written in turn.
+     *
+     * @param updates The changes to apply, in order, to the sharing state of the parent directory of each path
+     * @return
+     */
+    public CompletableFuture<Snapshot> applyAndCommit(List<Pair<Path, Function<SharedWithState, SharedWithState>>> updates,
+                                                      Snapshot in,
+                                                      Committer committer) {
+        return applyAndCommit(base, updates, network, crypto, in, committer);
+    }
+
+    private static CompletableFuture<Snapshot> applyAndCommit(FileWrapper base,
+                                                              List<Pair<Path, Function<SharedWithState, SharedWithState>>> updates,
+                                                              NetworkAccess network,
+                                                              Crypto crypto,
+                                                              Snapshot in,
+                                                              Committer committer) {
+        if (updates.isEmpty())
+            return Futures.of(in);
+        Map<Path, Function<SharedWithState, SharedWithState>> byDir = new LinkedHashMap<>();
+        for (Pair<Path, Function<SharedWithState, SharedWithState>> update : updates)
+            byDir.merge(update.left.getParent(), update.right, (a, b) -> a.andThen(b));
+        List<Path> dirs = new ArrayList<>(byDir.keySet());
+        return base.getUpdated(in, network)
+                .thenCompose(updatedBase -> Futures.mapBounded(dirs, MAX_PARALLEL_DIRECTORY_READS,
+                        dir -> retrieveWithFile(updatedBase, dir, network, crypto)))
+                .thenCompose(existing -> Futures.reduceAll(IntStream.range(0, dirs.size()).boxed().collect(Collectors.toList()),
+                        in,
+                        (s, i) -> {
+                            Path dir = dirs.get(i);
+                            Function<SharedWithState, SharedWithState> transform = byDir.get(dir);
+                            if (existing.get(i).isEmpty())
+                                return applyAndCommitToDir(base, dir, transform, network, crypto, s, committer);
+                            FileWrapper source = existing.get(i).get().left;
+                            byte[] current = existing.get(i).get().right.serialize();
+                            byte[] raw = transform.apply(existing.get(i).get().right).serialize();
+                            if (Arrays.equals(current, raw))
+                                return Futures.of(s);
+                            return source.getUpdated(s, network)
+                                    .thenCompose(updated -> updated.overwriteFile(AsyncReader.build(raw), raw.length,
+                                            network, crypto, x -> {}, updated.version.mergeAndOverwriteWith(s), committer));
+                        },
+                        (a, b) -> b));
+    }
+
     public CompletableFuture<Snapshot> rename(Path initial, Path after, Snapshot in, Committer committer) {
         if (! initial.getParent().equals(after.getParent()))
             throw new IllegalStateException("Not a valid rename!");
@@ -297,6 +353,15 @@ public class SharedWithCache {
         return applyAndCommit(p, current -> current.add(access, getFilename(p), names), in, committer);
     }
 
+    /** Record that each file has been shared with the given names, writing each directory's cache file at most once
+     */
+    public CompletableFuture<Snapshot> addSharedWith(Access access, Map<Path, Set<String>> files, Snapshot in, Committer committer) {
+        return applyAndCommit(files.entrySet().stream()
+                .map(e -> new Pair<Path, Function<SharedWithState, SharedWithState>>(e.getKey(),
+                        current -> current.add(access, getFilename(e.getKey()), e.getValue())))
+                .collect(Collectors.toList()), in, committer);
+    }
+
     public CompletableFuture<Snapshot> clearSharedWith(Path p, Snapshot in, Committer committer) {
         return applyAndCommit(p, current -> current.clear(getFilename(p)), in, committer);
     }
@@ -1570,28 +1570,42 @@ public class UserContext {
     }
 
     public CompletableFuture<Snapshot> shareReadAccessWith(Path path, Set<String> readersToAdd, Snapshot s, Committer c) {
+        return shareReadAccessWith(path, readersToAdd, true, s, c);
+    }
+
+    private CompletableFuture<Snapshot> shareReadAccessWith(Path path,
+                                                            Set<String> readersToAdd,
+                                                            boolean updateCache,
+                                                            Snapshot s,
+                                                            Committer c) {
         if (readersToAdd.isEmpty())
             return Futures.of(s);
 
         return getByPath(path.toString(), s)
                 .thenCompose(file -> shareReadAccessWith(file.orElseThrow(() ->
-                        new IllegalStateException("Could not find path " + path)), path, readersToAdd, s, c));
+                        new IllegalStateException("Could not find path " + path)), path, readersToAdd, updateCache, s, c));
     }
 
+    /** Send new write caps for everything shared under start, then update the shared with cache in a single batch
+     */
     public CompletableFuture<Snapshot> reSendAllWriteAccessRecursive(Path start, Snapshot in, Committer c) {
         return sharedWithCache.getAllWriteShares(start, in)
                 .thenCompose(toReshare -> Futures.reduceAll(toReshare.entrySet(),
                         in,
-                        (s, e) -> sendWriteCapToAll(e.getKey(), e.getValue(), s, c),
-                        (a, b) -> b));
+                        (s, e) -> sendWriteCapToAll(e.getKey(), e.getValue(), false, s, c),
+                        (a, b) -> b)
+                        .thenCompose(s -> sharedWithCache.addSharedWith(SharedWithCache.Access.WRITE, toReshare, s, c)));
     }
 
+    /** Send new read caps for everything shared under start, then update the shared with cache in a single batch
+     */
     public CompletableFuture<Snapshot> reSendAllReadAccessRecursive(Path start, Snapshot in, Committer c) {
         return sharedWithCache.getAllReadShares(start, in)
                 .thenCompose(toReshare -> Futures.reduceAll(toReshare.entrySet(),
                         in,
-                        (s, e) -> shareReadAccessWith(e.getKey(), e.getValue(), s, c),
-                        (a, b) -> b));
+                        (s, e) -> shareReadAccessWith(e.getKey(), e.getValue(), false, s, c),
+                        (a, b) -> b)
+                        .thenCompose(s -> sharedWithCache.addSharedWith(SharedWithCache.Access.READ, toReshare, s, c)));
     }
 
     private CompletableFuture<Snapshot> shareReadAccessWith(FileWrapper file,
@@ -1599,6 +1613,15 @@ public class UserContext {
                                                             Set<String> readersToAdd,
                                                             Snapshot in,
                                                             Committer c) {
+        return shareReadAccessWith(file, p, readersToAdd, true, in, c);
+    }
+
+    private CompletableFuture<Snapshot> shareReadAccessWith(FileWrapper file,
+                                                            Path p,
+                                                            Set<String> readersToAdd,
+                                                            boolean updateCache,
+                                                            Snapshot in,
+                                                            Committer c) {
         ensureAllowedToShare(file, username, false);
         BiFunction<FileWrapper, FileWrapper, CompletableFuture<Snapshot>> sharingFunction = (sharedDir, fileWrapper) ->
                 CapabilityStore.addReadOnlySharingLinkTo(sharedDir, fileWrapper.getPointer().capability,
@@ -1607,7 +1630,9 @@ public class UserContext {
                 in,
                 (s, username) -> shareAccessWith(file, username, sharingFunction, s),
                 (a, b) -> a.mergeAndOverwriteWith(b))
-                .thenCompose(result -> updatedSharedWithCache(file, p, readersToAdd, SharedWithCache.Access.READ, result, c));
+                .thenCompose(result -> updateCache ?
+                        updatedSharedWithCache(file, p, readersToAdd, SharedWithCache.Access.READ, result, c) :
+                        Futures.of(result));
     }
 
     @JsMethod
@@ -1657,13 +1682,21 @@ public class UserContext {
     }
 
     public CompletableFuture<Snapshot> sendWriteCapToAll(Path toFile, Set<String> writersToAdd, Snapshot s, Committer c) {
+        return sendWriteCapToAll(toFile, writersToAdd, true, s, c);
+    }
+
+    private CompletableFuture<Snapshot> sendWriteCapToAll(Path toFile,
+                                                          Set<String> writersToAdd,
+                                                          boolean updateCache,
+                                                          Snapshot s,
+                                                          Committer c) {
         if (writersToAdd.isEmpty())
             return Futures.of(s);
 
         System.out.println("Resharing WRITE cap to " + toFile + " with " + writersToAdd);
         return getByPath(toFile.getParent().toString(), s)
                 .thenCompose(parent -> getByPath(toFile.toString(), s)
-                        .thenCompose(fileOpt -> fileOpt.map(file -> sendWriteCapToAll(file, parent.get(), toFile, writersToAdd, s, c))
+                        .thenCompose(fileOpt -> fileOpt.map(file -> sendWriteCapToAll(file, parent.get(), toFile, writersToAdd, updateCache, s, c))
                                 .orElseGet(() -> Futures.errored(
                                         new IllegalStateException("Couldn't retrieve file at " + toFile)))));
     }
@@ -1674,6 +1707,16 @@ public class UserContext {
                                                          Set<String> writersToAdd,
                                                          Snapshot in,
                                                          Committer c) {
+        return sendWriteCapToAll(file, parent, pathToFile, writersToAdd, true, in, c);
+    }
+
+    private CompletableFuture<Snapshot> sendWriteCapToAll(FileWrapper file,
+                                                          FileWrapper parent,
+                                                          Path pathToFile,
+                                                          Set<String> writersToAdd,
+                                                          boolean updateCache,
+                                                          Snapshot in,
+                                                          Committer c) {
         if (parent.writer().equals(file.writer()))
             return Futures.errored(
                     new IllegalStateException("A file must have different writer than its parent to grant write access!"));
@@ -1684,7 +1727,9 @@ public class UserContext {
                 in,
                 (s, username) -> shareAccessWith(file, username, sharingFunction, s),
                 (a, b) -> a.mergeAndOverwriteWith(b))
-                .thenCompose(result -> updatedSharedWithCache(file, pathToFile, writersToAdd, SharedWithCache.Access.WRITE, result, c));
+                .thenCompose(result -> updateCache ?
+                        updatedSharedWithCache(file, pathToFile, writersToAdd, SharedWithCache.Access.WRITE, result, c) :
+                        Futures.of(result));
     }
 
     private CompletableFuture<Snapshot> updatedSharedWithCache(FileWrapper file,
@@ -1878,6 +1923,19 @@ public class UserContext {
         return entrie.getChildren(path, crypto.hasher, network);
     }
 
+    /** Upload many small files to an existing directory with a single commit
+     *
+     * @param directory
+     * @param files The names and contents of the new files, each must be smaller than a chunk
+     * @return The updated directory
+     */
+    public CompletableFuture<FileWrapper> uploadSmallFiles(Path directory, List<Pair<String, byte[]>> files) {
+        return getByPath(directory)
+                .thenCompose(dirOpt -> dirOpt.isPresent() ?
+                        dirOpt.get().uploadSmallFiles(files, false, network, crypto, x -> {}) :
+                        Futures.errored(new IllegalStateException("No directory at " + directory)));
+    }
+
     public CompletableFuture<Optional<FileWrapper>> getByPath(Path path) {
         return getByPath(path.toString());
     }
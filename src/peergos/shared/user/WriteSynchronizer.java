@@ -9,9 +9,7 @@ import peergos.shared.mutable.MutablePointers;
 import peergos.shared.storage.*;
 import peergos.shared.util.*;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -22,11 +20,40 @@ public class WriteSynchronizer {
     private final Hasher hasher;
     // The keys are <owner, writer> pairs. The owner is only needed to handle identity changes
     private final Map<Pair<PublicKeyHash, PublicKeyHash>, AsyncLock<Snapshot>> pending = new ConcurrentHashMap<>();
+    // Simple updates waiting for the lock, which will be applied together and committed once
+    private final Map<Pair<PublicKeyHash, PublicKeyHash>, List<QueuedMutation>> queued = new HashMap<>();
+    private final boolean groupCommit;
 
-    public WriteSynchronizer(MutablePointers mutable, ContentAddressedStorage dht, Hasher hasher) {
+    /**
+     *
+     * @param mutable
+     * @param dht
+     * @param hasher
+     * @param groupCommit Whether simple updates queued behind the lock for a writer are applied one after another and
+     *                    committed with a single pointer update
+     */
+    public WriteSynchronizer(MutablePointers mutable, ContentAddressedStorage dht, Hasher hasher, boolean groupCommit) {
         this.mutable = mutable;
         this.dht = dht;
         this.hasher = hasher;
+        this.groupCommit = groupCommit;
+    }
+
+    public WriteSynchronizer(MutablePointers mutable, ContentAddressedStorage dht, Hasher hasher) {
+        this(mutable, dht, hasher, false);
+    }
+
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    private static class QueuedMutation {
+        final Mutation mutation;
+        final CompletableFuture<Snapshot> result = new CompletableFuture<>();
+
+        QueuedMutation(Mutation mutation) {
+            this.mutation = mutation;
+        }
     }
 
     public void put(PublicKeyHash owner, PublicKeyHash writer, CommittedWriterData val) {
@@ -72,6 +99,8 @@ public class WriteSynchronizer {
     public CompletableFuture<Snapshot> applyUpdate(PublicKeyHash owner,
                                                    SigningPrivateKeyAndPublicHash writer,
                                                    Mutation transformer) {
+        if (groupCommit)
+            return applyGroupedUpdate(owner, writer, transformer);
         // This is subtle, but we need to ensure that there is only ever 1 thenAble waiting on the future for a given key
         // otherwise when the future completes, then the two or more waiters will both proceed with the existing hash,
         // and whoever commits first will win. We also need to retrieve the writer data again from the network after
@@ -82,6 +111,85 @@ public class WriteSynchronizer {
                         () -> getWriterData(owner, writer.publicKeyHash));
     }
 
+    /** Queue an update to be applied in the next group commit for this writer. The first update in a group takes its
+     *  place in the lock queue, and any which arrive before it acquires the lock join it. Each update in a group sees
+     *  the result of the previous ones, and an update which fails is dropped from the group without affecting the rest.
+     *
+     * @return The snapshot after the commit which included this update
+     */
+    private CompletableFuture<Snapshot> applyGroupedUpdate(PublicKeyHash owner,
+                                                           SigningPrivateKeyAndPublicHash writer,
+                                                           Mutation transformer) {
+        Pair<PublicKeyHash, PublicKeyHash> key = new Pair<>(owner, writer.publicKeyHash);
+        QueuedMutation update = new QueuedMutation(transformer);
+        List<QueuedMutation> group;
+        boolean startGroup;
+        synchronized (queued) {
+            group = queued.get(key);
+            startGroup = group == null;
+            if (startGroup) {
+                group = new ArrayList<>();
+                queued.put(key, group);
+            }
+            group.add(update);
+        }
+        if (! startGroup)
+            return update.result;
+
+        List<QueuedMutation> thisGroup = group;
+        pending.computeIfAbsent(key, p -> new AsyncLock<>(getWriterData(owner, p.right)))
+                .runWithLock(current -> {
+                            synchronized (queued) {
+                                queued.remove(key);
+                            }
+                            return commitGroup(owner, writer, current, thisGroup);
+                        },
+                        () -> getWriterData(owner, writer.publicKeyHash))
+                .whenComplete((res, t) -> {
+                    synchronized (queued) {
+                        // the lock never ran our group if the initial value couldn't be retrieved
+                        if (queued.get(key) == thisGroup)
+                            queued.remove(key);
+                    }
+                    for (QueuedMutation member : thisGroup) {
+                        if (t != null)
+                            member.result.completeExceptionally(t);
+                        else
+                            member.result.complete(res);
+                    }
+                });
+        return update.result;
+    }
+
+    private CompletableFuture<Snapshot> commitGroup(PublicKeyHash owner,
+                                                    SigningPrivateKeyAndPublicHash writer,
+                                                    Snapshot current,
+                                                    List<QueuedMutation> group) {
+        CommittedWriterData base = current.get(writer);
+        return IpfsTransaction.call(owner, tid -> {
+            CompletableFuture<WriterData> applied = CompletableFuture.completedFuture(base.props);
+            for (QueuedMutation update : group) {
+                applied = applied.thenCompose(wd -> {
+                    CompletableFuture<WriterData> next;
+                    try {
+                        next = update.mutation.apply(wd, tid);
+                    } catch (Throwable t) {
+                        next = Futures.errored(t);
+                    }
+                    return next.handle((res, t) -> {
+                        if (t == null)
+                            return res;
+                        update.result.completeExceptionally(t);
+                        return wd;
+                    });
+                });
+            }
+            return applied.thenCompose(wd -> wd == base.props ?
+                    CompletableFuture.completedFuture(current) :
+                    wd.commit(owner, writer, base.hash, mutable, dht, hasher, tid));
+        }, dht);
+    }
+
     /** Apply an update
      *
      * @param owner
@@ -60,7 +60,7 @@ public class EncryptedChunkRetriever implements FileRetriever {
         if (offset < 2*Chunk.MAX_SIZE)
             return CompletableFuture.completedFuture(Optional.of(nextChunkLabel)); // chunk at this location hasn't been written yet, only referenced by previous chunk
         if (streamSecret.isPresent()) {
-            return FileProperties.calculateMapKey(streamSecret.get(), startCap.getMapKey(), offset, hasher)
+            return FileProperties.calculateMapKey(streamSecret.get(), startCap.getMapKey(), offset, network.mapKeys, hasher)
                     .thenApply(Optional::of);
         }
         return network.getMetadata(version, startCap.withMapKey(nextChunkLabel))
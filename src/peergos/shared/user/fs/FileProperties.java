@@ -88,13 +88,15 @@ public class FileProperties implements Cborable {
             throw new IllegalArgumentException("Path too long! Paths must be smaller than " + MAX_PATH_SIZE);
     }
 
-    public static CompletableFuture<byte[]> calculateMapKey(byte[] streamSecret, byte[] firstMapKey, long offset, Hasher h) {
-        long iterations = offset / Chunk.MAX_SIZE;
-        List<Long> counter = new ArrayList<>();
-        for (long i=0; i < iterations; i++)
-            counter.add(i);
-        return Futures.reduceAll(counter, firstMapKey,
-                (current, i) -> calculateNextMapKey(streamSecret, current, h), (a, b) -> b);
+    /** The map keys of a file are cached in a MapKeyChain, so this is cheap for any offset that is near a
+     *  previously calculated one.
+     */
+    public static CompletableFuture<byte[]> calculateMapKey(byte[] streamSecret,
+                                                            byte[] firstMapKey,
+                                                            long offset,
+                                                            MapKeyChain.Cache chains,
+                                                            Hasher h) {
+        return chains.get(streamSecret, firstMapKey).getMapKey(offset / Chunk.MAX_SIZE, h);
     }
 
     public static CompletableFuture<byte[]> calculateNextMapKey(byte[] streamSecret, byte[] currentMapKey, Hasher h) {
@@ -91,11 +91,12 @@ public class FileUploader implements AutoCloseable {
         return reader.readIntoArray(data, 0, data.length).thenCompose(b -> {
             byte[] nonce = baseKey.createNonce();
             return FileProperties.calculateMapKey(props.streamSecret.get(), firstLocation,
-                    chunkIndex * Chunk.MAX_SIZE, hasher)
+                    chunkIndex * Chunk.MAX_SIZE, network.mapKeys, hasher)
                     .thenCompose(mapKey -> {
                         Chunk chunk = new Chunk(data, dataKey, mapKey, nonce);
                         LocatedChunk locatedChunk = new LocatedChunk(new Location(owner, writer.publicKeyHash, chunk.mapKey()), ourExistingHash, chunk);
-                        return FileProperties.calculateNextMapKey(props.streamSecret.get(), mapKey, hasher)
+                        return FileProperties.calculateMapKey(props.streamSecret.get(), firstLocation,
+                                (chunkIndex + 1) * Chunk.MAX_SIZE, network.mapKeys, hasher)
                                 .thenCompose(nextMapKey -> {
                                     Location nextLocation = new Location(owner, writer.publicKeyHash, nextMapKey);
                                     return uploadChunk(current, committer, writer, props, parentLocation, parentparentKey, baseKey, locatedChunk,
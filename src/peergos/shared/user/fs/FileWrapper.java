@@ -37,6 +37,9 @@ public class FileWrapper {
 	private static final Logger LOG = Logger.getGlobal();
 
     private final static int THUMBNAIL_SIZE = 100;
+    private final static int MAX_PARALLEL_SMALL_FILE_UPLOADS = 10;
+    private final static int MAX_FILES_PER_COPY_BATCH = 100;
+    private final static long MAX_BYTES_PER_COPY_BATCH = 50 * 1024 * 1024;
     private static final NativeJSThumbnail thumbnail = new NativeJSThumbnail();
 
     private final RetrievedCapability pointer;
@@ -600,6 +603,124 @@ public class FileWrapper {
                         .thenCompose(c -> f.getUpdated(f.version.mergeAndOverwriteWith(c.version), network)));
     }
 
+    /** Upload many new small files (each smaller than a chunk) to this directory. All the files are encrypted and
+     *  their fragments uploaded in parallel, then all their metadata is added to the writer's tree in a single commit,
+     *  and finally this directory is updated with links to all of them in a single commit.
+     *
+     * @param files The names and contents of the new files
+     * @param isHidden
+     * @param network
+     * @param crypto
+     * @param monitor A way to report back progress in number of bytes of file written
+     * @return The updated version of this directory after the upload
+     */
+    public CompletableFuture<FileWrapper> uploadSmallFiles(List<Pair<String, byte[]>> files,
+                                                           boolean isHidden,
+                                                           NetworkAccess network,
+                                                           Crypto crypto,
+                                                           ProgressConsumer<Long> monitor) {
+        if (! isWritable())
+            return Futures.errored(new IllegalStateException("Cannot upload files to a directory without write access!"));
+        return network.synchronizer.applyComplexUpdate(owner(), signingPair(),
+                (current, committer) -> uploadSmallFiles(current, committer, files, isHidden, network, crypto, monitor))
+                .thenCompose(finished -> getUpdated(finished, network));
+    }
+
+    public CompletableFuture<Snapshot> uploadSmallFiles(Snapshot initialVersion,
+                                                        Committer committer,
+                                                        List<Pair<String, byte[]>> files,
+                                                        boolean isHidden,
+                                                        NetworkAccess network,
+                                                        Crypto crypto,
+                                                        ProgressConsumer<Long> monitor) {
+        if (! isDirectory())
+            return Futures.errored(new IllegalStateException("Cannot upload a sub file to a file!"));
+        Set<String> names = new HashSet<>();
+        for (Pair<String, byte[]> file : files) {
+            if (! isLegalName(file.left))
+                return Futures.errored(new IllegalStateException("Illegal filename: " + file.left));
+            if (! names.add(file.left))
+                return Futures.errored(new IllegalStateException("Duplicate filename: " + file.left));
+            if (file.right.length >= Chunk.MAX_SIZE)
+                return Futures.errored(new IllegalStateException("File too large for a small file upload: " + file.left));
+        }
+        if (files.isEmpty())
+            return Futures.of(initialVersion);
+        return initialVersion.withWriter(owner(), writer(), network)
+                .thenCompose(current -> getUpdated(current, network)
+                        .thenCompose(latest -> latest.getChildren(current, crypto.hasher, network)
+                                .thenCompose(children -> {
+                                    for (FileWrapper child : children)
+                                        if (names.contains(child.getName()))
+                                            throw new IllegalStateException("File already exists with name " + child.getName());
+                                    return IpfsTransaction.call(owner(),
+                                            tid -> Futures.mapBounded(files, MAX_PARALLEL_SMALL_FILE_UPLOADS,
+                                                    f -> latest.prepareSmallFile(f.left, f.right, isHidden, tid, network, crypto, monitor))
+                                                    .thenCompose(prepared -> network.uploadChunks(current, committer,
+                                                            prepared.stream()
+                                                                    .map(p -> new Pair<>(p.left.getMapKey(), p.right))
+                                                                    .collect(Collectors.toList()),
+                                                            owner(), signingPair(), tid)
+                                                            .thenApply(s -> new Pair<>(s, prepared))),
+                                            network.dhtClient)
+                                            .thenCompose(p -> latest.pointer.fileAccess.addChildrenAndCommit(p.left, committer,
+                                                    IntStream.range(0, files.size())
+                                                            .mapToObj(i -> new NamedRelativeCapability(files.get(i).left,
+                                                                    latest.writableFilePointer().relativise(p.right.get(i).left)))
+                                                            .collect(Collectors.toList()),
+                                                    latest.writableFilePointer(), signingPair(), network, crypto));
+                                }))
+                        .thenApply(s -> {
+                            setModified();
+                            return s;
+                        }));
+    }
+
+    /** Encrypt a single chunk file and upload its fragments, but not its metadata
+     *
+     * @return The capability for the new file and its metadata
+     */
+    private CompletableFuture<Pair<WritableAbsoluteCapability, CryptreeNode>> prepareSmallFile(String filename,
+                                                                                               byte[] data,
+                                                                                               boolean isHidden,
+                                                                                               TransactionId tid,
+                                                                                               NetworkAccess network,
+                                                                                               Crypto crypto,
+                                                                                               ProgressConsumer<Long> monitor) {
+        SymmetricKey fileWriteKey = SymmetricKey.random();
+        SymmetricKey fileKey = SymmetricKey.random();
+        SymmetricKey dataKey = SymmetricKey.random();
+        SymmetricKey dirParentKey = pointer.fileAccess.getParentKey(pointer.capability.rBaseKey);
+        Location parentLocation = getLocation();
+        byte[] mapKey = crypto.random.randomBytes(32);
+        byte[] streamSecret = crypto.random.randomBytes(32);
+        SigningPrivateKeyAndPublicHash signer = signingPair();
+        WritableAbsoluteCapability fileWriteCap = new WritableAbsoluteCapability(owner(), signer.publicKeyHash,
+                mapKey, fileKey, fileWriteKey);
+        CappedProgressConsumer progress = new CappedProgressConsumer(monitor, data.length);
+        return calculateMimeType(AsyncReader.build(data), data.length, filename)
+                .thenCompose(mimeType -> generateThumbnail(network, AsyncReader.build(data), data.length, filename, mimeType)
+                        .thenCompose(thumbnail -> FileProperties.calculateMapKey(streamSecret, mapKey, Chunk.MAX_SIZE, network.mapKeys, crypto.hasher)
+                                .thenCompose(nextMapKey -> {
+                                    FileProperties fileProps = new FileProperties(filename, false, false, mimeType,
+                                            data.length, LocalDateTime.now(), isHidden, thumbnail, Optional.of(streamSecret));
+                                    RelativeCapability nextChunk = RelativeCapability.buildSubsequentChunk(nextMapKey, fileKey);
+                                    return CryptreeNode.createFile(MaybeMultihash.empty(), signer.publicKeyHash, fileKey,
+                                            dataKey, fileProps, data, parentLocation, dirParentKey, nextChunk,
+                                            crypto.hasher, network.isJavascript());
+                                })))
+                .thenCompose(file -> {
+                    List<Fragment> fragments = file.right.stream()
+                            .filter(f -> !f.isInlined())
+                            .map(f -> f.fragment)
+                            .collect(Collectors.toList());
+                    if (fragments.size() < file.right.size() || fragments.isEmpty())
+                        progress.accept((long) data.length);
+                    return network.uploadFragments(fragments, owner(), signer, progress, tid)
+                            .thenApply(hashes -> new Pair<>(fileWriteCap, file.left));
+                });
+    }
+
     public CompletableFuture<FileWrapper> uploadAndReturnFile(String filename,
                                                               AsyncReader fileData,
                                                               long length,
@@ -1063,7 +1184,7 @@ public class FileWrapper {
                         .flatMap(c -> c.getFileProperties().streamSecret)
                         .map(secret -> FileProperties.calculateMapKey(secret,
                                 child.get().getLocation().getMapKey(),
-                                child.get().getFileProperties().size, crypto.hasher))
+                                child.get().getFileProperties().size, network.mapKeys, crypto.hasher))
                         .orElseGet(() -> Futures.of(crypto.random.randomBytes(32)))
                         .thenCompose(x -> {
                             long size = child.map(f -> f.getSize()).orElse(0L);
@@ -1350,8 +1471,29 @@ public class FileWrapper {
                 .thenApply(newAccess -> true);
     }
 
+    /** Complete a move which was interrupted before the original was removed
+     */
+    @JsMethod
+    public CompletableFuture<Boolean> resumeMoveTo(FileWrapper target, FileWrapper parent, Path ourPath, UserContext context) {
+        return resumeCopyTo(target, context)
+                .thenCompose(fw -> remove(parent, ourPath, context))
+                .thenApply(newAccess -> true);
+    }
+
     @JsMethod
     public CompletableFuture<Boolean> copyTo(FileWrapper target, UserContext context) {
+        return copyTo(target, false, context);
+    }
+
+    /** Complete a copy which was interrupted. Every batch of a copy is committed as it completes, so the partial copy
+     *  in the target is the checkpoint: existing directories are merged into and files already copied are skipped.
+     */
+    @JsMethod
+    public CompletableFuture<Boolean> resumeCopyTo(FileWrapper target, UserContext context) {
+        return copyTo(target, true, context);
+    }
+
+    private CompletableFuture<Boolean> copyTo(FileWrapper target, boolean resume, UserContext context) {
         ensureUnmodified();
         NetworkAccess network = context.network;
         Crypto crypto = context.crypto;
@@ -1361,7 +1503,7 @@ public class FileWrapper {
 
         return context.network.synchronizer.applyComplexUpdate(target.owner(), target.signingPair(),
                 (version, committer) -> version.withWriter(owner(), writer(), network)
-                        .thenCompose(both -> copyTo(target, network, crypto, both, committer)))
+                        .thenCompose(both -> copyTo(target, resume, network, crypto, both, committer)))
                 .thenApply(newAccess -> true);
     }
 
@@ -1370,15 +1512,32 @@ public class FileWrapper {
                                               Crypto crypto,
                                               Snapshot version,
                                               Committer committer) {
+        return copyTo(target, false, network, crypto, version, committer);
+    }
+
+    /** Copy this file or directory tree into target. Small files in each directory are copied in parallel and added
+     *  to the new directory in batches, with a single commit per batch.
+     *
+     * @param resume Whether to merge into an existing partial copy rather than fail if it exists
+     * @return The version after the copy
+     */
+    public CompletableFuture<Snapshot> copyTo(FileWrapper target,
+                                              boolean resume,
+                                              NetworkAccess network,
+                                              Crypto crypto,
+                                              Snapshot version,
+                                              Committer committer) {
         if (! target.isDirectory()) {
             return Futures.errored(new IllegalStateException("CopyTo target " + target + " must be a directory"));
         }
 
-        return target.hasChildWithName(version, getFileProperties().name, crypto.hasher, network).thenCompose(childExists -> {
-            if (childExists) {
+        return target.getChild(version, getFileProperties().name, crypto.hasher, network).thenCompose(existing -> {
+            if (existing.isPresent() && (! resume || existing.get().isDirectory() != isDirectory())) {
                 return Futures.errored(new IllegalStateException("CopyTo target " + target + " already has child with name " + getFileProperties().name));
             }
             if (isDirectory()) {
+                if (existing.isPresent())
+                    return copyChildrenTo(existing.get(), resume, network, crypto, version, committer);
                 byte[] newMapKey = crypto.random.randomBytes(32);
                 SymmetricKey newBaseR = SymmetricKey.random();
                 SymmetricKey newBaseW = SymmetricKey.random();
@@ -1386,30 +1545,85 @@ public class FileWrapper {
                         .withMapKey(newMapKey)
                         .withBaseKey(newBaseR)
                         .withBaseWriteKey(newBaseW);
-                return getChildren(version, crypto.hasher, network).thenCompose(children ->
-                        target.mkdir(getName(), Optional.of(newBaseR), Optional.of(newBaseW), Optional.of(newMapKey),
+                return target.mkdir(getName(), Optional.of(newBaseR), Optional.of(newBaseW), Optional.of(newMapKey),
                                 getFileProperties().isHidden, network, crypto, version, committer)
-                                .thenCompose(versionWithDir ->
-                                        network.getFile(versionWithDir, newCap, target.getChildsEntryWriter(), target.ownername)
-                                                .thenCompose(subTargetOpt -> {
-                                                    FileWrapper newTarget = subTargetOpt.get();
-                                                    return Futures.reduceAll(children, versionWithDir,
-                                                            (s, child) -> newTarget.getUpdated(s, network)
-                                                                    .thenCompose(updated ->
-                                                                            child.copyTo(updated, network, crypto, s, committer)),
-                                                            (a, b) -> a.merge(b));
-                                                })));
+                        .thenCompose(versionWithDir ->
+                                network.getFile(versionWithDir, newCap, target.getChildsEntryWriter(), target.ownername)
+                                        .thenCompose(subTargetOpt -> copyChildrenTo(subTargetOpt.get(), resume,
+                                                network, crypto, versionWithDir, committer)));
             } else {
+                // a file only becomes visible in the target once all its data has been written, so a copy of the same
+                // size made after the last change to this file is complete. Times are only stored to the second, so a
+                // copy made in the same second is redone.
+                if (existing.isPresent() && existing.get().getSize() == getSize() &&
+                        existing.get().getFileProperties().modified.isAfter(getFileProperties().modified))
+                    return Futures.of(version);
                 return version.withWriter(owner(), writer(), network).thenCompose(snapshot ->
                         getInputStream(snapshot.get(writer()).props, network, crypto, x -> {})
                                 .thenCompose(stream -> target.uploadFileSection(snapshot, committer,
                                         getName(), stream, false, 0, getSize(),
-                                        Optional.empty(), false, network, crypto, x -> {},
+                                        Optional.empty(), existing.isPresent(), existing.isPresent(), network, crypto, x -> {},
                                         crypto.random.randomBytes(32))));
             }
         });
     }
 
+    /** Copy the children of this directory into target. Small files are read in parallel and added in batches, each
+     *  with a single commit, then larger files and subdirectories are copied one at a time.
+     */
+    private CompletableFuture<Snapshot> copyChildrenTo(FileWrapper target,
+                                                       boolean resume,
+                                                       NetworkAccess network,
+                                                       Crypto crypto,
+                                                       Snapshot version,
+                                                       Committer committer) {
+        return getChildren(version, crypto.hasher, network).thenCompose(children ->
+                (resume ?
+                        target.getChildren(version, crypto.hasher, network)
+                                .thenApply(copied -> copied.stream().map(FileWrapper::getName).collect(Collectors.toSet())) :
+                        Futures.of(Collections.<String>emptySet())
+                ).thenCompose(alreadyCopied -> {
+                    List<List<FileWrapper>> batches = new ArrayList<>();
+                    List<FileWrapper> remaining = new ArrayList<>();
+                    List<FileWrapper> batch = new ArrayList<>();
+                    long batchBytes = 0;
+                    for (FileWrapper child : children) {
+                        if (child.isDirectory() || child.getSize() >= Chunk.MAX_SIZE || alreadyCopied.contains(child.getName())) {
+                            remaining.add(child);
+                            continue;
+                        }
+                        if (batch.size() >= MAX_FILES_PER_COPY_BATCH || batchBytes + child.getSize() > MAX_BYTES_PER_COPY_BATCH) {
+                            batches.add(batch);
+                            batch = new ArrayList<>();
+                            batchBytes = 0;
+                        }
+                        batch.add(child);
+                        batchBytes += child.getSize();
+                    }
+                    if (! batch.isEmpty())
+                        batches.add(batch);
+                    return Futures.reduceAll(batches, version,
+                            (s, smallFiles) -> Futures.mapBounded(smallFiles, MAX_PARALLEL_SMALL_FILE_UPLOADS,
+                                            f -> f.readSmallFile(s, network, crypto))
+                                    .thenCompose(contents -> target.getUpdated(s, network)
+                                            .thenCompose(updated -> updated.uploadSmallFiles(s, committer, contents,
+                                                    false, network, crypto, x -> {}))),
+                            (a, b) -> a.merge(b))
+                            .thenCompose(afterSmall -> Futures.reduceAll(remaining, afterSmall,
+                                    (s, child) -> target.getUpdated(s, network)
+                                            .thenCompose(updated -> child.copyTo(updated, resume, network, crypto, s, committer)),
+                                    (a, b) -> a.merge(b)));
+                }));
+    }
+
+    private CompletableFuture<Pair<String, byte[]>> readSmallFile(Snapshot version, NetworkAccess network, Crypto crypto) {
+        byte[] data = new byte[(int) getSize()];
+        return version.withWriter(owner(), writer(), network)
+                .thenCompose(snapshot -> getInputStream(snapshot.get(writer()).props, network, crypto, x -> {}))
+                .thenCompose(reader -> reader.readIntoArray(data, 0, data.length))
+                .thenApply(read -> new Pair<>(getName(), data));
+    }
+
     @JsMethod
     public CompletableFuture<Boolean> hasChild(String fileName, Hasher hasher, NetworkAccess network) {
         if (!isLegalName(fileName)) {
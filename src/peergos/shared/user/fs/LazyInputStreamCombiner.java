@@ -159,7 +159,7 @@ public class LazyInputStreamCombiner implements AsyncReader {
             // short circuit for files in the new deterministic (but still secret) format
             if (streamSecret.isPresent()) {
                 return FileProperties.calculateMapKey(streamSecret.get(), originalChunkLocation,
-                        finalOffset, crypto.hasher)
+                        finalOffset, network.mapKeys, crypto.hasher)
                         .thenCompose(targetChunkLocation -> {
                             AbsoluteCapability targetPointer = nextChunkPointer.withMapKey(targetChunkLocation);
                             return getSubsequentMetadata(targetPointer, 0)
@@ -0,0 +1,96 @@
+package peergos.shared.user.fs;
+
+import peergos.shared.crypto.hash.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** The map keys of the chunks of a file with a stream secret form a hash chain:
+ *      key(i+1) = sha256(streamSecret | key(i))
+ *
+ *  This caches the chain of a file as it is computed. We keep the furthest key computed, and a sparse index of
+ *  checkpoints every CHECKPOINT_INTERVAL chunks, so sequential access costs a single hash per chunk and random access
+ *  to any previously reached chunk costs at most CHECKPOINT_INTERVAL hashes.
+ *
+ *  The chains of recently used files are held in a Cache, which is owned by a NetworkAccess, so the derived keys are
+ *  dropped along with it.
+ */
+public class MapKeyChain {
+    private static final int CHECKPOINT_INTERVAL = 16;
+    private static final int MAX_CACHED_CHAINS = 100;
+
+    private final byte[] streamSecret;
+    private final TreeMap<Long, byte[]> checkpoints = new TreeMap<>();
+    private long furthestIndex;
+    private byte[] furthestKey;
+
+    private MapKeyChain(byte[] streamSecret, byte[] firstMapKey) {
+        this.streamSecret = streamSecret;
+        this.furthestIndex = 0;
+        this.furthestKey = firstMapKey;
+        checkpoints.put(0L, firstMapKey);
+    }
+
+    /**
+     *
+     * @param chunkIndex
+     * @param h
+     * @return The map key of the chunk at chunkIndex
+     */
+    public CompletableFuture<byte[]> getMapKey(long chunkIndex, Hasher h) {
+        if (chunkIndex < 0)
+            throw new IllegalArgumentException("Negative chunk index: " + chunkIndex);
+        long startIndex;
+        byte[] startKey;
+        synchronized (this) {
+            if (chunkIndex >= furthestIndex) {
+                startIndex = furthestIndex;
+                startKey = furthestKey;
+            } else {
+                Map.Entry<Long, byte[]> checkpoint = checkpoints.floorEntry(chunkIndex);
+                startIndex = checkpoint.getKey();
+                startKey = checkpoint.getValue();
+            }
+        }
+        CompletableFuture<byte[]> result = Futures.of(startKey);
+        for (long i = startIndex + 1; i <= chunkIndex; i++) {
+            long index = i;
+            result = result.thenCompose(current -> FileProperties.calculateNextMapKey(streamSecret, current, h))
+                    .thenApply(next -> {
+                        record(index, next);
+                        return next;
+                    });
+        }
+        return result;
+    }
+
+    private synchronized void record(long chunkIndex, byte[] mapKey) {
+        if (chunkIndex % CHECKPOINT_INTERVAL == 0)
+            checkpoints.put(chunkIndex, mapKey);
+        if (chunkIndex > furthestIndex) {
+            furthestIndex = chunkIndex;
+            furthestKey = mapKey;
+        }
+    }
+
+    public static class Cache {
+        private final Map<ByteArrayWrapper, MapKeyChain> chains = new LRUCache<>(MAX_CACHED_CHAINS);
+
+        /**
+         *
+         * @param streamSecret
+         * @param firstMapKey
+         * @return The shared chain for the file with the given stream secret and first map key
+         */
+        public synchronized MapKeyChain get(byte[] streamSecret, byte[] firstMapKey) {
+            ByteArrayWrapper id = new ByteArrayWrapper(ArrayOps.concat(streamSecret, firstMapKey));
+            MapKeyChain existing = chains.get(id);
+            if (existing != null)
+                return existing;
+            MapKeyChain chain = new MapKeyChain(streamSecret, firstMapKey);
+            chains.put(id, chain);
+            return chain;
+        }
+    }
+}
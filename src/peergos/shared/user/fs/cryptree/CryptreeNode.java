@@ -533,33 +533,29 @@ public class CryptreeNode implements Cborable {
         }
     }
 
-    private CompletableFuture<Pair<Snapshot, CapAndSigner>> generateNewChildCap(
-            CapAndSigner currentChild,
-            CapAndSigner currentParent,
-            CapAndSigner newParent,
-            boolean rotateSigner,
-            NetworkAccess network,
-            Crypto crypto,
-            Snapshot version,
-            Committer committer) {
+    private CompletableFuture<CapAndSigner> generateNewChildCap(CapAndSigner currentChild,
+                                                               CapAndSigner currentParent,
+                                                               CapAndSigner newParent,
+                                                               boolean rotateSigner,
+                                                               KeyRotation rotation) {
         SymmetricKey baseRead = SymmetricKey.random();
         SymmetricKey baseWrite = SymmetricKey.random();
-        byte[] newMapKey = crypto.random.randomBytes(RelativeCapability.MAP_KEY_LENGTH);
+        byte[] newMapKey = rotation.crypto.random.randomBytes(RelativeCapability.MAP_KEY_LENGTH);
         if (currentChild.cap.writer.equals(currentParent.cap.writer)) {
             WritableAbsoluteCapability newChildCap = new WritableAbsoluteCapability(currentChild.cap.owner,
                     newParent.cap.writer, newMapKey, baseRead, baseWrite);
-            return Futures.of(new Pair<>(version, newParent.withCap(newChildCap)));
+            return Futures.of(newParent.withCap(newChildCap));
         }
 
         if (! rotateSigner) {
             WritableAbsoluteCapability newChildCap = new WritableAbsoluteCapability(currentChild.cap.owner,
                     currentChild.cap.writer, newMapKey, baseRead, baseWrite);
-            return Futures.of(new Pair<>(version, currentChild.withCap(newChildCap)));
+            return Futures.of(currentChild.withCap(newChildCap));
         }
-        SigningKeyPair newSignerPair = SigningKeyPair.random(crypto.random, crypto.signer);
-        return initAndAuthoriseSigner(currentChild.cap.owner, newParent.signer, newSignerPair, network, version, committer)
-                .thenApply(p -> new Pair<>(p.left, new CapAndSigner(new WritableAbsoluteCapability(currentChild.cap.owner,
-                    p.right.publicKeyHash, newMapKey, baseRead, baseWrite), p.right)));
+        SigningKeyPair newSignerPair = SigningKeyPair.random(rotation.crypto.random, rotation.crypto.signer);
+        return rotation.authoriseSigner(newParent.signer, newSignerPair)
+                .thenApply(signer -> new CapAndSigner(new WritableAbsoluteCapability(currentChild.cap.owner,
+                    signer.publicKeyHash, newMapKey, baseRead, baseWrite), signer));
     }
 
     public static CompletableFuture<Pair<Snapshot, SigningPrivateKeyAndPublicHash>> initAndAuthoriseSigner(
@@ -623,10 +619,57 @@ public class CryptreeNode implements Cborable {
             Crypto crypto,
             Snapshot version,
             Committer committer) {
+        return rotateAllKeys(isFirstChunk, us, newUs, parent, newParent, firstChunkOrParentCap, fileStreamSecret,
+                rotateSigner, KeyRotation.DEFAULT_PARALLELISM, x -> {}, network, crypto, version, committer);
+    }
+
+    /** Rotate the keys of a subtree, rotating independent children concurrently. The rotated nodes are put in bulk
+     *  and committed once per writer at the end.
+     *
+     * @param parallelism The maximum number of concurrent network operations
+     * @param progress Called with 1 for each node rotated
+     * @return The version after the rotation, and the new capability for us
+     */
+    public CompletableFuture<Pair<Snapshot, WritableAbsoluteCapability>> rotateAllKeys(
+            boolean isFirstChunk,
+            CapAndSigner us,
+            CapAndSigner newUs,
+            CapAndSigner parent,
+            CapAndSigner newParent,
+            Optional<RelativeCapability> firstChunkOrParentCap,
+            Optional<byte[]> fileStreamSecret,
+            boolean rotateSigner,
+            int parallelism,
+            ProgressConsumer<Long> progress,
+            NetworkAccess network,
+            Crypto crypto,
+            Snapshot version,
+            Committer committer) {
+        return IpfsTransaction.call(us.cap.owner, tid -> {
+            KeyRotation rotation = new KeyRotation(us.cap.owner, version, committer, tid, parallelism, progress, network, crypto);
+            return rotateAllKeys(isFirstChunk, us, newUs, parent, newParent, firstChunkOrParentCap, fileStreamSecret,
+                    rotateSigner, version, rotation)
+                    .thenCompose(newCap -> rotation.commit()
+                            .thenApply(s -> new Pair<>(s, newCap)));
+        }, network.dhtClient);
+    }
+
+    private CompletableFuture<WritableAbsoluteCapability> rotateAllKeys(
+            boolean isFirstChunk,
+            CapAndSigner us,
+            CapAndSigner newUs,
+            CapAndSigner parent,
+            CapAndSigner newParent,
+            Optional<RelativeCapability> firstChunkOrParentCap,
+            Optional<byte[]> fileStreamSecret,
+            boolean rotateSigner,
+            Snapshot version,
+            KeyRotation rotation) {
         // If our new signer is different from the parent signer then we first need to add the new signer as an owned
         // key to authorise it to write to our storage. We also need to keep track of old signing keys to remove
         // at the end
-
+        NetworkAccess network = rotation.network;
+        Crypto crypto = rotation.crypto;
         FileProperties props = getProperties(getParentKey(us.cap.rBaseKey));
         return getNextChunkLocation(us.cap.rBaseKey, props.streamSecret,
                 us.cap.getMapKey(), crypto.hasher)
@@ -656,57 +699,47 @@ public class CryptreeNode implements Cborable {
                         firstChunkOrParentCap;
 
                 // do for subsequent chunks first
-                return version.withWriter(us.cap.owner, us.cap.writer, network)
-                        .thenCompose(s -> getNextChunk(s, nextChunkCap, network)
-                                .thenCompose(opt -> {
-                                    if (!opt.isPresent())
-                                        return Futures.of(new Pair<>(s, newNextChunkCap));
-                                    return opt.get().fileAccess.rotateAllKeys(false,
-                                            us.withCap(nextChunkCap),
-                                            newUs.withCap(newNextChunkCap),
-                                            parent,
-                                            newParent,
-                                            childCapToUs,
-                                            streamSecret,
-                                            rotateSigner,
-                                            network,
-                                            crypto,
-                                            s,
-                                            committer);
-                                })).thenCompose(nextChunk -> {
+                return rotation.limit(() -> version.withWriter(us.cap.owner, us.cap.writer, network)
+                        .thenCompose(s -> getNextChunk(s, nextChunkCap, network)))
+                        .thenCompose(opt -> {
+                            if (!opt.isPresent())
+                                return Futures.of(newNextChunkCap);
+                            return opt.get().fileAccess.rotateAllKeys(false,
+                                    us.withCap(nextChunkCap),
+                                    newUs.withCap(newNextChunkCap),
+                                    parent,
+                                    newParent,
+                                    childCapToUs,
+                                    streamSecret,
+                                    rotateSigner,
+                                    version,
+                                    rotation);
+                        }).thenCompose(nextChunk -> {
                             if (isDirectory()) {
-                                Set<NamedAbsoluteCapability> empty = Collections.emptySet();
-                                return getDirectChildren(network, us.cap, version)
-                                        .thenCompose(children -> Futures.reduceAll(children,
-                                                new Pair<>(nextChunk.left, empty),
-                                                (p, c) -> {
+                                return rotation.limit(() -> getDirectChildren(network, us.cap, version))
+                                        .thenCompose(children -> Futures.mapBounded(new ArrayList<>(children), rotation.parallelism,
+                                                c -> {
                                                     SigningPrivateKeyAndPublicHash childSigner = c.fileAccess.getSigner(
                                                             c.capability.rBaseKey,
                                                             c.capability.wBaseKey.get(),
                                                             Optional.of(us.signer));
                                                     CapAndSigner child = new CapAndSigner((WritableAbsoluteCapability) c.capability,
                                                             childSigner);
-                                                    return generateNewChildCap(child, us, newUs, rotateSigner, network, crypto, p.left, committer)
+                                                    return generateNewChildCap(child, us, newUs, rotateSigner, rotation)
                                                             .thenCompose(newChild -> c.fileAccess.rotateAllKeys(
                                                                     true,
                                                                     child,
-                                                                    newChild.right,
+                                                                    newChild,
                                                                     us,
                                                                     newUs,
                                                                     childCapToUs,
                                                                     Optional.empty(),
                                                                     rotateSigner,
-                                                                    network,
-                                                                    crypto,
-                                                                    newChild.left,
-                                                                    committer)
-                                                                    .thenApply(updatedChild -> new Pair<>(updatedChild.left,
-                                                                            Stream.concat(p.right.stream(),
-                                                                                    Stream.of(new NamedAbsoluteCapability(c.getProperties().name, updatedChild.right)))
-                                                                                    .collect(Collectors.toSet()))));
-                                                },
-                                                (x, y) -> new Pair<>(x.left.merge(y.left),
-                                                        Stream.concat(x.right.stream(), y.right.stream()).collect(Collectors.toSet()))))
+                                                                    version,
+                                                                    rotation))
+                                                            .thenApply(updatedChild ->
+                                                                    new NamedAbsoluteCapability(c.getProperties().name, updatedChild));
+                                                }))
                                         .thenCompose(newChildCaps -> {
                                             // Now rotate the current chunk, with the new child pointers
                                             Optional<SigningPrivateKeyAndPublicHash> signer = !isFirstChunk |
@@ -714,16 +747,14 @@ public class CryptreeNode implements Cborable {
                                                     Optional.empty() :
                                                     Optional.of(newUs.signer);
                                             RelativeCapability nextChunkRel = RelativeCapability.buildSubsequentChunk(
-                                                    nextChunk.right.getMapKey(), newUs.cap.rBaseKey);
-                                            List<NamedRelativeCapability> relativeChildLinks = newChildCaps.right.stream()
+                                                    nextChunk.getMapKey(), newUs.cap.rBaseKey);
+                                            List<NamedRelativeCapability> relativeChildLinks = newChildCaps.stream()
                                                     .map(n -> new NamedRelativeCapability(n.name, newUs.cap.relativise(n.cap)))
                                                     .collect(Collectors.toList());
                                             return createDir(MaybeMultihash.empty(), newUs.cap.rBaseKey,
                                                     newUs.cap.wBaseKey.get(), signer, props, newParentCap, newParentKey,
                                                     nextChunkRel, new ChildrenLinks(relativeChildLinks), crypto.hasher)
-                                                    .thenCompose(newUsDir ->
-                                                            IpfsTransaction.call(us.cap.owner, tid -> newUsDir.commit(newChildCaps.left,
-                                                                    committer, newUs.cap, newUs.signer, network, tid), network.dhtClient));
+                                                    .thenCompose(newUsDir -> rotation.add(newUsDir, newUs.cap, newUs.signer));
                                         });
                             } else {
                                 Optional<SymmetricLinkToSigner> signerLink = !isFirstChunk |
@@ -735,11 +766,10 @@ public class CryptreeNode implements Cborable {
                                         dataKey,
                                         streamSecret.map(props::withNewStreamSecret).orElse(props),
                                         this.childrenOrData, newParentCap, RelativeCapability.buildSubsequentChunk(
-                                                nextChunk.right.getMapKey(), nextChunk.right.rBaseKey));
-                                return IpfsTransaction.call(us.cap.owner, tid -> newFileChunk.commit(nextChunk.left,
-                                        committer, newUs.cap, newUs.signer, network, tid), network.dhtClient);
+                                                nextChunk.getMapKey(), nextChunk.rBaseKey));
+                                return rotation.add(newFileChunk, newUs.cap, newUs.signer);
                             }
-                        }).thenApply(v -> new Pair<>(v, newUs.cap));
+                        }).thenApply(x -> newUs.cap);
             });
         });
     }
@@ -0,0 +1,234 @@
+package peergos.shared.user.fs.cryptree;
+
+import peergos.shared.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.user.*;
+import peergos.shared.user.fs.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/** The shared state of a recursive rotation of all the keys in a subtree.
+ *
+ *  Independent children are rotated concurrently, with at most parallelism network operations in flight. Rotated
+ *  nodes are only written to new locations, so they are put in bulk as they are produced, and added to each writer's
+ *  champ with a single batch update and commit at the end. Until the caller links the new subtree into its parent
+ *  nothing visible has changed, so an interrupted rotation can simply be run again; the blocks it had put are
+ *  unreferenced and garbage collected.
+ *
+ *  The snapshot is only updated by a single chain of commits: authorising new signers and the final per writer
+ *  commits.
+ */
+public class KeyRotation {
+    public static final int DEFAULT_PARALLELISM = 8;
+    private static final int BLOCKS_PER_PUT = 50;
+
+    private static final class Writes {
+        final SigningPrivateKeyAndPublicHash signer;
+        List<Pair<byte[], CryptreeNode>> unput = new ArrayList<>();
+        final List<Triple<byte[], MaybeMultihash, Multihash>> put = new ArrayList<>();
+
+        Writes(SigningPrivateKeyAndPublicHash signer) {
+            this.signer = signer;
+        }
+    }
+
+    public final NetworkAccess network;
+    public final Crypto crypto;
+    public final int parallelism;
+    private final PublicKeyHash owner;
+    private final Committer committer;
+    private final TransactionId tid;
+    private final ProgressConsumer<Long> progress;
+    private final Map<PublicKeyHash, Writes> writes = new HashMap<>();
+    private final List<CompletableFuture<Boolean>> puts = new ArrayList<>();
+    private final Queue<Runnable> waiting = new LinkedList<>();
+    private int running = 0;
+    private CompletableFuture<Snapshot> version;
+
+    /**
+     *
+     * @param progress Called with 1 for each node rotated
+     */
+    public KeyRotation(PublicKeyHash owner,
+                       Snapshot version,
+                       Committer committer,
+                       TransactionId tid,
+                       int parallelism,
+                       ProgressConsumer<Long> progress,
+                       NetworkAccess network,
+                       Crypto crypto) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive!");
+        this.owner = owner;
+        this.version = Futures.of(version);
+        this.committer = committer;
+        this.tid = tid;
+        this.parallelism = parallelism;
+        this.progress = progress;
+        this.network = network;
+        this.crypto = crypto;
+    }
+
+    /** Run a network operation once fewer than parallelism are in flight. The operation must not itself wait on
+     *  another limited operation.
+     */
+    public <T> CompletableFuture<T> limit(Supplier<CompletableFuture<T>> op) {
+        CompletableFuture<T> res = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> started;
+            try {
+                started = op.get();
+            } catch (Throwable t) {
+                started = Futures.errored(t);
+            }
+            started.whenComplete((r, t) -> {
+                release();
+                if (t != null)
+                    res.completeExceptionally(t);
+                else
+                    res.complete(r);
+            });
+        };
+        boolean startNow;
+        synchronized (this) {
+            startNow = running < parallelism;
+            if (startNow)
+                running++;
+            else
+                waiting.add(start);
+        }
+        if (startNow)
+            start.run();
+        return res;
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null)
+                running--;
+        }
+        if (next != null)
+            next.run();
+    }
+
+    private synchronized CompletableFuture<Snapshot> update(Function<Snapshot, CompletableFuture<Snapshot>> change) {
+        version = version.thenCompose(change);
+        return version;
+    }
+
+    /** Create a new signer, owned by parent, and commit its empty writer data
+     */
+    public CompletableFuture<SigningPrivateKeyAndPublicHash> authoriseSigner(SigningPrivateKeyAndPublicHash parent,
+                                                                             SigningKeyPair newSignerPair) {
+        CompletableFuture<SigningPrivateKeyAndPublicHash> res = new CompletableFuture<>();
+        update(s -> s.withWriter(owner, parent.publicKeyHash, network)
+                .thenCompose(v -> CryptreeNode.initAndAuthoriseSigner(owner, parent, newSignerPair, network, v, committer))
+                .thenApply(p -> {
+                    res.complete(p.right);
+                    return p.left;
+                })).exceptionally(t -> {
+                    res.completeExceptionally(t);
+                    return null;
+                });
+        return res;
+    }
+
+    /** Queue a rotated directory to be written, after putting any of its children links stored in separate blocks
+     */
+    public CompletableFuture<Boolean> add(CryptreeNode.DirAndChildren dir,
+                                          WritableAbsoluteCapability cap,
+                                          SigningPrivateKeyAndPublicHash signer) {
+        if (dir.childData.isEmpty())
+            return add(dir.dir, cap, signer);
+        return limit(() -> dir.commitChildrenLinks(cap, signer, network, tid))
+                .thenCompose(x -> add(dir.dir, cap, signer));
+    }
+
+    /** Queue a rotated node to be written to the champ of the signer
+     */
+    public CompletableFuture<Boolean> add(CryptreeNode node,
+                                          WritableAbsoluteCapability cap,
+                                          SigningPrivateKeyAndPublicHash signer) {
+        progress.accept(1L);
+        List<Pair<byte[], CryptreeNode>> batch;
+        synchronized (this) {
+            Writes pending = writes.computeIfAbsent(signer.publicKeyHash, w -> new Writes(signer));
+            pending.unput.add(new Pair<>(cap.getMapKey(), node));
+            if (pending.unput.size() < BLOCKS_PER_PUT)
+                return Futures.of(true);
+            batch = pending.unput;
+            pending.unput = new ArrayList<>();
+        }
+        return put(signer, batch);
+    }
+
+    private CompletableFuture<Boolean> put(SigningPrivateKeyAndPublicHash signer, List<Pair<byte[], CryptreeNode>> batch) {
+        CompletableFuture<Boolean> res = limit(() -> {
+            List<byte[]> blobs = batch.stream()
+                    .map(p -> p.right.serialize())
+                    .collect(Collectors.toList());
+            return Futures.combineAllInOrder(blobs.stream()
+                    .map(network.hasher::sha256)
+                    .collect(Collectors.toList()))
+                    .thenCompose(hashes -> network.dhtClient.put(owner, signer.publicKeyHash, hashes.stream()
+                            .map(signer.secret::signMessage)
+                            .collect(Collectors.toList()), blobs, tid))
+                    .thenApply(blobHashes -> {
+                        synchronized (this) {
+                            Writes pending = writes.get(signer.publicKeyHash);
+                            for (int i = 0; i < batch.size(); i++)
+                                pending.put.add(new Triple<>(batch.get(i).left, batch.get(i).right.committedHash(), blobHashes.get(i)));
+                        }
+                        return true;
+                    });
+        });
+        synchronized (this) {
+            puts.add(res);
+        }
+        return res;
+    }
+
+    /** Put any remaining nodes, then add all the rotated nodes of each writer to its champ and commit once per writer.
+     *
+     * @return The version after all the commits
+     */
+    public CompletableFuture<Snapshot> commit() {
+        List<Writes> all;
+        synchronized (this) {
+            all = new ArrayList<>(writes.values());
+        }
+        for (Writes pending : all) {
+            List<Pair<byte[], CryptreeNode>> batch;
+            synchronized (this) {
+                batch = pending.unput;
+                pending.unput = new ArrayList<>();
+            }
+            if (! batch.isEmpty())
+                put(pending.signer, batch);
+        }
+        List<CompletableFuture<Boolean>> outstanding;
+        synchronized (this) {
+            outstanding = new ArrayList<>(puts);
+        }
+        return Futures.combineAll(outstanding).thenCompose(x -> {
+            CompletableFuture<Snapshot> res = version;
+            for (Writes pending : all) {
+                PublicKeyHash writer = pending.signer.publicKeyHash;
+                res = update(s -> s.withWriter(owner, writer, network)
+                        .thenCompose(v -> network.tree.putAll(v.get(writer).props, owner, pending.signer, pending.put, tid)
+                                .thenCompose(wd -> committer.commit(owner, pending.signer, wd, v.get(writer), tid))
+                                .thenApply(committed -> v.withVersion(writer, committed.get(writer)))));
+            }
+            return res;
+        });
+    }
+}
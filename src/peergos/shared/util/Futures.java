@@ -4,6 +4,7 @@ import jsinterop.annotations.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
 import java.util.stream.*;
 
@@ -87,6 +88,69 @@ public class Futures {
                 .collect(Collectors.toList()));
     }
 
+    /** Apply an async function to an entire list, with at most parallelism invocations outstanding at any time
+     *
+     * @param input
+     * @param parallelism the maximum number of incomplete futures at any time
+     * @param producer
+     * @param <X>
+     * @param <V>
+     * @return the results in the same order as the input
+     */
+    public static <X, V> CompletableFuture<List<V>> mapBounded(List<X> input,
+                                                               int parallelism,
+                                                               Function<X, CompletableFuture<V>> producer) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive!");
+        if (input.isEmpty())
+            return of(Collections.emptyList());
+        List<V> results = new ArrayList<>(Collections.nCopies(input.size(), null));
+        AtomicInteger next = new AtomicInteger(0);
+        AtomicInteger remaining = new AtomicInteger(input.size());
+        CompletableFuture<List<V>> res = new CompletableFuture<>();
+        for (int i = 0; i < Math.min(parallelism, input.size()); i++)
+            mapNext(input, producer, results, next, remaining, res);
+        return res;
+    }
+
+    private static <X, V> void mapNext(List<X> input,
+                                       Function<X, CompletableFuture<V>> producer,
+                                       List<V> results,
+                                       AtomicInteger next,
+                                       AtomicInteger remaining,
+                                       CompletableFuture<List<V>> res) {
+        // loop over already completed futures rather than recursing to avoid deep stacks
+        while (! res.isDone()) {
+            int index = next.getAndIncrement();
+            if (index >= input.size())
+                return;
+            CompletableFuture<V> fut;
+            try {
+                fut = producer.apply(input.get(index));
+            } catch (Throwable t) {
+                res.completeExceptionally(t);
+                return;
+            }
+            if (fut.isDone() && ! fut.isCompletedExceptionally()) {
+                results.set(index, fut.join());
+                if (remaining.decrementAndGet() == 0)
+                    res.complete(results);
+                continue;
+            }
+            fut.thenAccept(v -> {
+                results.set(index, v);
+                if (remaining.decrementAndGet() == 0)
+                    res.complete(results);
+                else
+                    mapNext(input, producer, results, next, remaining, res);
+            }).exceptionally(t -> {
+                res.completeExceptionally(t);
+                return null;
+            });
+            return;
+        }
+    }
+
     /*** Asynchronously map a set of input values to output values until one matches a predicate
      *
      * @param input the values to reduce